@@ -0,0 +1,40 @@
+package org.terifan.xml.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terifan.xml.XmlDocument;
+
+
+/**
+ * Measures building a document with appendElement, appendTextNode and setAttribute.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildBenchmark
+{
+	@Param({"10", "1000", "100000"})
+	public int size;
+
+	@Param({"FLAT", "DEEP", "ATTRIBUTES", "MIXED"})
+	public SyntheticDocuments.Shape shape;
+
+
+	@Benchmark
+	public XmlDocument build()
+	{
+		return SyntheticDocuments.create(shape, size);
+	}
+}
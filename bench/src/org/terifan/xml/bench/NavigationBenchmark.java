@@ -0,0 +1,131 @@
+package org.terifan.xml.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.terifan.xml.XPath;
+import org.terifan.xml.XmlDocument;
+import org.terifan.xml.XmlElement;
+import org.terifan.xml.XmlNode;
+import org.terifan.xml.XmlNodeList;
+import org.terifan.xml.XmlNodeVisitor;
+
+
+/**
+ * Measures lookups using literal paths and XPath expressions, visiting and iterating a parsed document.
+ *
+ * The lookups resolve the last item to include the cost of scanning siblings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigationBenchmark
+{
+	private final static XPath XPATH_NODE = new XPath("catalogue/item/price");
+	private final static XPath XPATH_LIST = new XPath("catalogue/item/name");
+	private final static XPath XPATH_TEXT = new XPath("catalogue/item[last()]/name");
+
+	@Param({"10", "1000", "100000"})
+	public int size;
+
+	@Param({"FLAT", "DEEP", "ATTRIBUTES", "MIXED"})
+	public SyntheticDocuments.Shape shape;
+
+	private XmlDocument mDocument;
+	private XmlElement mRoot;
+
+
+	@Setup
+	public void setup()
+	{
+		mDocument = new XmlDocument(SyntheticDocuments.createString(shape, size));
+		mRoot = mDocument.getFirstElement();
+	}
+
+
+	@Benchmark
+	public XmlNode getNodePath()
+	{
+		return mDocument.getNode("catalogue/item/price");
+	}
+
+
+	@Benchmark
+	public XmlNodeList getListPath()
+	{
+		return mDocument.getList("catalogue/item/name");
+	}
+
+
+	@Benchmark
+	public String getTextPath()
+	{
+		return mRoot.getText("item/name");
+	}
+
+
+	@Benchmark
+	public XmlNode getNodeXPath()
+	{
+		return mDocument.getNode(XPATH_NODE);
+	}
+
+
+	@Benchmark
+	public XmlNodeList getListXPath()
+	{
+		return mDocument.getList(XPATH_LIST);
+	}
+
+
+	@Benchmark
+	public String getTextXPath()
+	{
+		return mDocument.getText(XPATH_TEXT);
+	}
+
+
+	@Benchmark
+	public Object visit(Blackhole aBlackhole)
+	{
+		return mDocument.visit(new XmlNodeVisitor()
+		{
+			@Override
+			public Object entering(XmlNode aNode)
+			{
+				aBlackhole.consume(aNode);
+				return null;
+			}
+
+
+			@Override
+			public Object process(XmlNode aNode)
+			{
+				return null;
+			}
+		});
+	}
+
+
+	@Benchmark
+	public void iterator(Blackhole aBlackhole)
+	{
+		for (XmlElement item : mRoot)
+		{
+			aBlackhole.consume(item);
+		}
+	}
+}
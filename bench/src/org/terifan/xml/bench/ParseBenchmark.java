@@ -0,0 +1,103 @@
+package org.terifan.xml.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terifan.xml.XmlDocument;
+
+
+/**
+ * Measures the XmlDocument constructors parsing the same document from each kind of source, and reading the document
+ * from the binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark
+{
+	@Param({"10", "1000", "100000"})
+	public int size;
+
+	@Param({"FLAT", "DEEP", "ATTRIBUTES", "MIXED"})
+	public SyntheticDocuments.Shape shape;
+
+	private String mString;
+	private byte[] mBytes;
+	private File mFile;
+	private byte[] mBinary;
+
+
+	@Setup
+	public void setup() throws IOException
+	{
+		mString = SyntheticDocuments.createString(shape, size);
+		mBytes = mString.getBytes(StandardCharsets.UTF_8);
+		mFile = File.createTempFile("xml-bench", ".xml");
+		Files.write(mFile.toPath(), mBytes);
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		new XmlDocument(mString).writeBinary(binary);
+		mBinary = binary.toByteArray();
+	}
+
+
+	@TearDown
+	public void tearDown()
+	{
+		mFile.delete();
+	}
+
+
+	@Benchmark
+	public XmlDocument parseString()
+	{
+		return new XmlDocument(mString);
+	}
+
+
+	@Benchmark
+	public XmlDocument parseBytes()
+	{
+		return new XmlDocument(mBytes);
+	}
+
+
+	@Benchmark
+	public XmlDocument parseFile()
+	{
+		return new XmlDocument(mFile);
+	}
+
+
+	@Benchmark
+	public XmlDocument parseInputStream()
+	{
+		return new XmlDocument(new ByteArrayInputStream(mBytes));
+	}
+
+
+	@Benchmark
+	public XmlDocument readBinary()
+	{
+		return XmlDocument.readBinary(mBinary);
+	}
+}
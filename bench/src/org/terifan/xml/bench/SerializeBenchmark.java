@@ -0,0 +1,95 @@
+package org.terifan.xml.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terifan.xml.XmlDocument;
+
+
+/**
+ * Measures writing a document as text, bytes, to a stream and in the binary format, and transforming it with a
+ * stylesheet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializeBenchmark
+{
+	private final static String TEMPLATE = ""
+		+ "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+		+ "<xsl:template match=\"/catalogue\">"
+		+ "<names><xsl:for-each select=\"item\"><name id=\"{@id}\"><xsl:value-of select=\"name\"/></name></xsl:for-each></names>"
+		+ "</xsl:template>"
+		+ "</xsl:stylesheet>";
+
+	@Param({"10", "1000", "100000"})
+	public int size;
+
+	@Param({"FLAT", "DEEP", "ATTRIBUTES", "MIXED"})
+	public SyntheticDocuments.Shape shape;
+
+	private XmlDocument mDocument;
+	private XmlDocument mTemplate;
+	private ByteArrayOutputStream mOutput;
+
+
+	@Setup
+	public void setup()
+	{
+		mDocument = new XmlDocument(SyntheticDocuments.createString(shape, size));
+		mTemplate = new XmlDocument(TEMPLATE);
+		mOutput = new ByteArrayOutputStream();
+	}
+
+
+	@Benchmark
+	public String toXmlString()
+	{
+		return mDocument.toXmlString();
+	}
+
+
+	@Benchmark
+	public byte[] toByteArray()
+	{
+		return mDocument.toByteArray();
+	}
+
+
+	@Benchmark
+	public int writeTo()
+	{
+		mOutput.reset();
+		mDocument.writeTo(mOutput);
+		return mOutput.size();
+	}
+
+
+	@Benchmark
+	public int writeBinary()
+	{
+		mOutput.reset();
+		mDocument.writeBinary(mOutput);
+		return mOutput.size();
+	}
+
+
+	@Benchmark
+	public XmlDocument transform()
+	{
+		return mDocument.transform(mTemplate);
+	}
+}
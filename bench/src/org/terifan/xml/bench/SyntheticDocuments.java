@@ -0,0 +1,121 @@
+package org.terifan.xml.bench;
+
+import java.util.Random;
+import org.terifan.xml.XmlDocument;
+import org.terifan.xml.XmlElement;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+
+/**
+ * Generates the documents measured by the benchmarks.
+ *
+ * Every document has a "catalogue" root with the requested number of "item" children, each having an "id" attribute and
+ * "name" and "price" child elements, so the same paths are valid for all shapes. The shape adds content to the items:
+ *
+ * FLAT        nothing more
+ * DEEP        a chain of nested "section" elements below each item
+ * ATTRIBUTES  many attributes on each item
+ * MIXED       a description of text mixed with inline elements, comments and CDATA
+ *
+ * The content is generated from a fixed seed so every run measures the same document.
+ */
+public final class SyntheticDocuments
+{
+	public enum Shape
+	{
+		FLAT,
+		DEEP,
+		ATTRIBUTES,
+		MIXED
+	}
+
+	private final static int DEPTH = 16;
+	private final static int ATTRIBUTE_COUNT = 16;
+	private final static String[] WORDS = {"alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta", "iota", "kappa", "lambda", "mu", "&", "<", "åäö"};
+
+
+	private SyntheticDocuments()
+	{
+	}
+
+
+	/**
+	 * Return the document built using XmlElement methods.
+	 */
+	public static XmlDocument create(Shape aShape, int aItemCount)
+	{
+		Random rnd = new Random(aItemCount);
+		XmlDocument document = new XmlDocument();
+		XmlElement root = document.appendElement("catalogue");
+
+		for (int i = 0; i < aItemCount; i++)
+		{
+			appendItem(root, aShape, i, rnd);
+		}
+
+		return document;
+	}
+
+
+	/**
+	 * Return the document as text without indentation.
+	 */
+	public static String createString(Shape aShape, int aItemCount)
+	{
+		return create(aShape, aItemCount).toXmlString(false, true);
+	}
+
+
+	static void appendItem(XmlElement aParent, Shape aShape, int aIndex, Random aRandom)
+	{
+		XmlElement item = aParent.appendElement("item").setAttribute("id", aIndex);
+
+		if (aShape == Shape.ATTRIBUTES)
+		{
+			for (int j = 0; j < ATTRIBUTE_COUNT; j++)
+			{
+				item.setAttribute("a" + j, words(aRandom, 1));
+			}
+		}
+
+		item.appendTextNode("name", words(aRandom, 3));
+		item.appendTextNode("price", aRandom.nextInt(100000) / 100.0);
+
+		if (aShape == Shape.DEEP)
+		{
+			XmlElement section = item;
+			for (int j = 0; j < DEPTH; j++)
+			{
+				section = section.appendElement("section").setAttribute("level", j);
+			}
+			section.appendTextNode("leaf", words(aRandom, 2));
+		}
+		else if (aShape == Shape.MIXED)
+		{
+			XmlElement description = item.appendElement("description");
+			Element node = (Element)description.getInternalNode();
+			Document owner = node.getOwnerDocument();
+			node.appendChild(owner.createTextNode(words(aRandom, 4) + " "));
+			description.appendTextNode("b", words(aRandom, 1));
+			node.appendChild(owner.createTextNode(" " + words(aRandom, 4)));
+			node.appendChild(owner.createComment(" note " + aIndex + " "));
+			node.appendChild(owner.createCDATASection(words(aRandom, 3)));
+		}
+	}
+
+
+	private static String words(Random aRandom, int aCount)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < aCount; i++)
+		{
+			if (i > 0)
+			{
+				sb.append(' ');
+			}
+			sb.append(WORDS[aRandom.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+}
@@ -2,13 +2,19 @@ package org.terifan.xml;
 
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 
+/**
+ * A compiled XPath expression.
+ *
+ * Instances are thread safe, compiled expressions are shared through the XPathCache and each thread evaluates it's own
+ * XPathExpression instance.
+ */
 public class XPath
 {
-    private XPathExpression mExpression;
+	private final XPathCache.Key mKey;
+	private final long mOwnerId;
+	private final XPathExpression mOwnerExpression;
 
 
     public XPath(String aExpression)
@@ -19,24 +25,41 @@ public class XPath
 
     public XPath(NamespaceContext aNamespaceContext, String aExpression)
     {
-        try
-        {
-			javax.xml.xpath.XPath xpath = XPathFactory.newInstance().newXPath();
-			if (aNamespaceContext != null)
-			{
-				xpath.setNamespaceContext(aNamespaceContext);
-			}
-            mExpression = xpath.compile(aExpression);
-        }
-        catch (XPathExpressionException e)
-        {
-            throw new XmlException(e);
-        }
+		mKey = new XPathCache.Key(aNamespaceContext, aExpression);
+		mOwnerId = Thread.currentThread().getId();
+		mOwnerExpression = XPathCache.compile(mKey);
     }
 
 
+	/**
+	 * Return the compiled expression for the calling thread. The returned instance must not be shared with other threads.
+	 *
+	 * The creating thread is identified by it's id rather than a reference to avoid keeping it reachable from expressions
+	 * stored in static fields. An id is only reused after the thread has terminated.
+	 */
     public XPathExpression getDOMExpression()
     {
-        return mExpression;
+		if (Thread.currentThread().getId() == mOwnerId)
+		{
+			return mOwnerExpression;
+		}
+
+        return XPathCache.compile(mKey);
     }
-}
\ No newline at end of file
+
+
+	/**
+	 * Return the expression text.
+	 */
+	String getExpression()
+	{
+		return mKey.toString();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "XPath{" + mKey + "}";
+	}
+}
@@ -0,0 +1,200 @@
+package org.terifan.xml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+
+/**
+ * Interning cache of compiled XPath expressions.
+ *
+ * XPathExpression instances are not thread safe, each thread has it's own bounded LRU cache of compiled expressions keyed
+ * by expression text and NamespaceContext identity.
+ */
+public final class XPathCache
+{
+	private static volatile int mMaximumSize = 256;
+	private final static AtomicLong mHits = new AtomicLong();
+	private final static AtomicLong mMisses = new AtomicLong();
+	private final static AtomicLong mEvicted = new AtomicLong();
+
+	private final static ThreadLocal<XPathCache> CACHE = new ThreadLocal<XPathCache>()
+	{
+		@Override
+		protected XPathCache initialValue()
+		{
+			return new XPathCache();
+		}
+	};
+
+	private final javax.xml.xpath.XPath mXPath;
+	private final LinkedHashMap<Key,XPathExpression> mExpressions;
+
+
+	private XPathCache()
+	{
+		mXPath = XPathFactory.newInstance().newXPath();
+		mExpressions = new LinkedHashMap<Key,XPathExpression>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,XPathExpression> aEldest)
+			{
+				if (size() > mMaximumSize)
+				{
+					mEvicted.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+
+	/**
+	 * Return a compiled expression owned by the calling thread.
+	 */
+	static XPathExpression compile(Key aKey)
+	{
+		return CACHE.get().get(aKey);
+	}
+
+
+	private XPathExpression get(Key aKey)
+	{
+		XPathExpression expression = mExpressions.get(aKey);
+
+		if (expression != null)
+		{
+			mHits.incrementAndGet();
+			return expression;
+		}
+
+		mMisses.incrementAndGet();
+
+		try
+		{
+			mXPath.reset();
+			if (aKey.mNamespaceContext != null)
+			{
+				mXPath.setNamespaceContext(aKey.mNamespaceContext);
+			}
+			expression = mXPath.compile(aKey.mExpression);
+		}
+		catch (XPathExpressionException e)
+		{
+			throw new XmlException(e);
+		}
+
+		mExpressions.put(aKey, expression);
+
+		return expression;
+	}
+
+
+	/**
+	 * Set the maximum number of compiled expressions kept by each thread.
+	 */
+	public static void setMaximumSize(int aMaximumSize)
+	{
+		if (aMaximumSize < 1)
+		{
+			throw new IllegalArgumentException("Maximum size must be positive: " + aMaximumSize);
+		}
+		mMaximumSize = aMaximumSize;
+	}
+
+
+	public static int getMaximumSize()
+	{
+		return mMaximumSize;
+	}
+
+
+	/**
+	 * Remove all compiled expressions cached by the calling thread.
+	 */
+	public static void clear()
+	{
+		CACHE.get().mExpressions.clear();
+	}
+
+
+	/**
+	 * Return number of expressions found in the cache, for all threads.
+	 */
+	public static long getHitCount()
+	{
+		return mHits.get();
+	}
+
+
+	/**
+	 * Return number of expressions compiled, for all threads.
+	 */
+	public static long getMissCount()
+	{
+		return mMisses.get();
+	}
+
+
+	/**
+	 * Return number of expressions removed because a cache exceeded it's maximum size, for all threads.
+	 */
+	public static long getEvictionCount()
+	{
+		return mEvicted.get();
+	}
+
+
+	static final class Key
+	{
+		private final String mExpression;
+		private final NamespaceContext mNamespaceContext;
+		private final int mHashCode;
+
+
+		Key(NamespaceContext aNamespaceContext, String aExpression)
+		{
+			if (aExpression == null)
+			{
+				throw new IllegalArgumentException("Provided expression is null.");
+			}
+
+			mExpression = aExpression;
+			mNamespaceContext = aNamespaceContext;
+			mHashCode = aExpression.hashCode() * 31 + System.identityHashCode(aNamespaceContext);
+		}
+
+
+		@Override
+		public boolean equals(Object aOther)
+		{
+			if (aOther instanceof Key)
+			{
+				Key other = (Key)aOther;
+				return mHashCode == other.mHashCode && mNamespaceContext == other.mNamespaceContext && mExpression.equals(other.mExpression);
+			}
+			return false;
+		}
+
+
+		@Override
+		public int hashCode()
+		{
+			return mHashCode;
+		}
+
+
+		@Override
+		public String toString()
+		{
+			return mExpression;
+		}
+	}
+}
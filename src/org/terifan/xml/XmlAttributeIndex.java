@@ -0,0 +1,359 @@
+package org.terifan.xml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+
+/**
+ * Hash indices of elements by the value of an attribute, used by XmlNode.getOrCreateElementGroup and
+ * XmlNode.findByAttribute.
+ *
+ * Each index covers one element name and attribute pair and maps attribute values to the elements having them. Elements
+ * are matched with the semantics of the XPath expression "name[@attribute='value']" evaluated on the child axis, i.e. the
+ * element and attribute must not be in a namespace and names without namespace awareness are compared by the part
+ * following any prefix. The index only has to contain every matching element of the document, entries are verified
+ * when looked up so elements removed from the document or given a new attribute value are skipped and pruned.
+ *
+ * The indices are stored as user data of the document. An index is built by the first lookup after it has been added or
+ * invalidated and is updated when attributes are set and nodes appended through XmlNode.
+ */
+final class XmlAttributeIndex
+{
+	private final static String KEY = XmlAttributeIndex.class.getName();
+
+	private final Document mDocument;
+	private final HashMap<String,Table> mTables;
+
+
+	private XmlAttributeIndex(Document aDocument)
+	{
+		mDocument = aDocument;
+		mTables = new HashMap<>();
+	}
+
+
+	/**
+	 * Return the indices of the document or null if the document has none.
+	 */
+	static XmlAttributeIndex get(Document aDocument)
+	{
+		return aDocument == null ? null : (XmlAttributeIndex)aDocument.getUserData(KEY);
+	}
+
+
+	static void add(Document aDocument, String aName, String aAttribute)
+	{
+		XmlAttributeIndex index = get(aDocument);
+		if (index == null)
+		{
+			index = new XmlAttributeIndex(aDocument);
+			aDocument.setUserData(KEY, index, null);
+		}
+
+		index.mTables.putIfAbsent(key(aName, aAttribute), new Table(aName, aAttribute));
+	}
+
+
+	static void remove(Document aDocument, String aName, String aAttribute)
+	{
+		XmlAttributeIndex index = get(aDocument);
+		if (index != null)
+		{
+			index.mTables.remove(key(aName, aAttribute));
+			if (index.mTables.isEmpty())
+			{
+				aDocument.setUserData(KEY, null, null);
+			}
+		}
+	}
+
+
+	static boolean contains(Document aDocument, String aName, String aAttribute)
+	{
+		XmlAttributeIndex index = get(aDocument);
+		return index != null && index.mTables.containsKey(key(aName, aAttribute));
+	}
+
+
+	/**
+	 * Discard the contents of all indices of the document, they're rebuilt by the next lookup.
+	 */
+	static void invalidate(Document aDocument)
+	{
+		XmlAttributeIndex index = get(aDocument);
+		if (index != null)
+		{
+			for (Table table : index.mTables.values())
+			{
+				table.mElements = null;
+			}
+		}
+	}
+
+
+	/**
+	 * Update the indices after an attribute of the element has been set.
+	 */
+	static void attributeChanged(Element aElement)
+	{
+		XmlAttributeIndex index = get(aElement.getOwnerDocument());
+		if (index != null)
+		{
+			for (Table table : index.mTables.values())
+			{
+				if (table.mElements != null && elementNameEquals(aElement, table.mName))
+				{
+					table.add(aElement);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Update the indices after the node has been inserted in the document.
+	 */
+	static void nodeAdded(Node aNode)
+	{
+		XmlAttributeIndex index = get(aNode.getOwnerDocument());
+		if (index != null)
+		{
+			for (Table table : index.mTables.values())
+			{
+				if (table.mElements != null)
+				{
+					table.addAll(aNode);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Return the first element in document order having the name and attribute value and either being a child of the
+	 * node provided or any descendant of it.
+	 */
+	static Element find(Node aNode, String aName, String aAttribute, String aValue, boolean aChildrenOnly)
+	{
+		Document document = aNode instanceof Document ? (Document)aNode : aNode.getOwnerDocument();
+		XmlAttributeIndex index = get(document);
+		Table table = index == null ? null : index.mTables.get(key(aName, aAttribute));
+
+		if (table == null)
+		{
+			return scan(aNode, aName, aAttribute, aValue, aChildrenOnly);
+		}
+
+		if (table.mElements == null)
+		{
+			table.mElements = new HashMap<>();
+			table.addAll(index.mDocument);
+		}
+
+		ArrayList<Element> list = table.mElements.get(aValue);
+		if (list == null)
+		{
+			return null;
+		}
+
+		Element found = null;
+
+		for (int i = 0; i < list.size(); i++)
+		{
+			Element element = list.get(i);
+
+			if (!matches(element, aName, aAttribute, aValue))
+			{
+				list.remove(i--);
+			}
+			else if ((aChildrenOnly ? element.getParentNode() == aNode : isDescendant(aNode, element)) && (found == null || (found.compareDocumentPosition(element) & Node.DOCUMENT_POSITION_PRECEDING) != 0))
+			{
+				found = element;
+			}
+		}
+
+		if (list.isEmpty())
+		{
+			table.mElements.remove(aValue);
+		}
+
+		return found;
+	}
+
+
+	/**
+	 * Return true if the node is an element matching the XPath expression "name[@attribute='value']".
+	 */
+	static boolean matches(Node aNode, String aName, String aAttribute, String aValue)
+	{
+		if (aNode.getNodeType() != Node.ELEMENT_NODE || !elementNameEquals(aNode, aName))
+		{
+			return false;
+		}
+
+		NamedNodeMap attributes = aNode.getAttributes();
+
+		for (int i = 0, sz = attributes.getLength(); i < sz; i++)
+		{
+			Node attr = attributes.item(i);
+			if (attributeNameEquals(attr, aAttribute) && attr.getNodeValue().equals(aValue))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+
+	private static boolean elementNameEquals(Node aNode, String aName)
+	{
+		return aNode.getNamespaceURI() == null && localNameEquals(aNode, aName);
+	}
+
+
+	private static boolean attributeNameEquals(Node aAttribute, String aName)
+	{
+		if (aAttribute.getNamespaceURI() != null)
+		{
+			return false;
+		}
+
+		if (aAttribute.getLocalName() == null)
+		{
+			String name = aAttribute.getNodeName();
+			if (name.startsWith("xmlns") && (name.length() == 5 || name.charAt(5) == ':'))
+			{
+				return false;
+			}
+		}
+
+		return localNameEquals(aAttribute, aName);
+	}
+
+
+	/**
+	 * Compare the local name of the node with the name. Nodes created without namespace awareness have no local name and
+	 * are compared by the part of their name following the first colon like the XPath implementation does.
+	 */
+	private static boolean localNameEquals(Node aNode, String aName)
+	{
+		String name = aNode.getLocalName();
+		if (name != null)
+		{
+			return name.equals(aName);
+		}
+
+		name = aNode.getNodeName();
+		int i = name.indexOf(':');
+		return i == -1 ? name.equals(aName) : name.length() - i - 1 == aName.length() && name.endsWith(aName);
+	}
+
+
+	private static Element scan(Node aNode, String aName, String aAttribute, String aValue, boolean aChildrenOnly)
+	{
+		Node node = aNode.getFirstChild();
+
+		while (node != null)
+		{
+			if (matches(node, aName, aAttribute, aValue))
+			{
+				return (Element)node;
+			}
+
+			Node next = aChildrenOnly ? null : node.getFirstChild();
+
+			for (Node n = node; next == null && n != aNode; n = n.getParentNode())
+			{
+				next = n.getNextSibling();
+			}
+
+			node = next;
+		}
+
+		return null;
+	}
+
+
+	private static boolean isDescendant(Node aAncestor, Node aNode)
+	{
+		for (Node node = aNode.getParentNode(); node != null; node = node.getParentNode())
+		{
+			if (node == aAncestor)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	private static String key(String aName, String aAttribute)
+	{
+		return aName + "/@" + aAttribute;
+	}
+
+
+	private static class Table
+	{
+		final String mName;
+		final String mAttribute;
+		HashMap<String,ArrayList<Element>> mElements;
+
+
+		Table(String aName, String aAttribute)
+		{
+			mName = aName;
+			mAttribute = aAttribute;
+		}
+
+
+		void add(Element aElement)
+		{
+			NamedNodeMap attributes = aElement.getAttributes();
+
+			for (int i = 0, sz = attributes.getLength(); i < sz; i++)
+			{
+				Node attr = attributes.item(i);
+				if (attributeNameEquals(attr, mAttribute))
+				{
+					ArrayList<Element> list = mElements.computeIfAbsent(attr.getNodeValue(), e -> new ArrayList<>(1));
+					if (!list.contains(aElement))
+					{
+						list.add(aElement);
+					}
+				}
+			}
+		}
+
+
+		/**
+		 * Add the node and all its descendants matching the name of this table.
+		 */
+		void addAll(Node aRoot)
+		{
+			Node node = aRoot;
+
+			while (node != null)
+			{
+				if (node.getNodeType() == Node.ELEMENT_NODE && elementNameEquals(node, mName))
+				{
+					add((Element)node);
+				}
+
+				Node next = node.getFirstChild();
+
+				for (Node n = node; next == null && n != aRoot; n = n.getParentNode())
+				{
+					next = n.getNextSibling();
+				}
+
+				node = next;
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package org.terifan.xml;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+
+/**
+ * Parses a batch of sources concurrently. Sources are taken from the input lazily and at most as many parses as the pool
+ * size are in flight, so every worker will find an idle DocumentBuilder in the pool after the first parses and streams
+ * provided by a lazy Iterable are not opened long before they're parsed.
+ *
+ * Results are delivered to the consumer on the calling thread in the order the parses complete.
+ */
+final class XmlBatchParser
+{
+	private final static AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+	private final XmlParserPool mPool;
+	private final LinkedBlockingQueue<XmlParseResult> mCompleted;
+
+
+	XmlBatchParser(XmlParserPool aPool)
+	{
+		if (aPool == null)
+		{
+			throw new IllegalArgumentException("Provided pool is null.");
+		}
+
+		mPool = aPool;
+		mCompleted = new LinkedBlockingQueue<>();
+	}
+
+
+	/**
+	 * @param aExecutor
+	 *   executor running the parses or null to use a temporary pool with one thread per available processor
+	 */
+	void parse(Iterable<?> aSources, Executor aExecutor, Consumer<XmlParseResult> aConsumer)
+	{
+		ExecutorService temporary = null;
+		Executor executor = aExecutor;
+
+		if (executor == null)
+		{
+			temporary = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r ->
+			{
+				Thread thread = new Thread(r, "xml-batch-" + THREAD_COUNTER.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor = temporary;
+		}
+
+		try
+		{
+			int limit = mPool.config().getPoolSize();
+			int submitted = 0;
+			int delivered = 0;
+
+			for (Iterator<?> it = aSources.iterator(); it.hasNext();)
+			{
+				for (; submitted - delivered >= limit; delivered++)
+				{
+					aConsumer.accept(take());
+				}
+
+				Runnable task = newTask(submitted++, it.next());
+
+				try
+				{
+					executor.execute(task);
+				}
+				catch (RejectedExecutionException e)
+				{
+					task.run();
+				}
+
+				for (XmlParseResult result; (result = mCompleted.poll()) != null; delivered++)
+				{
+					aConsumer.accept(result);
+				}
+			}
+
+			for (; delivered < submitted; delivered++)
+			{
+				aConsumer.accept(take());
+			}
+		}
+		finally
+		{
+			if (temporary != null)
+			{
+				temporary.shutdown();
+			}
+		}
+	}
+
+
+	private Runnable newTask(int aIndex, Object aSource)
+	{
+		return () ->
+		{
+			XmlParseResult result = null;
+			try
+			{
+				result = parse(aIndex, aSource);
+			}
+			finally
+			{
+				if (result == null)
+				{
+					result = new XmlParseResult(aIndex, aSource, null, new XmlException("Parsing aborted by an error."));
+				}
+				mCompleted.add(result);
+			}
+		};
+	}
+
+
+	private XmlParseResult parse(int aIndex, Object aSource)
+	{
+		try
+		{
+			Object source = aSource;
+
+			if (source instanceof Path)
+			{
+				Path path = (Path)source;
+				source = path.getFileSystem() == FileSystems.getDefault() ? path.toFile() : Files.newInputStream(path);
+			}
+
+			return new XmlParseResult(aIndex, aSource, new XmlDocument(XmlDocument.parse(source, mPool)), null);
+		}
+		catch (XmlException e)
+		{
+			return new XmlParseResult(aIndex, aSource, null, e);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			return new XmlParseResult(aIndex, aSource, null, new XmlException(e));
+		}
+	}
+
+
+	private XmlParseResult take()
+	{
+		try
+		{
+			return mCompleted.take();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new XmlException("Interrupted while waiting for the batch to complete.", e);
+		}
+	}
+}
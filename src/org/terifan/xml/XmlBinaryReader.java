@@ -0,0 +1,461 @@
+package org.terifan.xml;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+
+/**
+ * Reads a document in the binary format written by XmlBinaryWriter into a DOM or a XmlCompactDocument.
+ */
+final class XmlBinaryReader
+{
+	private final InputStream mInput;
+	private byte[] mBuffer;
+	private int mPosition;
+	private int mLimit;
+	private long mReadCount;
+	private char[] mChars;
+
+	private String[] mQNames;
+	private String[] mNamespaceURIs;
+	private String[] mLocalNames;
+	private int[] mCompactSymbols;
+	private int mSymbolCount;
+	private final ArrayList<String> mURIs;
+	private int mNodeCount;
+
+
+	XmlBinaryReader(InputStream aInput)
+	{
+		this(aInput, new byte[64 * 1024], 0, 0);
+	}
+
+
+	XmlBinaryReader(byte[] aBuffer, int aOffset, int aLength)
+	{
+		this(null, aBuffer, aOffset, aOffset + aLength);
+	}
+
+
+	private XmlBinaryReader(InputStream aInput, byte[] aBuffer, int aPosition, int aLimit)
+	{
+		mInput = aInput;
+		mBuffer = aBuffer;
+		mPosition = aPosition;
+		mLimit = aLimit;
+		mReadCount = aLimit - aPosition;
+		mChars = new char[256];
+		mQNames = new String[64];
+		mNamespaceURIs = new String[64];
+		mLocalNames = new String[64];
+		mCompactSymbols = new int[64];
+		mURIs = new ArrayList<>();
+	}
+
+
+	/**
+	 * Read a document, a XmlCompactDocument is returned when the pool configuration is compact and otherwise a Document
+	 * created by the pool.
+	 */
+	Document read(XmlParserPool aPool) throws IOException
+	{
+		ensure(XmlBinaryWriter.MAGIC.length + 1);
+
+		for (int i = 0; i < XmlBinaryWriter.MAGIC.length; i++)
+		{
+			if (mBuffer[mPosition++] != XmlBinaryWriter.MAGIC[i])
+			{
+				throw new XmlException("Not a binary XML document.");
+			}
+		}
+
+		int version = mBuffer[mPosition++];
+		if (version != XmlBinaryWriter.VERSION)
+		{
+			throw new XmlException("Unsupported binary XML version: " + version);
+		}
+
+		int flags = readVarint();
+		String xmlVersion = readString();
+		String xmlEncoding = (flags & XmlBinaryWriter.HAS_ENCODING) != 0 ? readString() : null;
+		String documentURI = (flags & XmlBinaryWriter.HAS_URI) != 0 ? readString() : null;
+		boolean standalone = (flags & XmlBinaryWriter.STANDALONE) != 0;
+
+		if (aPool.config().isCompact())
+		{
+			XmlCompactBuilder builder = new XmlCompactBuilder(new XmlParserConfig());
+			builder.mXmlVersion = xmlVersion;
+			builder.mXmlEncoding = xmlEncoding;
+			builder.mXmlStandalone = standalone;
+			builder.mDocumentURI = documentURI;
+			readCompact(builder);
+			return builder.getDocument();
+		}
+
+		Document doc = aPool.newDocument();
+		doc.setStrictErrorChecking(false);
+		doc.setXmlVersion(xmlVersion);
+		doc.setXmlStandalone(standalone);
+		doc.setDocumentURI(documentURI);
+		readDOM(doc);
+		doc.setStrictErrorChecking(true);
+		return doc;
+	}
+
+
+	/**
+	 * Return the number of bytes of the document read.
+	 */
+	long getReadCount()
+	{
+		return mReadCount - (mLimit - mPosition);
+	}
+
+
+	/**
+	 * Return the number of nodes read, attributes excluded.
+	 */
+	int getNodeCount()
+	{
+		return mNodeCount;
+	}
+
+
+	private void readDOM(Document aDocument) throws IOException
+	{
+		Node current = aDocument;
+		int depth = 0;
+
+		for (;;)
+		{
+			int type = readVarint();
+
+			switch (type)
+			{
+				case XmlBinaryWriter.END:
+					if (depth-- == 0)
+					{
+						return;
+					}
+					current = current.getParentNode();
+					continue;
+				case Node.ELEMENT_NODE:
+					int symbol = readName();
+					Element element = mLocalNames[symbol] == null ? aDocument.createElement(mQNames[symbol]) : aDocument.createElementNS(mNamespaceURIs[symbol], mQNames[symbol]);
+					for (int i = readVarint(); --i >= 0;)
+					{
+						symbol = readName();
+						if (mLocalNames[symbol] == null)
+						{
+							element.setAttribute(mQNames[symbol], readString());
+						}
+						else
+						{
+							element.setAttributeNS(mNamespaceURIs[symbol], mQNames[symbol], readString());
+						}
+					}
+					current.appendChild(element);
+					current = element;
+					depth++;
+					break;
+				case Node.TEXT_NODE:
+					current.appendChild(aDocument.createTextNode(readString()));
+					break;
+				case Node.CDATA_SECTION_NODE:
+					current.appendChild(aDocument.createCDATASection(readString()));
+					break;
+				case Node.COMMENT_NODE:
+					current.appendChild(aDocument.createComment(readString()));
+					break;
+				case Node.PROCESSING_INSTRUCTION_NODE:
+					String target = readString();
+					current.appendChild(aDocument.createProcessingInstruction(target, readString()));
+					break;
+				default:
+					throw corrupt();
+			}
+
+			mNodeCount++;
+		}
+	}
+
+
+	private void readCompact(XmlCompactBuilder aBuilder) throws IOException
+	{
+		int depth = 0;
+
+		for (;;)
+		{
+			int type = readVarint();
+
+			switch (type)
+			{
+				case XmlBinaryWriter.END:
+					if (depth-- == 0)
+					{
+						return;
+					}
+					aBuilder.endElement();
+					continue;
+				case Node.ELEMENT_NODE:
+					int symbol = readName();
+					int count = readVarint();
+					int element = aBuilder.startElement(compactSymbol(aBuilder, symbol), count);
+					for (int i = 0; i < count; i++)
+					{
+						symbol = compactSymbol(aBuilder, readName());
+						aBuilder.addAttribute(element, symbol, mChars, 0, readChars());
+					}
+					depth++;
+					break;
+				case Node.TEXT_NODE:
+					aBuilder.text(mChars, 0, readChars());
+					break;
+				case Node.CDATA_SECTION_NODE:
+					aBuilder.cdata(mChars, 0, readChars());
+					break;
+				case Node.COMMENT_NODE:
+					aBuilder.comment(mChars, 0, readChars());
+					break;
+				case Node.PROCESSING_INSTRUCTION_NODE:
+					String target = readString();
+					aBuilder.processingInstruction(target, readString());
+					break;
+				default:
+					throw corrupt();
+			}
+
+			mNodeCount++;
+		}
+	}
+
+
+	private int compactSymbol(XmlCompactBuilder aBuilder, int aSymbol)
+	{
+		int symbol = mCompactSymbols[aSymbol];
+		if (symbol == -1)
+		{
+			symbol = aBuilder.symbol(mQNames[aSymbol], mNamespaceURIs[aSymbol], mLocalNames[aSymbol]);
+			mCompactSymbols[aSymbol] = symbol;
+		}
+		return symbol;
+	}
+
+
+	/**
+	 * Read a symbol reference, reading the definition of new symbols.
+	 *
+	 * @return
+	 *   the symbol number, starting from zero
+	 */
+	private int readName() throws IOException
+	{
+		int reference = readVarint();
+
+		if (reference != 0)
+		{
+			if (reference < 0 || reference > mSymbolCount)
+			{
+				throw corrupt();
+			}
+			return reference - 1;
+		}
+
+		String qname = readString();
+		String uri = null;
+		String localName = null;
+		int namespace = readVarint();
+
+		if (namespace > 0)
+		{
+			localName = qname.substring(qname.indexOf(':') + 1);
+
+			if (namespace == 2)
+			{
+				uri = readString();
+				mURIs.add(uri);
+			}
+			else if (namespace > 2)
+			{
+				if (namespace - 3 >= mURIs.size())
+				{
+					throw corrupt();
+				}
+				uri = mURIs.get(namespace - 3);
+			}
+		}
+
+		if (mSymbolCount == mQNames.length)
+		{
+			int size = 2 * mSymbolCount;
+			mQNames = Arrays.copyOf(mQNames, size);
+			mNamespaceURIs = Arrays.copyOf(mNamespaceURIs, size);
+			mLocalNames = Arrays.copyOf(mLocalNames, size);
+			mCompactSymbols = Arrays.copyOf(mCompactSymbols, size);
+		}
+
+		int symbol = mSymbolCount++;
+		mQNames[symbol] = qname;
+		mNamespaceURIs[symbol] = uri;
+		mLocalNames[symbol] = localName;
+		mCompactSymbols[symbol] = -1;
+
+		return symbol;
+	}
+
+
+	private int readVarint() throws IOException
+	{
+		if (mLimit - mPosition < 5 && mInput != null)
+		{
+			fill(5);
+		}
+
+		int value = 0;
+
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			if (mPosition == mLimit)
+			{
+				throw new EOFException("Unexpected end of binary XML document.");
+			}
+
+			int b = mBuffer[mPosition++];
+			value |= (b & 0x7F) << shift;
+
+			if (b >= 0)
+			{
+				return value;
+			}
+		}
+
+		throw corrupt();
+	}
+
+
+	private String readString() throws IOException
+	{
+		return new String(mChars, 0, readChars());
+	}
+
+
+	/**
+	 * Read a text into the char buffer.
+	 *
+	 * @return
+	 *   the number of chars read
+	 */
+	private int readChars() throws IOException
+	{
+		int size = readVarint();
+		if (size < 0)
+		{
+			throw corrupt();
+		}
+
+		ensure(size);
+
+		if (mChars.length < size)
+		{
+			mChars = new char[Math.max(size, 2 * mChars.length)];
+		}
+
+		byte[] buffer = mBuffer;
+		char[] chars = mChars;
+		int pos = mPosition;
+		int end = pos + size;
+		int length = 0;
+
+		while (pos < end)
+		{
+			int b = buffer[pos++];
+
+			if (b >= 0)
+			{
+				chars[length++] = (char)b;
+			}
+			else if ((b & 0xE0) == 0xC0 && pos < end)
+			{
+				chars[length++] = (char)(((b & 0x1F) << 6) | (buffer[pos++] & 0x3F));
+			}
+			else if ((b & 0xF0) == 0xE0 && pos + 1 < end)
+			{
+				chars[length++] = (char)(((b & 0x0F) << 12) | ((buffer[pos] & 0x3F) << 6) | (buffer[pos + 1] & 0x3F));
+				pos += 2;
+			}
+			else
+			{
+				throw corrupt();
+			}
+		}
+
+		mPosition = end;
+
+		return length;
+	}
+
+
+	/**
+	 * Make the number of bytes available in the buffer.
+	 */
+	private void ensure(int aLength) throws IOException
+	{
+		if (mLimit - mPosition < aLength)
+		{
+			if (mInput == null || !fill(aLength))
+			{
+				throw new EOFException("Unexpected end of binary XML document.");
+			}
+		}
+	}
+
+
+	private boolean fill(int aLength) throws IOException
+	{
+		int remaining = mLimit - mPosition;
+
+		if (remaining >= aLength)
+		{
+			return true;
+		}
+
+		if (aLength > mBuffer.length)
+		{
+			byte[] buffer = new byte[Math.max(aLength, 2 * mBuffer.length)];
+			System.arraycopy(mBuffer, mPosition, buffer, 0, remaining);
+			mBuffer = buffer;
+		}
+		else
+		{
+			System.arraycopy(mBuffer, mPosition, mBuffer, 0, remaining);
+		}
+
+		mPosition = 0;
+		mLimit = remaining;
+
+		while (mLimit < aLength)
+		{
+			int len = mInput.read(mBuffer, mLimit, mBuffer.length - mLimit);
+			if (len <= 0)
+			{
+				return false;
+			}
+			mLimit += len;
+			mReadCount += len;
+		}
+
+		return true;
+	}
+
+
+	private static XmlException corrupt()
+	{
+		return new XmlException("Corrupt binary XML document.");
+	}
+}
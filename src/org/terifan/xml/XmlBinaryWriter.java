@@ -0,0 +1,351 @@
+package org.terifan.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+
+/**
+ * Writes a document in the binary format read by XmlBinaryReader.
+ *
+ * The format starts with the magic bytes 0x89 'X' 'M' 'B' and a version byte followed by the document properties and the
+ * nodes in document order. All numbers are unsigned varints, seven bits per byte with the high bit set on all bytes but
+ * the last, and text is a varint byte length followed by UTF-8 bytes. Surrogates are encoded individually as three byte
+ * sequences, like CESU-8, so every String survives a round trip.
+ *
+ * <pre>
+ * document : magic version flags xmlVersion [xmlEncoding] [documentURI] node* END
+ * flags    : 1 = standalone, 2 = has xmlEncoding, 4 = has documentURI
+ * node     : ELEMENT name attributeCount (name text)* node* END
+ *          | TEXT text | CDATA text | COMMENT text | PROCESSING_INSTRUCTION text text
+ * name     : 0 qname namespace    defines the next symbol, numbered from 1
+ *          | symbol
+ * namespace: 0 = not namespace aware, 1 = no namespace URI, 2 text = new URI, 3 + n = URI number n
+ * </pre>
+ *
+ * The node tags are the org.w3c.dom node type constants and END is zero. Entity references are replaced by their
+ * children, document types and other nodes aren't written.
+ */
+final class XmlBinaryWriter
+{
+	final static byte[] MAGIC = {(byte)0x89, 'X', 'M', 'B'};
+	final static int VERSION = 1;
+	final static int END = 0;
+	final static int STANDALONE = 1;
+	final static int HAS_ENCODING = 2;
+	final static int HAS_URI = 4;
+
+	private final OutputStream mOutput;
+	private final HashMap<String,Symbol> mSymbols;
+	private final HashMap<String,Integer> mNamespaceURIs;
+	private byte[] mBuffer;
+	private int mPosition;
+	private int mSymbolCount;
+	private long mWrittenCount;
+
+
+	XmlBinaryWriter(OutputStream aOutput)
+	{
+		mOutput = aOutput;
+		mSymbols = new HashMap<>();
+		mNamespaceURIs = new HashMap<>();
+		mBuffer = new byte[64 * 1024];
+	}
+
+
+	/**
+	 * Write a Document, or an Element as the root of a document, and flush the output.
+	 */
+	void write(Node aNode) throws IOException
+	{
+		ensureCapacity(MAGIC.length + 1);
+		System.arraycopy(MAGIC, 0, mBuffer, mPosition, MAGIC.length);
+		mPosition += MAGIC.length;
+		mBuffer[mPosition++] = (byte)VERSION;
+
+		if (aNode instanceof Document)
+		{
+			Document doc = (Document)aNode;
+			String version = doc.getXmlVersion();
+			String encoding = doc.getXmlEncoding();
+			String uri = doc.getDocumentURI();
+
+			writeVarint((doc.getXmlStandalone() ? STANDALONE : 0) | (encoding != null ? HAS_ENCODING : 0) | (uri != null ? HAS_URI : 0));
+			writeText(version == null ? "1.0" : version);
+			if (encoding != null)
+			{
+				writeText(encoding);
+			}
+			if (uri != null)
+			{
+				writeText(uri);
+			}
+
+			writeChildren(aNode);
+		}
+		else
+		{
+			writeVarint(0);
+			writeText("1.0");
+
+			if (aNode.getNodeType() == Node.ELEMENT_NODE)
+			{
+				writeNode(aNode);
+				writeChildren(aNode);
+				writeVarint(END);
+			}
+		}
+
+		writeVarint(END);
+
+		flushBuffer();
+		mOutput.flush();
+	}
+
+
+	long getWrittenCount()
+	{
+		return mWrittenCount + mPosition;
+	}
+
+
+	/**
+	 * Write the descendants of the node without recursion.
+	 */
+	private void writeChildren(Node aRoot) throws IOException
+	{
+		Node node = aRoot.getFirstChild();
+
+		while (node != null)
+		{
+			boolean entered = writeNode(node);
+
+			if (entered)
+			{
+				Node child = node.getFirstChild();
+				if (child != null)
+				{
+					node = child;
+					continue;
+				}
+			}
+
+			for (;;)
+			{
+				if (entered && node.getNodeType() == Node.ELEMENT_NODE)
+				{
+					writeVarint(END);
+				}
+
+				Node sibling = node.getNextSibling();
+				if (sibling != null)
+				{
+					node = sibling;
+					break;
+				}
+
+				node = node.getParentNode();
+				if (node == aRoot)
+				{
+					return;
+				}
+				entered = true;
+			}
+		}
+	}
+
+
+	/**
+	 * Write the node and its attributes.
+	 *
+	 * @return
+	 *   true if the children of the node are to be written
+	 */
+	private boolean writeNode(Node aNode) throws IOException
+	{
+		switch (aNode.getNodeType())
+		{
+			case Node.ELEMENT_NODE:
+				writeVarint(Node.ELEMENT_NODE);
+				writeName(aNode);
+				NamedNodeMap attributes = aNode.getAttributes();
+				int count = attributes.getLength();
+				writeVarint(count);
+				for (int i = 0; i < count; i++)
+				{
+					Node attr = attributes.item(i);
+					writeName(attr);
+					writeText(attr.getNodeValue());
+				}
+				return true;
+			case Node.ENTITY_REFERENCE_NODE:
+				return true;
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+			case Node.COMMENT_NODE:
+				writeVarint(aNode.getNodeType());
+				writeText(aNode.getNodeValue());
+				return false;
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				writeVarint(Node.PROCESSING_INSTRUCTION_NODE);
+				writeText(aNode.getNodeName());
+				writeText(aNode.getNodeValue());
+				return false;
+			default:
+				return false;
+		}
+	}
+
+
+	private void writeName(Node aNode) throws IOException
+	{
+		String qname = aNode.getNodeName();
+		String uri = aNode.getNamespaceURI();
+		boolean aware = aNode.getLocalName() != null;
+
+		Symbol first = mSymbols.get(qname);
+		for (Symbol symbol = first; symbol != null; symbol = symbol.mNext)
+		{
+			if (symbol.mAware == aware && (uri == null ? symbol.mNamespaceURI == null : uri.equals(symbol.mNamespaceURI)))
+			{
+				writeVarint(symbol.mNumber);
+				return;
+			}
+		}
+
+		Symbol symbol = new Symbol(uri, aware, ++mSymbolCount, first);
+		mSymbols.put(qname, symbol);
+
+		writeVarint(0);
+		writeText(qname);
+
+		if (!aware)
+		{
+			writeVarint(0);
+		}
+		else if (uri == null)
+		{
+			writeVarint(1);
+		}
+		else
+		{
+			Integer number = mNamespaceURIs.get(uri);
+			if (number == null)
+			{
+				mNamespaceURIs.put(uri, mNamespaceURIs.size());
+				writeVarint(2);
+				writeText(uri);
+			}
+			else
+			{
+				writeVarint(3 + number);
+			}
+		}
+	}
+
+
+	private void writeVarint(int aValue) throws IOException
+	{
+		ensureCapacity(5);
+
+		int value = aValue;
+		while ((value & ~0x7F) != 0)
+		{
+			mBuffer[mPosition++] = (byte)(0x80 | value);
+			value >>>= 7;
+		}
+		mBuffer[mPosition++] = (byte)value;
+	}
+
+
+	private void writeText(String aText) throws IOException
+	{
+		int length = aText.length();
+		int size = length;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = aText.charAt(i);
+			if (c >= 0x80)
+			{
+				size += c < 0x800 ? 1 : 2;
+			}
+		}
+
+		writeVarint(size);
+
+		if (size > mBuffer.length)
+		{
+			flushBuffer();
+			mBuffer = new byte[size];
+		}
+		else
+		{
+			ensureCapacity(size);
+		}
+
+		byte[] buffer = mBuffer;
+		int pos = mPosition;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = aText.charAt(i);
+
+			if (c < 0x80)
+			{
+				buffer[pos++] = (byte)c;
+			}
+			else if (c < 0x800)
+			{
+				buffer[pos++] = (byte)(0xC0 | (c >> 6));
+				buffer[pos++] = (byte)(0x80 | (c & 0x3F));
+			}
+			else
+			{
+				buffer[pos++] = (byte)(0xE0 | (c >> 12));
+				buffer[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				buffer[pos++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+
+		mPosition = pos;
+	}
+
+
+	private void ensureCapacity(int aLength) throws IOException
+	{
+		if (mPosition + aLength > mBuffer.length)
+		{
+			flushBuffer();
+		}
+	}
+
+
+	private void flushBuffer() throws IOException
+	{
+		mOutput.write(mBuffer, 0, mPosition);
+		mWrittenCount += mPosition;
+		mPosition = 0;
+	}
+
+
+	private static class Symbol
+	{
+		final String mNamespaceURI;
+		final boolean mAware;
+		final int mNumber;
+		final Symbol mNext;
+
+
+		Symbol(String aNamespaceURI, boolean aAware, int aNumber, Symbol aNext)
+		{
+			mNamespaceURI = aNamespaceURI;
+			mAware = aAware;
+			mNumber = aNumber;
+			mNext = aNext;
+		}
+	}
+}
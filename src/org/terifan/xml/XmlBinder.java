@@ -0,0 +1,610 @@
+package org.terifan.xml;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+
+/**
+ * Binds objects with XmlProperty annotated fields and methods to elements in both directions.
+ *
+ * Each class is scanned once, the accessors of the annotated members are converted to MethodHandles and cached. Property
+ * names starting with '@' are bound to attributes and other names to child elements, the name defaults to the name of the
+ * field or the bean property name of the method. Annotated methods without parameters are getters, methods with one
+ * parameter are setters and a getter without an annotated setter is paired with a setter following the bean naming
+ * convention.
+ *
+ * Values are converted using toString when written and by the type of the property when read. Strings, primitives and
+ * their wrappers, enums, read by constant name or toString, BigDecimal, BigInteger, UUID and classes with a static
+ * valueOf(String) method or a String constructor are supported. Properties with a type having annotated members of its own are bound to nested elements.
+ * Null values are not written.
+ *
+ * e.g.
+ * <pre>
+ * class Customer
+ * {
+ *     &#64;XmlProperty(name = "@id") int id;
+ *     &#64;XmlProperty String name;
+ * }
+ *
+ * XmlBinder.write(customer, document.appendElement("customer"));
+ * Customer copy = XmlBinder.read(document.getElement("customer"), Customer.class);
+ * XmlBinder.read(new File("customers.xml"), "customers/customer", Customer.class, c -&gt; ...);
+ * </pre>
+ */
+public final class XmlBinder
+{
+	private final static ClassValue<Binding> BINDINGS = new ClassValue<Binding>()
+	{
+		@Override
+		protected Binding computeValue(Class<?> aType)
+		{
+			return new Binding(aType);
+		}
+	};
+
+
+	private XmlBinder()
+	{
+	}
+
+
+	/**
+	 * Write the annotated properties of the object to the element.
+	 */
+	public static void write(Object aEntity, XmlElement aElement)
+	{
+		BINDINGS.get(aEntity.getClass()).write(aEntity, aElement);
+	}
+
+
+	/**
+	 * Create an object of the type and set the annotated properties from the element. The type must have a constructor
+	 * without parameters.
+	 */
+	public static <T> T read(XmlElement aElement, Class<T> aType)
+	{
+		return aType.cast(BINDINGS.get(aType).read((Element)aElement.getInternalNode()));
+	}
+
+
+	/**
+	 * Create an object for each element matching the literal path without building a DOM of the entire source, see
+	 * XmlPathExtractor.
+	 *
+	 * @param aSource
+	 *   a File, InputStream, Reader, byte[] or a String containing XML, the source is closed
+	 */
+	public static <T> void read(Object aSource, String aPath, Class<T> aType, Consumer<T> aConsumer)
+	{
+		Binding binding = BINDINGS.get(aType);
+
+		new XmlPathExtractor(aPath).forEachElement(aSource, e -> aConsumer.accept(aType.cast(binding.read((Element)e.getInternalNode()))));
+	}
+
+
+	/**
+	 * Return true if the type has annotated properties.
+	 */
+	static boolean isBound(Class<?> aType)
+	{
+		return !BINDINGS.get(aType).mProperties.isEmpty();
+	}
+
+
+	private static class Binding
+	{
+		private final Class<?> mType;
+		private final MethodHandle mConstructor;
+		private final LinkedHashMap<String,Property> mProperties;
+		private final HashMap<String,Property> mElements;
+		private final int mElementCount;
+
+
+		Binding(Class<?> aType)
+		{
+			mType = aType;
+			mProperties = new LinkedHashMap<>();
+			mElements = new HashMap<>();
+
+			ArrayList<Class<?>> types = new ArrayList<>();
+			for (Class<?> type = aType; type != null && type != Object.class; type = type.getSuperclass())
+			{
+				types.add(0, type);
+			}
+
+			for (Class<?> type : types)
+			{
+				for (Field field : type.getDeclaredFields())
+				{
+					XmlProperty annotation = field.getAnnotation(XmlProperty.class);
+					if (annotation != null && !Modifier.isStatic(field.getModifiers()))
+					{
+						Property property = property(annotation.name().isEmpty() ? field.getName() : annotation.name(), field.getType());
+						property.mGetter = unreflect(field, true);
+						if (!Modifier.isFinal(field.getModifiers()))
+						{
+							property.mSetter = unreflect(field, false);
+						}
+					}
+				}
+
+				for (Method method : type.getDeclaredMethods())
+				{
+					XmlProperty annotation = method.getAnnotation(XmlProperty.class);
+					if (annotation != null && !Modifier.isStatic(method.getModifiers()))
+					{
+						if (method.getParameterCount() == 0 && method.getReturnType() != void.class)
+						{
+							Property property = property(annotation.name().isEmpty() ? propertyName(method.getName()) : annotation.name(), method.getReturnType());
+							property.mGetter = unreflect(method);
+							if (property.mSetter == null)
+							{
+								Method setter = findSetter(aType, method);
+								if (setter != null)
+								{
+									property.mSetter = unreflect(setter);
+								}
+							}
+						}
+						else if (method.getParameterCount() == 1)
+						{
+							Property property = property(annotation.name().isEmpty() ? propertyName(method.getName()) : annotation.name(), method.getParameterTypes()[0]);
+							property.mSetter = unreflect(method);
+						}
+						else
+						{
+							throw new IllegalStateException("Annotated method is neither a getter nor a setter: " + method);
+						}
+					}
+				}
+			}
+
+			int count = 0;
+			for (Property property : mProperties.values())
+			{
+				if (!property.mAttribute)
+				{
+					property.mOrdinal = count++;
+					mElements.put(property.mName, property);
+				}
+			}
+			mElementCount = count;
+
+			MethodHandle constructor = null;
+			if (!mProperties.isEmpty() && !Modifier.isAbstract(aType.getModifiers()))
+			{
+				try
+				{
+					Constructor<?> c = aType.getDeclaredConstructor();
+					c.setAccessible(true);
+					constructor = MethodHandles.lookup().unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+				}
+				catch (NoSuchMethodException e)
+				{
+					// objects of the type can be written but not read
+				}
+				catch (IllegalAccessException | RuntimeException e)
+				{
+					throw new IllegalStateException("Problem accessing constructor of " + aType, e);
+				}
+			}
+			mConstructor = constructor;
+		}
+
+
+		void write(Object aEntity, XmlElement aElement)
+		{
+			for (Property property : mProperties.values())
+			{
+				if (property.mGetter == null)
+				{
+					continue;
+				}
+
+				Object value;
+				try
+				{
+					value = property.mGetter.invokeExact(aEntity);
+				}
+				catch (Throwable e)
+				{
+					throw new IllegalStateException("Problem getting property " + property.mName + " of " + mType, e);
+				}
+
+				if (value == null)
+				{
+					continue;
+				}
+
+				if (property.mAttribute)
+				{
+					aElement.setAttribute(property.mName.substring(1), value.toString());
+				}
+				else if (value instanceof XmlPropertyProvider)
+				{
+					aElement.appendElement(property.mName).appendEntity((XmlPropertyProvider)value);
+				}
+				else if (property.mConverter == null && isBound(value.getClass()))
+				{
+					BINDINGS.get(value.getClass()).write(value, aElement.appendElement(property.mName));
+				}
+				else
+				{
+					aElement.appendTextNode(property.mName, value.toString());
+				}
+			}
+		}
+
+
+		Object read(Element aElement)
+		{
+			if (mConstructor == null)
+			{
+				throw new IllegalStateException("Type has no constructor without parameters or no annotated properties: " + mType);
+			}
+
+			Object entity;
+			try
+			{
+				entity = mConstructor.invokeExact();
+			}
+			catch (Throwable e)
+			{
+				throw new IllegalStateException("Problem creating instance of " + mType, e);
+			}
+
+			for (Property property : mProperties.values())
+			{
+				if (property.mAttribute && property.mSetter != null)
+				{
+					String name = property.mName.substring(1);
+					if (aElement.hasAttribute(name))
+					{
+						property.set(entity, aElement.getAttribute(name));
+					}
+				}
+			}
+
+			if (mElementCount > 0)
+			{
+				boolean[] found = new boolean[mElementCount];
+				int remaining = mElementCount;
+
+				for (Node child = aElement.getFirstChild(); child != null && remaining > 0; child = child.getNextSibling())
+				{
+					if (child.getNodeType() == Node.ELEMENT_NODE)
+					{
+						String name = child.getLocalName();
+						Property property = mElements.get(name != null ? name : child.getNodeName());
+
+						if (property == null || found[property.mOrdinal])
+						{
+							continue;
+						}
+
+						found[property.mOrdinal] = true;
+						remaining--;
+
+						if (property.mSetter != null)
+						{
+							if (property.mConverter == null && isBound(property.mType))
+							{
+								property.setValue(entity, BINDINGS.get(property.mType).read((Element)child));
+							}
+							else
+							{
+								Node text = child.getFirstChild();
+								property.set(entity, text != null ? text.getNodeValue() : child.getTextContent());
+							}
+						}
+					}
+				}
+			}
+
+			return entity;
+		}
+
+
+		private Property property(String aName, Class<?> aType)
+		{
+			Property property = mProperties.get(aName);
+			if (property == null)
+			{
+				property = new Property(aName, aType);
+				mProperties.put(aName, property);
+			}
+			else if (property.mType != aType)
+			{
+				throw new IllegalStateException("Property " + aName + " of " + mType + " is declared with different types: " + property.mType + ", " + aType);
+			}
+			return property;
+		}
+
+
+		private static String propertyName(String aMethodName)
+		{
+			int prefix = aMethodName.startsWith("get") || aMethodName.startsWith("set") ? 3 : aMethodName.startsWith("is") ? 2 : 0;
+			if (prefix == 0 || aMethodName.length() == prefix || !Character.isUpperCase(aMethodName.charAt(prefix)))
+			{
+				return aMethodName;
+			}
+			return Character.toLowerCase(aMethodName.charAt(prefix)) + aMethodName.substring(prefix + 1);
+		}
+
+
+		private static Method findSetter(Class<?> aType, Method aGetter)
+		{
+			String name = propertyName(aGetter.getName());
+			if (name.equals(aGetter.getName()))
+			{
+				return null;
+			}
+
+			name = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+			for (Class<?> type = aType; type != null && type != Object.class; type = type.getSuperclass())
+			{
+				try
+				{
+					Method setter = type.getDeclaredMethod(name, aGetter.getReturnType());
+					if (!Modifier.isStatic(setter.getModifiers()))
+					{
+						return setter;
+					}
+				}
+				catch (NoSuchMethodException e)
+				{
+					// continue with the super class
+				}
+			}
+
+			return null;
+		}
+
+
+		private static MethodHandle unreflect(Field aField, boolean aGetter)
+		{
+			try
+			{
+				aField.setAccessible(true);
+				if (aGetter)
+				{
+					return MethodHandles.lookup().unreflectGetter(aField).asType(MethodType.methodType(Object.class, Object.class));
+				}
+				return MethodHandles.lookup().unreflectSetter(aField).asType(MethodType.methodType(void.class, Object.class, Object.class));
+			}
+			catch (IllegalAccessException | RuntimeException e)
+			{
+				throw new IllegalStateException("Problem accessing property via field " + aField, e);
+			}
+		}
+
+
+		private static MethodHandle unreflect(Method aMethod)
+		{
+			try
+			{
+				aMethod.setAccessible(true);
+				MethodHandle handle = MethodHandles.lookup().unreflect(aMethod);
+				if (aMethod.getParameterCount() == 0)
+				{
+					return handle.asType(MethodType.methodType(Object.class, Object.class));
+				}
+				return handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+			}
+			catch (IllegalAccessException | RuntimeException e)
+			{
+				throw new IllegalStateException("Problem accessing property via method " + aMethod, e);
+			}
+		}
+	}
+
+
+	private static class Property
+	{
+		final String mName;
+		final Class<?> mType;
+		final boolean mAttribute;
+		final Function<String,Object> mConverter;
+		MethodHandle mGetter;
+		MethodHandle mSetter;
+		int mOrdinal;
+
+
+		Property(String aName, Class<?> aType)
+		{
+			mName = aName;
+			mType = aType;
+			mAttribute = aName.startsWith("@");
+			mConverter = converter(aType);
+		}
+
+
+		void set(Object aEntity, String aValue)
+		{
+			if (mConverter == null)
+			{
+				throw new IllegalStateException("Property " + mName + " has a type that can't be converted from a string: " + mType);
+			}
+
+			Object value;
+			try
+			{
+				value = mConverter.apply(aValue);
+			}
+			catch (RuntimeException e)
+			{
+				throw new XmlException("Illegal value of property " + mName + ": " + aValue, e);
+			}
+
+			setValue(aEntity, value);
+		}
+
+
+		void setValue(Object aEntity, Object aValue)
+		{
+			try
+			{
+				mSetter.invokeExact(aEntity, aValue);
+			}
+			catch (Throwable e)
+			{
+				throw new IllegalStateException("Problem setting property " + mName, e);
+			}
+		}
+
+
+		private static Function<String,Object> converter(Class<?> aType)
+		{
+			if (aType == String.class || aType == Object.class || aType == CharSequence.class)
+			{
+				return s -> s;
+			}
+			if (aType == int.class || aType == Integer.class)
+			{
+				return Integer::valueOf;
+			}
+			if (aType == long.class || aType == Long.class)
+			{
+				return Long::valueOf;
+			}
+			if (aType == boolean.class || aType == Boolean.class)
+			{
+				return Boolean::valueOf;
+			}
+			if (aType == double.class || aType == Double.class)
+			{
+				return Double::valueOf;
+			}
+			if (aType == float.class || aType == Float.class)
+			{
+				return Float::valueOf;
+			}
+			if (aType == short.class || aType == Short.class)
+			{
+				return Short::valueOf;
+			}
+			if (aType == byte.class || aType == Byte.class)
+			{
+				return Byte::valueOf;
+			}
+			if (aType == char.class || aType == Character.class)
+			{
+				return s ->
+				{
+					if (s.length() != 1)
+					{
+						throw new IllegalArgumentException("Expected a single character.");
+					}
+					return s.charAt(0);
+				};
+			}
+			if (aType == BigDecimal.class)
+			{
+				return BigDecimal::new;
+			}
+			if (aType == BigInteger.class)
+			{
+				return BigInteger::new;
+			}
+			if (aType == UUID.class)
+			{
+				return UUID::fromString;
+			}
+			if (aType.isEnum())
+			{
+				return enumConverter(aType);
+			}
+			if (aType.isPrimitive() || aType.isArray() || Modifier.isAbstract(aType.getModifiers()))
+			{
+				return null;
+			}
+
+			MethodHandle handle = null;
+			try
+			{
+				Method method = aType.getMethod("valueOf", String.class);
+				if (Modifier.isStatic(method.getModifiers()) && aType.isAssignableFrom(method.getReturnType()))
+				{
+					handle = MethodHandles.publicLookup().unreflect(method);
+				}
+			}
+			catch (NoSuchMethodException | IllegalAccessException e)
+			{
+				// try the constructor
+			}
+			if (handle == null)
+			{
+				try
+				{
+					handle = MethodHandles.publicLookup().unreflectConstructor(aType.getConstructor(String.class));
+				}
+				catch (NoSuchMethodException | IllegalAccessException e)
+				{
+					return null;
+				}
+			}
+
+			MethodHandle factory = handle.asType(MethodType.methodType(Object.class, String.class));
+
+			return s ->
+			{
+				try
+				{
+					return factory.invokeExact(s);
+				}
+				catch (RuntimeException e)
+				{
+					throw e;
+				}
+				catch (Throwable e)
+				{
+					throw new IllegalArgumentException(e);
+				}
+			};
+		}
+
+
+		/**
+		 * Return a converter looking up the enum constant by name, like Enum.valueOf, or by the value of toString which
+		 * enum values are written with.
+		 */
+		private static Function<String,Object> enumConverter(Class<?> aType)
+		{
+			HashMap<String,Object> constants = new HashMap<>();
+			for (Object constant : aType.getEnumConstants())
+			{
+				constants.put(((Enum<?>)constant).name(), constant);
+			}
+			for (Object constant : aType.getEnumConstants())
+			{
+				constants.putIfAbsent(constant.toString(), constant);
+			}
+
+			return s ->
+			{
+				Object value = constants.get(s);
+				if (value == null)
+				{
+					throw new IllegalArgumentException("No enum constant " + aType.getCanonicalName() + "." + s);
+				}
+				return value;
+			};
+		}
+	}
+}
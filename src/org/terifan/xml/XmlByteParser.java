@@ -0,0 +1,1841 @@
+package org.terifan.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+
+/**
+ * A tokenizer reading XML directly from UTF-8, US-ASCII or ISO-8859-1 encoded bytes and reporting the content to a
+ * Handler.
+ *
+ * The encoding is detected from the byte order mark and the XML declaration. Documents using other encodings or XML
+ * versions, or containing a document type declaration are rejected with an UnsupportedInputException while the input
+ * is still in the prolog, allowing the caller to replay the input through a JAXP parser.
+ *
+ * Documents are checked to be well-formed XML 1.0, all characters must match the Char production. Namespace
+ * constraints are checked by the handlers resolving names. Syntax errors report the line and column of the error,
+ * line breaks are counted only in bytes discarded from the input window and when an error is reported.
+ */
+final class XmlByteParser
+{
+	/** A token was processed. */
+	final static int TOKEN = 0;
+	/** More input must be provided before parsing can continue. */
+	final static int NEED_INPUT = 1;
+	/** The end of the document was reached. */
+	final static int END = 2;
+
+	private final static int STATE_START = 0;
+	private final static int STATE_PROLOG = 1;
+	private final static int STATE_CONTENT = 2;
+	private final static int STATE_EPILOG = 3;
+	private final static int STATE_DONE = 4;
+
+	private final static NeedInputException NEED_INPUT_EXCEPTION = new NeedInputException();
+
+	private final Input mInput;
+	private final Handler mHandler;
+	private final boolean mRollback;
+	private ByteBuffer mBuffer;
+	private int mPosition;
+	private int mLimit;
+	private int mMark;
+	private int mState;
+	private boolean mLatin1;
+	private boolean mAscii;
+	private boolean mForceUTF8;
+	private boolean mSkipDocumentType;
+
+	private String[] mStack;
+	private int mDepth;
+
+	private char[] mChars;
+	private int mCharCount;
+
+	private String[] mAttributeNames;
+	private String[] mAttributeValues;
+	private int mAttributeCount;
+
+	private String[] mSymbols;
+	private int mSymbolCount;
+
+	private long mCounted;
+	private long mLine;
+	private long mColumn;
+	private boolean mCarriageReturn;
+
+
+	/**
+	 * Handler receiving the content of the document. Text may be reported in several consecutive calls.
+	 */
+	interface Handler
+	{
+		/**
+		 * Called with the pseudo attributes of the XML declaration, a handler may reject the document with an
+		 * UnsupportedInputException to have it parsed by JAXP instead.
+		 */
+		default void declaration(String aVersion, String aEncoding, Boolean aStandalone) throws UnsupportedInputException
+		{
+		}
+
+		void startElement(String aName, XmlByteParser aParser);
+
+		void endElement(String aName);
+
+		void text(char[] aChars, int aOffset, int aLength);
+
+		void cdata(char[] aChars, int aOffset, int aLength);
+
+		default void comment(char[] aChars, int aOffset, int aLength)
+		{
+		}
+
+		default void processingInstruction(String aTarget, String aData)
+		{
+		}
+	}
+
+
+	XmlByteParser(Input aInput, Handler aHandler)
+	{
+		mInput = aInput;
+		mHandler = aHandler;
+		mRollback = !aInput.isBlocking();
+		mBuffer = aInput.mBuffer;
+		mLimit = mBuffer.limit();
+		mMark = -1;
+		mStack = new String[32];
+		mChars = new char[256];
+		mAttributeNames = new String[8];
+		mAttributeValues = new String[8];
+		mSymbols = new String[256];
+	}
+
+
+	/**
+	 * Ignore the encoding declared in the document and always decode the input as UTF-8.
+	 */
+	XmlByteParser setForceUTF8(boolean aForceUTF8)
+	{
+		mForceUTF8 = aForceUTF8;
+		return this;
+	}
+
+
+	/**
+	 * Skip document type declarations instead of rejecting the document. Entities declared in the internal subset are not
+	 * available when skipped.
+	 */
+	XmlByteParser setSkipDocumentType(boolean aSkipDocumentType)
+	{
+		mSkipDocumentType = aSkipDocumentType;
+		return this;
+	}
+
+
+	/**
+	 * Parse the entire document. The input must be blocking.
+	 */
+	void parse() throws IOException, UnsupportedInputException
+	{
+		while (next() != END)
+		{
+		}
+	}
+
+
+	/**
+	 * Parse the next token.
+	 *
+	 * @return
+	 *   one of TOKEN, NEED_INPUT or END
+	 */
+	int next() throws IOException, UnsupportedInputException
+	{
+		if (mRollback)
+		{
+			mMark = mPosition;
+		}
+
+		try
+		{
+			switch (mState)
+			{
+				case STATE_START:
+					readStart();
+					return TOKEN;
+				case STATE_PROLOG:
+				case STATE_EPILOG:
+				case STATE_CONTENT:
+					return readToken();
+				default:
+					return END;
+			}
+		}
+		catch (NeedInputException e)
+		{
+			mPosition = mMark;
+			mMark = -1;
+			return NEED_INPUT;
+		}
+		finally
+		{
+			mMark = -1;
+		}
+	}
+
+
+	/**
+	 * Return true while parsing the prolog, before the root element start tag has been read.
+	 */
+	boolean isInProlog()
+	{
+		return mState < STATE_CONTENT;
+	}
+
+
+	int getDepth()
+	{
+		return mDepth;
+	}
+
+
+	int getAttributeCount()
+	{
+		return mAttributeCount;
+	}
+
+
+	String getAttributeName(int aIndex)
+	{
+		return mAttributeNames[aIndex];
+	}
+
+
+	String getAttributeValue(int aIndex)
+	{
+		return mAttributeValues[aIndex];
+	}
+
+
+	/**
+	 * Return the absolute byte offset of the current position in the input.
+	 */
+	long getOffset()
+	{
+		return mInput.mOffset + mPosition;
+	}
+
+
+	private void readStart() throws IOException, UnsupportedInputException
+	{
+		int b0 = byteAt(0);
+		int b1 = byteAt(1);
+
+		if (b0 == 0xEF && b1 == 0xBB && byteAt(2) == 0xBF)
+		{
+			mPosition += 3;
+			b0 = byteAt(0);
+			b1 = byteAt(1);
+		}
+		else if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE) || (b0 == 0 && b1 == '<') || (b0 == '<' && b1 == 0))
+		{
+			throw new UnsupportedInputException("UTF-16 encoded documents are not supported.", b0 == 0 ? "UTF-16BE" : b1 == 0 ? "UTF-16LE" : "UTF-16");
+		}
+
+		if (b0 == '<' && b1 == '?' && startsWith(2, "xml") && isWhitespace(byteAt(5)))
+		{
+			readDeclaration();
+		}
+
+		mState = STATE_PROLOG;
+	}
+
+
+	private void readDeclaration() throws IOException, UnsupportedInputException
+	{
+		mPosition += 5;
+
+		String version = null;
+		String encoding = null;
+		Boolean standalone = null;
+
+		for (int index = 0;; index++)
+		{
+			boolean whitespace = skipWhitespace();
+
+			if (byteAt(0) == '?' && byteAt(1) == '>')
+			{
+				mPosition += 2;
+				break;
+			}
+			if (!whitespace)
+			{
+				throw syntaxError("Expected whitespace before pseudo attribute in XML declaration.");
+			}
+
+			String name = readName();
+			skipWhitespace();
+			expect('=');
+			skipWhitespace();
+			int quote = byteAt(0);
+			if (quote != '"' && quote != '\'')
+			{
+				throw syntaxError("Expected quoted value in XML declaration.");
+			}
+			mPosition++;
+			mCharCount = 0;
+			for (int b; (b = byteAt(0)) != quote; mPosition++)
+			{
+				if (b == -1 || b == '<' || b >= 0x80)
+				{
+					throw syntaxError("Illegal value in XML declaration.");
+				}
+				appendChar((char)b);
+			}
+			mPosition++;
+			String value = new String(mChars, 0, mCharCount);
+
+			if (index == 0 ? !name.equals("version") : name.equals("version") || name.equals("encoding") && (encoding != null || standalone != null) || name.equals("standalone") && standalone != null)
+			{
+				throw syntaxError("Illegal or misplaced pseudo attribute in XML declaration: " + name);
+			}
+
+			switch (name)
+			{
+				case "version":
+					version = value;
+					break;
+				case "encoding":
+					encoding = value;
+					break;
+				case "standalone":
+					if (!value.equals("yes") && !value.equals("no"))
+					{
+						throw syntaxError("The standalone document declaration value must be \"yes\" or \"no\", not \"" + value + "\".");
+					}
+					standalone = value.equals("yes");
+					break;
+				default:
+					throw syntaxError("Illegal attribute in XML declaration: " + name);
+			}
+		}
+
+		if (version == null)
+		{
+			throw syntaxError("The version is required in the XML declaration.");
+		}
+		if (!version.equals("1.0"))
+		{
+			throw new UnsupportedInputException("XML version " + version + " is not supported.", null);
+		}
+
+		if (encoding != null && !mForceUTF8)
+		{
+			switch (encoding.toUpperCase(Locale.ROOT))
+			{
+				case "UTF-8":
+				case "UTF8":
+					break;
+				case "US-ASCII":
+				case "ASCII":
+					mAscii = true;
+					break;
+				case "ISO-8859-1":
+				case "ISO8859-1":
+				case "ISO_8859_1":
+				case "LATIN1":
+					mLatin1 = true;
+					break;
+				default:
+					throw new UnsupportedInputException("Unsupported encoding: " + encoding, encoding);
+			}
+		}
+
+		mHandler.declaration(version, encoding, standalone);
+	}
+
+
+	private int readToken() throws IOException, UnsupportedInputException
+	{
+		int b = byteAt(0);
+
+		if (b == -1)
+		{
+			if (mState == STATE_CONTENT)
+			{
+				throw syntaxError("Unexpected end of document, unclosed element: " + mStack[mDepth - 1]);
+			}
+			if (mState == STATE_PROLOG)
+			{
+				throw syntaxError("Premature end of document, no root element found.");
+			}
+			mState = STATE_DONE;
+			return END;
+		}
+
+		if (b != '<')
+		{
+			if (mState == STATE_CONTENT)
+			{
+				readText();
+			}
+			else
+			{
+				skipWhitespace();
+				if (byteAt(0) != '<' && byteAt(0) != -1)
+				{
+					throw syntaxError("Content is not allowed outside the root element.");
+				}
+			}
+			return TOKEN;
+		}
+
+		b = byteAt(1);
+
+		if (b == '/')
+		{
+			readEndElement();
+		}
+		else if (b == '!')
+		{
+			if (startsWith(2, "--"))
+			{
+				readComment();
+			}
+			else if (startsWith(2, "[CDATA["))
+			{
+				if (mState != STATE_CONTENT)
+				{
+					throw syntaxError("CDATA section is not allowed outside the root element.");
+				}
+				readCData();
+			}
+			else if (startsWith(2, "DOCTYPE"))
+			{
+				if (mState != STATE_PROLOG)
+				{
+					throw syntaxError("Document type declaration is only allowed before the root element.");
+				}
+				if (!mSkipDocumentType)
+				{
+					throw new UnsupportedInputException("Document type declarations are not supported.", null);
+				}
+				skipDocumentType();
+			}
+			else
+			{
+				throw syntaxError("Illegal markup declaration.");
+			}
+		}
+		else if (b == '?')
+		{
+			readProcessingInstruction();
+		}
+		else
+		{
+			if (mState == STATE_EPILOG)
+			{
+				throw syntaxError("Markup after the root element must be well-formed.");
+			}
+			readStartElement();
+		}
+
+		return TOKEN;
+	}
+
+
+	private void skipDocumentType() throws IOException
+	{
+		mPosition += 9;
+
+		for (int depth = 0, quote = 0;;)
+		{
+			int b = byteAt(0);
+			mPosition++;
+
+			if (b == -1)
+			{
+				throw syntaxError("Unexpected end of document in document type declaration.");
+			}
+			if (quote != 0)
+			{
+				if (b == quote)
+				{
+					quote = 0;
+				}
+			}
+			else if (b == '"' || b == '\'')
+			{
+				quote = b;
+			}
+			else if (b == '[')
+			{
+				depth++;
+			}
+			else if (b == ']')
+			{
+				depth--;
+			}
+			else if (b == '>' && depth == 0)
+			{
+				return;
+			}
+		}
+	}
+
+
+	private void readStartElement() throws IOException
+	{
+		mPosition++;
+
+		String name = readName();
+
+		mAttributeCount = 0;
+
+		for (;;)
+		{
+			boolean whitespace = skipWhitespace();
+			int b = byteAt(0);
+
+			if (b == '>')
+			{
+				mPosition++;
+				break;
+			}
+			if (b == '/')
+			{
+				if (byteAt(1) != '>')
+				{
+					throw syntaxError("Expected '>' after '/' in element " + name);
+				}
+				mPosition += 2;
+				emitStartElement(name);
+				emitEndElement(name);
+				return;
+			}
+			if (b == -1)
+			{
+				throw syntaxError("Unexpected end of document in element " + name);
+			}
+			if (!whitespace)
+			{
+				throw syntaxError("Expected whitespace before attribute in element " + name);
+			}
+
+			String attribute = readName();
+			skipWhitespace();
+			expect('=');
+			skipWhitespace();
+			String value = readAttributeValue();
+
+			for (int i = 0; i < mAttributeCount; i++)
+			{
+				if (mAttributeNames[i].equals(attribute))
+				{
+					throw syntaxError("Attribute \"" + attribute + "\" was already specified for element " + name);
+				}
+			}
+
+			if (mAttributeCount == mAttributeNames.length)
+			{
+				mAttributeNames = grow(mAttributeNames);
+				mAttributeValues = grow(mAttributeValues);
+			}
+			mAttributeNames[mAttributeCount] = attribute;
+			mAttributeValues[mAttributeCount] = value;
+			mAttributeCount++;
+		}
+
+		emitStartElement(name);
+	}
+
+
+	private void emitStartElement(String aName)
+	{
+		mHandler.startElement(aName, this);
+
+		if (mDepth == mStack.length)
+		{
+			mStack = grow(mStack);
+		}
+		mStack[mDepth++] = aName;
+		mState = STATE_CONTENT;
+		mAttributeCount = 0;
+	}
+
+
+	private void emitEndElement(String aName)
+	{
+		mDepth--;
+		mStack[mDepth] = null;
+		mHandler.endElement(aName);
+
+		if (mDepth == 0)
+		{
+			mState = STATE_EPILOG;
+		}
+	}
+
+
+	private void readEndElement() throws IOException
+	{
+		mPosition += 2;
+
+		String name = readName();
+
+		skipWhitespace();
+		expect('>');
+
+		if (mDepth == 0 || mStack[mDepth - 1] != name)
+		{
+			throw syntaxError("The element type \"" + (mDepth == 0 ? name : mStack[mDepth - 1]) + "\" must be terminated by the matching end-tag \"</" + (mDepth == 0 ? name : mStack[mDepth - 1]) + ">\".");
+		}
+
+		emitEndElement(name);
+	}
+
+
+	private String readAttributeValue() throws IOException
+	{
+		int quote = byteAt(0);
+
+		if (quote != '"' && quote != '\'')
+		{
+			throw syntaxError("Expected quoted attribute value.");
+		}
+
+		mPosition++;
+		mCharCount = 0;
+
+		for (;;)
+		{
+			int b = byteAt(0);
+
+			if (b == quote)
+			{
+				mPosition++;
+				break;
+			}
+
+			switch (b)
+			{
+				case -1:
+					throw syntaxError("Unexpected end of document in attribute value.");
+				case '<':
+					throw syntaxError("The value of attribute must not contain the '<' character.");
+				case '&':
+					readReference();
+					break;
+				case '\r':
+					if (byteAt(1) == '\n')
+					{
+						mPosition++;
+					}
+					mPosition++;
+					appendChar(' ');
+					break;
+				case '\n':
+				case '\t':
+					mPosition++;
+					appendChar(' ');
+					break;
+				default:
+					readChar(b);
+					break;
+			}
+		}
+
+		return new String(mChars, 0, mCharCount);
+	}
+
+
+	private void readText() throws IOException
+	{
+		mCharCount = 0;
+
+		try
+		{
+			for (;;)
+			{
+				if (mPosition == mLimit && !fill())
+				{
+					break;
+				}
+
+				int b = mBuffer.get(mPosition);
+
+				if (b == '<')
+				{
+					break;
+				}
+
+				if (b >= 0x20 && b != '&' && b != ']' || b == '\n' || b == '\t')
+				{
+					appendChar((char)b);
+					mPosition++;
+				}
+				else if (b == '&')
+				{
+					readReference();
+				}
+				else if (b == ']')
+				{
+					if (byteAt(1) == ']' && byteAt(2) == '>')
+					{
+						throw syntaxError("The character sequence \"]]>\" must not appear in content unless used to mark the end of a CDATA section.");
+					}
+					appendChar(']');
+					mPosition++;
+				}
+				else if (b == '\r')
+				{
+					if (byteAt(1) == '\n')
+					{
+						mPosition++;
+					}
+					mPosition++;
+					appendChar('\n');
+				}
+				else
+				{
+					readChar(b & 0xFF);
+				}
+
+				if (mRollback)
+				{
+					mMark = mPosition;
+				}
+			}
+		}
+		catch (NeedInputException e)
+		{
+			if (mCharCount == 0)
+			{
+				throw e;
+			}
+		}
+
+		mHandler.text(mChars, 0, mCharCount);
+	}
+
+
+	private void readCData() throws IOException
+	{
+		mPosition += 9;
+		mCharCount = 0;
+
+		for (;;)
+		{
+			int b = byteAt(0);
+
+			if (b == ']' && byteAt(1) == ']' && byteAt(2) == '>')
+			{
+				mPosition += 3;
+				break;
+			}
+			if (b == -1)
+			{
+				throw syntaxError("Unexpected end of document in CDATA section.");
+			}
+
+			readContentChar(b);
+		}
+
+		mHandler.cdata(mChars, 0, mCharCount);
+	}
+
+
+	private void readComment() throws IOException
+	{
+		mPosition += 4;
+		mCharCount = 0;
+
+		for (;;)
+		{
+			int b = byteAt(0);
+
+			if (b == '-' && byteAt(1) == '-')
+			{
+				if (byteAt(2) != '>')
+				{
+					throw syntaxError("The string \"--\" is not permitted within comments.");
+				}
+				mPosition += 3;
+				break;
+			}
+			if (b == -1)
+			{
+				throw syntaxError("Unexpected end of document in comment.");
+			}
+
+			readContentChar(b);
+		}
+
+		mHandler.comment(mChars, 0, mCharCount);
+	}
+
+
+	private void readProcessingInstruction() throws IOException
+	{
+		mPosition += 2;
+
+		String target = readName();
+
+		if (target.equalsIgnoreCase("xml"))
+		{
+			throw syntaxError("The processing instruction target matching \"[xX][mM][lL]\" is not allowed.");
+		}
+
+		if (!skipWhitespace() && !(byteAt(0) == '?' && byteAt(1) == '>'))
+		{
+			throw syntaxError("White space is required between the processing instruction target and data.");
+		}
+
+		mCharCount = 0;
+
+		for (;;)
+		{
+			int b = byteAt(0);
+
+			if (b == '?' && byteAt(1) == '>')
+			{
+				mPosition += 2;
+				break;
+			}
+			if (b == -1)
+			{
+				throw syntaxError("Unexpected end of document in processing instruction.");
+			}
+
+			readContentChar(b);
+		}
+
+		mHandler.processingInstruction(target, new String(mChars, 0, mCharCount));
+	}
+
+
+	private void readContentChar(int aByte) throws IOException
+	{
+		if (aByte == '\r')
+		{
+			if (byteAt(1) == '\n')
+			{
+				mPosition++;
+			}
+			mPosition++;
+			appendChar('\n');
+		}
+		else
+		{
+			readChar(aByte);
+		}
+	}
+
+
+	/**
+	 * Decode one character starting with the provided byte and append it to the character buffer.
+	 */
+	private void readChar(int aByte) throws IOException
+	{
+		if (aByte < 0x80 || mLatin1)
+		{
+			if (aByte < 0x20 && aByte != '\t' && aByte != '\n' && aByte != '\r')
+			{
+				throw illegalCharacter(aByte);
+			}
+			appendChar((char)aByte);
+			mPosition++;
+			return;
+		}
+		if (mAscii)
+		{
+			throw syntaxError("Byte 0x" + Integer.toHexString(aByte) + " is not 7-bit ASCII.");
+		}
+
+		int codePoint;
+		int length;
+
+		if ((aByte & 0xE0) == 0xC0)
+		{
+			codePoint = aByte & 0x1F;
+			length = 2;
+		}
+		else if ((aByte & 0xF0) == 0xE0)
+		{
+			codePoint = aByte & 0x0F;
+			length = 3;
+		}
+		else if ((aByte & 0xF8) == 0xF0)
+		{
+			codePoint = aByte & 0x07;
+			length = 4;
+		}
+		else
+		{
+			throw syntaxError("Invalid byte 1 of UTF-8 sequence: 0x" + Integer.toHexString(aByte));
+		}
+
+		for (int i = 1; i < length; i++)
+		{
+			int b = byteAt(i);
+			if ((b & 0xC0) != 0x80)
+			{
+				throw syntaxError("Invalid byte " + (i + 1) + " of " + length + "-byte UTF-8 sequence.");
+			}
+			codePoint = (codePoint << 6) | (b & 0x3F);
+		}
+
+		if (codePoint < (length == 2 ? 0x80 : length == 3 ? 0x800 : 0x10000))
+		{
+			throw syntaxError("Overlong " + length + "-byte UTF-8 sequence.");
+		}
+		if (!isChar(codePoint))
+		{
+			throw illegalCharacter(codePoint);
+		}
+
+		mPosition += length;
+
+		if (codePoint >= 0x10000)
+		{
+			appendChar(Character.highSurrogate(codePoint));
+			appendChar(Character.lowSurrogate(codePoint));
+		}
+		else
+		{
+			appendChar((char)codePoint);
+		}
+	}
+
+
+	private void readReference() throws IOException
+	{
+		int end = 1;
+
+		for (int b; (b = byteAt(end)) != ';'; end++)
+		{
+			if (b == -1 || end > 16)
+			{
+				throw syntaxError("The entity reference must end with the ';' delimiter.");
+			}
+		}
+
+		int codePoint;
+
+		if (byteAt(1) == '#')
+		{
+			codePoint = 0;
+			boolean hex = byteAt(2) == 'x';
+
+			for (int i = hex ? 3 : 2; i < end; i++)
+			{
+				int b = byteAt(i);
+				int digit = Character.digit(b, hex ? 16 : 10);
+				if (digit < 0)
+				{
+					throw syntaxError("Illegal character reference.");
+				}
+				codePoint = Math.min(codePoint * (hex ? 16 : 10) + digit, Character.MAX_CODE_POINT + 1);
+			}
+			if (end == (hex ? 3 : 2))
+			{
+				throw syntaxError("Illegal character reference.");
+			}
+			if (!isChar(codePoint))
+			{
+				throw syntaxError("Character reference \"&#" + (hex ? "x" + Integer.toHexString(codePoint) : codePoint) + "\" is an invalid XML character.");
+			}
+		}
+		else if (end == 3 && byteAt(1) == 'l' && byteAt(2) == 't')
+		{
+			codePoint = '<';
+		}
+		else if (end == 3 && byteAt(1) == 'g' && byteAt(2) == 't')
+		{
+			codePoint = '>';
+		}
+		else if (end == 4 && startsWith(1, "amp"))
+		{
+			codePoint = '&';
+		}
+		else if (end == 5 && startsWith(1, "quot"))
+		{
+			codePoint = '"';
+		}
+		else if (end == 5 && startsWith(1, "apos"))
+		{
+			codePoint = '\'';
+		}
+		else
+		{
+			StringBuilder name = new StringBuilder();
+			for (int i = 1; i < end; i++)
+			{
+				name.append((char)byteAt(i));
+			}
+			throw syntaxError("The entity \"" + name + "\" was referenced, but not declared.");
+		}
+
+		mPosition += end + 1;
+
+		if (codePoint >= 0x10000)
+		{
+			appendChar(Character.highSurrogate(codePoint));
+			appendChar(Character.lowSurrogate(codePoint));
+		}
+		else
+		{
+			appendChar((char)codePoint);
+		}
+	}
+
+
+	/**
+	 * Read a name and return it as an interned symbol.
+	 */
+	private String readName() throws IOException
+	{
+		mCharCount = 0;
+
+		int b = byteAt(0);
+
+		if (b == -1 || !(b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b == '_' || b == ':' || b >= 0x80))
+		{
+			throw syntaxError("Illegal name start character: " + (b == -1 ? "EOF" : "'" + (char)b + "'"));
+		}
+
+		int hash = 0;
+
+		for (;;)
+		{
+			if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_' || b == ':' || b == '-' || b == '.')
+			{
+				appendChar((char)b);
+				hash = 31 * hash + b;
+				mPosition++;
+			}
+			else if (b >= 0x80)
+			{
+				int count = mCharCount;
+				readChar(b);
+				int codePoint = Character.codePointAt(mChars, count);
+				if (count == 0 ? !isNameStartChar(codePoint) : !isNameChar(codePoint))
+				{
+					throw syntaxError("Illegal name character: '" + new String(Character.toChars(codePoint)) + "'");
+				}
+				for (int i = count; i < mCharCount; i++)
+				{
+					hash = 31 * hash + mChars[i];
+				}
+			}
+			else
+			{
+				break;
+			}
+
+			b = byteAt(0);
+		}
+
+		return symbol(hash);
+	}
+
+
+	/**
+	 * Return an interned String for the characters in the character buffer.
+	 */
+	private String symbol(int aHash)
+	{
+		int mask = mSymbols.length - 1;
+
+		for (int i = aHash & mask; ; i = (i + 1) & mask)
+		{
+			String s = mSymbols[i];
+
+			if (s == null)
+			{
+				s = new String(mChars, 0, mCharCount);
+
+				if (2 * ++mSymbolCount > mSymbols.length)
+				{
+					String[] old = mSymbols;
+					mSymbols = new String[2 * old.length];
+					mask = mSymbols.length - 1;
+					for (String t : old)
+					{
+						if (t != null)
+						{
+							int j = t.hashCode() & mask;
+							while (mSymbols[j] != null)
+							{
+								j = (j + 1) & mask;
+							}
+							mSymbols[j] = t;
+						}
+					}
+					mSymbols[find(s, mask)] = s;
+				}
+				else
+				{
+					mSymbols[i] = s;
+				}
+
+				return s;
+			}
+
+			if (s.length() == mCharCount && s.hashCode() == aHash && equals(s))
+			{
+				return s;
+			}
+		}
+	}
+
+
+	private int find(String aSymbol, int aMask)
+	{
+		int j = aSymbol.hashCode() & aMask;
+		while (mSymbols[j] != null)
+		{
+			j = (j + 1) & aMask;
+		}
+		return j;
+	}
+
+
+	private boolean equals(String aSymbol)
+	{
+		for (int i = 0; i < mCharCount; i++)
+		{
+			if (aSymbol.charAt(i) != mChars[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private void appendChar(char aChar)
+	{
+		if (mCharCount == mChars.length)
+		{
+			char[] tmp = new char[2 * mChars.length];
+			System.arraycopy(mChars, 0, tmp, 0, mCharCount);
+			mChars = tmp;
+		}
+		mChars[mCharCount++] = aChar;
+	}
+
+
+	private boolean skipWhitespace() throws IOException
+	{
+		boolean found = false;
+		while (isWhitespace(byteAt(0)))
+		{
+			mPosition++;
+			found = true;
+		}
+		return found;
+	}
+
+
+	private static boolean isWhitespace(int aByte)
+	{
+		return aByte == ' ' || aByte == '\n' || aByte == '\t' || aByte == '\r';
+	}
+
+
+	/**
+	 * Return true if the code point matches the NameStartChar production of XML 1.0.
+	 */
+	static boolean isNameStartChar(int aCodePoint)
+	{
+		if (aCodePoint < 0x80)
+		{
+			return aCodePoint >= 'a' && aCodePoint <= 'z' || aCodePoint >= 'A' && aCodePoint <= 'Z' || aCodePoint == '_' || aCodePoint == ':';
+		}
+
+		return aCodePoint >= 0xC0 && aCodePoint <= 0x2FF && aCodePoint != 0xD7 && aCodePoint != 0xF7
+			|| aCodePoint >= 0x370 && aCodePoint <= 0x1FFF && aCodePoint != 0x37E
+			|| aCodePoint == 0x200C || aCodePoint == 0x200D
+			|| aCodePoint >= 0x2070 && aCodePoint <= 0x218F
+			|| aCodePoint >= 0x2C00 && aCodePoint <= 0x2FEF
+			|| aCodePoint >= 0x3001 && aCodePoint <= 0xD7FF
+			|| aCodePoint >= 0xF900 && aCodePoint <= 0xFDCF
+			|| aCodePoint >= 0xFDF0 && aCodePoint <= 0xFFFD
+			|| aCodePoint >= 0x10000 && aCodePoint <= 0xEFFFF;
+	}
+
+
+	/**
+	 * Return true if the code point matches the NameChar production of XML 1.0.
+	 */
+	static boolean isNameChar(int aCodePoint)
+	{
+		return isNameStartChar(aCodePoint)
+			|| aCodePoint >= '0' && aCodePoint <= '9' || aCodePoint == '-' || aCodePoint == '.'
+			|| aCodePoint == 0xB7 || aCodePoint >= 0x300 && aCodePoint <= 0x36F || aCodePoint == 0x203F || aCodePoint == 0x2040;
+	}
+
+
+	/**
+	 * Return true if the code point matches the Char production of XML 1.0.
+	 */
+	private static boolean isChar(int aCodePoint)
+	{
+		return aCodePoint >= 0x20 ? aCodePoint <= 0xD7FF || aCodePoint >= 0xE000 && aCodePoint <= 0xFFFD || aCodePoint >= 0x10000 && aCodePoint <= Character.MAX_CODE_POINT : aCodePoint == '\t' || aCodePoint == '\n' || aCodePoint == '\r';
+	}
+
+
+	private void expect(char aChar) throws IOException
+	{
+		if (byteAt(0) != aChar)
+		{
+			throw syntaxError("Expected '" + aChar + "'.");
+		}
+		mPosition++;
+	}
+
+
+	private boolean startsWith(int aOffset, String aText) throws IOException
+	{
+		for (int i = 0; i < aText.length(); i++)
+		{
+			if (byteAt(aOffset + i) != aText.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Return the unsigned byte at the offset relative to the current position or -1 at end of input.
+	 */
+	private int byteAt(int aOffset) throws IOException
+	{
+		while (mPosition + aOffset >= mLimit)
+		{
+			if (!fill())
+			{
+				return -1;
+			}
+		}
+		return mBuffer.get(mPosition + aOffset) & 0xFF;
+	}
+
+
+	/**
+	 * Read more bytes into the buffer.
+	 *
+	 * @return
+	 *   false at end of input
+	 * @throws NeedInputException
+	 *   if the input is non-blocking and no more bytes are available
+	 */
+	private boolean fill() throws IOException
+	{
+		int keep = mMark >= 0 ? mMark : mPosition;
+
+		if (mState < STATE_CONTENT && mInput.isReplayable())
+		{
+			keep = 0;
+		}
+
+		countLines(keep);
+
+		long offset = mInput.mOffset;
+		boolean filled = mInput.refill(keep);
+		int shift = (int)(mInput.mOffset - offset);
+
+		mPosition -= shift;
+		if (mMark >= 0)
+		{
+			mMark -= shift;
+		}
+		mBuffer = mInput.mBuffer;
+		mLimit = mBuffer.limit();
+
+		if (!filled && !mInput.isComplete())
+		{
+			throw NEED_INPUT_EXCEPTION;
+		}
+
+		return filled;
+	}
+
+
+	/**
+	 * Advance the line and column count to the position in the buffer.
+	 */
+	private void countLines(int aPosition)
+	{
+		int end = Math.min(aPosition, mLimit);
+		int start = (int)(mCounted - mInput.mOffset);
+
+		if (start >= end)
+		{
+			return;
+		}
+
+		ByteBuffer buffer = mBuffer;
+		long line = mLine;
+		long column = mColumn;
+		boolean cr = mCarriageReturn;
+
+		for (int i = start; i < end; i++)
+		{
+			int b = buffer.get(i);
+
+			if (b == '\n' || b == '\r')
+			{
+				if (b == '\r' || !cr)
+				{
+					line++;
+				}
+				column = 0;
+			}
+			else if (mLatin1 || (b & 0xC0) != 0x80)
+			{
+				column++;
+			}
+
+			cr = b == '\r';
+		}
+
+		mLine = line;
+		mColumn = column;
+		mCarriageReturn = cr;
+		mCounted = mInput.mOffset + end;
+	}
+
+
+	/**
+	 * Return an exception for a document that isn't well-formed at the current position.
+	 */
+	XmlException syntaxError(String aMessage)
+	{
+		countLines(mPosition);
+
+		return new XmlException("XML document structures must be well-formed: " + aMessage + " (line " + (mLine + 1) + ", column " + (mColumn + 1) + ", byte offset " + getOffset() + ")");
+	}
+
+
+	private XmlException illegalCharacter(int aCodePoint)
+	{
+		return syntaxError("An invalid XML character (Unicode: 0x" + Integer.toHexString(aCodePoint) + ") was found.");
+	}
+
+
+	private static String[] grow(String[] aArray)
+	{
+		String[] tmp = new String[2 * aArray.length];
+		System.arraycopy(aArray, 0, tmp, 0, aArray.length);
+		return tmp;
+	}
+
+
+	/**
+	 * A window of bytes read from an input source.
+	 */
+	abstract static class Input
+	{
+		/** Bytes from position zero to the limit are available. */
+		ByteBuffer mBuffer;
+		/** Absolute offset in the input of position zero in the buffer. */
+		long mOffset;
+
+
+		/**
+		 * Discard bytes before the provided position and make more bytes available.
+		 *
+		 * @return
+		 *   false if no bytes could be added
+		 */
+		abstract boolean refill(int aKeep) throws IOException;
+
+
+		/**
+		 * Return true if a refill blocks until bytes are available or the input has ended.
+		 */
+		boolean isBlocking()
+		{
+			return true;
+		}
+
+
+		/**
+		 * Return true if the end of the input has been reached when a refill fails.
+		 */
+		boolean isComplete()
+		{
+			return true;
+		}
+
+
+		/**
+		 * Return true if the input can be replayed from the start, all bytes are then retained while parsing the prolog.
+		 */
+		boolean isReplayable()
+		{
+			return false;
+		}
+
+
+		/**
+		 * Return a stream of the entire input, valid only while the prolog is being parsed.
+		 */
+		InputStream replay() throws IOException
+		{
+			throw new IllegalStateException("Input is not replayable.");
+		}
+
+
+		void close() throws IOException
+		{
+		}
+	}
+
+
+	/**
+	 * Input reading from a byte array.
+	 */
+	static class ArrayInput extends Input
+	{
+		private final byte[] mArray;
+		private final int mArrayOffset;
+		private final int mArrayLength;
+
+
+		ArrayInput(byte[] aArray, int aOffset, int aLength)
+		{
+			mArray = aArray;
+			mArrayOffset = aOffset;
+			mArrayLength = aLength;
+			mBuffer = ByteBuffer.wrap(aArray, aOffset, aLength).slice();
+		}
+
+
+		@Override
+		boolean refill(int aKeep)
+		{
+			return false;
+		}
+
+
+		@Override
+		boolean isReplayable()
+		{
+			return true;
+		}
+
+
+		@Override
+		InputStream replay()
+		{
+			return new ByteArrayInputStream(mArray, mArrayOffset, mArrayLength);
+		}
+	}
+
+
+	/**
+	 * Input reading blocks from an InputStream into a reusable buffer.
+	 */
+	static class StreamInput extends Input
+	{
+		private final InputStream mInputStream;
+		private byte[] mArray;
+		private boolean mEOF;
+
+
+		StreamInput(InputStream aInputStream, int aBufferSize)
+		{
+			mInputStream = aInputStream;
+			mArray = new byte[aBufferSize];
+			mBuffer = ByteBuffer.wrap(mArray, 0, 0);
+		}
+
+
+		@Override
+		boolean refill(int aKeep) throws IOException
+		{
+			if (mEOF)
+			{
+				return false;
+			}
+
+			int limit = mBuffer.limit();
+
+			if (limit == mArray.length)
+			{
+				if (aKeep > 0)
+				{
+					System.arraycopy(mArray, aKeep, mArray, 0, limit - aKeep);
+					limit -= aKeep;
+					mOffset += aKeep;
+				}
+				else
+				{
+					byte[] tmp = new byte[2 * mArray.length];
+					System.arraycopy(mArray, 0, tmp, 0, limit);
+					mArray = tmp;
+				}
+			}
+
+			int len = mInputStream.read(mArray, limit, mArray.length - limit);
+
+			while (len == 0)
+			{
+				len = mInputStream.read(mArray, limit, mArray.length - limit);
+			}
+
+			if (len < 0)
+			{
+				mEOF = true;
+				mBuffer = ByteBuffer.wrap(mArray, 0, limit);
+				return false;
+			}
+
+			mBuffer = ByteBuffer.wrap(mArray, 0, limit + len);
+
+			return true;
+		}
+
+
+		@Override
+		boolean isReplayable()
+		{
+			return mOffset == 0;
+		}
+
+
+		@Override
+		InputStream replay()
+		{
+			InputStream head = new ByteArrayInputStream(mArray, 0, mBuffer.limit());
+			return mEOF ? head : new SequenceInputStream(head, mInputStream);
+		}
+	}
+
+
+	/**
+	 * Non-blocking input receiving bytes pushed by the caller. Bytes fed are made available by the next refill, a refill
+	 * without new bytes fails and the parser rolls back the token being read until more bytes are fed or the input is
+	 * ended.
+	 */
+	static class FeedInput extends Input
+	{
+		private byte[] mArray;
+		private byte[] mPending;
+		private int mPendingLength;
+		private boolean mEnded;
+
+
+		FeedInput(int aBufferSize)
+		{
+			mArray = new byte[aBufferSize];
+			mPending = new byte[aBufferSize];
+			mBuffer = ByteBuffer.wrap(mArray, 0, 0);
+		}
+
+
+		/**
+		 * Queue the remaining bytes of the buffer, the position of the buffer is moved to its limit.
+		 */
+		void feed(ByteBuffer aBuffer)
+		{
+			int length = aBuffer.remaining();
+
+			if (mPendingLength + length > mPending.length)
+			{
+				byte[] tmp = new byte[Math.max(2 * mPending.length, mPendingLength + length)];
+				System.arraycopy(mPending, 0, tmp, 0, mPendingLength);
+				mPending = tmp;
+			}
+
+			aBuffer.get(mPending, mPendingLength, length);
+			mPendingLength += length;
+		}
+
+
+		/**
+		 * Mark the end of the input, refills fail permanently once all bytes fed have been made available.
+		 */
+		void end()
+		{
+			mEnded = true;
+		}
+
+
+		@Override
+		boolean refill(int aKeep)
+		{
+			if (mPendingLength == 0)
+			{
+				return false;
+			}
+
+			int limit = mBuffer.limit();
+			int retained = limit - aKeep;
+
+			if (retained + mPendingLength > mArray.length)
+			{
+				byte[] tmp = new byte[Math.max(2 * mArray.length, retained + mPendingLength)];
+				System.arraycopy(mArray, aKeep, tmp, 0, retained);
+				mArray = tmp;
+			}
+			else if (aKeep > 0)
+			{
+				System.arraycopy(mArray, aKeep, mArray, 0, retained);
+			}
+
+			System.arraycopy(mPending, 0, mArray, retained, mPendingLength);
+
+			mOffset += aKeep;
+			mBuffer = ByteBuffer.wrap(mArray, 0, retained + mPendingLength);
+			mPendingLength = 0;
+
+			return true;
+		}
+
+
+		@Override
+		boolean isBlocking()
+		{
+			return false;
+		}
+
+
+		@Override
+		boolean isComplete()
+		{
+			return mEnded && mPendingLength == 0;
+		}
+
+
+		@Override
+		boolean isReplayable()
+		{
+			return mOffset == 0;
+		}
+
+
+		/**
+		 * Return the bytes fed so far, including bytes not yet made available.
+		 */
+		@Override
+		InputStream replay()
+		{
+			return new SequenceInputStream(new ByteArrayInputStream(mArray, 0, mBuffer.limit()), new ByteArrayInputStream(mPending, 0, mPendingLength));
+		}
+	}
+
+
+	/**
+	 * Input scanning a memory mapped file. Files larger than the window size are mapped in several consecutive windows, a
+	 * new window starts at the first byte that must be kept.
+	 */
+	static class MappedInput extends Input
+	{
+		final static long DEFAULT_WINDOW_SIZE = 1L << 30;
+
+		private final File mFile;
+		private final FileChannel mChannel;
+		private final long mSize;
+		private final long mWindowSize;
+
+
+		MappedInput(File aFile, long aWindowSize) throws IOException
+		{
+			mFile = aFile;
+			mChannel = FileChannel.open(aFile.toPath(), StandardOpenOption.READ);
+			mSize = mChannel.size();
+			mWindowSize = aWindowSize;
+
+			try
+			{
+				mBuffer = mChannel.map(MapMode.READ_ONLY, 0, Math.min(mWindowSize, mSize));
+			}
+			catch (IOException | RuntimeException e)
+			{
+				mChannel.close();
+				throw e;
+			}
+		}
+
+
+		@Override
+		boolean refill(int aKeep) throws IOException
+		{
+			long end = mOffset + mBuffer.limit();
+
+			if (end >= mSize)
+			{
+				return false;
+			}
+
+			long start = mOffset + aKeep;
+			long length = Math.min(Math.max(mWindowSize, 2 * (end - start)), mSize - start);
+
+			if (length > Integer.MAX_VALUE)
+			{
+				throw new IOException("Token exceeds maximum mapping size at offset " + start);
+			}
+
+			mBuffer = mChannel.map(MapMode.READ_ONLY, start, length);
+			mOffset = start;
+
+			return true;
+		}
+
+
+		@Override
+		boolean isReplayable()
+		{
+			return mOffset == 0;
+		}
+
+
+		@Override
+		InputStream replay() throws IOException
+		{
+			return new FileInputStream(mFile);
+		}
+
+
+		@Override
+		void close() throws IOException
+		{
+			mChannel.close();
+		}
+	}
+
+
+	/**
+	 * Thrown when the document can't be parsed by this parser, the input can be replayed using a JAXP parser instead.
+	 */
+	static class UnsupportedInputException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String mEncoding;
+
+
+		UnsupportedInputException(String aMessage, String aEncoding)
+		{
+			super(aMessage);
+			mEncoding = aEncoding;
+		}
+
+
+		/**
+		 * Return the name of the unsupported encoding or null if the document was rejected for another reason.
+		 */
+		String getEncoding()
+		{
+			return mEncoding;
+		}
+	}
+
+
+	/**
+	 * InputStream encoding the characters of a Reader as UTF-8, used together with setForceUTF8.
+	 */
+	static class ReaderInputStream extends InputStream
+	{
+		private final Reader mReader;
+		private final CharsetEncoder mEncoder;
+		private final CharBuffer mChars;
+		private final ByteBuffer mBytes;
+		private boolean mEOF;
+
+
+		ReaderInputStream(Reader aReader)
+		{
+			mReader = aReader;
+			mEncoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+			mChars = CharBuffer.allocate(8192);
+			mBytes = ByteBuffer.allocate(3 * 8192 + 16);
+			mChars.flip();
+			mBytes.flip();
+		}
+
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] buf = new byte[1];
+			return read(buf, 0, 1) == -1 ? -1 : buf[0] & 0xFF;
+		}
+
+
+		@Override
+		public int read(byte[] aBuffer, int aOffset, int aLength) throws IOException
+		{
+			while (!mBytes.hasRemaining())
+			{
+				if (mEOF && !mChars.hasRemaining())
+				{
+					return -1;
+				}
+
+				if (!mEOF)
+				{
+					mChars.compact();
+					int n = mReader.read(mChars);
+					mChars.flip();
+					if (n < 0)
+					{
+						mEOF = true;
+					}
+				}
+
+				mBytes.clear();
+				mEncoder.encode(mChars, mBytes, mEOF);
+				if (mEOF && !mChars.hasRemaining())
+				{
+					mEncoder.flush(mBytes);
+				}
+				mBytes.flip();
+			}
+
+			int n = Math.min(aLength, mBytes.remaining());
+			mBytes.get(aBuffer, aOffset, n);
+			return n;
+		}
+
+
+		@Override
+		public void close() throws IOException
+		{
+			mReader.close();
+		}
+	}
+
+
+	private static class NeedInputException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+
+		NeedInputException()
+		{
+			super(null, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,463 @@
+package org.terifan.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+
+/**
+ * Builds a XmlCompactDocument from the events of a XmlByteParser or by copying an existing DOM.
+ */
+class XmlCompactBuilder implements XmlByteParser.Handler
+{
+	private final static int MAX_SHARED_LENGTH = 32;
+	private final static int MAX_SHARED_VALUES = 65536;
+
+	private final boolean mNamespaceAware;
+	private final boolean mCoalescing;
+	private final boolean mIgnoringComments;
+	private final XmlNamespaceScope mScope;
+	private final HashMap<String,Integer> mSymbols;
+	private final HashMap<String,Integer> mSharedValues;
+
+	byte[] mTypes;
+	int[] mParents;
+	int[] mFirstChildren;
+	int[] mNextSiblings;
+	int[] mNames;
+	int[] mValues;
+	int[] mLengths;
+	int mNodeCount;
+
+	int[] mAttributeOwners;
+	int[] mAttributeNames;
+	int[] mAttributeValues;
+	int[] mAttributeLengths;
+	int mAttributeCount;
+
+	ArrayList<String> mQNames;
+	ArrayList<String> mNamespaceURIs;
+	ArrayList<String> mLocalNames;
+
+	char[] mChars;
+	int mCharCount;
+
+	String mXmlVersion;
+	String mXmlEncoding;
+	boolean mXmlStandalone;
+	String mDocumentURI;
+
+	private int[] mOpen;
+	private int[] mLastChildren;
+	private int mDepth;
+
+
+	XmlCompactBuilder(XmlParserConfig aConfig)
+	{
+		mNamespaceAware = aConfig.isNamespaceAware();
+		mCoalescing = aConfig.isCoalescing();
+		mIgnoringComments = aConfig.isIgnoringComments();
+		mScope = new XmlNamespaceScope();
+		mSymbols = new HashMap<>();
+		mSharedValues = new HashMap<>();
+
+		mTypes = new byte[256];
+		mParents = new int[256];
+		mFirstChildren = new int[256];
+		mNextSiblings = new int[256];
+		mNames = new int[256];
+		mValues = new int[256];
+		mLengths = new int[256];
+
+		mAttributeOwners = new int[64];
+		mAttributeNames = new int[64];
+		mAttributeValues = new int[64];
+		mAttributeLengths = new int[64];
+
+		mQNames = new ArrayList<>();
+		mNamespaceURIs = new ArrayList<>();
+		mLocalNames = new ArrayList<>();
+
+		mChars = new char[4096];
+		mXmlVersion = "1.0";
+
+		mOpen = new int[32];
+		mLastChildren = new int[32];
+		mLastChildren[0] = -1;
+
+		addNode(Node.DOCUMENT_NODE, -1, 0, 0);
+	}
+
+
+	/**
+	 * Create a compact copy of a Document or Element.
+	 */
+	static XmlCompactDocument copyOf(Node aNode)
+	{
+		XmlCompactBuilder builder = new XmlCompactBuilder(new XmlParserConfig());
+
+		if (aNode instanceof Document)
+		{
+			Document doc = (Document)aNode;
+			builder.mXmlVersion = doc.getXmlVersion();
+			builder.mXmlEncoding = doc.getXmlEncoding();
+			builder.mXmlStandalone = doc.getXmlStandalone();
+			builder.mDocumentURI = doc.getDocumentURI();
+		}
+
+		builder.copy(aNode);
+
+		return builder.getDocument();
+	}
+
+
+	XmlCompactDocument getDocument()
+	{
+		return new XmlCompactDocument(this);
+	}
+
+
+	@Override
+	public void declaration(String aVersion, String aEncoding, Boolean aStandalone)
+	{
+		if (aVersion != null)
+		{
+			mXmlVersion = aVersion;
+		}
+		mXmlEncoding = aEncoding;
+		mXmlStandalone = aStandalone != null && aStandalone;
+	}
+
+
+	@Override
+	public void startElement(String aName, XmlByteParser aParser)
+	{
+		int attributeCount = aParser.getAttributeCount();
+		int element;
+
+		if (mNamespaceAware)
+		{
+			mScope.push(aParser);
+
+			element = startElement(symbol(aName, mScope.resolve(aName, true), localName(aName)), attributeCount);
+
+			for (int i = 0; i < attributeCount; i++)
+			{
+				String name = aParser.getAttributeName(i);
+				addAttribute(element, symbol(name, mScope.resolveAttribute(name), localName(name)), aParser.getAttributeValue(i));
+			}
+		}
+		else
+		{
+			element = startElement(symbol(aName, null, null), attributeCount);
+
+			for (int i = 0; i < attributeCount; i++)
+			{
+				addAttribute(element, symbol(aParser.getAttributeName(i), null, null), aParser.getAttributeValue(i));
+			}
+		}
+	}
+
+
+	@Override
+	public void endElement(String aName)
+	{
+		if (mNamespaceAware)
+		{
+			mScope.pop();
+		}
+
+		mDepth--;
+	}
+
+
+	@Override
+	public void text(char[] aChars, int aOffset, int aLength)
+	{
+		int last = mLastChildren[mDepth];
+
+		if (last != -1 && mTypes[last] == Node.TEXT_NODE)
+		{
+			if (mValues[last] + mLengths[last] != mCharCount)
+			{
+				mValues[last] = appendChars(mChars, mValues[last], mLengths[last]);
+			}
+			appendChars(aChars, aOffset, aLength);
+			mLengths[last] += aLength;
+		}
+		else
+		{
+			addNode(Node.TEXT_NODE, -1, shareChars(aChars, aOffset, aLength), aLength);
+		}
+	}
+
+
+	@Override
+	public void cdata(char[] aChars, int aOffset, int aLength)
+	{
+		if (mCoalescing)
+		{
+			text(aChars, aOffset, aLength);
+		}
+		else
+		{
+			addNode(Node.CDATA_SECTION_NODE, -1, appendChars(aChars, aOffset, aLength), aLength);
+		}
+	}
+
+
+	@Override
+	public void comment(char[] aChars, int aOffset, int aLength)
+	{
+		if (!mIgnoringComments)
+		{
+			addNode(Node.COMMENT_NODE, -1, appendChars(aChars, aOffset, aLength), aLength);
+		}
+	}
+
+
+	@Override
+	public void processingInstruction(String aTarget, String aData)
+	{
+		addNode(Node.PROCESSING_INSTRUCTION_NODE, symbol(aTarget, null, null), appendChars(aData), aData.length());
+	}
+
+
+	private void copy(Node aNode)
+	{
+		switch (aNode.getNodeType())
+		{
+			case Node.DOCUMENT_NODE:
+			case Node.DOCUMENT_FRAGMENT_NODE:
+			case Node.ENTITY_REFERENCE_NODE:
+				for (Node child = aNode.getFirstChild(); child != null; child = child.getNextSibling())
+				{
+					copy(child);
+				}
+				break;
+			case Node.ELEMENT_NODE:
+				NamedNodeMap attributes = aNode.getAttributes();
+				int element = startElement(symbol(aNode.getNodeName(), aNode.getNamespaceURI(), aNode.getLocalName()), attributes.getLength());
+				for (int i = 0; i < attributes.getLength(); i++)
+				{
+					Node attr = attributes.item(i);
+					addAttribute(element, symbol(attr.getNodeName(), attr.getNamespaceURI(), attr.getLocalName()), attr.getNodeValue());
+				}
+				for (Node child = aNode.getFirstChild(); child != null; child = child.getNextSibling())
+				{
+					copy(child);
+				}
+				endElement();
+				break;
+			case Node.TEXT_NODE:
+				String text = aNode.getNodeValue();
+				text(text.toCharArray(), 0, text.length());
+				break;
+			case Node.CDATA_SECTION_NODE:
+				addNode(Node.CDATA_SECTION_NODE, -1, appendChars(aNode.getNodeValue()), aNode.getNodeValue().length());
+				break;
+			case Node.COMMENT_NODE:
+				addNode(Node.COMMENT_NODE, -1, appendChars(aNode.getNodeValue()), aNode.getNodeValue().length());
+				break;
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				addNode(Node.PROCESSING_INSTRUCTION_NODE, symbol(aNode.getNodeName(), null, null), appendChars(aNode.getNodeValue()), aNode.getNodeValue().length());
+				break;
+			default:
+				break;
+		}
+	}
+
+
+	/**
+	 * Add an element and make it the parent of nodes added until endElement is called.
+	 */
+	int startElement(int aSymbol, int aAttributeCount)
+	{
+		int element = addNode(Node.ELEMENT_NODE, aSymbol, mAttributeCount, aAttributeCount);
+
+		if (++mDepth == mOpen.length)
+		{
+			mOpen = Arrays.copyOf(mOpen, 2 * mOpen.length);
+			mLastChildren = Arrays.copyOf(mLastChildren, 2 * mLastChildren.length);
+		}
+		mOpen[mDepth] = element;
+		mLastChildren[mDepth] = -1;
+
+		return element;
+	}
+
+
+	/**
+	 * End the element most recently started by startElement(int, int).
+	 */
+	void endElement()
+	{
+		mDepth--;
+	}
+
+
+	private int addNode(int aType, int aName, int aValue, int aLength)
+	{
+		if (mNodeCount == mTypes.length)
+		{
+			int size = 2 * mNodeCount;
+			mTypes = Arrays.copyOf(mTypes, size);
+			mParents = Arrays.copyOf(mParents, size);
+			mFirstChildren = Arrays.copyOf(mFirstChildren, size);
+			mNextSiblings = Arrays.copyOf(mNextSiblings, size);
+			mNames = Arrays.copyOf(mNames, size);
+			mValues = Arrays.copyOf(mValues, size);
+			mLengths = Arrays.copyOf(mLengths, size);
+		}
+
+		int node = mNodeCount++;
+
+		mTypes[node] = (byte)aType;
+		mNames[node] = aName;
+		mValues[node] = aValue;
+		mLengths[node] = aLength;
+		mFirstChildren[node] = -1;
+		mNextSiblings[node] = -1;
+
+		if (node == 0)
+		{
+			mParents[node] = -1;
+			return node;
+		}
+
+		int parent = mOpen[mDepth];
+		int last = mLastChildren[mDepth];
+
+		mParents[node] = parent;
+		if (last == -1)
+		{
+			mFirstChildren[parent] = node;
+		}
+		else
+		{
+			mNextSiblings[last] = node;
+		}
+		mLastChildren[mDepth] = node;
+
+		return node;
+	}
+
+
+	void addAttribute(int aElement, int aName, String aValue)
+	{
+		int attr = newAttribute(aElement, aName, aValue.length());
+		mAttributeValues[attr] = aValue.length() > MAX_SHARED_LENGTH ? appendChars(aValue) : shareChars(aValue.toCharArray(), 0, aValue.length());
+	}
+
+
+	void addAttribute(int aElement, int aName, char[] aChars, int aOffset, int aLength)
+	{
+		int attr = newAttribute(aElement, aName, aLength);
+		mAttributeValues[attr] = shareChars(aChars, aOffset, aLength);
+	}
+
+
+	private int newAttribute(int aElement, int aName, int aLength)
+	{
+		if (mAttributeCount == mAttributeNames.length)
+		{
+			int size = 2 * mAttributeCount;
+			mAttributeOwners = Arrays.copyOf(mAttributeOwners, size);
+			mAttributeNames = Arrays.copyOf(mAttributeNames, size);
+			mAttributeValues = Arrays.copyOf(mAttributeValues, size);
+			mAttributeLengths = Arrays.copyOf(mAttributeLengths, size);
+		}
+
+		int attr = mAttributeCount++;
+
+		mAttributeOwners[attr] = aElement;
+		mAttributeNames[attr] = aName;
+		mAttributeLengths[attr] = aLength;
+
+		return attr;
+	}
+
+
+	int symbol(String aQName, String aNamespaceURI, String aLocalName)
+	{
+		String key = aLocalName == null ? aQName : aQName + "\u0000" + aNamespaceURI;
+		Integer symbol = mSymbols.get(key);
+
+		if (symbol == null)
+		{
+			symbol = mQNames.size();
+			mSymbols.put(key, symbol);
+			mQNames.add(aQName);
+			mNamespaceURIs.add(aNamespaceURI);
+			mLocalNames.add(aLocalName);
+		}
+
+		return symbol;
+	}
+
+
+	private static String localName(String aQName)
+	{
+		return aQName.substring(aQName.indexOf(':') + 1);
+	}
+
+
+	/**
+	 * Append characters or return the offset of an identical short value already appended. Repeated values like
+	 * indentation and enumerated attribute values are stored once.
+	 */
+	private int shareChars(char[] aChars, int aOffset, int aLength)
+	{
+		if (aLength > MAX_SHARED_LENGTH)
+		{
+			return appendChars(aChars, aOffset, aLength);
+		}
+
+		String key = new String(aChars, aOffset, aLength);
+		Integer offset = mSharedValues.get(key);
+
+		if (offset == null)
+		{
+			offset = appendChars(aChars, aOffset, aLength);
+
+			if (mSharedValues.size() < MAX_SHARED_VALUES)
+			{
+				mSharedValues.put(key, offset);
+			}
+		}
+
+		return offset;
+	}
+
+
+	private int appendChars(char[] aChars, int aOffset, int aLength)
+	{
+		ensureCapacity(aLength);
+		System.arraycopy(aChars, aOffset, mChars, mCharCount, aLength);
+		int offset = mCharCount;
+		mCharCount += aLength;
+		return offset;
+	}
+
+
+	private int appendChars(String aText)
+	{
+		ensureCapacity(aText.length());
+		aText.getChars(0, aText.length(), mChars, mCharCount);
+		int offset = mCharCount;
+		mCharCount += aText.length();
+		return offset;
+	}
+
+
+	private void ensureCapacity(int aLength)
+	{
+		if (mCharCount + aLength > mChars.length)
+		{
+			mChars = Arrays.copyOf(mChars, Math.max(2 * mChars.length, mCharCount + aLength));
+		}
+	}
+}
@@ -0,0 +1,590 @@
+package org.terifan.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+
+
+/**
+ * A read-only Document storing the tree in parallel primitive arrays.
+ *
+ * Nodes are numbered in document order, the descendants of a node occupy the range of numbers following the node. Names
+ * are stored once in a symbol table and all character data in a single shared char array. DOM node objects are only
+ * created when a node is accessed through the org.w3c.dom interfaces.
+ *
+ * Compact documents are safe for concurrent reads.
+ */
+final class XmlCompactDocument extends XmlCompactNode implements Document
+{
+	private final static int PAGE_SIZE = 1024;
+
+	private static volatile DOMImplementation mImplementation;
+
+	final byte[] mTypes;
+	final int[] mParents;
+	final int[] mFirstChildren;
+	final int[] mNextSiblings;
+	/** Symbol of elements, target symbol of processing instructions. */
+	final int[] mNames;
+	/** Char offset of character data, index of the first attribute of elements. */
+	final int[] mValues;
+	/** Char length of character data, number of attributes of elements. */
+	final int[] mLengths;
+
+	final int[] mAttributeOwners;
+	final int[] mAttributeNames;
+	final int[] mAttributeValues;
+	final int[] mAttributeLengths;
+
+	final String[] mQNames;
+	final String[] mNamespaceURIs;
+	final String[] mLocalNames;
+
+	final char[] mChars;
+
+	/** Canonical node objects in pages allocated on demand, attributes follow the nodes. */
+	private final AtomicReferenceArray<AtomicReferenceArray<XmlCompactNode>> mPages;
+	private final ConcurrentHashMap<XmlCompactNode,ConcurrentHashMap<String,Object>> mUserData;
+
+	private final String mXmlVersion;
+	private final String mXmlEncoding;
+	private final boolean mXmlStandalone;
+	private volatile String mDocumentURI;
+
+
+	XmlCompactDocument(XmlCompactBuilder aBuilder)
+	{
+		super(null, 0);
+
+		int nodes = aBuilder.mNodeCount;
+		int attributes = aBuilder.mAttributeCount;
+
+		mTypes = Arrays.copyOf(aBuilder.mTypes, nodes);
+		mParents = Arrays.copyOf(aBuilder.mParents, nodes);
+		mFirstChildren = Arrays.copyOf(aBuilder.mFirstChildren, nodes);
+		mNextSiblings = Arrays.copyOf(aBuilder.mNextSiblings, nodes);
+		mNames = Arrays.copyOf(aBuilder.mNames, nodes);
+		mValues = Arrays.copyOf(aBuilder.mValues, nodes);
+		mLengths = Arrays.copyOf(aBuilder.mLengths, nodes);
+
+		mAttributeOwners = Arrays.copyOf(aBuilder.mAttributeOwners, attributes);
+		mAttributeNames = Arrays.copyOf(aBuilder.mAttributeNames, attributes);
+		mAttributeValues = Arrays.copyOf(aBuilder.mAttributeValues, attributes);
+		mAttributeLengths = Arrays.copyOf(aBuilder.mAttributeLengths, attributes);
+
+		mQNames = aBuilder.mQNames.toArray(new String[0]);
+		mNamespaceURIs = aBuilder.mNamespaceURIs.toArray(new String[0]);
+		mLocalNames = aBuilder.mLocalNames.toArray(new String[0]);
+
+		mChars = Arrays.copyOf(aBuilder.mChars, aBuilder.mCharCount);
+
+		mPages = new AtomicReferenceArray<>((nodes + attributes + PAGE_SIZE - 1) / PAGE_SIZE);
+		mUserData = new ConcurrentHashMap<>();
+
+		mXmlVersion = aBuilder.mXmlVersion;
+		mXmlEncoding = aBuilder.mXmlEncoding;
+		mXmlStandalone = aBuilder.mXmlStandalone;
+		mDocumentURI = aBuilder.mDocumentURI;
+
+		canonical(0, this);
+	}
+
+
+	/**
+	 * Return the canonical DOM node of a node number.
+	 */
+	Node node(int aIndex)
+	{
+		XmlCompactNode node = canonical(aIndex, null);
+
+		if (node == null)
+		{
+			switch (mTypes[aIndex])
+			{
+				case ELEMENT_NODE:
+					node = new ElementNode(this, aIndex);
+					break;
+				case TEXT_NODE:
+					node = new TextNode(this, aIndex);
+					break;
+				case CDATA_SECTION_NODE:
+					node = new CDATANode(this, aIndex);
+					break;
+				case COMMENT_NODE:
+					node = new CommentNode(this, aIndex);
+					break;
+				case PROCESSING_INSTRUCTION_NODE:
+					node = new ProcessingInstructionNode(this, aIndex);
+					break;
+				default:
+					throw new IllegalStateException("Unsupported node type: " + mTypes[aIndex]);
+			}
+
+			node = canonical(aIndex, node);
+		}
+
+		return node;
+	}
+
+
+	/**
+	 * Return the canonical DOM node of an attribute number.
+	 */
+	Attr attribute(int aIndex)
+	{
+		XmlCompactNode node = canonical(mTypes.length + aIndex, null);
+
+		if (node == null)
+		{
+			node = canonical(mTypes.length + aIndex, new AttrNode(this, aIndex));
+		}
+
+		return (Attr)node;
+	}
+
+
+	/**
+	 * Return the node object stored in a slot. If the slot is empty and a node is provided it's stored and returned.
+	 */
+	private XmlCompactNode canonical(int aSlot, XmlCompactNode aNode)
+	{
+		int index = aSlot / PAGE_SIZE;
+		AtomicReferenceArray<XmlCompactNode> page = mPages.get(index);
+
+		if (page == null)
+		{
+			if (aNode == null)
+			{
+				return null;
+			}
+			mPages.compareAndSet(index, null, new AtomicReferenceArray<>(PAGE_SIZE));
+			page = mPages.get(index);
+		}
+
+		if (aNode != null && page.compareAndSet(aSlot % PAGE_SIZE, null, aNode))
+		{
+			return aNode;
+		}
+
+		return page.get(aSlot % PAGE_SIZE);
+	}
+
+
+	/**
+	 * Return the number of nodes excluding attributes.
+	 */
+	int getNodeCount()
+	{
+		return mTypes.length;
+	}
+
+
+	/**
+	 * Return the number following the last descendant of a node.
+	 */
+	int getSubtreeEnd(int aIndex)
+	{
+		for (int node = aIndex; node != -1; node = mParents[node])
+		{
+			if (mNextSiblings[node] != -1)
+			{
+				return mNextSiblings[node];
+			}
+		}
+		return mTypes.length;
+	}
+
+
+	String getValue(int aIndex)
+	{
+		return new String(mChars, mValues[aIndex], mLengths[aIndex]);
+	}
+
+
+	String getAttributeValue(int aAttribute)
+	{
+		return new String(mChars, mAttributeValues[aAttribute], mAttributeLengths[aAttribute]);
+	}
+
+
+	String getPrefix(int aSymbol)
+	{
+		if (mLocalNames[aSymbol] == null)
+		{
+			return null;
+		}
+		String name = mQNames[aSymbol];
+		int colon = name.indexOf(':');
+		return colon == -1 ? null : name.substring(0, colon);
+	}
+
+
+	/**
+	 * Return the attribute number of an attribute of an element or -1 if not found.
+	 */
+	int findAttribute(int aElement, String aName)
+	{
+		for (int i = mValues[aElement], end = i + mLengths[aElement]; i < end; i++)
+		{
+			if (mQNames[mAttributeNames[i]].equals(aName))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	int findAttributeNS(int aElement, String aNamespaceURI, String aLocalName)
+	{
+		for (int i = mValues[aElement], end = i + mLengths[aElement]; i < end; i++)
+		{
+			if (matches(mAttributeNames[i], aNamespaceURI, aLocalName))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Return true if a symbol match the namespace URI and local name, "*" match any value.
+	 */
+	boolean matches(int aSymbol, String aNamespaceURI, String aLocalName)
+	{
+		String uri = mNamespaceURIs[aSymbol];
+		String localName = mLocalNames[aSymbol];
+
+		if (localName == null)
+		{
+			return false;
+		}
+		if (!"*".equals(aLocalName) && !localName.equals(aLocalName))
+		{
+			return false;
+		}
+		if ("*".equals(aNamespaceURI))
+		{
+			return true;
+		}
+		if (aNamespaceURI == null || aNamespaceURI.isEmpty())
+		{
+			return uri == null;
+		}
+		return aNamespaceURI.equals(uri);
+	}
+
+
+	/**
+	 * Append the character data of all text and CDATA descendants of a node.
+	 */
+	void appendText(int aIndex, StringBuilder aOutput)
+	{
+		for (int i = aIndex + 1, end = getSubtreeEnd(aIndex); i < end; i++)
+		{
+			if (mTypes[i] == TEXT_NODE || mTypes[i] == CDATA_SECTION_NODE)
+			{
+				aOutput.append(mChars, mValues[i], mLengths[i]);
+			}
+		}
+	}
+
+
+	NodeList getElementsByTagName(int aIndex, String aNamespaceURI, String aName, boolean aNamespaceAware)
+	{
+		ArrayList<Node> list = new ArrayList<>();
+
+		for (int i = aIndex + 1, end = getSubtreeEnd(aIndex); i < end; i++)
+		{
+			if (mTypes[i] == ELEMENT_NODE && (aNamespaceAware ? matches(mNames[i], aNamespaceURI, aName) : "*".equals(aName) || mQNames[mNames[i]].equals(aName)))
+			{
+				list.add(node(i));
+			}
+		}
+
+		return new ArrayNodeList(list);
+	}
+
+
+	Object setUserData(XmlCompactNode aNode, String aKey, Object aData)
+	{
+		if (aData == null)
+		{
+			ConcurrentHashMap<String,Object> map = mUserData.get(aNode);
+			return map == null ? null : map.remove(aKey);
+		}
+
+		return mUserData.computeIfAbsent(aNode, e -> new ConcurrentHashMap<>()).put(aKey, aData);
+	}
+
+
+	Object getUserData(XmlCompactNode aNode, String aKey)
+	{
+		ConcurrentHashMap<String,Object> map = mUserData.get(aNode);
+		return map == null ? null : map.get(aKey);
+	}
+
+
+	@Override
+	public short getNodeType()
+	{
+		return DOCUMENT_NODE;
+	}
+
+
+	@Override
+	public String getNodeName()
+	{
+		return "#document";
+	}
+
+
+	@Override
+	public DocumentType getDoctype()
+	{
+		return null;
+	}
+
+
+	@Override
+	public DOMImplementation getImplementation()
+	{
+		if (mImplementation == null)
+		{
+			mImplementation = XmlParserPool.getDefault(true).newDocument().getImplementation();
+		}
+		return mImplementation;
+	}
+
+
+	@Override
+	public Element getDocumentElement()
+	{
+		for (int child = mFirstChildren[0]; child != -1; child = mNextSiblings[child])
+		{
+			if (mTypes[child] == ELEMENT_NODE)
+			{
+				return (Element)node(child);
+			}
+		}
+		return null;
+	}
+
+
+	@Override
+	public Element createElement(String aTagName) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public DocumentFragment createDocumentFragment()
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Text createTextNode(String aData)
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Comment createComment(String aData)
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public CDATASection createCDATASection(String aData) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public ProcessingInstruction createProcessingInstruction(String aTarget, String aData) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Attr createAttribute(String aName) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public EntityReference createEntityReference(String aName) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public NodeList getElementsByTagName(String aTagname)
+	{
+		return getElementsByTagName(0, null, aTagname, false);
+	}
+
+
+	@Override
+	public Node importNode(Node aImportedNode, boolean aDeep) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Element createElementNS(String aNamespaceURI, String aQualifiedName) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Attr createAttributeNS(String aNamespaceURI, String aQualifiedName) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public NodeList getElementsByTagNameNS(String aNamespaceURI, String aLocalName)
+	{
+		return getElementsByTagName(0, aNamespaceURI, aLocalName, true);
+	}
+
+
+	@Override
+	public Element getElementById(String aElementId)
+	{
+		return null;
+	}
+
+
+	@Override
+	public String getInputEncoding()
+	{
+		return null;
+	}
+
+
+	@Override
+	public String getXmlEncoding()
+	{
+		return mXmlEncoding;
+	}
+
+
+	@Override
+	public boolean getXmlStandalone()
+	{
+		return mXmlStandalone;
+	}
+
+
+	@Override
+	public void setXmlStandalone(boolean aXmlStandalone) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public String getXmlVersion()
+	{
+		return mXmlVersion;
+	}
+
+
+	@Override
+	public void setXmlVersion(String aXmlVersion) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public boolean getStrictErrorChecking()
+	{
+		return true;
+	}
+
+
+	@Override
+	public void setStrictErrorChecking(boolean aStrictErrorChecking)
+	{
+	}
+
+
+	@Override
+	public String getDocumentURI()
+	{
+		return mDocumentURI;
+	}
+
+
+	@Override
+	public void setDocumentURI(String aDocumentURI)
+	{
+		mDocumentURI = aDocumentURI;
+	}
+
+
+	@Override
+	public Node adoptNode(Node aSource) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public DOMConfiguration getDomConfig()
+	{
+		return null;
+	}
+
+
+	@Override
+	public void normalizeDocument()
+	{
+	}
+
+
+	@Override
+	public Node renameNode(Node aNode, String aNamespaceURI, String aQualifiedName) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "[#document: " + mTypes.length + " nodes, " + mAttributeNames.length + " attributes, " + mChars.length + " chars]";
+	}
+}
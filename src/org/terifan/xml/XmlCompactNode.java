@@ -0,0 +1,1257 @@
+package org.terifan.xml;
+
+import java.util.ArrayList;
+import javax.xml.XMLConstants;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+
+/**
+ * Read-only org.w3c.dom view of a node in a XmlCompactDocument. Instances are created on demand and are canonical, the same
+ * node is always represented by the same instance.
+ */
+abstract class XmlCompactNode implements Node
+{
+	private final XmlCompactDocument mDocument;
+	final int mIndex;
+
+
+	XmlCompactNode(XmlCompactDocument aDocument, int aIndex)
+	{
+		mDocument = aDocument;
+		mIndex = aIndex;
+	}
+
+
+	XmlCompactDocument owner()
+	{
+		return mDocument == null ? (XmlCompactDocument)this : mDocument;
+	}
+
+
+	/**
+	 * Return a key ordering this node in document order.
+	 */
+	long order()
+	{
+		return (long)mIndex << 32;
+	}
+
+
+	/**
+	 * Return the number of nodes in the subtree of this node including the node itself, attributes aren't counted.
+	 */
+	int subtreeSize()
+	{
+		XmlCompactDocument doc = owner();
+
+		for (int node = mIndex; node != -1; node = doc.mParents[node])
+		{
+			if (doc.mNextSiblings[node] != -1)
+			{
+				return doc.mNextSiblings[node] - mIndex;
+			}
+		}
+
+		return doc.mTypes.length - mIndex;
+	}
+
+
+	@Override
+	public String getNodeName()
+	{
+		return owner().mQNames[owner().mNames[mIndex]];
+	}
+
+
+	@Override
+	public String getNodeValue() throws DOMException
+	{
+		return null;
+	}
+
+
+	@Override
+	public void setNodeValue(String aNodeValue) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Node getParentNode()
+	{
+		int parent = owner().mParents[mIndex];
+		return parent == -1 ? null : owner().node(parent);
+	}
+
+
+	@Override
+	public NodeList getChildNodes()
+	{
+		return new ChildList(owner(), owner().mFirstChildren[mIndex]);
+	}
+
+
+	@Override
+	public Node getFirstChild()
+	{
+		int child = owner().mFirstChildren[mIndex];
+		return child == -1 ? null : owner().node(child);
+	}
+
+
+	@Override
+	public Node getLastChild()
+	{
+		XmlCompactDocument doc = owner();
+		int child = doc.mFirstChildren[mIndex];
+		if (child == -1)
+		{
+			return null;
+		}
+		while (doc.mNextSiblings[child] != -1)
+		{
+			child = doc.mNextSiblings[child];
+		}
+		return doc.node(child);
+	}
+
+
+	@Override
+	public Node getPreviousSibling()
+	{
+		XmlCompactDocument doc = owner();
+		int parent = doc.mParents[mIndex];
+		if (parent == -1)
+		{
+			return null;
+		}
+		int prev = -1;
+		for (int child = doc.mFirstChildren[parent]; child != mIndex; child = doc.mNextSiblings[child])
+		{
+			prev = child;
+		}
+		return prev == -1 ? null : doc.node(prev);
+	}
+
+
+	@Override
+	public Node getNextSibling()
+	{
+		int next = owner().mNextSiblings[mIndex];
+		return next == -1 ? null : owner().node(next);
+	}
+
+
+	@Override
+	public NamedNodeMap getAttributes()
+	{
+		return null;
+	}
+
+
+	@Override
+	public Document getOwnerDocument()
+	{
+		return mDocument;
+	}
+
+
+	@Override
+	public Node insertBefore(Node aNewChild, Node aRefChild) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Node replaceChild(Node aNewChild, Node aOldChild) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Node removeChild(Node aOldChild) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public Node appendChild(Node aNewChild) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public boolean hasChildNodes()
+	{
+		return owner().mFirstChildren[mIndex] != -1;
+	}
+
+
+	@Override
+	public Node cloneNode(boolean aDeep)
+	{
+		throw new DOMException(DOMException.NOT_SUPPORTED_ERR, "Compact documents can't be cloned, import the node into another document.");
+	}
+
+
+	@Override
+	public void normalize()
+	{
+	}
+
+
+	@Override
+	public boolean isSupported(String aFeature, String aVersion)
+	{
+		return owner().getImplementation().hasFeature(aFeature, aVersion);
+	}
+
+
+	@Override
+	public String getNamespaceURI()
+	{
+		return null;
+	}
+
+
+	@Override
+	public String getPrefix()
+	{
+		return null;
+	}
+
+
+	@Override
+	public void setPrefix(String aPrefix) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public String getLocalName()
+	{
+		return null;
+	}
+
+
+	@Override
+	public boolean hasAttributes()
+	{
+		return false;
+	}
+
+
+	@Override
+	public String getBaseURI()
+	{
+		return owner().getDocumentURI();
+	}
+
+
+	@Override
+	public short compareDocumentPosition(Node aOther) throws DOMException
+	{
+		if (aOther == this)
+		{
+			return 0;
+		}
+		if (!(aOther instanceof XmlCompactNode) || ((XmlCompactNode)aOther).owner() != owner())
+		{
+			return (short)(DOCUMENT_POSITION_DISCONNECTED | DOCUMENT_POSITION_IMPLEMENTATION_SPECIFIC | (System.identityHashCode(aOther) < System.identityHashCode(this) ? DOCUMENT_POSITION_PRECEDING : DOCUMENT_POSITION_FOLLOWING));
+		}
+
+		XmlCompactNode other = (XmlCompactNode)aOther;
+
+		if (isAncestorOf(other))
+		{
+			return (short)(DOCUMENT_POSITION_CONTAINED_BY | DOCUMENT_POSITION_FOLLOWING);
+		}
+		if (other.isAncestorOf(this))
+		{
+			return (short)(DOCUMENT_POSITION_CONTAINS | DOCUMENT_POSITION_PRECEDING);
+		}
+
+		return other.order() < order() ? DOCUMENT_POSITION_PRECEDING : DOCUMENT_POSITION_FOLLOWING;
+	}
+
+
+	private boolean isAncestorOf(XmlCompactNode aNode)
+	{
+		for (Node node = aNode instanceof Attr ? ((Attr)aNode).getOwnerElement() : aNode.getParentNode(); node != null; node = node.getParentNode())
+		{
+			if (node == this)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	@Override
+	public String getTextContent() throws DOMException
+	{
+		return getNodeValue();
+	}
+
+
+	@Override
+	public void setTextContent(String aTextContent) throws DOMException
+	{
+		throw readOnly();
+	}
+
+
+	@Override
+	public boolean isSameNode(Node aOther)
+	{
+		return aOther == this;
+	}
+
+
+	@Override
+	public String lookupPrefix(String aNamespaceURI)
+	{
+		if (aNamespaceURI == null)
+		{
+			return null;
+		}
+
+		for (Node node = this; node != null; node = node.getParentNode())
+		{
+			if (node instanceof Element)
+			{
+				NamedNodeMap attributes = node.getAttributes();
+				for (int i = 0; i < attributes.getLength(); i++)
+				{
+					Node attr = attributes.item(i);
+					if (XMLConstants.XMLNS_ATTRIBUTE.equals(attr.getPrefix()) && aNamespaceURI.equals(attr.getNodeValue()))
+					{
+						return attr.getLocalName();
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+
+	@Override
+	public boolean isDefaultNamespace(String aNamespaceURI)
+	{
+		String uri = lookupNamespaceURI(null);
+		return uri == null ? aNamespaceURI == null : uri.equals(aNamespaceURI);
+	}
+
+
+	@Override
+	public String lookupNamespaceURI(String aPrefix)
+	{
+		String name = aPrefix == null || aPrefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + aPrefix;
+
+		for (Node node = this instanceof Attr ? ((Attr)this).getOwnerElement() : this; node != null; node = node.getParentNode())
+		{
+			if (node instanceof Element && ((Element)node).hasAttribute(name))
+			{
+				String uri = ((Element)node).getAttribute(name);
+				return uri.isEmpty() ? null : uri;
+			}
+		}
+		return null;
+	}
+
+
+	@Override
+	public boolean isEqualNode(Node aOther)
+	{
+		if (aOther == this)
+		{
+			return true;
+		}
+		if (aOther == null || aOther.getNodeType() != getNodeType() || !equals(getNodeName(), aOther.getNodeName()) || !equals(getLocalName(), aOther.getLocalName()) || !equals(getNamespaceURI(), aOther.getNamespaceURI()) || !equals(getPrefix(), aOther.getPrefix()) || !equals(getNodeValue(), aOther.getNodeValue()))
+		{
+			return false;
+		}
+
+		NamedNodeMap attributes = getAttributes();
+		NamedNodeMap otherAttributes = aOther.getAttributes();
+		if (attributes != null)
+		{
+			if (otherAttributes == null || attributes.getLength() != otherAttributes.getLength())
+			{
+				return false;
+			}
+			for (int i = 0; i < attributes.getLength(); i++)
+			{
+				Node attr = attributes.item(i);
+				Node otherAttr = attr.getLocalName() == null ? otherAttributes.getNamedItem(attr.getNodeName()) : otherAttributes.getNamedItemNS(attr.getNamespaceURI(), attr.getLocalName());
+				if (!attr.isEqualNode(otherAttr))
+				{
+					return false;
+				}
+			}
+		}
+
+		Node otherChild = aOther.getFirstChild();
+		for (Node child = getFirstChild(); child != null; child = child.getNextSibling(), otherChild = otherChild.getNextSibling())
+		{
+			if (!child.isEqualNode(otherChild))
+			{
+				return false;
+			}
+		}
+
+		return otherChild == null;
+	}
+
+
+	private static boolean equals(String aString, String aOther)
+	{
+		return aString == null ? aOther == null : aString.equals(aOther);
+	}
+
+
+	@Override
+	public Object getFeature(String aFeature, String aVersion)
+	{
+		return isSupported(aFeature, aVersion) ? this : null;
+	}
+
+
+	@Override
+	public Object setUserData(String aKey, Object aData, UserDataHandler aHandler)
+	{
+		return owner().setUserData(this, aKey, aData);
+	}
+
+
+	@Override
+	public Object getUserData(String aKey)
+	{
+		return owner().getUserData(this, aKey);
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "[" + getNodeName() + ": " + getNodeValue() + "]";
+	}
+
+
+	static DOMException readOnly()
+	{
+		return new DOMException(DOMException.NO_MODIFICATION_ALLOWED_ERR, "Compact documents are read-only.");
+	}
+
+
+	static final class ElementNode extends XmlCompactNode implements Element
+	{
+		ElementNode(XmlCompactDocument aDocument, int aIndex)
+		{
+			super(aDocument, aIndex);
+		}
+
+
+		@Override
+		public short getNodeType()
+		{
+			return ELEMENT_NODE;
+		}
+
+
+		@Override
+		public String getNamespaceURI()
+		{
+			return owner().mNamespaceURIs[owner().mNames[mIndex]];
+		}
+
+
+		@Override
+		public String getPrefix()
+		{
+			return owner().getPrefix(owner().mNames[mIndex]);
+		}
+
+
+		@Override
+		public String getLocalName()
+		{
+			return owner().mLocalNames[owner().mNames[mIndex]];
+		}
+
+
+		@Override
+		public String getTextContent() throws DOMException
+		{
+			StringBuilder sb = new StringBuilder();
+			owner().appendText(mIndex, sb);
+			return sb.toString();
+		}
+
+
+		@Override
+		public NamedNodeMap getAttributes()
+		{
+			return new AttributeMap(owner(), owner().mValues[mIndex], owner().mLengths[mIndex]);
+		}
+
+
+		@Override
+		public boolean hasAttributes()
+		{
+			return owner().mLengths[mIndex] > 0;
+		}
+
+
+		@Override
+		public String getTagName()
+		{
+			return getNodeName();
+		}
+
+
+		@Override
+		public String getAttribute(String aName)
+		{
+			int attr = owner().findAttribute(mIndex, aName);
+			return attr == -1 ? "" : owner().getAttributeValue(attr);
+		}
+
+
+		@Override
+		public void setAttribute(String aName, String aValue) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public void removeAttribute(String aName) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public Attr getAttributeNode(String aName)
+		{
+			int attr = owner().findAttribute(mIndex, aName);
+			return attr == -1 ? null : owner().attribute(attr);
+		}
+
+
+		@Override
+		public Attr setAttributeNode(Attr aNewAttr) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public Attr removeAttributeNode(Attr aOldAttr) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public NodeList getElementsByTagName(String aName)
+		{
+			return owner().getElementsByTagName(mIndex, null, aName, false);
+		}
+
+
+		@Override
+		public String getAttributeNS(String aNamespaceURI, String aLocalName) throws DOMException
+		{
+			int attr = owner().findAttributeNS(mIndex, aNamespaceURI, aLocalName);
+			return attr == -1 ? "" : owner().getAttributeValue(attr);
+		}
+
+
+		@Override
+		public void setAttributeNS(String aNamespaceURI, String aQualifiedName, String aValue) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public void removeAttributeNS(String aNamespaceURI, String aLocalName) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public Attr getAttributeNodeNS(String aNamespaceURI, String aLocalName) throws DOMException
+		{
+			int attr = owner().findAttributeNS(mIndex, aNamespaceURI, aLocalName);
+			return attr == -1 ? null : owner().attribute(attr);
+		}
+
+
+		@Override
+		public Attr setAttributeNodeNS(Attr aNewAttr) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public NodeList getElementsByTagNameNS(String aNamespaceURI, String aLocalName) throws DOMException
+		{
+			return owner().getElementsByTagName(mIndex, aNamespaceURI, aLocalName, true);
+		}
+
+
+		@Override
+		public boolean hasAttribute(String aName)
+		{
+			return owner().findAttribute(mIndex, aName) != -1;
+		}
+
+
+		@Override
+		public boolean hasAttributeNS(String aNamespaceURI, String aLocalName) throws DOMException
+		{
+			return owner().findAttributeNS(mIndex, aNamespaceURI, aLocalName) != -1;
+		}
+
+
+		@Override
+		public TypeInfo getSchemaTypeInfo()
+		{
+			return null;
+		}
+
+
+		@Override
+		public void setIdAttribute(String aName, boolean aIsId) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public void setIdAttributeNS(String aNamespaceURI, String aLocalName, boolean aIsId) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public void setIdAttributeNode(Attr aIdAttr, boolean aIsId) throws DOMException
+		{
+			throw readOnly();
+		}
+	}
+
+
+	/**
+	 * Attribute nodes are indexed in a table of their own, the index is the position in the attribute table.
+	 */
+	static final class AttrNode extends XmlCompactNode implements Attr
+	{
+		AttrNode(XmlCompactDocument aDocument, int aIndex)
+		{
+			super(aDocument, aIndex);
+		}
+
+
+		@Override
+		long order()
+		{
+			return ((long)owner().mAttributeOwners[mIndex] << 32) + 1 + mIndex;
+		}
+
+
+		@Override
+		public short getNodeType()
+		{
+			return ATTRIBUTE_NODE;
+		}
+
+
+		@Override
+		public String getNodeName()
+		{
+			return owner().mQNames[owner().mAttributeNames[mIndex]];
+		}
+
+
+		@Override
+		public String getNodeValue() throws DOMException
+		{
+			return owner().getAttributeValue(mIndex);
+		}
+
+
+		@Override
+		public Node getParentNode()
+		{
+			return null;
+		}
+
+
+		@Override
+		public NodeList getChildNodes()
+		{
+			return new ChildList(owner(), -1);
+		}
+
+
+		@Override
+		public Node getFirstChild()
+		{
+			return null;
+		}
+
+
+		@Override
+		public Node getLastChild()
+		{
+			return null;
+		}
+
+
+		@Override
+		public Node getPreviousSibling()
+		{
+			return null;
+		}
+
+
+		@Override
+		public Node getNextSibling()
+		{
+			return null;
+		}
+
+
+		@Override
+		public boolean hasChildNodes()
+		{
+			return false;
+		}
+
+
+		@Override
+		public String getNamespaceURI()
+		{
+			return owner().mNamespaceURIs[owner().mAttributeNames[mIndex]];
+		}
+
+
+		@Override
+		public String getPrefix()
+		{
+			return owner().getPrefix(owner().mAttributeNames[mIndex]);
+		}
+
+
+		@Override
+		public String getLocalName()
+		{
+			return owner().mLocalNames[owner().mAttributeNames[mIndex]];
+		}
+
+
+		@Override
+		public String getName()
+		{
+			return getNodeName();
+		}
+
+
+		@Override
+		public boolean getSpecified()
+		{
+			return true;
+		}
+
+
+		@Override
+		public String getValue()
+		{
+			return getNodeValue();
+		}
+
+
+		@Override
+		public void setValue(String aValue) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public Element getOwnerElement()
+		{
+			return (Element)owner().node(owner().mAttributeOwners[mIndex]);
+		}
+
+
+		@Override
+		public TypeInfo getSchemaTypeInfo()
+		{
+			return null;
+		}
+
+
+		@Override
+		public boolean isId()
+		{
+			return false;
+		}
+	}
+
+
+	/**
+	 * Base of text, CDATA and comment nodes.
+	 */
+	abstract static class CharacterDataNode extends XmlCompactNode implements org.w3c.dom.CharacterData
+	{
+		CharacterDataNode(XmlCompactDocument aDocument, int aIndex)
+		{
+			super(aDocument, aIndex);
+		}
+
+
+		@Override
+		public String getNodeValue() throws DOMException
+		{
+			return getData();
+		}
+
+
+		@Override
+		public NodeList getChildNodes()
+		{
+			return new ChildList(owner(), -1);
+		}
+
+
+		@Override
+		public boolean hasChildNodes()
+		{
+			return false;
+		}
+
+
+		@Override
+		public String getData() throws DOMException
+		{
+			return owner().getValue(mIndex);
+		}
+
+
+		@Override
+		public void setData(String aData) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public int getLength()
+		{
+			return owner().mLengths[mIndex];
+		}
+
+
+		@Override
+		public String substringData(int aOffset, int aCount) throws DOMException
+		{
+			int length = getLength();
+			if (aOffset < 0 || aOffset > length || aCount < 0)
+			{
+				throw new DOMException(DOMException.INDEX_SIZE_ERR, "Offset or count out of range.");
+			}
+			return new String(owner().mChars, owner().mValues[mIndex] + aOffset, Math.min(aCount, length - aOffset));
+		}
+
+
+		@Override
+		public void appendData(String aArg) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public void insertData(int aOffset, String aArg) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public void deleteData(int aOffset, int aCount) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public void replaceData(int aOffset, int aCount, String aArg) throws DOMException
+		{
+			throw readOnly();
+		}
+	}
+
+
+	static class TextNode extends CharacterDataNode implements Text
+	{
+		TextNode(XmlCompactDocument aDocument, int aIndex)
+		{
+			super(aDocument, aIndex);
+		}
+
+
+		@Override
+		public short getNodeType()
+		{
+			return TEXT_NODE;
+		}
+
+
+		@Override
+		public String getNodeName()
+		{
+			return "#text";
+		}
+
+
+		@Override
+		public Text splitText(int aOffset) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public boolean isElementContentWhitespace()
+		{
+			return false;
+		}
+
+
+		@Override
+		public String getWholeText()
+		{
+			Node first = this;
+			while (first.getPreviousSibling() instanceof Text)
+			{
+				first = first.getPreviousSibling();
+			}
+			StringBuilder sb = new StringBuilder();
+			for (Node node = first; node instanceof Text; node = node.getNextSibling())
+			{
+				sb.append(node.getNodeValue());
+			}
+			return sb.toString();
+		}
+
+
+		@Override
+		public Text replaceWholeText(String aContent) throws DOMException
+		{
+			throw readOnly();
+		}
+	}
+
+
+	static final class CDATANode extends TextNode implements CDATASection
+	{
+		CDATANode(XmlCompactDocument aDocument, int aIndex)
+		{
+			super(aDocument, aIndex);
+		}
+
+
+		@Override
+		public short getNodeType()
+		{
+			return CDATA_SECTION_NODE;
+		}
+
+
+		@Override
+		public String getNodeName()
+		{
+			return "#cdata-section";
+		}
+	}
+
+
+	static final class CommentNode extends CharacterDataNode implements Comment
+	{
+		CommentNode(XmlCompactDocument aDocument, int aIndex)
+		{
+			super(aDocument, aIndex);
+		}
+
+
+		@Override
+		public short getNodeType()
+		{
+			return COMMENT_NODE;
+		}
+
+
+		@Override
+		public String getNodeName()
+		{
+			return "#comment";
+		}
+	}
+
+
+	static final class ProcessingInstructionNode extends XmlCompactNode implements ProcessingInstruction
+	{
+		ProcessingInstructionNode(XmlCompactDocument aDocument, int aIndex)
+		{
+			super(aDocument, aIndex);
+		}
+
+
+		@Override
+		public short getNodeType()
+		{
+			return PROCESSING_INSTRUCTION_NODE;
+		}
+
+
+		@Override
+		public String getNodeValue() throws DOMException
+		{
+			return getData();
+		}
+
+
+		@Override
+		public NodeList getChildNodes()
+		{
+			return new ChildList(owner(), -1);
+		}
+
+
+		@Override
+		public String getTarget()
+		{
+			return getNodeName();
+		}
+
+
+		@Override
+		public String getData()
+		{
+			return owner().getValue(mIndex);
+		}
+
+
+		@Override
+		public void setData(String aData) throws DOMException
+		{
+			throw readOnly();
+		}
+	}
+
+
+	/**
+	 * List of the children of a node. Sequential access is constant time.
+	 */
+	static final class ChildList implements NodeList
+	{
+		private final XmlCompactDocument mDocument;
+		private final int mFirst;
+		private int mLength;
+		private int mCursor;
+		private int mCursorIndex;
+
+
+		ChildList(XmlCompactDocument aDocument, int aFirst)
+		{
+			mDocument = aDocument;
+			mFirst = aFirst;
+			mLength = -1;
+			mCursor = aFirst;
+		}
+
+
+		@Override
+		public Node item(int aIndex)
+		{
+			if (aIndex < 0 || mFirst == -1)
+			{
+				return null;
+			}
+			if (aIndex < mCursorIndex)
+			{
+				mCursor = mFirst;
+				mCursorIndex = 0;
+			}
+			while (mCursorIndex < aIndex)
+			{
+				if (mDocument.mNextSiblings[mCursor] == -1)
+				{
+					return null;
+				}
+				mCursor = mDocument.mNextSiblings[mCursor];
+				mCursorIndex++;
+			}
+			return mDocument.node(mCursor);
+		}
+
+
+		@Override
+		public int getLength()
+		{
+			if (mLength == -1)
+			{
+				int length = 0;
+				for (int child = mFirst; child != -1; child = mDocument.mNextSiblings[child])
+				{
+					length++;
+				}
+				mLength = length;
+			}
+			return mLength;
+		}
+	}
+
+
+	/**
+	 * List of nodes collected in document order.
+	 */
+	static final class ArrayNodeList implements NodeList
+	{
+		private final ArrayList<Node> mNodes;
+
+
+		ArrayNodeList(ArrayList<Node> aNodes)
+		{
+			mNodes = aNodes;
+		}
+
+
+		@Override
+		public Node item(int aIndex)
+		{
+			return aIndex < 0 || aIndex >= mNodes.size() ? null : mNodes.get(aIndex);
+		}
+
+
+		@Override
+		public int getLength()
+		{
+			return mNodes.size();
+		}
+	}
+
+
+	static final class AttributeMap implements NamedNodeMap
+	{
+		private final XmlCompactDocument mDocument;
+		private final int mFirst;
+		private final int mLength;
+
+
+		AttributeMap(XmlCompactDocument aDocument, int aFirst, int aLength)
+		{
+			mDocument = aDocument;
+			mFirst = aFirst;
+			mLength = aLength;
+		}
+
+
+		@Override
+		public Node getNamedItem(String aName)
+		{
+			for (int i = mFirst, end = mFirst + mLength; i < end; i++)
+			{
+				if (mDocument.mQNames[mDocument.mAttributeNames[i]].equals(aName))
+				{
+					return mDocument.attribute(i);
+				}
+			}
+			return null;
+		}
+
+
+		@Override
+		public Node setNamedItem(Node aArg) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public Node removeNamedItem(String aName) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public Node item(int aIndex)
+		{
+			return aIndex < 0 || aIndex >= mLength ? null : mDocument.attribute(mFirst + aIndex);
+		}
+
+
+		@Override
+		public int getLength()
+		{
+			return mLength;
+		}
+
+
+		@Override
+		public Node getNamedItemNS(String aNamespaceURI, String aLocalName) throws DOMException
+		{
+			for (int i = mFirst, end = mFirst + mLength; i < end; i++)
+			{
+				if (mDocument.matches(mDocument.mAttributeNames[i], aNamespaceURI, aLocalName))
+				{
+					return mDocument.attribute(i);
+				}
+			}
+			return null;
+		}
+
+
+		@Override
+		public Node setNamedItemNS(Node aArg) throws DOMException
+		{
+			throw readOnly();
+		}
+
+
+		@Override
+		public Node removeNamedItemNS(String aNamespaceURI, String aLocalName) throws DOMException
+		{
+			throw readOnly();
+		}
+	}
+}
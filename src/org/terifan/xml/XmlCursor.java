@@ -0,0 +1,487 @@
+package org.terifan.xml;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+
+/**
+ * A mutable position in a document that moves in place without allocating wrapper objects. Use a cursor in loops over
+ * large documents and convert to an XmlElement only when needed.
+ *
+ * On compact documents the cursor navigates the underlying arrays directly and no DOM node objects are created.
+ *
+ * e.g.
+ * <pre>
+ * XmlCursor cursor = document.cursor();
+ * if (cursor.firstChildElement("catalogue") &amp;&amp; cursor.firstChildElement("item"))
+ * {
+ *     do
+ *     {
+ *         String id = cursor.getAttribute("id");
+ *         ...
+ *     }
+ *     while (cursor.nextSiblingElement("item"));
+ * }
+ * </pre>
+ */
+public final class XmlCursor
+{
+	private XmlCompactDocument mCompact;
+	private int mIndex;
+	private Node mNode;
+	private int mDepth;
+
+
+	public XmlCursor(XmlNode aNode)
+	{
+		moveTo(aNode);
+	}
+
+
+	private XmlCursor()
+	{
+	}
+
+
+	/**
+	 * Position this cursor at a node and reset the depth to zero.
+	 */
+	public XmlCursor moveTo(XmlNode aNode)
+	{
+		Node node = aNode.getInternalNode();
+
+		if (node instanceof XmlCompactNode && !(node instanceof XmlCompactNode.AttrNode))
+		{
+			mCompact = ((XmlCompactNode)node).owner();
+			mIndex = ((XmlCompactNode)node).mIndex;
+			mNode = null;
+		}
+		else
+		{
+			mCompact = null;
+			mNode = node;
+		}
+
+		mDepth = 0;
+
+		return this;
+	}
+
+
+	/**
+	 * Position this cursor at the same node as another cursor.
+	 */
+	public XmlCursor moveTo(XmlCursor aCursor)
+	{
+		mCompact = aCursor.mCompact;
+		mIndex = aCursor.mIndex;
+		mNode = aCursor.mNode;
+		mDepth = aCursor.mDepth;
+		return this;
+	}
+
+
+	/**
+	 * Return a new cursor at the same position.
+	 */
+	public XmlCursor copy()
+	{
+		return new XmlCursor().moveTo(this);
+	}
+
+
+	/**
+	 * Return the depth relative to the node this cursor was positioned at, negative when above it.
+	 */
+	public int getDepth()
+	{
+		return mDepth;
+	}
+
+
+	public boolean firstChild()
+	{
+		if (mCompact != null)
+		{
+			int child = mCompact.mFirstChildren[mIndex];
+			if (child == -1)
+			{
+				return false;
+			}
+			mIndex = child;
+		}
+		else
+		{
+			Node child = mNode.getFirstChild();
+			if (child == null)
+			{
+				return false;
+			}
+			mNode = child;
+		}
+
+		mDepth++;
+		return true;
+	}
+
+
+	public boolean nextSibling()
+	{
+		if (mCompact != null)
+		{
+			int next = mCompact.mNextSiblings[mIndex];
+			if (next == -1)
+			{
+				return false;
+			}
+			mIndex = next;
+		}
+		else
+		{
+			Node next = mNode.getNextSibling();
+			if (next == null)
+			{
+				return false;
+			}
+			mNode = next;
+		}
+
+		return true;
+	}
+
+
+	public boolean parent()
+	{
+		if (mCompact != null)
+		{
+			int parent = mCompact.mParents[mIndex];
+			if (parent == -1)
+			{
+				return false;
+			}
+			mIndex = parent;
+		}
+		else
+		{
+			Node parent = mNode.getParentNode();
+			if (parent == null)
+			{
+				return false;
+			}
+			mNode = parent;
+		}
+
+		mDepth--;
+		return true;
+	}
+
+
+	/**
+	 * Move to the first child element. The cursor is not moved if there is no child element.
+	 */
+	public boolean firstChildElement()
+	{
+		return firstChildElement(null);
+	}
+
+
+	/**
+	 * Move to the first child element with the name. The cursor is not moved if there is no such element.
+	 *
+	 * @param aName
+	 *   the local name of the element or null to match any element
+	 */
+	public boolean firstChildElement(String aName)
+	{
+		if (mCompact != null)
+		{
+			for (int child = mCompact.mFirstChildren[mIndex]; child != -1; child = mCompact.mNextSiblings[child])
+			{
+				if (mCompact.mTypes[child] == Node.ELEMENT_NODE && (aName == null || nameEquals(child, aName)))
+				{
+					mIndex = child;
+					mDepth++;
+					return true;
+				}
+			}
+		}
+		else
+		{
+			for (Node child = mNode.getFirstChild(); child != null; child = child.getNextSibling())
+			{
+				if (child.getNodeType() == Node.ELEMENT_NODE && (aName == null || nameEquals(child, aName)))
+				{
+					mNode = child;
+					mDepth++;
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Move to the next sibling element. The cursor is not moved if there is no following element.
+	 */
+	public boolean nextSiblingElement()
+	{
+		return nextSiblingElement(null);
+	}
+
+
+	/**
+	 * Move to the next sibling element with the name. The cursor is not moved if there is no such element.
+	 *
+	 * @param aName
+	 *   the local name of the element or null to match any element
+	 */
+	public boolean nextSiblingElement(String aName)
+	{
+		if (mCompact != null)
+		{
+			for (int next = mCompact.mNextSiblings[mIndex]; next != -1; next = mCompact.mNextSiblings[next])
+			{
+				if (mCompact.mTypes[next] == Node.ELEMENT_NODE && (aName == null || nameEquals(next, aName)))
+				{
+					mIndex = next;
+					return true;
+				}
+			}
+		}
+		else
+		{
+			for (Node next = mNode.getNextSibling(); next != null; next = next.getNextSibling())
+			{
+				if (next.getNodeType() == Node.ELEMENT_NODE && (aName == null || nameEquals(next, aName)))
+				{
+					mNode = next;
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Return the org.w3c.dom.Node type of the current node.
+	 */
+	public short getNodeType()
+	{
+		return mCompact != null ? mCompact.mTypes[mIndex] : mNode.getNodeType();
+	}
+
+
+	public boolean isElement()
+	{
+		return getNodeType() == Node.ELEMENT_NODE;
+	}
+
+
+	/**
+	 * Return the name of the current node, see XmlNode.getName.
+	 */
+	public String getName()
+	{
+		if (mCompact != null)
+		{
+			switch (mCompact.mTypes[mIndex])
+			{
+				case Node.ELEMENT_NODE:
+					int symbol = mCompact.mNames[mIndex];
+					String localName = mCompact.mLocalNames[symbol];
+					return localName != null ? localName : mCompact.mQNames[symbol];
+				case Node.PROCESSING_INSTRUCTION_NODE:
+					return mCompact.mQNames[mCompact.mNames[mIndex]];
+				default:
+					return mCompact.node(mIndex).getNodeName();
+			}
+		}
+
+		String name = mNode.getLocalName();
+		return name != null ? name : mNode.getNodeName();
+	}
+
+
+	/**
+	 * Return true if the name of the current node is equal to the provided name. This method doesn't allocate.
+	 */
+	public boolean nameEquals(String aName)
+	{
+		return mCompact != null ? nameEquals(mIndex, aName) : nameEquals(mNode, aName);
+	}
+
+
+	/**
+	 * Return the value of an attribute of the current element or null if the attribute doesn't exist or the current
+	 * node isn't an element.
+	 */
+	public String getAttribute(String aName)
+	{
+		if (mCompact != null)
+		{
+			if (mCompact.mTypes[mIndex] != Node.ELEMENT_NODE)
+			{
+				return null;
+			}
+			int attr = mCompact.findAttribute(mIndex, aName);
+			return attr == -1 ? null : mCompact.getAttributeValue(attr);
+		}
+
+		if (mNode instanceof Element && ((Element)mNode).hasAttribute(aName))
+		{
+			return ((Element)mNode).getAttribute(aName);
+		}
+
+		return null;
+	}
+
+
+	public boolean hasAttribute(String aName)
+	{
+		if (mCompact != null)
+		{
+			return mCompact.mTypes[mIndex] == Node.ELEMENT_NODE && mCompact.findAttribute(mIndex, aName) != -1;
+		}
+
+		return mNode instanceof Element && ((Element)mNode).hasAttribute(aName);
+	}
+
+
+	/**
+	 * Return the value of the current node, see XmlNode.getValue.
+	 */
+	public String getValue()
+	{
+		if (mCompact != null)
+		{
+			return getValue(mIndex);
+		}
+
+		Node child = mNode.getFirstChild();
+		if (child != null)
+		{
+			return child.getNodeValue();
+		}
+		return mNode.getTextContent();
+	}
+
+
+	/**
+	 * Return the text of the child element with the name or null if no such element exists.
+	 */
+	public String getText(String aName)
+	{
+		if (mCompact != null)
+		{
+			for (int child = mCompact.mFirstChildren[mIndex]; child != -1; child = mCompact.mNextSiblings[child])
+			{
+				if (mCompact.mTypes[child] == Node.ELEMENT_NODE && nameEquals(child, aName))
+				{
+					return getValue(child);
+				}
+			}
+			return null;
+		}
+
+		for (Node child = mNode.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			if (child.getNodeType() == Node.ELEMENT_NODE && nameEquals(child, aName))
+			{
+				Node text = child.getFirstChild();
+				return text != null ? text.getNodeValue() : child.getTextContent();
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Return the current node as an XmlNode. XmlElement and XmlDocument instances are returned for elements and
+	 * documents.
+	 */
+	public XmlNode toNode()
+	{
+		Node node = mCompact != null ? mCompact.node(mIndex) : mNode;
+
+		if (node instanceof Element)
+		{
+			return new XmlElement(node);
+		}
+		if (node instanceof Document)
+		{
+			return new XmlDocument((Document)node);
+		}
+		return new XmlNode(node);
+	}
+
+
+	/**
+	 * Return the current node as an XmlElement.
+	 *
+	 * @throws IllegalStateException
+	 *   if the current node isn't an element
+	 */
+	public XmlElement toElement()
+	{
+		if (!isElement())
+		{
+			throw new IllegalStateException("The cursor is not positioned at an element.");
+		}
+
+		return new XmlElement(mCompact != null ? mCompact.node(mIndex) : mNode);
+	}
+
+
+	/**
+	 * Return the value of a compact node with the same semantics as XmlNode.getValue.
+	 */
+	private String getValue(int aIndex)
+	{
+		int child = mCompact.mFirstChildren[aIndex];
+		int node = child == -1 ? aIndex : child;
+
+		switch (mCompact.mTypes[node])
+		{
+			case Node.TEXT_NODE:
+			case Node.CDATA_SECTION_NODE:
+			case Node.COMMENT_NODE:
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				return mCompact.getValue(node);
+			case Node.ELEMENT_NODE:
+				return child == -1 ? "" : null;
+			default:
+				return null;
+		}
+	}
+
+
+	private boolean nameEquals(int aIndex, String aName)
+	{
+		int symbol = mCompact.mNames[aIndex];
+		if (symbol == -1)
+		{
+			return false;
+		}
+		String localName = mCompact.mLocalNames[symbol];
+		return (localName != null ? localName : mCompact.mQNames[symbol]).equals(aName);
+	}
+
+
+	private static boolean nameEquals(Node aNode, String aName)
+	{
+		String name = aNode.getLocalName();
+		return (name != null ? name : aNode.getNodeName()).equals(aName);
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "XmlCursor{" + getName() + ", depth=" + mDepth + "}";
+	}
+}
@@ -1,7 +1,10 @@
 package org.terifan.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -9,15 +12,20 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
 import java.net.URL;
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Result;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import static org.terifan.xml.XmlNode.newTransformer;
+import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -37,7 +45,7 @@ public class XmlDocument extends XmlNode
 
     public XmlDocument(byte[] aXmlDocument)
     {
-		this(new String(aXmlDocument, UTF_8));
+		super(parse(aXmlDocument, true));
     }
 
 
@@ -121,35 +129,145 @@ public class XmlDocument extends XmlNode
 
     public static Document parse(final Object aSource, boolean aNamespaceAware)
     {
+		return parse(aSource, XmlParserPool.getDefault(aNamespaceAware));
+	}
+
+
+	/**
+	 * Parse the source using a DocumentBuilder from the provided pool. Byte array and InputStream sources are parsed by the
+	 * built in parser when supported by the pool configuration. A read-only XmlCompactDocument is returned when the pool
+	 * configuration is compact. Files are read from the default XmlDocumentCache when one is installed.
+	 *
+	 * @param aSource
+	 *   a String, byte[], File, Reader, InputStream, URL or Element. Closeable sources are closed.
+	 */
+    public static Document parse(final Object aSource, XmlParserPool aPool)
+    {
+		XmlMetrics metrics = mMetrics;
+		if (metrics == XmlMetrics.NONE)
+		{
+			return parseSource(aSource, aPool, true);
+		}
+
+		long time = System.nanoTime();
+		long size = -1;
+		Object source = aSource;
+
+		if (source instanceof byte[])
+		{
+			size = ((byte[])source).length;
+		}
+		else if (source instanceof String)
+		{
+			size = ((String)source).length();
+		}
+		else if (source instanceof File)
+		{
+			size = ((File)source).length();
+		}
+		else if (source instanceof InputStream)
+		{
+			source = new CountingInputStream((InputStream)source);
+		}
+
+		int[] nodeCount = {-1};
+		Document doc = parseSource(source, aPool, true, nodeCount);
+
+		if (source instanceof CountingInputStream)
+		{
+			size = ((CountingInputStream)source).mCount;
+		}
+		if (doc instanceof XmlCompactDocument)
+		{
+			nodeCount[0] = ((XmlCompactDocument)doc).getNodeCount();
+		}
+
+		metrics.record(XmlMetrics.Operation.PARSE, null, System.nanoTime() - time, size, nodeCount[0]);
+
+		return doc;
+	}
+
+
+	/**
+	 * @param aCached
+	 *   true if files are read from the default XmlDocumentCache when one is installed
+	 */
+	static Document parseSource(final Object aSource, XmlParserPool aPool, boolean aCached)
+	{
+		return parseSource(aSource, aPool, aCached, null);
+	}
+
+
+	/**
+	 * @param aNodeCount
+	 *   if not null the first element is set to the number of nodes created by the built in DOM parser. The value is left
+	 *   unchanged for documents parsed by JAXP or read from a cache to avoid walking the tree.
+	 */
+	private static Document parseSource(final Object aSource, XmlParserPool aPool, boolean aCached, int[] aNodeCount)
+	{
 		if (aSource == null)
 		{
 			throw new XmlException("Provided argument is null.");
 		}
+
+		if (aCached)
+		{
+			XmlDocumentCache cache = XmlDocumentCache.getDefault();
+			File file = cache == null ? null : XmlDocumentCache.getFile(aSource);
+
+			if (file != null)
+			{
+				return cache.parse(file, aPool);
+			}
+		}
         try
         {
 			try
 			{
-				if (aSource instanceof String)
-				{
-					return newBuilder(aNamespaceAware).parse(new InputSource(new StringReader((String)aSource)));
-				}
-				if (aSource instanceof File)
-				{
-					return newBuilder(aNamespaceAware).parse((File)aSource);
-				}
-				if (aSource instanceof Reader)
-				{
-					return newBuilder(aNamespaceAware).parse(new InputSource((Reader)aSource));
-				}
-				if (aSource instanceof InputStream)
-				{
-					return newBuilder(aNamespaceAware).parse((InputStream)aSource);
-				}
-				if (aSource instanceof URL)
+				Object source = aSource;
+				XmlParserConfig config = aPool.config();
+
+				if (config.isNativeParserSupported() && (source instanceof byte[] || source instanceof InputStream || source instanceof File && config.isMemoryMapped()))
 				{
-					return newBuilder(aNamespaceAware).parse(aSource.toString());
+					XmlByteParser.Input input;
+					if (source instanceof byte[])
+					{
+						input = new XmlByteParser.ArrayInput((byte[])source, 0, ((byte[])source).length);
+					}
+					else if (source instanceof File)
+					{
+						input = new XmlByteParser.MappedInput((File)source, XmlByteParser.MappedInput.DEFAULT_WINDOW_SIZE);
+					}
+					else
+					{
+						input = new XmlByteParser.StreamInput((InputStream)source, 64 * 1024);
+					}
+
+					try
+					{
+						Document doc = parse(input, aPool, aNodeCount);
+						if (source instanceof File)
+						{
+							doc.setDocumentURI(((File)source).toURI().toString());
+						}
+						return doc;
+					}
+					catch (XmlByteParser.UnsupportedInputException e)
+					{
+						if (!(source instanceof File))
+						{
+							source = input.replay();
+						}
+					}
+					finally
+					{
+						input.close();
+					}
 				}
-				throw new IllegalArgumentException("Unsupported type: " + aSource);
+
+				Document doc = parseDOM(source, aPool);
+
+				return config.isCompact() ? XmlCompactBuilder.copyOf(doc) : doc;
 			}
 			finally
 			{
@@ -159,93 +277,356 @@ public class XmlDocument extends XmlNode
 				}
 			}
         }
-        catch (ParserConfigurationException | SAXException | IOException e)
+        catch (SAXException | IOException e)
         {
             throw new XmlException(e);
         }
     }
 
 
-    public XmlDocument transform(XmlDocument aTemplate)
-    {
+	/**
+	 * Parse the source into a Xerces DOM using a pooled DocumentBuilder.
+	 */
+	private static Document parseDOM(Object aSource, XmlParserPool aPool) throws SAXException, IOException
+	{
+		DocumentBuilder builder = aPool.acquire();
 		try
 		{
-			XmlDocument result = new XmlDocument();
-			newTransformer(aTemplate, true).transform(new DOMSource(mNode), new DOMResult(result.getInternalNode()));
-			return result;
+			if (aSource instanceof String)
+			{
+				return builder.parse(new InputSource(new StringReader((String)aSource)));
+			}
+			if (aSource instanceof byte[])
+			{
+				return builder.parse(new ByteArrayInputStream((byte[])aSource));
+			}
+			if (aSource instanceof File)
+			{
+				return builder.parse((File)aSource);
+			}
+			if (aSource instanceof Reader)
+			{
+				return builder.parse(new InputSource((Reader)aSource));
+			}
+			if (aSource instanceof InputStream)
+			{
+				return builder.parse((InputStream)aSource);
+			}
+			if (aSource instanceof URL)
+			{
+				return builder.parse(aSource.toString());
+			}
+			if (aSource instanceof Element)
+			{
+				Document doc = builder.newDocument();
+				doc.appendChild(doc.importNode((Element)aSource, true));
+				return doc;
+			}
+			throw new IllegalArgumentException("Unsupported type: " + aSource);
 		}
-		catch (TransformerException e)
+		finally
 		{
-            throw new XmlException(e);
+			aPool.release(builder);
 		}
-    }
+	}
 
 
-    public void transform(XmlDocument aTemplate, OutputStream aOutput) throws IOException
-    {
-		try
+	private static Document parse(XmlByteParser.Input aInput, XmlParserPool aPool, int[] aNodeCount) throws IOException, XmlByteParser.UnsupportedInputException
+	{
+		if (aPool.config().isCompact())
 		{
-			newTransformer(aTemplate, true).transform(new DOMSource(mNode), new StreamResult(aOutput));
+			XmlCompactBuilder builder = new XmlCompactBuilder(aPool.config());
+			new XmlByteParser(aInput, builder).parse();
+			return builder.getDocument();
 		}
-		catch (TransformerException e)
+
+		XmlDomBuilder builder = new XmlDomBuilder(aPool.newDocument(), aPool.config());
+		new XmlByteParser(aInput, builder).parse();
+		Document doc = builder.getDocument();
+		if (aNodeCount != null)
 		{
-            throw new XmlException(e);
+			aNodeCount[0] = builder.getNodeCount();
 		}
+		return doc;
+	}
+
+
+	/**
+	 * Parse a batch of files concurrently using the default namespace aware pool, see parseAll(Iterable, XmlParserPool,
+	 * Executor, Consumer).
+	 *
+	 * @return
+	 *   a result for each file in input order
+	 */
+	public static List<XmlParseResult> parseAll(Collection<Path> aFiles)
+	{
+		return parseAll(aFiles, XmlParserPool.getDefault(true), null);
+	}
+
+
+	/**
+	 * Parse a batch of files concurrently, see parseAll(Iterable, XmlParserPool, Executor, Consumer).
+	 *
+	 * @return
+	 *   a result for each file in input order
+	 */
+	public static List<XmlParseResult> parseAll(Collection<Path> aFiles, XmlParserPool aPool, Executor aExecutor)
+	{
+		return collect(aFiles, aPool, aExecutor);
+	}
+
+
+	/**
+	 * Parse a batch of streams concurrently, see parseAll(Iterable, XmlParserPool, Executor, Consumer). The streams are
+	 * closed.
+	 *
+	 * @return
+	 *   a result for each stream in input order
+	 */
+	public static List<XmlParseResult> parseAll(Iterable<? extends InputStream> aStreams, XmlParserPool aPool, Executor aExecutor)
+	{
+		return collect(aStreams, aPool, aExecutor);
+	}
+
+
+	/**
+	 * Parse a batch of sources concurrently and deliver the results as the parses complete. A source failing to parse
+	 * doesn't abort the batch, the exception is reported in the result of that source. The consumer is called on the
+	 * calling thread and this method returns when all sources have been delivered.
+	 *
+	 * The sources are read from the Iterable lazily with at most as many parses in flight as the pool size, workers reuse
+	 * the DocumentBuilders of the pool.
+	 *
+	 * @param aSources
+	 *   any source accepted by parse(Object, XmlParserPool) or a java.nio.file.Path
+	 * @param aExecutor
+	 *   executor running the parses or null to use a temporary pool with one thread per available processor
+	 */
+	public static void parseAll(Iterable<?> aSources, XmlParserPool aPool, Executor aExecutor, Consumer<XmlParseResult> aConsumer)
+	{
+		new XmlBatchParser(aPool).parse(aSources, aExecutor, aConsumer);
+	}
+
+
+	private static List<XmlParseResult> collect(Iterable<?> aSources, XmlParserPool aPool, Executor aExecutor)
+	{
+		ArrayList<XmlParseResult> results = new ArrayList<>();
+
+		parseAll(aSources, aPool, aExecutor, result ->
+		{
+			while (results.size() <= result.getIndex())
+			{
+				results.add(null);
+			}
+			results.set(result.getIndex(), result);
+		});
+
+		return results;
+	}
+
+
+    public XmlDocument transform(XmlDocument aTemplate)
+    {
+		XmlDocument result = new XmlDocument();
+		transform(aTemplate, new DOMResult(result.getInternalNode()));
+		return result;
+    }
+
+
+    public void transform(XmlDocument aTemplate, OutputStream aOutput) throws IOException
+    {
+		transform(aTemplate, new StreamResult(aOutput));
     }
 
 
     public void transform(XmlDocument aTemplate, Writer aOutput) throws IOException
     {
+		transform(aTemplate, new StreamResult(aOutput));
+    }
+
+
+    public void transform(XmlDocument aTemplate, File aOutput) throws IOException
+    {
+		transform(aTemplate, new StreamResult(aOutput));
+    }
+
+
+	private void transform(XmlDocument aTemplate, Result aResult)
+	{
+		XmlMetrics metrics = mMetrics;
+		long time = metrics == XmlMetrics.NONE ? 0 : System.nanoTime();
+
 		try
 		{
-			newTransformer(aTemplate, true).transform(new DOMSource(mNode), new StreamResult(aOutput));
+			newTransformer(aTemplate, true).transform(new DOMSource(mNode), aResult);
 		}
 		catch (TransformerException e)
 		{
             throw new XmlException(e);
 		}
-    }
+
+		if (metrics != XmlMetrics.NONE)
+		{
+			metrics.record(XmlMetrics.Operation.TRANSFORM, null, System.nanoTime() - time, -1, -1);
+		}
+	}
 
 
-    public void transform(XmlDocument aTemplate, File aOutput) throws IOException
-    {
+	private static Document newDocument()
+	{
+		return XmlParserPool.getDefault(true).newDocument();
+	}
+
+
+	/**
+	 * Read a document written by XmlNode.writeBinary using the default namespace aware pool.
+	 */
+	public static XmlDocument readBinary(byte[] aBinary)
+	{
+		return readBinary(aBinary, XmlParserPool.getDefault(true));
+	}
+
+
+	/**
+	 * Read a document written by XmlNode.writeBinary using the default namespace aware pool.
+	 */
+	public static XmlDocument readBinary(File aFile)
+	{
+		return readBinary(aFile, XmlParserPool.getDefault(true));
+	}
+
+
+	/**
+	 * Read a document written by XmlNode.writeBinary using the default namespace aware pool. The stream is closed.
+	 */
+	public static XmlDocument readBinary(InputStream aInputStream)
+	{
+		return readBinary(aInputStream, XmlParserPool.getDefault(true));
+	}
+
+
+	/**
+	 * Read a document written by XmlNode.writeBinary. The document is restored as it was written, the pool only provides
+	 * the DOM implementation and a read-only XmlCompactDocument is created when the pool configuration is compact.
+	 *
+	 * @param aSource
+	 *   a byte[], File or InputStream. Streams are closed.
+	 */
+	public static XmlDocument readBinary(Object aSource, XmlParserPool aPool)
+	{
+		if (aSource == null)
+		{
+			throw new XmlException("Provided argument is null.");
+		}
+
+		XmlMetrics metrics = mMetrics;
+		long time = metrics == XmlMetrics.NONE ? 0 : System.nanoTime();
+
 		try
 		{
-			newTransformer(aTemplate, true).transform(new DOMSource(mNode), new StreamResult(aOutput));
+			XmlBinaryReader reader;
+			Document doc;
+
+			if (aSource instanceof byte[])
+			{
+				reader = new XmlBinaryReader((byte[])aSource, 0, ((byte[])aSource).length);
+				doc = reader.read(aPool);
+			}
+			else if (aSource instanceof File)
+			{
+				try (InputStream in = new FileInputStream((File)aSource))
+				{
+					reader = new XmlBinaryReader(in);
+					doc = reader.read(aPool);
+				}
+			}
+			else if (aSource instanceof InputStream)
+			{
+				try (InputStream in = (InputStream)aSource)
+				{
+					reader = new XmlBinaryReader(in);
+					doc = reader.read(aPool);
+				}
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unsupported type: " + aSource);
+			}
+
+			if (metrics != XmlMetrics.NONE)
+			{
+				metrics.record(XmlMetrics.Operation.PARSE, null, System.nanoTime() - time, reader.getReadCount(), reader.getNodeCount());
+			}
+
+			return new XmlDocument(doc);
 		}
-		catch (TransformerException e)
+		catch (IOException | DOMException e)
 		{
-            throw new XmlException(e);
+			throw new XmlException(e);
 		}
-    }
+	}
 
 
-	private static DocumentBuilder newBuilder(boolean aNamespaceAware) throws ParserConfigurationException
+	/**
+	 * Return a read-only copy of this document stored in a compact representation using a fraction of the memory of a
+	 * DOM. All methods modifying the copy throw a DOMException.
+	 */
+	public XmlDocument toCompact()
 	{
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		factory.setNamespaceAware(aNamespaceAware);
+		return new XmlDocument(mNode instanceof XmlCompactDocument ? (Document)mNode : XmlCompactBuilder.copyOf(mNode));
+	}
 
-		DocumentBuilder documentBuilder = factory.newDocumentBuilder();
 
-		return documentBuilder;
+	/**
+	 * Enable an index of the node paths of this document used by the literal path methods getNode, getElement, getText,
+	 * getList and getTextArray of this document and all its nodes. The index is built by the first lookup and makes
+	 * repeated lookups in large documents independent of the document size.
+	 *
+	 * The index is rebuilt after the document is modified through the methods of XmlNode, e.g. appendElement,
+	 * appendChild, remove and setText. Call invalidateIndexes after modifying the org.w3c.dom nodes directly.
+	 */
+	public XmlDocument setPathIndexEnabled(boolean aEnabled)
+	{
+		XmlPathIndex.setEnabled((Document)mNode, aEnabled);
+		return this;
 	}
 
 
-	private static Document newDocument()
+	public boolean isPathIndexEnabled()
 	{
-        try
-        {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			factory.setNamespaceAware(true);
+		return XmlPathIndex.get((Document)mNode) != null;
+	}
 
-			DocumentBuilder documentBuilder = factory.newDocumentBuilder();
 
-            return documentBuilder.newDocument();
-        }
-        catch (ParserConfigurationException e)
-        {
-            throw new XmlException(e);
-        }
+	/**
+	 * Add a hash index of the elements with the name by the value of the attribute, used by getOrCreateElementGroup and
+	 * findByAttribute of this document and all its nodes. The index is built by the first lookup and kept up to date
+	 * when elements are appended and attributes set through the methods of XmlNode, making grouping of a large number of
+	 * elements linear.
+	 *
+	 * Call invalidateIndexes after modifying the org.w3c.dom nodes directly.
+	 */
+	public XmlDocument addAttributeIndex(String aElementName, String aAttribute)
+	{
+		XmlAttributeIndex.add((Document)mNode, aElementName, aAttribute);
+		return this;
+	}
+
+
+	public XmlDocument removeAttributeIndex(String aElementName, String aAttribute)
+	{
+		XmlAttributeIndex.remove((Document)mNode, aElementName, aAttribute);
+		return this;
+	}
+
+
+	/**
+	 * Discard the path and attribute indices, they're rebuilt by the next lookup.
+	 */
+	public void invalidateIndexes()
+	{
+		XmlPathIndex.invalidate((Document)mNode);
+		XmlAttributeIndex.invalidate((Document)mNode);
 	}
 
 
@@ -260,6 +641,7 @@ public class XmlDocument extends XmlNode
 		Document doc = (Document)mNode;
 		ProcessingInstruction pi = doc.createProcessingInstruction(aName, aData);
 		doc.insertBefore(pi, doc.getDocumentElement());
+		nodesChanged();
 		return new XmlProcessingInstruction(pi);
 	}
 
@@ -282,4 +664,59 @@ public class XmlDocument extends XmlNode
 
 		return null;
 	}
+
+
+	/**
+	 * Counts the bytes read from a stream being parsed.
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		long mCount;
+
+
+		CountingInputStream(InputStream aInputStream)
+		{
+			super(aInputStream);
+		}
+
+
+		@Override
+		public int read() throws IOException
+		{
+			int c = super.read();
+			if (c != -1)
+			{
+				mCount++;
+			}
+			return c;
+		}
+
+
+		@Override
+		public int read(byte[] aBuffer, int aOffset, int aLength) throws IOException
+		{
+			int n = super.read(aBuffer, aOffset, aLength);
+			if (n > 0)
+			{
+				mCount += n;
+			}
+			return n;
+		}
+
+
+		@Override
+		public long skip(long aCount) throws IOException
+		{
+			long n = super.skip(aCount);
+			mCount += n;
+			return n;
+		}
+
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+	}
 }
\ No newline at end of file
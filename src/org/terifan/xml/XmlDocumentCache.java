@@ -0,0 +1,452 @@
+package org.terifan.xml;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import org.w3c.dom.Document;
+
+
+/**
+ * A persistent cache of parsed files stored in a directory in the binary format of XmlNode.writeBinary.
+ *
+ * Once installed with setDefault, files parsed by XmlDocument, including File and file: URL sources of the constructors
+ * and the parse methods, are read from the cache when the file hasn't changed since it was cached. Other files are
+ * parsed and added to the cache. An entry is valid while the file has the same size and modification time, or the same
+ * SHA-256 hash of its content when the cache is created with content hashing. Hashing reads each file but avoids the
+ * parse, use it when files may be replaced without changing their size and modification time.
+ *
+ * There is one entry per file and parser configuration, entries are replaced when the file changes. Unreadable or
+ * corrupt entries are ignored and replaced, failures writing entries are ignored. Entries are written to a temporary
+ * file and moved in place so several processes can share the directory. Documents read from the cache are equal to
+ * the parsed documents except that DOM documents don't keep a declared UTF-8 encoding, like documents built by the
+ * native parser. DOM documents declaring another encoding aren't cached since the encoding couldn't be restored.
+ *
+ * e.g.
+ * <pre>
+ * XmlDocumentCache.setDefault(new XmlDocumentCache(new File(System.getProperty("java.io.tmpdir"), "xml-cache")));
+ * </pre>
+ */
+public class XmlDocumentCache
+{
+	private final static int MAGIC = 0x58444331;
+	private final static String SUFFIX = ".xmlc";
+
+	private static volatile XmlDocumentCache mDefault;
+
+	private final File mDirectory;
+	private final boolean mContentHashed;
+	private final AtomicLong mHits;
+	private final AtomicLong mMisses;
+	private final AtomicLong mRejected;
+	private final AtomicLong mStored;
+
+
+	/**
+	 * Create a cache validating entries by file size and modification time.
+	 */
+	public XmlDocumentCache(File aDirectory)
+	{
+		this(aDirectory, false);
+	}
+
+
+	/**
+	 * @param aDirectory
+	 *   the directory of the cache, created if it doesn't exist
+	 * @param aContentHashed
+	 *   true if entries are validated by a hash of the file content instead of the size and modification time
+	 */
+	public XmlDocumentCache(File aDirectory, boolean aContentHashed)
+	{
+		if (aDirectory == null)
+		{
+			throw new IllegalArgumentException("Provided directory is null.");
+		}
+
+		mDirectory = aDirectory;
+		mContentHashed = aContentHashed;
+		mHits = new AtomicLong();
+		mMisses = new AtomicLong();
+		mRejected = new AtomicLong();
+		mStored = new AtomicLong();
+	}
+
+
+	/**
+	 * Return the cache used by XmlDocument or null if files aren't cached, which is the default.
+	 */
+	public static XmlDocumentCache getDefault()
+	{
+		return mDefault;
+	}
+
+
+	/**
+	 * Install the cache used by XmlDocument, null disables caching.
+	 */
+	public static void setDefault(XmlDocumentCache aCache)
+	{
+		mDefault = aCache;
+	}
+
+
+	/**
+	 * Return the document of the file, read from the cache when an entry is valid and otherwise parsed using the pool
+	 * and added to the cache.
+	 */
+	public Document parse(File aFile, XmlParserPool aPool)
+	{
+		if (!aFile.isFile())
+		{
+			return XmlDocument.parseSource(aFile, aPool, false);
+		}
+
+		File entry = new File(mDirectory, name(aFile, aPool) + SUFFIX);
+		Key key;
+
+		try
+		{
+			key = new Key(aFile, mContentHashed);
+
+			Document doc = load(entry, key, aPool);
+			if (doc != null)
+			{
+				mHits.incrementAndGet();
+				return doc;
+			}
+		}
+		catch (IOException e)
+		{
+			mMisses.incrementAndGet();
+			return XmlDocument.parseSource(aFile, aPool, false);
+		}
+
+		mMisses.incrementAndGet();
+
+		Document doc = XmlDocument.parseSource(aFile, aPool, false);
+
+		String encoding = doc.getXmlEncoding();
+		if (doc instanceof XmlCompactDocument || encoding == null || "UTF-8".equalsIgnoreCase(encoding))
+		{
+			store(entry, key, doc);
+		}
+
+		return doc;
+	}
+
+
+	/**
+	 * Remove the entries of the file.
+	 */
+	public void invalidate(File aFile)
+	{
+		File[] files = mDirectory.listFiles((aDir, aName) -> aName.endsWith(SUFFIX));
+		if (files != null)
+		{
+			byte[] path = aFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+
+			for (File file : files)
+			{
+				try
+				{
+					if (Arrays.equals(readPath(file), path))
+					{
+						Files.deleteIfExists(file.toPath());
+					}
+				}
+				catch (IOException e)
+				{
+					// ignore entries being replaced or removed concurrently
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear()
+	{
+		File[] files = mDirectory.listFiles((aDir, aName) -> aName.endsWith(SUFFIX));
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				file.delete();
+			}
+		}
+	}
+
+
+	public File getDirectory()
+	{
+		return mDirectory;
+	}
+
+
+	public boolean isContentHashed()
+	{
+		return mContentHashed;
+	}
+
+
+	/**
+	 * Return number of documents read from the cache.
+	 */
+	public long getHitCount()
+	{
+		return mHits.get();
+	}
+
+
+	/**
+	 * Return number of documents parsed because no valid entry existed.
+	 */
+	public long getMissCount()
+	{
+		return mMisses.get();
+	}
+
+
+	/**
+	 * Return number of entries found corrupt or unreadable.
+	 */
+	public long getRejectedCount()
+	{
+		return mRejected.get();
+	}
+
+
+	/**
+	 * Return number of entries written.
+	 */
+	public long getStoreCount()
+	{
+		return mStored.get();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "XmlDocumentCache{directory=" + mDirectory + ", contentHashed=" + mContentHashed + ", hits=" + mHits + ", misses=" + mMisses + ", rejected=" + mRejected + ", stored=" + mStored + "}";
+	}
+
+
+	/**
+	 * Return the file of a File or file: URL source or null if the source isn't a file.
+	 */
+	static File getFile(Object aSource)
+	{
+		if (aSource instanceof File)
+		{
+			return (File)aSource;
+		}
+
+		if (aSource instanceof URL && "file".equals(((URL)aSource).getProtocol()))
+		{
+			try
+			{
+				return new File(((URL)aSource).toURI());
+			}
+			catch (URISyntaxException | IllegalArgumentException e)
+			{
+				return null;
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Read the entry or return null if it doesn't exist or isn't valid for the key.
+	 */
+	private Document load(File aEntry, Key aKey, XmlParserPool aPool)
+	{
+		byte[] data;
+
+		try
+		{
+			data = Files.readAllBytes(aEntry.toPath());
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+
+			if (buffer.getInt() != MAGIC)
+			{
+				throw new XmlException("Not a cache entry.");
+			}
+
+			int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining())
+			{
+				throw new XmlException("Corrupt cache entry.");
+			}
+
+			byte[] header = new byte[length];
+			buffer.get(header);
+
+			if (!Arrays.equals(header, aKey.mHeader))
+			{
+				return null;
+			}
+
+			XmlBinaryReader reader = new XmlBinaryReader(data, buffer.position(), buffer.remaining());
+			return reader.read(aPool);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			mRejected.incrementAndGet();
+			return null;
+		}
+	}
+
+
+	private void store(File aEntry, Key aKey, Document aDocument)
+	{
+		File temp = null;
+
+		try
+		{
+			Files.createDirectories(mDirectory.toPath());
+
+			temp = File.createTempFile("entry", ".tmp", mDirectory);
+
+			try (OutputStream out = new FileOutputStream(temp))
+			{
+				out.write(ByteBuffer.allocate(8).putInt(MAGIC).putInt(aKey.mHeader.length).array());
+				out.write(aKey.mHeader);
+				new XmlBinaryWriter(out).write(aDocument);
+			}
+
+			Files.move(temp.toPath(), aEntry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			temp = null;
+
+			mStored.incrementAndGet();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// the document is returned uncached
+		}
+		finally
+		{
+			if (temp != null)
+			{
+				temp.delete();
+			}
+		}
+	}
+
+
+	private static byte[] readPath(File aEntry) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new FileInputStream(aEntry)))
+		{
+			if (in.readInt() != MAGIC)
+			{
+				return null;
+			}
+
+			in.readInt();
+			int length = in.readInt();
+			if (length < 0 || length > aEntry.length())
+			{
+				return null;
+			}
+
+			byte[] path = new byte[length];
+			in.readFully(path);
+			return path;
+		}
+	}
+
+
+	/**
+	 * Return the name of the entry of a file parsed with the configuration of the pool.
+	 */
+	private static String name(File aFile, XmlParserPool aPool)
+	{
+		MessageDigest digest = sha256();
+		digest.update(aFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+		digest.update((byte)0);
+		digest.update(aPool.config().clone().setPoolSize(1).toString().getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : Arrays.copyOf(digest.digest(), 16))
+		{
+			sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+		}
+		return sb.toString();
+	}
+
+
+	private static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Identity of a file, the path followed by the size and modification time or the hash of the content.
+	 */
+	private static class Key
+	{
+		final byte[] mHeader;
+
+
+		Key(File aFile, boolean aContentHashed) throws IOException
+		{
+			byte[] path = aFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+			byte[] identity;
+
+			if (aContentHashed)
+			{
+				MessageDigest digest = sha256();
+				try (InputStream in = new FileInputStream(aFile))
+				{
+					byte[] buffer = new byte[64 * 1024];
+					for (int len; (len = in.read(buffer)) > 0;)
+					{
+						digest.update(buffer, 0, len);
+					}
+				}
+				identity = digest.digest();
+			}
+			else
+			{
+				identity = ByteBuffer.allocate(16).putLong(aFile.length()).putLong(aFile.lastModified()).array();
+			}
+
+			mHeader = ByteBuffer.allocate(8 + path.length + identity.length).putInt(path.length).put(path).putInt(identity.length).put(identity).array();
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package org.terifan.xml;
+
+import javax.xml.XMLConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+
+/**
+ * Builds org.w3c.dom nodes from the events of a XmlByteParser.
+ */
+class XmlDomBuilder implements XmlByteParser.Handler
+{
+	private final Document mDocument;
+	private final boolean mNamespaceAware;
+	private final boolean mCoalescing;
+	private final boolean mIgnoringComments;
+	private Node mCurrent;
+
+	private char[] mText;
+	private int mTextLength;
+
+	private final XmlNamespaceScope mScope;
+	private int mDepth;
+	private int mInheritedCount;
+	private int mNodeCount;
+
+
+	XmlDomBuilder(Document aDocument, XmlParserConfig aConfig)
+	{
+		mDocument = aDocument;
+		mNamespaceAware = aConfig.isNamespaceAware();
+		mCoalescing = aConfig.isCoalescing();
+		mIgnoringComments = aConfig.isIgnoringComments();
+		mCurrent = aDocument;
+		mText = new char[256];
+		mScope = new XmlNamespaceScope();
+		mNodeCount = 1;
+
+		mDocument.setStrictErrorChecking(false);
+	}
+
+
+	/**
+	 * Declare a namespace binding inherited from an enclosing document. Inherited bindings are added as namespace
+	 * declarations to the root element unless redeclared by it.
+	 */
+	void inherit(String aPrefix, String aURI)
+	{
+		mScope.bind(aPrefix, aURI);
+		mInheritedCount = mScope.size();
+	}
+
+
+	Document getDocument()
+	{
+		flushText();
+		mDocument.setStrictErrorChecking(true);
+		return mDocument;
+	}
+
+
+	/**
+	 * Return number of nodes created including the document node, attributes excluded.
+	 */
+	int getNodeCount()
+	{
+		return mNodeCount;
+	}
+
+
+	/**
+	 * The declared encoding can't be set on a DOM document, documents declaring an encoding other than UTF-8 are parsed by
+	 * JAXP to keep it. A declared UTF-8 encoding is the same as no declared encoding when the document is written.
+	 */
+	@Override
+	public void declaration(String aVersion, String aEncoding, Boolean aStandalone) throws XmlByteParser.UnsupportedInputException
+	{
+		if (aEncoding != null && !"UTF-8".equalsIgnoreCase(aEncoding))
+		{
+			throw new XmlByteParser.UnsupportedInputException("The declared encoding " + aEncoding + " can't be kept in a DOM document.", null);
+		}
+		if (aVersion != null)
+		{
+			mDocument.setXmlVersion(aVersion);
+		}
+		if (aStandalone != null)
+		{
+			mDocument.setXmlStandalone(aStandalone);
+		}
+	}
+
+
+	@Override
+	public void startElement(String aName, XmlByteParser aParser)
+	{
+		flushText();
+
+		Element element;
+		int attributeCount = aParser.getAttributeCount();
+
+		if (mNamespaceAware)
+		{
+			mScope.push(aParser);
+			mDepth++;
+
+			element = mDocument.createElementNS(mScope.resolve(aName, true), aName);
+
+			for (int i = 0; i < attributeCount; i++)
+			{
+				String name = aParser.getAttributeName(i);
+				element.setAttributeNS(mScope.resolveAttribute(name), name, aParser.getAttributeValue(i));
+			}
+
+			if (mDepth == 1)
+			{
+				for (int i = 0; i < mInheritedCount; i++)
+				{
+					String prefix = mScope.getPrefix(i);
+					if (mScope.getURI(i) != null && mScope.indexOf(prefix) == i)
+					{
+						String name = prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+						element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, mScope.getURI(i));
+					}
+				}
+			}
+		}
+		else
+		{
+			element = mDocument.createElement(aName);
+
+			for (int i = 0; i < attributeCount; i++)
+			{
+				element.setAttribute(aParser.getAttributeName(i), aParser.getAttributeValue(i));
+			}
+		}
+
+		mCurrent.appendChild(element);
+		mCurrent = element;
+		mNodeCount++;
+	}
+
+
+	@Override
+	public void endElement(String aName)
+	{
+		flushText();
+
+		if (mNamespaceAware)
+		{
+			mScope.pop();
+			mDepth--;
+		}
+
+		mCurrent = mCurrent.getParentNode();
+	}
+
+
+	@Override
+	public void text(char[] aChars, int aOffset, int aLength)
+	{
+		if (mTextLength + aLength > mText.length)
+		{
+			char[] tmp = new char[Math.max(2 * mText.length, mTextLength + aLength)];
+			System.arraycopy(mText, 0, tmp, 0, mTextLength);
+			mText = tmp;
+		}
+		System.arraycopy(aChars, aOffset, mText, mTextLength, aLength);
+		mTextLength += aLength;
+	}
+
+
+	@Override
+	public void cdata(char[] aChars, int aOffset, int aLength)
+	{
+		if (mCoalescing)
+		{
+			text(aChars, aOffset, aLength);
+			return;
+		}
+
+		flushText();
+		mCurrent.appendChild(mDocument.createCDATASection(new String(aChars, aOffset, aLength)));
+		mNodeCount++;
+	}
+
+
+	@Override
+	public void comment(char[] aChars, int aOffset, int aLength)
+	{
+		if (mIgnoringComments)
+		{
+			return;
+		}
+
+		flushText();
+		mCurrent.appendChild(mDocument.createComment(new String(aChars, aOffset, aLength)));
+		mNodeCount++;
+	}
+
+
+	@Override
+	public void processingInstruction(String aTarget, String aData)
+	{
+		flushText();
+		mCurrent.appendChild(mDocument.createProcessingInstruction(aTarget, aData));
+		mNodeCount++;
+	}
+
+
+	private void flushText()
+	{
+		if (mTextLength > 0)
+		{
+			mCurrent.appendChild(mDocument.createTextNode(new String(mText, 0, mTextLength)));
+			mTextLength = 0;
+			mNodeCount++;
+		}
+	}
+}
@@ -1,7 +1,5 @@
 package org.terifan.xml;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.Iterator;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -38,45 +36,22 @@ public class XmlElement extends XmlNode implements Iterable<XmlElement>
 	}
 
 
-	private void setValue(Field field, String name, Object aProvider) throws IllegalStateException
+	/**
+	 * Append the XmlProperty annotated properties of the object to this element, see XmlBinder.
+	 */
+	public XmlElement appendProperties(Object aEntity)
 	{
-		try
-		{
-			field.setAccessible(true);
-			if (name.startsWith("@"))
-			{
-				setAttribute(name.substring(1), field.get(aProvider).toString());
-			}
-			else
-			{
-				appendTextNode(name, field.get(aProvider).toString());
-			}
-		}
-		catch (Exception e)
-		{
-			throw new IllegalStateException("Problem getting property " + name + " via field " + field, e);
-		}
+		XmlBinder.write(aEntity, this);
+		return this;
 	}
 
 
-	private void setValue(Method method, String name, Object aProvider) throws IllegalStateException
+	/**
+	 * Create an object of the type with the XmlProperty annotated properties set from this element, see XmlBinder.
+	 */
+	public <T> T toObject(Class<T> aType)
 	{
-		try
-		{
-			method.setAccessible(true);
-			if (name.startsWith("@"))
-			{
-				setAttribute(name.substring(1), method.invoke(aProvider).toString());
-			}
-			else
-			{
-				appendTextNode(name, method.invoke(aProvider).toString());
-			}
-		}
-		catch (Exception e)
-		{
-			throw new IllegalStateException("Problem getting property " + name + " via method " + method, e);
-		}
+		return XmlBinder.read(this, aType);
 	}
 
 
@@ -117,28 +92,26 @@ public class XmlElement extends XmlNode implements Iterable<XmlElement>
 	public XmlElement setAttribute(String aName, String aValue)
 	{
 		((Element)mNode).setAttribute(aName, aValue);
+		XmlAttributeIndex.attributeChanged((Element)mNode);
 		return this;
 	}
 
 
 	public XmlElement setAttribute(String aName, boolean aValue)
 	{
-		((Element)mNode).setAttribute(aName, Boolean.toString(aValue));
-		return this;
+		return setAttribute(aName, Boolean.toString(aValue));
 	}
 
 
 	public XmlElement setAttribute(String aName, int aValue)
 	{
-		((Element)mNode).setAttribute(aName, Integer.toString(aValue));
-		return this;
+		return setAttribute(aName, Integer.toString(aValue));
 	}
 
 
 	public XmlElement setAttribute(String aName, long aValue)
 	{
-		((Element)mNode).setAttribute(aName, Long.toString(aValue));
-		return this;
+		return setAttribute(aName, Long.toString(aValue));
 	}
 
 
@@ -195,6 +168,7 @@ public class XmlElement extends XmlNode implements Iterable<XmlElement>
 	public XmlElement setText(String aText)
 	{
 		mNode.setTextContent(aText);
+		nodesChanged();
 		return this;
 	}
 }
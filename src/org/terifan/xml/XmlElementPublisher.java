@@ -0,0 +1,328 @@
+package org.terifan.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Publishes the elements matching a literal path of a source to a subscriber honouring its demand. The source is parsed
+ * incrementally by an XmlPathExtractor and each matching element is delivered as a standalone XmlElement in a document
+ * of it's own. Parsing pauses while the subscriber has no outstanding demand, memory use is bounded by the elements
+ * requested rather than the size of the document.
+ *
+ * The Subscriber and Subscription interfaces have the same methods as their java.util.concurrent.Flow counterparts, which
+ * are not available on Java 8, and a Flow.Subscriber is adapted by forwarding each method.
+ *
+ * e.g.
+ * <pre>
+ * new XmlElementPublisher("orders/order", new File("orders.xml")).subscribe(new XmlElementPublisher.Subscriber()
+ * {
+ *     Subscription subscription;
+ *     public void onSubscribe(Subscription aSubscription) { subscription = aSubscription; subscription.request(16); }
+ *     public void onNext(XmlElement aOrder) { process(aOrder); subscription.request(1); }
+ *     public void onError(Throwable aThrowable) { ... }
+ *     public void onComplete() { ... }
+ * });
+ * </pre>
+ *
+ * The source is read once and a publisher accepts a single subscriber, later subscribers receive an error. onSubscribe
+ * is called by the subscribing thread and the other signals are delivered on the executor after it has returned,
+ * signals never overlap and parsing and delivery never run concurrently. The source is closed when all elements have
+ * been delivered, when an error occurs or when the subscription is cancelled.
+ */
+public class XmlElementPublisher
+{
+	private final XmlPathExtractor mExtractor;
+	private final Object mSource;
+	private final Executor mExecutor;
+	private final AtomicBoolean mSubscribed;
+
+
+	/**
+	 * Create a publisher parsing the source using the common fork join pool.
+	 *
+	 * @param aSource
+	 *   a File, InputStream, Reader, byte[] or a String containing XML
+	 */
+	public XmlElementPublisher(String aPath, Object aSource)
+	{
+		this(new XmlPathExtractor(aPath), aSource, ForkJoinPool.commonPool());
+	}
+
+
+	/**
+	 * @param aSource
+	 *   a File, InputStream, Reader, byte[] or a String containing XML
+	 * @param aExecutor
+	 *   executor parsing the source and delivering the signals to the subscriber
+	 */
+	public XmlElementPublisher(XmlPathExtractor aExtractor, Object aSource, Executor aExecutor)
+	{
+		if (aExtractor == null || aSource == null || aExecutor == null)
+		{
+			throw new IllegalArgumentException("Provided argument is null.");
+		}
+		if (aExtractor.isAttributePath())
+		{
+			throw new IllegalArgumentException("Path selects attributes, elements must be published: " + aExtractor.getPath());
+		}
+
+		mExtractor = aExtractor;
+		mSource = aSource;
+		mExecutor = aExecutor;
+		mSubscribed = new AtomicBoolean();
+	}
+
+
+	public void subscribe(Subscriber aSubscriber)
+	{
+		if (aSubscriber == null)
+		{
+			throw new NullPointerException("Provided subscriber is null.");
+		}
+
+		if (!mSubscribed.compareAndSet(false, true))
+		{
+			aSubscriber.onSubscribe(new Subscription()
+			{
+				@Override
+				public void request(long aCount)
+				{
+				}
+
+
+				@Override
+				public void cancel()
+				{
+				}
+			});
+			aSubscriber.onError(new IllegalStateException("The publisher only supports a single subscriber."));
+			return;
+		}
+
+		new ElementSubscription(aSubscriber).start();
+	}
+
+
+	/**
+	 * Receiver of published elements, the same methods as java.util.concurrent.Flow.Subscriber.
+	 */
+	public interface Subscriber
+	{
+		void onSubscribe(Subscription aSubscription);
+
+		void onNext(XmlElement aElement);
+
+		void onError(Throwable aThrowable);
+
+		void onComplete();
+	}
+
+
+	/**
+	 * Link between the publisher and the subscriber, the same methods as java.util.concurrent.Flow.Subscription.
+	 */
+	public interface Subscription
+	{
+		/**
+		 * Add to the number of elements the subscriber is ready to receive. A count of Long.MAX_VALUE requests all elements.
+		 */
+		void request(long aCount);
+
+		/**
+		 * Stop publishing and close the source. Elements may still be delivered until the cancellation takes effect.
+		 */
+		void cancel();
+	}
+
+
+	/**
+	 * Delivers elements to the subscriber from a drain loop run on the executor. The work counter guarantees a single
+	 * running drain while requests and cancellations from any thread, including from within onNext, schedule another pass.
+	 * The counter is held while onSubscribe runs, requests made by it are drained once it has returned.
+	 */
+	private class ElementSubscription implements Subscription, Runnable
+	{
+		private final Subscriber mSubscriber;
+		private final AtomicLong mDemand;
+		private final AtomicInteger mWork;
+		private volatile boolean mCancelled;
+		private volatile Throwable mRequestError;
+		private XmlPathExtractor.Results<XmlElement> mResults;
+		private boolean mDone;
+
+
+		ElementSubscription(Subscriber aSubscriber)
+		{
+			mSubscriber = aSubscriber;
+			mDemand = new AtomicLong();
+			mWork = new AtomicInteger();
+		}
+
+
+		void start()
+		{
+			mWork.set(1);
+
+			try
+			{
+				mSubscriber.onSubscribe(this);
+			}
+			finally
+			{
+				if (mWork.decrementAndGet() != 0)
+				{
+					mExecutor.execute(this);
+				}
+			}
+		}
+
+
+		@Override
+		public void request(long aCount)
+		{
+			if (aCount <= 0)
+			{
+				mRequestError = new IllegalArgumentException("Requested count must be positive: " + aCount);
+			}
+			else
+			{
+				mDemand.getAndUpdate(demand -> demand + aCount < 0 ? Long.MAX_VALUE : demand + aCount);
+			}
+
+			schedule();
+		}
+
+
+		@Override
+		public void cancel()
+		{
+			mCancelled = true;
+			schedule();
+		}
+
+
+		private void schedule()
+		{
+			if (mWork.getAndIncrement() == 0)
+			{
+				mExecutor.execute(this);
+			}
+		}
+
+
+		@Override
+		public void run()
+		{
+			int missed = 1;
+
+			do
+			{
+				drain();
+
+				missed = mWork.addAndGet(-missed);
+			}
+			while (missed != 0);
+		}
+
+
+		private void drain()
+		{
+			if (mDone)
+			{
+				return;
+			}
+
+			try
+			{
+				if (mResults == null && !mCancelled && mRequestError == null)
+				{
+					mResults = mExtractor.elements(mSource);
+				}
+
+				for (;;)
+				{
+					if (mCancelled)
+					{
+						terminate();
+						return;
+					}
+
+					if (mRequestError != null)
+					{
+						terminate();
+						mSubscriber.onError(mRequestError);
+						return;
+					}
+
+					long demand = mDemand.get();
+
+					if (demand == 0)
+					{
+						return;
+					}
+
+					if (!mResults.hasNext())
+					{
+						terminate();
+						mSubscriber.onComplete();
+						return;
+					}
+
+					XmlElement element = mResults.next();
+
+					if (demand != Long.MAX_VALUE)
+					{
+						mDemand.decrementAndGet();
+					}
+
+					mSubscriber.onNext(element);
+				}
+			}
+			catch (Throwable e)
+			{
+				if (!mDone)
+				{
+					terminate();
+					mSubscriber.onError(e);
+				}
+			}
+		}
+
+
+		private void terminate()
+		{
+			mDone = true;
+			mCancelled = true;
+
+			if (mResults != null)
+			{
+				try
+				{
+					mResults.close();
+				}
+				catch (XmlException e)
+				{
+					// the source is abandoned, a failure to close it is not reported to the subscriber
+				}
+				mResults = null;
+			}
+			else if (mSource instanceof Closeable)
+			{
+				try
+				{
+					((Closeable)mSource).close();
+				}
+				catch (IOException e)
+				{
+					// as above
+				}
+			}
+		}
+	}
+}
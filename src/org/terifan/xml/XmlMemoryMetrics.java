@@ -0,0 +1,262 @@
+package org.terifan.xml;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * An XmlMetrics implementation keeping counters and latency histograms in memory, per operation.
+ *
+ * Latencies are counted in buckets with upper bounds growing in powers of two from one microsecond to about 17 seconds.
+ * Counters are updated without locking and may be read while being updated, the values read are then not necessarily
+ * consistent with each other. The contents can be dumped using toString or exposed to a Prometheus scraper using
+ * toPrometheusString.
+ */
+public class XmlMemoryMetrics implements XmlMetrics
+{
+	private final static int BUCKET_COUNT = 26;
+
+	private final EnumMap<Operation,Stats> mStats;
+
+
+	public XmlMemoryMetrics()
+	{
+		mStats = new EnumMap<>(Operation.class);
+		for (Operation operation : Operation.values())
+		{
+			mStats.put(operation, new Stats());
+		}
+	}
+
+
+	@Override
+	public void record(Operation aOperation, String aDetail, long aNanos, long aSize, int aNodeCount)
+	{
+		Stats stats = mStats.get(aOperation);
+		stats.mCount.increment();
+		stats.mNanos.add(aNanos);
+		stats.mMaxNanos.accumulate(aNanos);
+		stats.mBuckets[bucketOf(aNanos)].increment();
+		if (aSize > 0)
+		{
+			stats.mSize.add(aSize);
+		}
+		if (aNodeCount > 0)
+		{
+			stats.mNodes.add(aNodeCount);
+		}
+	}
+
+
+	public long getCount(Operation aOperation)
+	{
+		return mStats.get(aOperation).mCount.sum();
+	}
+
+
+	/**
+	 * Return the total time spent in nanoseconds.
+	 */
+	public long getTotalTime(Operation aOperation)
+	{
+		return mStats.get(aOperation).mNanos.sum();
+	}
+
+
+	/**
+	 * Return the longest time spent in a single operation in nanoseconds.
+	 */
+	public long getMaxTime(Operation aOperation)
+	{
+		return mStats.get(aOperation).mMaxNanos.get();
+	}
+
+
+	/**
+	 * Return the total number of bytes or characters read by parses or written by serializations.
+	 */
+	public long getSize(Operation aOperation)
+	{
+		return mStats.get(aOperation).mSize.sum();
+	}
+
+
+	/**
+	 * Return the total number of nodes created by parses or returned by queries.
+	 */
+	public long getNodeCount(Operation aOperation)
+	{
+		return mStats.get(aOperation).mNodes.sum();
+	}
+
+
+	/**
+	 * Return the number of operations in each latency bucket, the upper bounds are returned by getBucketLimit.
+	 */
+	public long[] getHistogram(Operation aOperation)
+	{
+		LongAdder[] buckets = mStats.get(aOperation).mBuckets;
+		long[] histogram = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			histogram[i] = buckets[i].sum();
+		}
+		return histogram;
+	}
+
+
+	/**
+	 * Return the upper bound in nanoseconds of the latencies counted in the histogram bucket, the last bucket has no
+	 * bound.
+	 */
+	public static long getBucketLimit(int aBucket)
+	{
+		return aBucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1000L << aBucket;
+	}
+
+
+	/**
+	 * Return an estimate of the latency percentile in nanoseconds, the upper bound of the bucket containing it.
+	 *
+	 * @param aPercentile
+	 *   a value between 0 and 100, e.g. 99.9
+	 */
+	public long getPercentile(Operation aOperation, double aPercentile)
+	{
+		long[] histogram = getHistogram(aOperation);
+		long total = 0;
+		for (long count : histogram)
+		{
+			total += count;
+		}
+		if (total == 0)
+		{
+			return 0;
+		}
+
+		long rank = (long)Math.ceil(total * aPercentile / 100.0);
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			rank -= histogram[i];
+			if (rank <= 0)
+			{
+				return Math.min(getBucketLimit(i), getMaxTime(aOperation));
+			}
+		}
+		return getMaxTime(aOperation);
+	}
+
+
+	/**
+	 * Clear all counters.
+	 */
+	public void reset()
+	{
+		for (Stats stats : mStats.values())
+		{
+			stats.mCount.reset();
+			stats.mNanos.reset();
+			stats.mMaxNanos.reset();
+			stats.mSize.reset();
+			stats.mNodes.reset();
+			for (LongAdder bucket : stats.mBuckets)
+			{
+				bucket.reset();
+			}
+		}
+	}
+
+
+	/**
+	 * Return the counters in the Prometheus text exposition format.
+	 */
+	public String toPrometheusString()
+	{
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("# TYPE xml_operation_duration_seconds histogram\n");
+		for (Operation operation : Operation.values())
+		{
+			String label = operation.name().toLowerCase(Locale.ROOT);
+			long[] histogram = getHistogram(operation);
+			long cumulative = 0;
+			for (int i = 0; i < BUCKET_COUNT; i++)
+			{
+				cumulative += histogram[i];
+				String le = i == BUCKET_COUNT - 1 ? "+Inf" : Double.toString(getBucketLimit(i) / 1e9);
+				sb.append("xml_operation_duration_seconds_bucket{operation=\"").append(label).append("\",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+			}
+			sb.append("xml_operation_duration_seconds_sum{operation=\"").append(label).append("\"} ").append(getTotalTime(operation) / 1e9).append('\n');
+			sb.append("xml_operation_duration_seconds_count{operation=\"").append(label).append("\"} ").append(cumulative).append('\n');
+		}
+
+		sb.append("# TYPE xml_operation_size_total counter\n");
+		for (Operation operation : Operation.values())
+		{
+			sb.append("xml_operation_size_total{operation=\"").append(operation.name().toLowerCase(Locale.ROOT)).append("\"} ").append(getSize(operation)).append('\n');
+		}
+
+		sb.append("# TYPE xml_operation_nodes_total counter\n");
+		for (Operation operation : Operation.values())
+		{
+			sb.append("xml_operation_nodes_total{operation=\"").append(operation.name().toLowerCase(Locale.ROOT)).append("\"} ").append(getNodeCount(operation)).append('\n');
+		}
+
+		return sb.toString();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Operation operation : Operation.values())
+		{
+			long count = getCount(operation);
+			sb.append(String.format(Locale.ROOT, "%-10s count=%d total=%.3fms mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms size=%d nodes=%d%n",
+				operation,
+				count,
+				getTotalTime(operation) / 1e6,
+				count == 0 ? 0.0 : getTotalTime(operation) / 1e6 / count,
+				getPercentile(operation, 50) / 1e6,
+				getPercentile(operation, 99) / 1e6,
+				getMaxTime(operation) / 1e6,
+				getSize(operation),
+				getNodeCount(operation)));
+		}
+		return sb.toString();
+	}
+
+
+	private static int bucketOf(long aNanos)
+	{
+		long micros = (aNanos + 999) / 1000;
+		if (micros <= 1)
+		{
+			return 0;
+		}
+		return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+	}
+
+
+	private static class Stats
+	{
+		final LongAdder mCount = new LongAdder();
+		final LongAdder mNanos = new LongAdder();
+		final LongAccumulator mMaxNanos = new LongAccumulator(Math::max, 0);
+		final LongAdder mSize = new LongAdder();
+		final LongAdder mNodes = new LongAdder();
+		final LongAdder[] mBuckets = new LongAdder[BUCKET_COUNT];
+
+
+		Stats()
+		{
+			for (int i = 0; i < BUCKET_COUNT; i++)
+			{
+				mBuckets[i] = new LongAdder();
+			}
+		}
+	}
+}
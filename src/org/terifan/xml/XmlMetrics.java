@@ -0,0 +1,75 @@
+package org.terifan.xml;
+
+
+/**
+ * Listener receiving a measurement for each parse, XPath query, transform and serialization performed by the library.
+ *
+ * The listener installed with setDefault is called on the thread performing the operation and must be thread safe and
+ * fast. The default listener is NONE, while it's installed no time is measured and nothing is counted, leaving a single
+ * volatile read per operation. XmlMemoryMetrics is an implementation collecting counters and latency histograms.
+ *
+ * e.g.
+ * <pre>
+ * XmlMemoryMetrics metrics = new XmlMemoryMetrics();
+ * XmlMetrics.setDefault(metrics);
+ * ...
+ * System.out.println(metrics);
+ * </pre>
+ */
+@FunctionalInterface
+public interface XmlMetrics
+{
+	enum Operation
+	{
+		/** Parsing a document, the size is the length of the source and the node count the number of nodes created. */
+		PARSE,
+		/** Evaluating an XPath expression, the size is unknown and the node count the number of nodes returned. */
+		QUERY,
+		/** Transforming a document using a stylesheet, the size and node count are unknown. */
+		TRANSFORM,
+		/** Serializing a node, the size is the number of bytes or characters written and the node count is unknown. */
+		SERIALIZE
+	}
+
+
+	/**
+	 * Listener ignoring all measurements.
+	 */
+	XmlMetrics NONE = (aOperation, aDetail, aNanos, aSize, aNodeCount) -> {};
+
+
+	/**
+	 * Called after an operation has completed successfully.
+	 *
+	 * @param aDetail
+	 *   the XPath expression of a query or null
+	 * @param aNanos
+	 *   the elapsed time in nanoseconds
+	 * @param aSize
+	 *   the number of bytes, or characters when reading or writing text, consumed or produced or -1 if unknown
+	 * @param aNodeCount
+	 *   the number of nodes created or returned or -1 if unknown
+	 */
+	void record(Operation aOperation, String aDetail, long aNanos, long aSize, int aNodeCount);
+
+
+	/**
+	 * Return the listener receiving measurements, NONE unless another listener has been installed.
+	 */
+	static XmlMetrics getDefault()
+	{
+		return XmlNode.mMetrics;
+	}
+
+
+	/**
+	 * Install the listener receiving measurements from all threads.
+	 *
+	 * @param aMetrics
+	 *   the listener or null to stop measuring
+	 */
+	static void setDefault(XmlMetrics aMetrics)
+	{
+		XmlNode.mMetrics = aMetrics == null ? NONE : aMetrics;
+	}
+}
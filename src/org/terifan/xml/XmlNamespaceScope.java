@@ -0,0 +1,243 @@
+package org.terifan.xml;
+
+import javax.xml.XMLConstants;
+
+
+/**
+ * Stack of namespace bindings declared by the elements currently open in a XmlByteParser.
+ */
+final class XmlNamespaceScope
+{
+	private String[] mPrefixes;
+	private String[] mURIs;
+	private int mCount;
+	private int[] mScopes;
+	private int mDepth;
+
+
+	XmlNamespaceScope()
+	{
+		mPrefixes = new String[16];
+		mURIs = new String[16];
+		mScopes = new int[32];
+	}
+
+
+	/**
+	 * Open a new scope and bind the namespace declarations among the attributes of the current start element.
+	 *
+	 * @throws XmlException
+	 *   if a declaration isn't a valid qualified name, binds a prefix to an empty URI or violates the constraints of the
+	 *   reserved xml and xmlns prefixes and namespaces, or if two attributes have the same namespace and local name
+	 */
+	void push(XmlByteParser aParser)
+	{
+		if (mDepth == mScopes.length)
+		{
+			int[] tmp = new int[2 * mScopes.length];
+			System.arraycopy(mScopes, 0, tmp, 0, mDepth);
+			mScopes = tmp;
+		}
+		mScopes[mDepth++] = mCount;
+
+		for (int i = 0, sz = aParser.getAttributeCount(); i < sz; i++)
+		{
+			String name = aParser.getAttributeName(i);
+
+			if (isDeclaration(name))
+			{
+				String prefix = name.length() == 5 ? "" : name.substring(6);
+				String uri = aParser.getAttributeValue(i);
+
+				if (!prefix.isEmpty() || name.length() > 5)
+				{
+					checkQName(name);
+				}
+
+				if (!prefix.isEmpty() && uri.isEmpty())
+				{
+					throw aParser.syntaxError("Prefixed namespace bindings may not be empty: " + name);
+				}
+				if (prefix.equals(XMLConstants.XMLNS_ATTRIBUTE) || uri.equals(XMLConstants.XMLNS_ATTRIBUTE_NS_URI))
+				{
+					throw aParser.syntaxError("The prefix \"xmlns\" and its namespace may not be declared: " + name);
+				}
+				if (prefix.equals(XMLConstants.XML_NS_PREFIX) != uri.equals(XMLConstants.XML_NS_URI))
+				{
+					throw aParser.syntaxError("The prefix \"xml\" may only be bound to its namespace: " + name);
+				}
+
+				bind(prefix, uri);
+			}
+		}
+
+		for (int i = 1, sz = aParser.getAttributeCount(); i < sz; i++)
+		{
+			String name = aParser.getAttributeName(i);
+			int colon = name.indexOf(':');
+
+			if (colon > 0 && !isDeclaration(name))
+			{
+				for (int j = 0; j < i; j++)
+				{
+					String other = aParser.getAttributeName(j);
+					int otherColon = other.indexOf(':');
+
+					if (otherColon > 0 && name.length() - colon == other.length() - otherColon && name.regionMatches(colon, other, otherColon, name.length() - colon) && !isDeclaration(other) && resolve(name, false).equals(resolve(other, false)))
+					{
+						throw aParser.syntaxError("Attributes \"" + other + "\" and \"" + name + "\" have the same namespace and local name.");
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Close the current scope discarding the bindings declared in it.
+	 */
+	void pop()
+	{
+		mCount = mScopes[--mDepth];
+	}
+
+
+	/**
+	 * Bind a prefix in the current scope, an empty or null URI undeclares the prefix.
+	 */
+	void bind(String aPrefix, String aURI)
+	{
+		if (mCount == mPrefixes.length)
+		{
+			String[] tmp = new String[2 * mPrefixes.length];
+			System.arraycopy(mPrefixes, 0, tmp, 0, mCount);
+			mPrefixes = tmp;
+			tmp = new String[2 * mURIs.length];
+			System.arraycopy(mURIs, 0, tmp, 0, mCount);
+			mURIs = tmp;
+		}
+		mPrefixes[mCount] = aPrefix;
+		mURIs[mCount] = aURI == null || aURI.isEmpty() ? null : aURI;
+		mCount++;
+	}
+
+
+	/**
+	 * Return number of bindings, bindings declared later shadow earlier bindings of the same prefix.
+	 */
+	int size()
+	{
+		return mCount;
+	}
+
+
+	String getPrefix(int aIndex)
+	{
+		return mPrefixes[aIndex];
+	}
+
+
+	/**
+	 * Return the URI of a binding or null if the binding undeclares the prefix.
+	 */
+	String getURI(int aIndex)
+	{
+		return mURIs[aIndex];
+	}
+
+
+	/**
+	 * Return the index of the binding currently in scope for the prefix or -1 if not bound.
+	 */
+	int indexOf(String aPrefix)
+	{
+		for (int i = mCount; --i >= 0;)
+		{
+			if (mPrefixes[i].equals(aPrefix))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Return the namespace URI of a qualified name. Names starting with a colon are unprefixed, like in Xerces.
+	 *
+	 * @param aDefault
+	 *   true if the default namespace applies to unprefixed names
+	 */
+	String resolve(String aQName, boolean aDefault)
+	{
+		int colon = aQName.indexOf(':');
+
+		if (colon <= 0)
+		{
+			if (colon == 0)
+			{
+				checkQName(aQName);
+			}
+			if (!aDefault)
+			{
+				return null;
+			}
+			for (int i = mCount; --i >= 0;)
+			{
+				if (mPrefixes[i].isEmpty())
+				{
+					return mURIs[i];
+				}
+			}
+			return null;
+		}
+
+		checkQName(aQName);
+
+		for (int i = mCount; --i >= 0;)
+		{
+			String prefix = mPrefixes[i];
+			if (prefix.length() == colon && aQName.startsWith(prefix))
+			{
+				return mURIs[i];
+			}
+		}
+
+		if (colon == 3 && aQName.startsWith(XMLConstants.XML_NS_PREFIX))
+		{
+			return XMLConstants.XML_NS_URI;
+		}
+
+		throw new XmlException("The prefix \"" + aQName.substring(0, colon) + "\" for element or attribute \"" + aQName + "\" is not bound.");
+	}
+
+
+	/**
+	 * Return the namespace URI of an attribute, namespace declarations belong to the xmlns namespace.
+	 */
+	String resolveAttribute(String aQName)
+	{
+		return isDeclaration(aQName) ? XMLConstants.XMLNS_ATTRIBUTE_NS_URI : resolve(aQName, false);
+	}
+
+
+	/**
+	 * Check that the local part of a prefixed name is a name without colons. Names starting with a colon may not contain
+	 * other colons.
+	 */
+	private static void checkQName(String aQName)
+	{
+		int colon = aQName.indexOf(':');
+
+		if (aQName.indexOf(':', colon + 1) != -1 || colon > 0 && (colon == aQName.length() - 1 || !XmlByteParser.isNameStartChar(aQName.codePointAt(colon + 1))))
+		{
+			throw new XmlException("Element or attribute \"" + aQName + "\" do not match QName production: QName::=(NCName:)?NCName.");
+		}
+	}
+
+
+	static boolean isDeclaration(String aQName)
+	{
+		return aQName.startsWith(XMLConstants.XMLNS_ATTRIBUTE) && (aQName.length() == 5 || aQName.charAt(5) == ':');
+	}
+}
@@ -2,13 +2,20 @@ package org.terifan.xml;
 
 import java.io.CharArrayWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import javax.xml.namespace.QName;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -29,6 +36,11 @@ import org.w3c.dom.ProcessingInstruction;
 
 public class XmlNode
 {
+	private final static int DEFAULT_SPLIT_DEPTH = 8;
+	private final static int DEFAULT_SPLIT_SIZE = 4096;
+
+	static volatile XmlMetrics mMetrics = XmlMetrics.NONE;
+
 	protected Node mNode;
 
 
@@ -82,7 +94,7 @@ public class XmlNode
     {
         try
         {
-			Node node = (Node)aXPath.getDOMExpression().evaluate(mNode, XPathConstants.NODE);
+			Node node = (Node)evaluate(aXPath, XPathConstants.NODE);
 			if (node == null)
 			{
 				return null;
@@ -100,7 +112,7 @@ public class XmlNode
     {
         try
         {
-			NodeList nodeList = (NodeList)aXPath.getDOMExpression().evaluate(mNode, XPathConstants.NODESET);
+			NodeList nodeList = (NodeList)evaluate(aXPath, XPathConstants.NODESET);
 			if (nodeList == null)
 			{
 				return new XmlNodeList();
@@ -122,7 +134,7 @@ public class XmlNode
     {
         try
         {
-			NodeList nodeList = (NodeList)aXPath.getDOMExpression().evaluate(mNode, XPathConstants.NODESET);
+			NodeList nodeList = (NodeList)evaluate(aXPath, XPathConstants.NODESET);
 			if (nodeList == null)
 			{
 				return new XmlElement[0];
@@ -231,7 +243,7 @@ public class XmlNode
     {
         try
         {
-            return (String)aXPath.getDOMExpression().evaluate(mNode, XPathConstants.STRING);
+            return (String)evaluate(aXPath, XPathConstants.STRING);
         }
         catch (XPathExpressionException e)
         {
@@ -250,7 +262,7 @@ public class XmlNode
     {
         try
         {
-            XmlNodeList list = new XmlNodeList((NodeList)aXPath.getDOMExpression().evaluate(mNode, XPathConstants.NODESET));
+            XmlNodeList list = new XmlNodeList((NodeList)evaluate(aXPath, XPathConstants.NODESET));
 
 			ArrayList<String> output = new ArrayList<>();
 
@@ -296,9 +308,20 @@ public class XmlNode
 	 *   the expected value of the attribute
 	 * @return
 	 *   the existing or created element
+	 * @see XmlDocument#addAttributeIndex
 	 */
     public XmlElement getOrCreateElementGroup(String aName, String aAttribute, Object aValue)
     {
+		if (XmlAttributeIndex.contains(getOwner(), aName, aAttribute))
+		{
+			Element element = XmlAttributeIndex.find(mNode, aName, aAttribute, aValue.toString(), true);
+			if (element == null)
+			{
+				return appendElement(aName).setAttribute(aAttribute, aValue.toString());
+			}
+			return new XmlElement(element);
+		}
+
 		XmlNode node = getNode(new XPath(aName + "[@"+aAttribute+"='"+aValue+"']"));
 		if (node == null)
 		{
@@ -308,17 +331,49 @@ public class XmlNode
 	}
 
 
+	/**
+	 * Find the first element below this node, in document order, with the name and attribute value. Elements are matched
+	 * in the same way as by getOrCreateElementGroup but at any depth.
+	 *
+	 * e.g. document.findByAttribute("customer", "id", 17)
+	 *
+	 * @return
+	 *   the element or null if not found
+	 * @see XmlDocument#addAttributeIndex
+	 */
+	public XmlElement findByAttribute(String aName, String aAttribute, Object aValue)
+	{
+		Element element = XmlAttributeIndex.find(mNode, aName, aAttribute, aValue.toString(), false);
+		if (element == null)
+		{
+			return null;
+		}
+		return new XmlElement(element);
+	}
+
+
     public XmlNode getNode(String aPath)
     {
-		assertNodePath(aPath);
+		return getNode(XmlPath.compile(aPath));
+	}
+
+
+	public XmlNode getNode(XmlPath aPath)
+	{
+		if (aPath.isAbsolute())
+		{
+			return new XmlNode(getOwner()).getNode(aPath.getRelative());
+		}
+
+		String [] paths = aPath.getNodeNames();
 
-		if (aPath.startsWith("/"))
+		XmlPathIndex index = XmlPathIndex.get(getOwner());
+		if (index != null && aPath.isIndexable() && index.contains(mNode))
 		{
-			return new XmlNode(getOwner()).getNode(aPath.substring(1));
+			return getNode(index, aPath);
 		}
 
 		Node node = mNode;
-		String [] paths = aPath.split("/");
 		for (int j = 0; j < paths.length; j++)
 		{
 			String path = paths[j];
@@ -327,16 +382,12 @@ public class XmlNode
 			NodeList list = node.getChildNodes();
 			for (int i = 0, sz = list.getLength(); i < sz; i++)
 			{
-				if (path.startsWith("@"))
+				if (last && aPath.getAttribute() != null)
 				{
-					if (!last)
-					{
-						throw new XmlException("Attributes must be the last path element: path: " + aPath+", element: "+path);
-					}
-					return new XmlNode(((Element)node).getAttributeNode(path.substring(1)));
+					return new XmlNode(((Element)node).getAttributeNode(aPath.getAttribute()));
 				}
 				Node child = list.item(i);
-				if (child.getNodeType() == Node.ELEMENT_NODE && getNodeName(child).equals(path))
+				if (child.getNodeType() == Node.ELEMENT_NODE && path.equals(getNodeName(child)))
 				{
 					if (last)
 					{
@@ -356,6 +407,32 @@ public class XmlNode
     }
 
 
+	/**
+	 * Resolve a literal path using the path index, returns the same node as the scan in getNode(XmlPath).
+	 */
+	private XmlNode getNode(XmlPathIndex aIndex, XmlPath aPath)
+	{
+		String [] paths = aPath.getNodeNames();
+
+		if (aPath.getAttribute() != null)
+		{
+			Node node = aIndex.findNode(mNode, paths, paths.length - 1);
+			if (node == null || !node.hasChildNodes())
+			{
+				return null;
+			}
+			return new XmlNode(((Element)node).getAttributeNode(aPath.getAttribute()));
+		}
+
+		Node node = aIndex.findNode(mNode, paths, paths.length);
+		if (node == null)
+		{
+			return null;
+		}
+		return new XmlNode(node);
+	}
+
+
     public String getText(String aPath, String aDefaultValue)
     {
 		String s = getText(aPath);
@@ -380,8 +457,34 @@ public class XmlNode
 
     public String getText(String aPath)
     {
-		assertNodePath(aPath);
+		return getText(XmlPath.compile(aPath));
+	}
+
+
+	public String getText(XmlPath aPath, String aDefaultValue)
+	{
+		String s = getText(aPath);
+		if (s == null)
+		{
+			return aDefaultValue;
+		}
+		return s;
+	}
 
+
+	public String getText(XmlPath aPath, Supplier<String> aDefaultValue)
+	{
+		String s = getText(aPath);
+		if (s == null)
+		{
+			return aDefaultValue.get();
+		}
+		return s;
+	}
+
+
+	public String getText(XmlPath aPath)
+	{
 		XmlNode node = getNode(aPath);
 		if (node == null)
 		{
@@ -394,34 +497,41 @@ public class XmlNode
 
     public XmlNodeList getList(String aPath)
     {
-		assertNodePath(aPath);
+		return getList(XmlPath.compile(aPath));
+	}
+
 
-		if (aPath.startsWith("/"))
+	public XmlNodeList getList(XmlPath aPath)
+	{
+		if (aPath.isAbsolute())
 		{
-			return new XmlNode(getOwner()).getList(aPath.substring(1));
+			return new XmlNode(getOwner()).getList(aPath.getRelative());
 		}
 
 		XmlNodeList list = new XmlNodeList();
 
-		getList(aPath, list);
+		findList(aPath, list);
 
 		return list;
 	}
 
 
-
     public String [] getTextArray(String aPath)
     {
-		assertNodePath(aPath);
+		return getTextArray(XmlPath.compile(aPath));
+	}
 
-		if (aPath.startsWith("/"))
+
+	public String [] getTextArray(XmlPath aPath)
+	{
+		if (aPath.isAbsolute())
 		{
-			return new XmlNode(getOwner()).getTextArray(aPath.substring(1));
+			return new XmlNode(getOwner()).getTextArray(aPath.getRelative());
 		}
 
 		XmlNodeList list = new XmlNodeList();
 
-		getList(aPath, list);
+		findList(aPath, list);
 
 		String [] text = new String[list.size()];
 
@@ -434,43 +544,74 @@ public class XmlNode
 	}
 
 
-    private void getList(String aPath, XmlNodeList aList)
-    {
-		int index = aPath.indexOf('/');
-		boolean last = index == -1;
-		String path = last ? aPath : aPath.substring(0, index);
-		String remaining = aPath.substring(index+1);
+	/**
+	 * Collect the nodes matching a literal path using the path index when the document has one enabled.
+	 */
+	private void findList(XmlPath aPath, XmlNodeList aList)
+	{
+		String [] paths = aPath.getListNames();
+
+		XmlPathIndex index = XmlPathIndex.get(getOwner());
+		if (index == null || !aPath.isIndexable() || !index.contains(mNode))
+		{
+			getList(aPath, 0, aList);
+			return;
+		}
 
-		if (path.startsWith("@"))
+		String last = paths[paths.length - 1];
+
+		if (last.startsWith("@") && paths.length > 1)
 		{
-			if (!last)
+			XmlNodeList parents = new XmlNodeList();
+			index.findList(mNode, paths, paths.length - 1, parents);
+			for (XmlNode parent : parents)
 			{
-				throw new XmlException("Attributes must be the last path element: path: " + aPath+", element: "+path);
+				parent.getList(aPath, paths.length - 1, aList);
 			}
-			aList.add(new XmlNode(((Element)mNode).getAttributeNode(path.substring(1))));
+		}
+		else if (last.startsWith("@"))
+		{
+			getList(aPath, 0, aList);
+		}
+		else
+		{
+			index.findList(mNode, paths, paths.length, aList);
+		}
+	}
+
+
+    private void getList(XmlPath aPath, int aIndex, XmlNodeList aList)
+    {
+		String [] paths = aPath.getListNames();
+		String path = paths[aIndex];
+		boolean last = aIndex == paths.length - 1;
+
+		if (last && aPath.getAttribute() != null)
+		{
+			aList.add(new XmlNode(((Element)mNode).getAttributeNode(aPath.getAttribute())));
 			return;
 		}
 
 		NodeList list = mNode.getChildNodes();
 		for (int i = 0, sz = list.getLength(); i < sz; i++)
 		{
-			XmlNode child = new XmlNode(list.item(i));
-			if (child.getName().equals(path))
+			Node child = list.item(i);
+			if (path.equals(getNodeName(child)))
 			{
 				if (last)
 				{
-					aList.add(child);
+					aList.add(new XmlNode(child));
 				}
 				else
 				{
-					child.getList(remaining, aList);
+					new XmlNode(child).getList(aPath, aIndex + 1, aList);
 				}
 			}
 		}
     }
 
 
-	private void assertNodePath(String aPath)
+	static void assertNodePath(String aPath)
 	{
 		boolean fail = false;
 		boolean atFound = false;
@@ -579,6 +720,7 @@ public class XmlNode
 		{
 			Element el = (Element)mNode;
 			el.setAttribute(aName, aValue);
+			XmlAttributeIndex.attributeChanged(el);
 			if (this instanceof XmlElement)
 			{
 				return (XmlElement)this;
@@ -593,6 +735,7 @@ public class XmlNode
 	{
 		XmlElement node = getDocument().createElement(aName);
 		mNode.appendChild(node.mNode);
+		nodesChanged();
 		return node;
 	}
 
@@ -613,10 +756,13 @@ public class XmlNode
 	{
 		if (aNode.getOwner() != getOwner())
 		{
+			aNode.nodesChanged();
 			aNode = new XmlElement(mNode.getOwnerDocument().adoptNode(aNode.mNode));
 		}
 
 		mNode.appendChild(aNode.mNode);
+		nodesChanged();
+		XmlAttributeIndex.nodeAdded(aNode.mNode);
 		return (T)this;
 	}
 
@@ -654,6 +800,7 @@ public class XmlNode
 		Element node = getOwner().createElement(aNodeName);
 		setTextContentBackwardComp(node, "" + aText);
 		mNode.appendChild(node);
+		nodesChanged();
 		return (T)this;
 	}
 
@@ -678,6 +825,7 @@ public class XmlNode
 		Element node = getOwner().createElement(aNodeName);
 		setTextContentBackwardComp(node, aText.toString());
 		mNode.appendChild(node);
+		nodesChanged();
 		return new XmlElement(node);
 	}
 
@@ -700,11 +848,17 @@ public class XmlNode
 
 	public void writeTo(File aFile)
 	{
-		try
+		if (!XmlSerializer.isSupported(mNode))
+		{
+			transform(new StreamResult(aFile));
+			return;
+		}
+
+		try (FileOutputStream out = new FileOutputStream(aFile))
 		{
-			newTransformer(true).transform(new DOMSource(mNode), new StreamResult(aFile));
+			serialize(new XmlSerializer(out, false, false));
 		}
-		catch (TransformerException e)
+		catch (IOException e)
 		{
 			throw new IllegalStateException(e);
 		}
@@ -713,11 +867,17 @@ public class XmlNode
 
 	public void writeTo(Writer aWriter)
 	{
+		if (!XmlSerializer.isSupported(mNode))
+		{
+			transform(new StreamResult(aWriter));
+			return;
+		}
+
 		try
 		{
-			newTransformer(true).transform(new DOMSource(mNode), new StreamResult(aWriter));
+			serialize(new XmlSerializer(aWriter, false, false));
 		}
-		catch (TransformerException e)
+		catch (IOException e)
 		{
 			throw new IllegalStateException(e);
 		}
@@ -726,11 +886,17 @@ public class XmlNode
 
 	public void writeTo(OutputStream aOutputStream)
 	{
+		if (!XmlSerializer.isSupported(mNode))
+		{
+			transform(new StreamResult(aOutputStream));
+			return;
+		}
+
 		try
 		{
-			newTransformer(true).transform(new DOMSource(mNode), new StreamResult(aOutputStream));
+			serialize(new XmlSerializer(aOutputStream, false, false));
 		}
-		catch (TransformerException e)
+		catch (IOException e)
 		{
 			throw new IllegalStateException(e);
 		}
@@ -745,41 +911,159 @@ public class XmlNode
 
 	public String toXmlString(boolean aOmitXmlDeclaration, boolean aOmitIndent)
 	{
-		try
+		CharArrayWriter cw = new CharArrayWriter();
+
+		if (XmlSerializer.isSupported(mNode))
 		{
-			CharArrayWriter cw = new CharArrayWriter();
-			Transformer transformer = newTransformer(aOmitIndent);
-			if (aOmitXmlDeclaration)
+			try
+			{
+				serialize(new XmlSerializer(cw, !aOmitIndent, aOmitXmlDeclaration));
+			}
+			catch (IOException e)
 			{
-				transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+				throw new IllegalStateException(e);
 			}
-//			if (aOmitIndent)
-//			{
-//				transformer.setOutputProperty(OutputKeys.INDENT, "no");
-//			}
-			transformer.transform(new DOMSource(mNode), new StreamResult(cw));
-			return cw.toString().trim();
 		}
-		catch (TransformerException e)
+		else
 		{
-			throw new IllegalStateException(e);
+			try
+			{
+				Transformer transformer = newTransformer(aOmitIndent);
+				if (aOmitXmlDeclaration)
+				{
+					transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+				}
+				XmlMetrics metrics = mMetrics;
+				long time = metrics == XmlMetrics.NONE ? 0 : System.nanoTime();
+				transformer.transform(new DOMSource(mNode), new StreamResult(cw));
+				if (metrics != XmlMetrics.NONE)
+				{
+					metrics.record(XmlMetrics.Operation.SERIALIZE, null, System.nanoTime() - time, cw.size(), -1);
+				}
+			}
+			catch (TransformerException e)
+			{
+				throw new IllegalStateException(e);
+			}
 		}
+
+		return cw.toString().trim();
 	}
 
 
 	/**
-	 * Return the document as a UTF-8 encoded byte array.
+	 * Return the document as a UTF-8 encoded byte array. The bytes are encoded directly into pooled buffers without
+	 * creating an intermediate String.
 	 */
 	public byte[] toByteArray()
 	{
+		if (!XmlSerializer.isSupported(mNode))
+		{
+			try
+			{
+				return toXmlString().getBytes("utf-8");
+			}
+			catch (UnsupportedEncodingException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+
+		XmlOutputBuffer buffer = new XmlOutputBuffer();
 		try
 		{
-			return toXmlString().getBytes("utf-8");
+			serialize(new XmlSerializer(buffer, true, false).setReplaceUnpairedSurrogates(true));
+			return buffer.toByteArray(true);
 		}
-		catch (UnsupportedEncodingException e)
+		catch (IOException e)
 		{
 			throw new IllegalStateException(e);
 		}
+		finally
+		{
+			buffer.release();
+		}
+	}
+
+
+	/**
+	 * Return a read-only buffer containing the same bytes as the toByteArray method.
+	 */
+	public ByteBuffer toByteBuffer()
+	{
+		return ByteBuffer.wrap(toByteArray()).asReadOnlyBuffer();
+	}
+
+
+	/**
+	 * Write the document UTF-8 encoded to the buffer provided. The output is identical to the output of the
+	 * writeTo(OutputStream) method.
+	 *
+	 * @return
+	 *   the number of bytes written
+	 * @throws BufferOverflowException
+	 *   if the remaining space in the buffer is insufficient, the buffer is left unchanged
+	 */
+	public int writeTo(ByteBuffer aBuffer)
+	{
+		XmlOutputBuffer buffer = new XmlOutputBuffer();
+		try
+		{
+			writeTo(buffer);
+			int size = buffer.size();
+			buffer.copyTo(aBuffer);
+			return size;
+		}
+		finally
+		{
+			buffer.release();
+		}
+	}
+
+
+	/**
+	 * Write this node in a binary format read by XmlDocument.readBinary. Reading the binary format is several times
+	 * faster than parsing the text and the output is usually smaller. An element is written as the root element of a
+	 * document.
+	 *
+	 * The format keeps names, namespaces, attributes, text, CDATA sections, comments and processing instructions. It's
+	 * intended for snapshots and for transfers between applications using this library, not for interchange.
+	 */
+	public void writeBinary(OutputStream aOutput)
+	{
+		XmlMetrics metrics = mMetrics;
+		long time = metrics == XmlMetrics.NONE ? 0 : System.nanoTime();
+		XmlBinaryWriter writer = new XmlBinaryWriter(aOutput);
+
+		try
+		{
+			writer.write(mNode);
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+
+		if (metrics != XmlMetrics.NONE)
+		{
+			metrics.record(XmlMetrics.Operation.SERIALIZE, null, System.nanoTime() - time, writer.getWrittenCount(), -1);
+		}
+	}
+
+
+	/**
+	 * Write this node in the binary format to the file, see writeBinary(OutputStream).
+	 */
+	public void writeBinary(File aFile)
+	{
+		try (FileOutputStream out = new FileOutputStream(aFile))
+		{
+			writeBinary(out);
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
 	}
 
 
@@ -789,39 +1073,160 @@ public class XmlNode
 	}
 
 
+	/**
+	 * Return a cursor positioned at this node.
+	 */
+	public XmlCursor cursor()
+	{
+		return new XmlCursor(this);
+	}
+
+
+	/**
+	 * Return true if this node belongs to a compact read-only document.
+	 */
+	public boolean isReadOnly()
+	{
+		return mNode instanceof XmlCompactNode;
+	}
+
+
+	/**
+	 * Walk the descendants of this node in document order. The walk is iterative and safe at any depth, the node being
+	 * left may be removed by the visitor.
+	 *
+	 * @return
+	 *   the value ending the walk or null
+	 */
 	public Object visit(XmlNodeVisitor aVisitor)
 	{
-		NodeList list = mNode.getChildNodes();
-		for (int i = 0; i < list.getLength(); i++)
+		return new XmlVisitTask(aVisitor, mNode).walk();
+	}
+
+
+	/**
+	 * Walk the descendants of this node using the common ForkJoinPool, see visitParallel(XmlNodeVisitor, BinaryOperator,
+	 * ForkJoinPool, int, int).
+	 */
+	public Object visitParallel(XmlNodeVisitor aVisitor, BinaryOperator<Object> aReducer)
+	{
+		return visitParallel(aVisitor, aReducer, ForkJoinPool.commonPool(), DEFAULT_SPLIT_DEPTH, DEFAULT_SPLIT_SIZE);
+	}
+
+
+	/**
+	 * Walk the descendants of this node with subtrees visited concurrently by tasks of the pool. The visitor is called
+	 * from several threads and must be thread safe.
+	 *
+	 * Unlike visit, values returned by the callbacks don't end the walk, they're combined by the reducer in document order
+	 * and the result returned. The reducer must be associative. Return Signal.STOP to end the walk, tasks already running
+	 * complete the node they're visiting. Subtrees are walked in no particular order relative to each other, leaving is
+	 * called for a node after its entire subtree has been visited.
+	 *
+	 * Compact documents are safe for concurrent reads and are visited directly. Other documents are visited in a compact
+	 * copy of this node made before the walk starts, i.e. the visitor sees a snapshot and can't modify the document. Use
+	 * XmlDocument.toCompact to avoid the copy when a document is visited repeatedly.
+	 *
+	 * @param aSplitDepth
+	 *   subtrees of nodes at most this deep below this node are split into tasks, children of this node are at depth 1
+	 * @param aSplitSize
+	 *   the approximate number of nodes visited by each task, subtrees with fewer nodes aren't split
+	 * @return
+	 *   the values returned by the callbacks combined by the reducer or null if none were returned
+	 */
+	public Object visitParallel(XmlNodeVisitor aVisitor, BinaryOperator<Object> aReducer, ForkJoinPool aPool, int aSplitDepth, int aSplitSize)
+	{
+		if (aReducer == null || aPool == null)
+		{
+			throw new IllegalArgumentException("Provided reducer or pool is null.");
+		}
+		if (aSplitSize < 1)
 		{
-			XmlNode node = new XmlNode(list.item(i));
+			throw new IllegalArgumentException("Split size must be positive: " + aSplitSize);
+		}
+
+		Node root = mNode;
 
-			if (aVisitor.match(node))
+		if (!(root instanceof XmlCompactNode))
+		{
+			switch (root.getNodeType())
 			{
-				Object o = aVisitor.entering(node);
+				case Node.DOCUMENT_NODE:
+					root = XmlCompactBuilder.copyOf(root);
+					break;
+				case Node.ELEMENT_NODE:
+					root = XmlCompactBuilder.copyOf(root).getDocumentElement();
+					break;
+				default:
+					return null;
+			}
+		}
 
-				if (o != null)
-				{
-					return o;
-				}
+		return aPool.invoke(new XmlVisitTask(aVisitor, aReducer, aSplitDepth, aSplitSize, root));
+	}
 
-				o = node.visit(aVisitor);
 
-				if (o != null)
-				{
-					return o;
-				}
+	/**
+	 * Write this node using the Transformer, used for nodes the XmlSerializer doesn't support.
+	 */
+	private void transform(StreamResult aResult)
+	{
+		XmlMetrics metrics = mMetrics;
+		long time = metrics == XmlMetrics.NONE ? 0 : System.nanoTime();
+
+		try
+		{
+			newTransformer(true).transform(new DOMSource(mNode), aResult);
+		}
+		catch (TransformerException e)
+		{
+			throw new IllegalStateException(e);
+		}
 
-				o = aVisitor.leaving(node);
+		if (metrics != XmlMetrics.NONE)
+		{
+			metrics.record(XmlMetrics.Operation.SERIALIZE, null, System.nanoTime() - time, -1, -1);
+		}
+	}
 
-				if (o != null)
-				{
-					return o;
-				}
-			}
+
+	/**
+	 * Write this node using the serializer and report it to the installed XmlMetrics.
+	 */
+	private void serialize(XmlSerializer aSerializer) throws IOException
+	{
+		XmlMetrics metrics = mMetrics;
+		if (metrics == XmlMetrics.NONE)
+		{
+			aSerializer.serialize(mNode);
+			return;
 		}
 
-		return null;
+		long time = System.nanoTime();
+		aSerializer.serialize(mNode);
+		metrics.record(XmlMetrics.Operation.SERIALIZE, null, System.nanoTime() - time, aSerializer.getWrittenCount(), -1);
+	}
+
+
+	/**
+	 * Evaluate the expression with this node as context and report it to the installed XmlMetrics.
+	 */
+	private Object evaluate(XPath aXPath, QName aReturnType) throws XPathExpressionException
+	{
+		XmlMetrics metrics = mMetrics;
+		if (metrics == XmlMetrics.NONE)
+		{
+			return aXPath.getDOMExpression().evaluate(mNode, aReturnType);
+		}
+
+		long time = System.nanoTime();
+		Object result = aXPath.getDOMExpression().evaluate(mNode, aReturnType);
+		time = System.nanoTime() - time;
+
+		int count = result instanceof Node ? 1 : result instanceof NodeList ? ((NodeList)result).getLength() : result == null ? 0 : -1;
+		metrics.record(XmlMetrics.Operation.QUERY, aXPath.getExpression(), time, -1, count);
+
+		return result;
 	}
 
 
@@ -866,6 +1271,9 @@ public class XmlNode
 	}
 
 
+	/**
+	 * Create a Transformer, stylesheets are compiled once and shared through the default XmlTemplatesCache.
+	 */
 	public static Transformer newTransformer(XmlDocument aTemplate, boolean aOmitIndent) throws TransformerConfigurationException, TransformerFactoryConfigurationError
 	{
 		Transformer transformer;
@@ -875,7 +1283,7 @@ public class XmlNode
 		}
 		else
 		{
-			transformer = TransformerFactory.newInstance().newTransformer(new DOMSource(aTemplate.getInternalNode()));
+			transformer = XmlTemplatesCache.getDefault().getTemplates(aTemplate).newTransformer();
 		}
 
 		// WARNING! enabling these will break javascript code since non-existing line breaks are added after <br> tags!
@@ -917,6 +1325,16 @@ public class XmlNode
 	public void remove()
 	{
 		mNode.getParentNode().removeChild(mNode);
+		nodesChanged();
+	}
+
+
+	/**
+	 * Invalidate the path index of the owner document, called after the children of a node have been changed.
+	 */
+	void nodesChanged()
+	{
+		XmlPathIndex.invalidate(getOwner());
 	}
 
 
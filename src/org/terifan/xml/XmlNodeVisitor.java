@@ -1,9 +1,28 @@
 package org.terifan.xml;
 
 
+/**
+ * Callbacks of XmlNode.visit. A non-null value returned by entering, attribute or leaving ends the walk and is returned
+ * by visit, except for the Signal values controlling the walk.
+ */
 @FunctionalInterface
 public interface XmlNodeVisitor
 {
+	/**
+	 * Values returned by the callbacks to control the walk.
+	 */
+	enum Signal
+	{
+		/** Continue with the next sibling without visiting the remaining attributes and children of the node, leaving isn't called for it. */
+		SKIP_SUBTREE,
+		/** End the walk, visit returns null. */
+		STOP
+	}
+
+
+	/**
+	 * Return false to skip the node and its subtree.
+	 */
 	default public boolean match(XmlNode aNode)
 	{
 		return true;
@@ -19,10 +38,22 @@ public interface XmlNodeVisitor
 		return null;
 	}
 
+	/**
+	 * Called for each attribute of an element after entering.
+	 */
 	default public Object attribute(XmlNode aNode, String aName, String aValue)
 	{
 		return null;
 	}
 
+	/**
+	 * Return true if the visitor doesn't keep references to the nodes passed to it. The walk then passes the same XmlNode
+	 * instance, repositioned at each node, instead of allocating one per node.
+	 */
+	default public boolean isReusingNodes()
+	{
+		return false;
+	}
+
 	public Object process(XmlNode aNode);
 }
@@ -0,0 +1,171 @@
+package org.terifan.xml;
+
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ * Growable byte sink made of fixed size chunks taken from a shared pool. Growing never copies bytes already written and
+ * the chunks are returned to the pool by the release method.
+ */
+final class XmlOutputBuffer extends OutputStream
+{
+	private final static int CHUNK_SIZE = 32768;
+	private final static ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(256);
+
+	private byte[][] mChunks;
+	private int mChunkCount;
+	private byte[] mChunk;
+	private int mOffset;
+
+
+	XmlOutputBuffer()
+	{
+		mChunks = new byte[8][];
+		mOffset = CHUNK_SIZE;
+	}
+
+
+	@Override
+	public void write(int aByte)
+	{
+		if (mOffset == CHUNK_SIZE)
+		{
+			nextChunk();
+		}
+		mChunk[mOffset++] = (byte)aByte;
+	}
+
+
+	@Override
+	public void write(byte[] aBuffer, int aOffset, int aLength)
+	{
+		while (aLength > 0)
+		{
+			if (mOffset == CHUNK_SIZE)
+			{
+				nextChunk();
+			}
+
+			int len = Math.min(aLength, CHUNK_SIZE - mOffset);
+			System.arraycopy(aBuffer, aOffset, mChunk, mOffset, len);
+			mOffset += len;
+			aOffset += len;
+			aLength -= len;
+		}
+	}
+
+
+	/**
+	 * Return the number of bytes written.
+	 */
+	int size()
+	{
+		return mChunkCount == 0 ? 0 : (mChunkCount - 1) * CHUNK_SIZE + mOffset;
+	}
+
+
+	/**
+	 * Return an exact size copy of the bytes written.
+	 *
+	 * @param aTrim
+	 *   skip leading and trailing whitespace and control characters in the same way as String.trim does
+	 */
+	byte[] toByteArray(boolean aTrim)
+	{
+		int start = 0;
+		int end = size();
+
+		if (aTrim)
+		{
+			while (start < end && (get(start) & 0xFF) <= ' ')
+			{
+				start++;
+			}
+			while (end > start && (get(end - 1) & 0xFF) <= ' ')
+			{
+				end--;
+			}
+		}
+
+		byte[] output = new byte[end - start];
+
+		for (int pos = start; pos < end;)
+		{
+			int chunk = pos / CHUNK_SIZE;
+			int offset = pos % CHUNK_SIZE;
+			int len = Math.min(end - pos, CHUNK_SIZE - offset);
+			System.arraycopy(mChunks[chunk], offset, output, pos - start, len);
+			pos += len;
+		}
+
+		return output;
+	}
+
+
+	/**
+	 * Copy the bytes written to the buffer provided.
+	 *
+	 * @throws BufferOverflowException
+	 *   if the remaining space in the buffer is insufficient, the buffer is left unchanged
+	 */
+	void copyTo(ByteBuffer aBuffer)
+	{
+		int size = size();
+
+		if (aBuffer.remaining() < size)
+		{
+			throw new BufferOverflowException();
+		}
+
+		for (int i = 0; i < mChunkCount; i++)
+		{
+			aBuffer.put(mChunks[i], 0, i == mChunkCount - 1 ? mOffset : CHUNK_SIZE);
+		}
+	}
+
+
+	/**
+	 * Return the chunks to the pool. The buffer is empty after this call.
+	 */
+	void release()
+	{
+		for (int i = 0; i < mChunkCount; i++)
+		{
+			POOL.offer(mChunks[i]);
+			mChunks[i] = null;
+		}
+
+		mChunkCount = 0;
+		mChunk = null;
+		mOffset = CHUNK_SIZE;
+	}
+
+
+	private byte get(int aPosition)
+	{
+		return mChunks[aPosition / CHUNK_SIZE][aPosition % CHUNK_SIZE];
+	}
+
+
+	private void nextChunk()
+	{
+		if (mChunkCount == mChunks.length)
+		{
+			byte[][] tmp = new byte[2 * mChunks.length][];
+			System.arraycopy(mChunks, 0, tmp, 0, mChunkCount);
+			mChunks = tmp;
+		}
+
+		mChunk = POOL.poll();
+		if (mChunk == null)
+		{
+			mChunk = new byte[CHUNK_SIZE];
+		}
+
+		mChunks[mChunkCount++] = mChunk;
+		mOffset = 0;
+	}
+}
@@ -0,0 +1,89 @@
+package org.terifan.xml;
+
+
+/**
+ * The outcome of parsing one source of a batch, see XmlDocument.parseAll. A result holds either the parsed document or
+ * the exception thrown while parsing it.
+ */
+public final class XmlParseResult
+{
+	private final int mIndex;
+	private final Object mSource;
+	private final XmlDocument mDocument;
+	private final XmlException mException;
+
+
+	XmlParseResult(int aIndex, Object aSource, XmlDocument aDocument, XmlException aException)
+	{
+		mIndex = aIndex;
+		mSource = aSource;
+		mDocument = aDocument;
+		mException = aException;
+	}
+
+
+	/**
+	 * Return the position of the source in the batch input.
+	 */
+	public int getIndex()
+	{
+		return mIndex;
+	}
+
+
+	/**
+	 * Return the source as provided in the batch input.
+	 */
+	public Object getSource()
+	{
+		return mSource;
+	}
+
+
+	/**
+	 * Return the parsed document or null if parsing failed.
+	 */
+	public XmlDocument getDocument()
+	{
+		return mDocument;
+	}
+
+
+	/**
+	 * Return the exception thrown while parsing or null if parsing succeeded.
+	 */
+	public XmlException getException()
+	{
+		return mException;
+	}
+
+
+	public boolean isSuccess()
+	{
+		return mException == null;
+	}
+
+
+	/**
+	 * Return the parsed document.
+	 *
+	 * @throws XmlException
+	 *   the exception thrown while parsing the source
+	 */
+	public XmlDocument get()
+	{
+		if (mException != null)
+		{
+			throw mException;
+		}
+
+		return mDocument;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "XmlParseResult{index=" + mIndex + ", source=" + mSource + (mException != null ? ", exception=" + mException : "") + "}";
+	}
+}
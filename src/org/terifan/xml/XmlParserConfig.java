@@ -0,0 +1,292 @@
+package org.terifan.xml;
+
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+
+/**
+ * Parser features used when creating the DocumentBuilder instances of a XmlParserPool.
+ *
+ * A XmlParserPool copies the configuration when it's created, later changes to this instance will not affect an existing pool.
+ */
+public class XmlParserConfig implements Cloneable
+{
+	private boolean mNamespaceAware;
+	private boolean mValidating;
+	private boolean mCoalescing;
+	private boolean mIgnoringComments;
+	private boolean mIgnoringElementContentWhitespace;
+	private boolean mExpandEntityReferences;
+	private boolean mXIncludeAware;
+	private boolean mNativeParser;
+	private boolean mMemoryMapped;
+	private boolean mCompact;
+	private LinkedHashMap<String,Boolean> mFeatures;
+	private int mPoolSize;
+
+
+	public XmlParserConfig()
+	{
+		mNamespaceAware = true;
+		mExpandEntityReferences = true;
+		mNativeParser = true;
+		mFeatures = new LinkedHashMap<>();
+		mPoolSize = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+
+	public boolean isNamespaceAware()
+	{
+		return mNamespaceAware;
+	}
+
+
+	public XmlParserConfig setNamespaceAware(boolean aNamespaceAware)
+	{
+		mNamespaceAware = aNamespaceAware;
+		return this;
+	}
+
+
+	public boolean isValidating()
+	{
+		return mValidating;
+	}
+
+
+	public XmlParserConfig setValidating(boolean aValidating)
+	{
+		mValidating = aValidating;
+		return this;
+	}
+
+
+	public boolean isCoalescing()
+	{
+		return mCoalescing;
+	}
+
+
+	/**
+	 * Convert CDATA sections to text nodes and merge them with adjacent text nodes.
+	 */
+	public XmlParserConfig setCoalescing(boolean aCoalescing)
+	{
+		mCoalescing = aCoalescing;
+		return this;
+	}
+
+
+	public boolean isIgnoringComments()
+	{
+		return mIgnoringComments;
+	}
+
+
+	public XmlParserConfig setIgnoringComments(boolean aIgnoringComments)
+	{
+		mIgnoringComments = aIgnoringComments;
+		return this;
+	}
+
+
+	public boolean isIgnoringElementContentWhitespace()
+	{
+		return mIgnoringElementContentWhitespace;
+	}
+
+
+	/**
+	 * Note: this only have an effect when the parser is validating.
+	 */
+	public XmlParserConfig setIgnoringElementContentWhitespace(boolean aIgnoringElementContentWhitespace)
+	{
+		mIgnoringElementContentWhitespace = aIgnoringElementContentWhitespace;
+		return this;
+	}
+
+
+	public boolean isExpandEntityReferences()
+	{
+		return mExpandEntityReferences;
+	}
+
+
+	public XmlParserConfig setExpandEntityReferences(boolean aExpandEntityReferences)
+	{
+		mExpandEntityReferences = aExpandEntityReferences;
+		return this;
+	}
+
+
+	public boolean isXIncludeAware()
+	{
+		return mXIncludeAware;
+	}
+
+
+	public XmlParserConfig setXIncludeAware(boolean aXIncludeAware)
+	{
+		mXIncludeAware = aXIncludeAware;
+		return this;
+	}
+
+
+	public boolean isNativeParser()
+	{
+		return mNativeParser;
+	}
+
+
+	/**
+	 * Parse byte[] and InputStream sources with the built in parser which decodes UTF-8, US-ASCII and ISO-8859-1 directly
+	 * into DOM nodes. Documents with other encodings, XML versions or a document type declaration are always parsed by
+	 * JAXP, as are documents declaring an encoding other than UTF-8 unless the configuration is compact, since a DOM
+	 * document can't be given a declared encoding. The built in parser is never used when the configuration is validating, XInclude aware or has custom features.
+	 * It rejects the same malformed documents as JAXP, the differential target of the build compares the two parsers.
+	 */
+	public XmlParserConfig setNativeParser(boolean aNativeParser)
+	{
+		mNativeParser = aNativeParser;
+		return this;
+	}
+
+
+	public boolean isMemoryMapped()
+	{
+		return mMemoryMapped;
+	}
+
+
+	/**
+	 * Parse File sources with the built in parser scanning a memory mapped view of the file instead of reading it through
+	 * buffered streams. Files larger than 1 GB are mapped in several consecutive windows. Has no effect unless the built in
+	 * parser is enabled.
+	 */
+	public XmlParserConfig setMemoryMapped(boolean aMemoryMapped)
+	{
+		mMemoryMapped = aMemoryMapped;
+		return this;
+	}
+
+
+	public boolean isCompact()
+	{
+		return mCompact;
+	}
+
+
+	/**
+	 * Store parsed documents in a compact read-only representation instead of a Xerces DOM. Compact documents use a
+	 * fraction of the memory and can be read by several threads concurrently, all methods modifying the document throw a
+	 * DOMException.
+	 */
+	public XmlParserConfig setCompact(boolean aCompact)
+	{
+		mCompact = aCompact;
+		return this;
+	}
+
+
+	boolean isNativeParserSupported()
+	{
+		return mNativeParser && !mValidating && !mXIncludeAware && mFeatures.isEmpty();
+	}
+
+
+	public Boolean getFeature(String aName)
+	{
+		return mFeatures.get(aName);
+	}
+
+
+	/**
+	 * Set a feature on the underlying DocumentBuilderFactory, e.g. "http://apache.org/xml/features/dom/defer-node-expansion".
+	 */
+	public XmlParserConfig setFeature(String aName, boolean aValue)
+	{
+		mFeatures.put(aName, aValue);
+		return this;
+	}
+
+
+	public int getPoolSize()
+	{
+		return mPoolSize;
+	}
+
+
+	/**
+	 * The maximum number of idle DocumentBuilder instances kept by a pool.
+	 */
+	public XmlParserConfig setPoolSize(int aPoolSize)
+	{
+		if (aPoolSize < 1)
+		{
+			throw new IllegalArgumentException("Pool size must be positive: " + aPoolSize);
+		}
+		mPoolSize = aPoolSize;
+		return this;
+	}
+
+
+	DocumentBuilderFactory newFactory() throws ParserConfigurationException
+	{
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(mNamespaceAware);
+		factory.setValidating(mValidating);
+		factory.setCoalescing(mCoalescing);
+		factory.setIgnoringComments(mIgnoringComments);
+		factory.setIgnoringElementContentWhitespace(mIgnoringElementContentWhitespace);
+		factory.setExpandEntityReferences(mExpandEntityReferences);
+		factory.setXIncludeAware(mXIncludeAware);
+
+		for (Entry<String,Boolean> entry : mFeatures.entrySet())
+		{
+			factory.setFeature(entry.getKey(), entry.getValue());
+		}
+
+		return factory;
+	}
+
+
+	@Override
+	public XmlParserConfig clone()
+	{
+		try
+		{
+			XmlParserConfig config = (XmlParserConfig)super.clone();
+			config.mFeatures = new LinkedHashMap<>(mFeatures);
+			return config;
+		}
+		catch (CloneNotSupportedException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("XmlParserConfig{namespaceAware=").append(mNamespaceAware);
+		sb.append(", validating=").append(mValidating);
+		sb.append(", coalescing=").append(mCoalescing);
+		sb.append(", ignoringComments=").append(mIgnoringComments);
+		sb.append(", ignoringElementContentWhitespace=").append(mIgnoringElementContentWhitespace);
+		sb.append(", expandEntityReferences=").append(mExpandEntityReferences);
+		sb.append(", xIncludeAware=").append(mXIncludeAware);
+		sb.append(", nativeParser=").append(mNativeParser);
+		sb.append(", memoryMapped=").append(mMemoryMapped);
+		sb.append(", compact=").append(mCompact);
+		for (Entry<String,Boolean> entry : mFeatures.entrySet())
+		{
+			sb.append(", ").append(entry.getKey()).append("=").append(entry.getValue());
+		}
+		sb.append(", poolSize=").append(mPoolSize).append("}");
+		return sb.toString();
+	}
+}
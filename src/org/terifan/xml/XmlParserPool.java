@@ -0,0 +1,281 @@
+package org.terifan.xml;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+
+
+/**
+ * A bounded pool of pre-configured DocumentBuilder instances.
+ *
+ * Creating a DocumentBuilder requires a service lookup and factory setup, this pool creates the factory once and reuses
+ * builders between parses. Builders are reset before they are returned to the pool.
+ *
+ * e.g.
+ * <pre>
+ * DocumentBuilder builder = pool.acquire();
+ * try
+ * {
+ *     ...
+ * }
+ * finally
+ * {
+ *     pool.release(builder);
+ * }
+ * </pre>
+ */
+public class XmlParserPool
+{
+	private static volatile XmlParserPool mNamespaceAwareDefault;
+	private static volatile XmlParserPool mDefault;
+
+	private final XmlParserConfig mConfig;
+	private final DocumentBuilderFactory mFactory;
+	private final ArrayBlockingQueue<DocumentBuilder> mBuilders;
+	private final AtomicLong mHits;
+	private final AtomicLong mMisses;
+	private final AtomicLong mCreated;
+	private final AtomicLong mDiscarded;
+
+
+	public XmlParserPool(XmlParserConfig aConfig)
+	{
+		if (aConfig == null)
+		{
+			throw new IllegalArgumentException("Provided config is null.");
+		}
+
+		mConfig = aConfig.clone();
+		mBuilders = new ArrayBlockingQueue<>(mConfig.getPoolSize());
+		mHits = new AtomicLong();
+		mMisses = new AtomicLong();
+		mCreated = new AtomicLong();
+		mDiscarded = new AtomicLong();
+
+		try
+		{
+			mFactory = mConfig.newFactory();
+		}
+		catch (ParserConfigurationException e)
+		{
+			throw new XmlException(e);
+		}
+	}
+
+
+	/**
+	 * Return the pool used by the XmlDocument constructors and XmlDocument.parse(Object, boolean).
+	 */
+	public static XmlParserPool getDefault(boolean aNamespaceAware)
+	{
+		XmlParserPool pool = aNamespaceAware ? mNamespaceAwareDefault : mDefault;
+
+		if (pool == null)
+		{
+			synchronized (XmlParserPool.class)
+			{
+				pool = aNamespaceAware ? mNamespaceAwareDefault : mDefault;
+
+				if (pool == null)
+				{
+					pool = new XmlParserPool(new XmlParserConfig().setNamespaceAware(aNamespaceAware));
+
+					if (aNamespaceAware)
+					{
+						mNamespaceAwareDefault = pool;
+					}
+					else
+					{
+						mDefault = pool;
+					}
+				}
+			}
+		}
+
+		return pool;
+	}
+
+
+	/**
+	 * Replace the pool used by the XmlDocument constructors and XmlDocument.parse(Object, boolean).
+	 *
+	 * @param aPool
+	 *   the new pool or null to restore a pool with the default configuration
+	 */
+	public static void setDefault(boolean aNamespaceAware, XmlParserPool aPool)
+	{
+		if (aPool != null && aPool.getConfig().isNamespaceAware() != aNamespaceAware)
+		{
+			throw new IllegalArgumentException("Provided pool namespace awareness must be " + aNamespaceAware + ".");
+		}
+
+		synchronized (XmlParserPool.class)
+		{
+			if (aNamespaceAware)
+			{
+				mNamespaceAwareDefault = aPool;
+			}
+			else
+			{
+				mDefault = aPool;
+			}
+		}
+	}
+
+
+	/**
+	 * Return a copy of the configuration of this pool.
+	 */
+	public XmlParserConfig getConfig()
+	{
+		return mConfig.clone();
+	}
+
+
+	XmlParserConfig config()
+	{
+		return mConfig;
+	}
+
+
+	/**
+	 * Take a DocumentBuilder from the pool or create a new one if the pool is empty. The builder should be returned to the
+	 * pool using the release method when no longer used.
+	 */
+	public DocumentBuilder acquire()
+	{
+		DocumentBuilder builder = mBuilders.poll();
+
+		if (builder != null)
+		{
+			mHits.incrementAndGet();
+			return builder;
+		}
+
+		mMisses.incrementAndGet();
+
+		try
+		{
+			synchronized (mFactory)
+			{
+				builder = mFactory.newDocumentBuilder();
+			}
+		}
+		catch (ParserConfigurationException e)
+		{
+			throw new XmlException(e);
+		}
+
+		mCreated.incrementAndGet();
+
+		return builder;
+	}
+
+
+	/**
+	 * Reset and return a DocumentBuilder to the pool. If the pool is full or the builder can't be reset it's discarded.
+	 */
+	public void release(DocumentBuilder aBuilder)
+	{
+		if (aBuilder == null)
+		{
+			return;
+		}
+
+		try
+		{
+			aBuilder.reset();
+		}
+		catch (UnsupportedOperationException e)
+		{
+			mDiscarded.incrementAndGet();
+			return;
+		}
+
+		if (!mBuilders.offer(aBuilder))
+		{
+			mDiscarded.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * Create an empty Document using a pooled DocumentBuilder.
+	 */
+	public Document newDocument()
+	{
+		DocumentBuilder builder = acquire();
+		try
+		{
+			return builder.newDocument();
+		}
+		finally
+		{
+			release(builder);
+		}
+	}
+
+
+	/**
+	 * Remove all idle builders from the pool.
+	 */
+	public void clear()
+	{
+		mBuilders.clear();
+	}
+
+
+	/**
+	 * Return number of times a pooled builder was reused.
+	 */
+	public long getHitCount()
+	{
+		return mHits.get();
+	}
+
+
+	/**
+	 * Return number of times the pool was empty when a builder was requested.
+	 */
+	public long getMissCount()
+	{
+		return mMisses.get();
+	}
+
+
+	/**
+	 * Return number of builders created by this pool.
+	 */
+	public long getCreatedCount()
+	{
+		return mCreated.get();
+	}
+
+
+	/**
+	 * Return number of builders discarded because the pool was full or the builder couldn't be reset.
+	 */
+	public long getDiscardedCount()
+	{
+		return mDiscarded.get();
+	}
+
+
+	/**
+	 * Return number of idle builders currently in the pool.
+	 */
+	public int getIdleCount()
+	{
+		return mBuilders.size();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "XmlParserPool{hits=" + mHits + ", misses=" + mMisses + ", created=" + mCreated + ", discarded=" + mDiscarded + ", idle=" + mBuilders.size() + ", config=" + mConfig + "}";
+	}
+}
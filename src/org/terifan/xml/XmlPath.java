@@ -0,0 +1,175 @@
+package org.terifan.xml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A compiled literal path, e.g. "catalogue/item/name" or "/catalogue/item/@id", for the XmlPath overloads of getNode,
+ * getText, getList and getTextArray in XmlNode.
+ *
+ * The path is validated and split once and the names are interned. Instances are immutable and may be shared by any
+ * number of threads, keep them in static fields for paths used repeatedly. The String overloads of XmlNode compile their
+ * paths through a small per thread LRU cache, like XPathCache.
+ */
+public final class XmlPath
+{
+	private final static int CACHE_SIZE = 512;
+	private final static ThreadLocal<LinkedHashMap<String,XmlPath>> CACHE = new ThreadLocal<LinkedHashMap<String,XmlPath>>()
+	{
+		@Override
+		protected LinkedHashMap<String,XmlPath> initialValue()
+		{
+			return new LinkedHashMap<String,XmlPath>(16, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String,XmlPath> aEldest)
+				{
+					return size() > CACHE_SIZE;
+				}
+			};
+		}
+	};
+
+	private final String mPath;
+	private final XmlPath mRelative;
+	private final String[] mNodeNames;
+	private final String[] mListNames;
+	private final String mAttribute;
+	private final boolean mIndexable;
+
+
+	/**
+	 * @throws IllegalArgumentException
+	 *   if the path isn't a literal path
+	 */
+	public XmlPath(String aPath)
+	{
+		XmlNode.assertNodePath(aPath);
+
+		mPath = aPath;
+
+		if (aPath.startsWith("/"))
+		{
+			mRelative = new XmlPath(aPath.substring(1));
+			mNodeNames = mRelative.mNodeNames;
+			mListNames = mRelative.mListNames;
+			mAttribute = mRelative.mAttribute;
+			mIndexable = mRelative.mIndexable;
+			return;
+		}
+
+		mRelative = this;
+		mListNames = intern(aPath.split("/", -1));
+		mNodeNames = aPath.endsWith("/") ? intern(aPath.split("/")) : mListNames;
+		mIndexable = XmlPathIndex.isIndexable(aPath);
+
+		String last = mNodeNames[mNodeNames.length - 1];
+		mAttribute = last.startsWith("@") ? last.substring(1).intern() : null;
+	}
+
+
+	/**
+	 * Return the compiled path from the cache of the calling thread, compiling it if necessary.
+	 */
+	static XmlPath compile(String aPath)
+	{
+		LinkedHashMap<String,XmlPath> cache = CACHE.get();
+		XmlPath path = cache.get(aPath);
+
+		if (path == null)
+		{
+			path = new XmlPath(aPath);
+			cache.put(aPath, path);
+		}
+
+		return path;
+	}
+
+
+	/**
+	 * Return true if the path starts with a slash and is resolved from the document node.
+	 */
+	public boolean isAbsolute()
+	{
+		return mRelative != this;
+	}
+
+
+	/**
+	 * Return this path without a leading slash.
+	 */
+	XmlPath getRelative()
+	{
+		return mRelative;
+	}
+
+
+	/**
+	 * Return the segments as resolved by getNode, trailing empty segments are removed.
+	 */
+	String[] getNodeNames()
+	{
+		return mNodeNames;
+	}
+
+
+	/**
+	 * Return the segments as resolved by getList, including a trailing empty segment.
+	 */
+	String[] getListNames()
+	{
+		return mListNames;
+	}
+
+
+	/**
+	 * Return the attribute name, without '@', of the last segment resolved by getNode or null if it isn't an attribute.
+	 */
+	String getAttribute()
+	{
+		return mAttribute;
+	}
+
+
+	/**
+	 * Return true if the path can be resolved using the XmlPathIndex.
+	 */
+	boolean isIndexable()
+	{
+		return mIndexable;
+	}
+
+
+	@Override
+	public boolean equals(Object aOther)
+	{
+		return aOther instanceof XmlPath && mPath.equals(((XmlPath)aOther).mPath);
+	}
+
+
+	@Override
+	public int hashCode()
+	{
+		return mPath.hashCode();
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return mPath;
+	}
+
+
+	private static String[] intern(String[] aNames)
+	{
+		for (int i = 0; i < aNames.length; i++)
+		{
+			aNames[i] = aNames[i].intern();
+		}
+		return aNames;
+	}
+}
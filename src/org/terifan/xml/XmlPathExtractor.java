@@ -0,0 +1,496 @@
+package org.terifan.xml;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import org.w3c.dom.Document;
+
+
+/**
+ * Extracts values or small element subtrees matching a literal path from a document without building a DOM of the entire
+ * document. Memory use is independent of the document size.
+ *
+ * The path uses the same syntax as the literal paths of XmlNode.getList, starting with the name of the root element and
+ * optionally ending with an attribute, e.g. "orders/order/@id" or "feed/item/title". Element names are matched by their
+ * local name.
+ *
+ * e.g.
+ * <pre>
+ * new XmlPathExtractor("feed/item").forEachElement(new File("feed.xml"), item -&gt; System.out.println(item.getText("title")));
+ * </pre>
+ *
+ * Sources can be a File, InputStream, Reader, byte[] or a String containing XML. Sources are closed when the extraction
+ * completes. Document type declarations are skipped, entities declared in them are not supported.
+ */
+public class XmlPathExtractor
+{
+	private final String mPath;
+	private final String[] mElements;
+	private final String mAttribute;
+	private final XmlParserPool mPool;
+
+
+	public XmlPathExtractor(String aPath)
+	{
+		this(aPath, XmlParserPool.getDefault(true));
+	}
+
+
+	/**
+	 * @param aPool
+	 *   pool used to create documents of extracted elements
+	 */
+	public XmlPathExtractor(String aPath, XmlParserPool aPool)
+	{
+		XmlNode.assertNodePath(aPath);
+
+		String path = aPath.startsWith("/") ? aPath.substring(1) : aPath;
+		String[] segments = path.split("/");
+
+		if (segments[segments.length - 1].startsWith("@"))
+		{
+			mAttribute = segments[segments.length - 1].substring(1);
+			mElements = new String[segments.length - 1];
+			System.arraycopy(segments, 0, mElements, 0, mElements.length);
+		}
+		else
+		{
+			mAttribute = null;
+			mElements = segments;
+		}
+
+		if (mElements.length == 0 || mElements[0].isEmpty())
+		{
+			throw new IllegalArgumentException("Path must contain an element name: " + aPath);
+		}
+
+		mPath = aPath;
+		mPool = aPool;
+	}
+
+
+	public String getPath()
+	{
+		return mPath;
+	}
+
+
+	/**
+	 * Return true if the path ends with an attribute.
+	 */
+	boolean isAttributePath()
+	{
+		return mAttribute != null;
+	}
+
+
+	/**
+	 * Deliver the text content of each matching element, or the value of the attribute if the path ends with an attribute.
+	 */
+	public void forEachValue(Object aSource, Consumer<String> aConsumer)
+	{
+		try (Results<String> results = values(aSource))
+		{
+			while (results.hasNext())
+			{
+				aConsumer.accept(results.next());
+			}
+		}
+	}
+
+
+	/**
+	 * Deliver each matching element as a standalone XmlElement in a document of it's own. Namespace declarations in scope
+	 * are copied to the element.
+	 */
+	public void forEachElement(Object aSource, Consumer<XmlElement> aConsumer)
+	{
+		try (Results<XmlElement> results = elements(aSource))
+		{
+			while (results.hasNext())
+			{
+				aConsumer.accept(results.next());
+			}
+		}
+	}
+
+
+	/**
+	 * Return an iterator of the text content of each matching element, or the value of the attribute if the path ends with
+	 * an attribute. The source is parsed as the iterator advances.
+	 */
+	public Results<String> values(Object aSource)
+	{
+		return new Results<>(aSource, false);
+	}
+
+
+	/**
+	 * Return an iterator of matching elements. The source is parsed as the iterator advances.
+	 */
+	public Results<XmlElement> elements(Object aSource)
+	{
+		if (mAttribute != null)
+		{
+			throw new IllegalStateException("Path selects attributes, use values instead: " + mPath);
+		}
+
+		return new Results<>(aSource, true);
+	}
+
+
+	/**
+	 * Iterator parsing the source on demand. Closing the iterator closes the source.
+	 */
+	public class Results<T> implements Iterator<T>, Closeable
+	{
+		private final Matcher mMatcher;
+		private final ArrayDeque<Object> mQueue;
+		private Closeable mCloseable;
+		private XmlByteParser.Input mInput;
+		private XmlByteParser mParser;
+		private boolean mDone;
+
+
+		Results(Object aSource, boolean aElements)
+		{
+			mQueue = new ArrayDeque<>();
+			mMatcher = new Matcher(aElements, mQueue::add);
+
+			try
+			{
+				open(aSource);
+			}
+			catch (IOException e)
+			{
+				throw new XmlException(e);
+			}
+		}
+
+
+		@Override
+		public boolean hasNext()
+		{
+			try
+			{
+				while (mQueue.isEmpty() && !mDone)
+				{
+					try
+					{
+						if (mParser.next() == XmlByteParser.END)
+						{
+							close();
+						}
+					}
+					catch (XmlByteParser.UnsupportedInputException e)
+					{
+						if (e.getEncoding() == null || !Charset.isSupported(e.getEncoding()))
+						{
+							throw new XmlException(e.getMessage(), e);
+						}
+						open(new InputStreamReader(mInput.replay(), e.getEncoding()));
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				close();
+				throw new XmlException(e);
+			}
+			catch (RuntimeException e)
+			{
+				close();
+				throw e;
+			}
+
+			return !mQueue.isEmpty();
+		}
+
+
+		@Override
+		public T next()
+		{
+			if (!hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+
+			// the queue holds XmlElement instances for elements() and String instances for values(), the types of T
+			@SuppressWarnings("unchecked")
+			T next = (T)mQueue.removeFirst();
+			return next;
+		}
+
+
+		@Override
+		public void close()
+		{
+			mDone = true;
+
+			if (mCloseable != null)
+			{
+				try
+				{
+					mCloseable.close();
+				}
+				catch (IOException e)
+				{
+					throw new XmlException(e);
+				}
+				finally
+				{
+					mCloseable = null;
+				}
+			}
+		}
+
+
+		private void open(Object aSource) throws IOException
+		{
+			XmlByteParser.Input input;
+			boolean utf8 = false;
+
+			if (aSource instanceof byte[])
+			{
+				input = new XmlByteParser.ArrayInput((byte[])aSource, 0, ((byte[])aSource).length);
+			}
+			else if (aSource instanceof InputStream)
+			{
+				mCloseable = (InputStream)aSource;
+				input = new XmlByteParser.StreamInput((InputStream)aSource, 64 * 1024);
+			}
+			else if (aSource instanceof File)
+			{
+				InputStream in = new FileInputStream((File)aSource);
+				mCloseable = in;
+				input = new XmlByteParser.StreamInput(in, 64 * 1024);
+			}
+			else if (aSource instanceof Reader || aSource instanceof String)
+			{
+				InputStream in = new XmlByteParser.ReaderInputStream(aSource instanceof String ? new StringReader((String)aSource) : (Reader)aSource);
+				mCloseable = in;
+				input = new XmlByteParser.StreamInput(in, 64 * 1024);
+				utf8 = true;
+			}
+			else if (aSource == null)
+			{
+				throw new XmlException("Provided argument is null.");
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unsupported type: " + aSource);
+			}
+
+			mMatcher.reset();
+			mInput = input;
+			mParser = new XmlByteParser(input, mMatcher).setSkipDocumentType(true).setForceUTF8(utf8);
+		}
+	}
+
+
+	/**
+	 * Tracks the element path and collects matching values or elements.
+	 */
+	private class Matcher implements XmlByteParser.Handler
+	{
+		private final boolean mCollectElements;
+		private final Consumer<Object> mOutput;
+		private int mDepth;
+		private int mMatched;
+		private int mCaptureDepth;
+		private StringBuilder mText;
+		private XmlDomBuilder mBuilder;
+		private XmlNamespaceScope mScope;
+
+
+		Matcher(boolean aCollectElements, Consumer<Object> aOutput)
+		{
+			mCollectElements = aCollectElements;
+			mOutput = aOutput;
+			mText = new StringBuilder();
+			mScope = new XmlNamespaceScope();
+		}
+
+
+		void reset()
+		{
+			mDepth = 0;
+			mMatched = 0;
+			mCaptureDepth = 0;
+			mScope = new XmlNamespaceScope();
+			mBuilder = null;
+			mText.setLength(0);
+		}
+
+
+		@Override
+		public void startElement(String aName, XmlByteParser aParser)
+		{
+			mDepth++;
+
+			if (mCaptureDepth > 0)
+			{
+				if (mBuilder != null)
+				{
+					mBuilder.startElement(aName, aParser);
+				}
+				return;
+			}
+
+			if (mCollectElements)
+			{
+				mScope.push(aParser);
+			}
+
+			if (mMatched == mDepth - 1 && mMatched < mElements.length && localNameEquals(aName, mElements[mMatched]))
+			{
+				mMatched++;
+
+				if (mMatched == mElements.length)
+				{
+					if (mAttribute != null)
+					{
+						for (int i = 0, sz = aParser.getAttributeCount(); i < sz; i++)
+						{
+							if (aParser.getAttributeName(i).equals(mAttribute))
+							{
+								mOutput.accept(aParser.getAttributeValue(i));
+							}
+						}
+					}
+					else if (mCollectElements)
+					{
+						mCaptureDepth = mDepth;
+						mBuilder = new XmlDomBuilder(mPool.newDocument(), mPool.config());
+						for (int i = 0; i < mScope.size(); i++)
+						{
+							mBuilder.inherit(mScope.getPrefix(i), mScope.getURI(i));
+						}
+						mBuilder.startElement(aName, aParser);
+					}
+					else
+					{
+						mCaptureDepth = mDepth;
+						mText.setLength(0);
+					}
+				}
+			}
+		}
+
+
+		@Override
+		public void endElement(String aName)
+		{
+			if (mCaptureDepth > 0)
+			{
+				if (mBuilder != null)
+				{
+					mBuilder.endElement(aName);
+				}
+
+				if (mDepth == mCaptureDepth)
+				{
+					mCaptureDepth = 0;
+
+					if (mBuilder != null)
+					{
+						Document doc = mBuilder.getDocument();
+						mBuilder = null;
+						mOutput.accept(new XmlElement(doc.getDocumentElement()));
+					}
+					else
+					{
+						mOutput.accept(mText.toString());
+					}
+				}
+			}
+
+			if (mCaptureDepth == 0)
+			{
+				if (mMatched == mDepth)
+				{
+					mMatched--;
+				}
+				if (mCollectElements)
+				{
+					mScope.pop();
+				}
+			}
+
+			mDepth--;
+		}
+
+
+		@Override
+		public void text(char[] aChars, int aOffset, int aLength)
+		{
+			if (mCaptureDepth > 0)
+			{
+				if (mBuilder != null)
+				{
+					mBuilder.text(aChars, aOffset, aLength);
+				}
+				else
+				{
+					mText.append(aChars, aOffset, aLength);
+				}
+			}
+		}
+
+
+		@Override
+		public void cdata(char[] aChars, int aOffset, int aLength)
+		{
+			if (mCaptureDepth > 0)
+			{
+				if (mBuilder != null)
+				{
+					mBuilder.cdata(aChars, aOffset, aLength);
+				}
+				else
+				{
+					mText.append(aChars, aOffset, aLength);
+				}
+			}
+		}
+
+
+		@Override
+		public void comment(char[] aChars, int aOffset, int aLength)
+		{
+			if (mBuilder != null)
+			{
+				mBuilder.comment(aChars, aOffset, aLength);
+			}
+		}
+
+
+		@Override
+		public void processingInstruction(String aTarget, String aData)
+		{
+			if (mBuilder != null)
+			{
+				mBuilder.processingInstruction(aTarget, aData);
+			}
+		}
+
+	}
+
+
+	static boolean localNameEquals(String aQName, String aLocalName)
+	{
+		int offset = aQName.length() - aLocalName.length();
+
+		return aQName.endsWith(aLocalName) && (offset == 0 || offset > 0 && aQName.charAt(offset - 1) == ':');
+	}
+}
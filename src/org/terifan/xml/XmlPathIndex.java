@@ -0,0 +1,292 @@
+package org.terifan.xml;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+
+/**
+ * Index of the nodes of a document by their name path, used by the literal path lookups of XmlNode.
+ *
+ * Nodes are numbered in document order and every path from the document node, e.g. "catalogue/item/name", maps to the
+ * numbers of the nodes with that path. The nodes of a path below a given node are the entries of the path numbered
+ * within the subtree of the node and are found by a binary search. Text, comment and CDATA nodes, whose names start with
+ * '#', aren't indexed.
+ *
+ * The index is stored as user data of the document and built by the first lookup after it has been enabled or
+ * invalidated. The tables are built by a single thread into a new instance and published through a volatile field, the
+ * build walks the document which isn't safe to do concurrently with a deferred Xerces DOM.
+ */
+final class XmlPathIndex
+{
+	private final static String KEY = XmlPathIndex.class.getName();
+
+	private final Document mDocument;
+	private volatile Tables mTables;
+
+
+	private XmlPathIndex(Document aDocument)
+	{
+		mDocument = aDocument;
+	}
+
+
+	/**
+	 * Return the index of the document or null if the document isn't indexed.
+	 */
+	static XmlPathIndex get(Document aDocument)
+	{
+		return aDocument == null ? null : (XmlPathIndex)aDocument.getUserData(KEY);
+	}
+
+
+	static void setEnabled(Document aDocument, boolean aEnabled)
+	{
+		if (aEnabled != (get(aDocument) != null))
+		{
+			aDocument.setUserData(KEY, aEnabled ? new XmlPathIndex(aDocument) : null, null);
+		}
+	}
+
+
+	/**
+	 * Discard the index of the document if one exists, it will be rebuilt by the next lookup.
+	 */
+	static void invalidate(Document aDocument)
+	{
+		XmlPathIndex index = get(aDocument);
+		if (index != null)
+		{
+			index.mTables = null;
+		}
+	}
+
+
+	/**
+	 * Return true if the path can be resolved by the index, paths to nodes with names starting with '#' can't.
+	 */
+	static boolean isIndexable(String aPath)
+	{
+		return aPath.indexOf('#') == -1;
+	}
+
+
+	/**
+	 * Return true if lookups from the node can be made using the index.
+	 */
+	boolean contains(Node aNode)
+	{
+		return tables().mNumbers.containsKey(aNode);
+	}
+
+
+	/**
+	 * Return the first child element matching the first name, followed by its first child element matching the second
+	 * name and so on, or null if there is no such element. The same node as XmlNode.getNode returns for the path.
+	 */
+	Node findNode(Node aNode, String[] aNames, int aCount)
+	{
+		Tables tables = tables();
+		Node node = aNode;
+		int number = tables.mNumbers.get(aNode);
+		Entry entry = tables.mEntries[number];
+
+		for (int i = 0; i < aCount; i++)
+		{
+			entry = entry.mChildren.get(aNames[i]);
+			if (entry == null)
+			{
+				return null;
+			}
+
+			int end = tables.mEnds[number];
+			int j = entry.indexOf(number + 1);
+
+			while (j < entry.mSize && entry.mNumbers[j] <= end && entry.mNodes[j].getNodeType() != Node.ELEMENT_NODE)
+			{
+				j++;
+			}
+
+			if (j == entry.mSize || entry.mNumbers[j] > end)
+			{
+				return null;
+			}
+
+			node = entry.mNodes[j];
+			number = entry.mNumbers[j];
+		}
+
+		return node;
+	}
+
+
+	/**
+	 * Add all nodes below the node matching the path to the list, in document order. The same nodes as XmlNode.getList
+	 * returns for the path.
+	 */
+	void findList(Node aNode, String[] aNames, int aCount, XmlNodeList aList)
+	{
+		Tables tables = tables();
+		int number = tables.mNumbers.get(aNode);
+		Entry entry = tables.mEntries[number];
+
+		for (int i = 0; i < aCount; i++)
+		{
+			entry = entry.mChildren.get(aNames[i]);
+			if (entry == null)
+			{
+				return;
+			}
+		}
+
+		int end = tables.mEnds[number];
+
+		for (int j = entry.indexOf(number + 1); j < entry.mSize && entry.mNumbers[j] <= end; j++)
+		{
+			aList.add(new XmlNode(entry.mNodes[j]));
+		}
+	}
+
+
+	private Tables tables()
+	{
+		Tables tables = mTables;
+		if (tables == null)
+		{
+			synchronized (this)
+			{
+				tables = mTables;
+				if (tables == null)
+				{
+					tables = build();
+					mTables = tables;
+				}
+			}
+		}
+		return tables;
+	}
+
+
+	private Tables build()
+	{
+		IdentityHashMap<Node,Integer> numbers = new IdentityHashMap<>();
+		Entry[] entries = new Entry[256];
+		int[] ends = new int[256];
+		int[] parents = new int[16];
+		int depth = 0;
+		int count = 1;
+
+		entries[0] = new Entry();
+		numbers.put(mDocument, 0);
+
+		Node parent = mDocument;
+		int parentNumber = 0;
+
+		for (Node node = mDocument.getFirstChild();;)
+		{
+			if (node == null)
+			{
+				ends[parentNumber] = count - 1;
+
+				if (depth == 0)
+				{
+					break;
+				}
+
+				node = parent.getNextSibling();
+				parent = parent.getParentNode();
+				parentNumber = parents[--depth];
+				continue;
+			}
+
+			String name = node.getLocalName();
+			if (name == null)
+			{
+				name = node.getNodeName();
+			}
+
+			if (!name.startsWith("#"))
+			{
+				if (count == entries.length)
+				{
+					entries = Arrays.copyOf(entries, 2 * count);
+					ends = Arrays.copyOf(ends, 2 * count);
+				}
+
+				int number = count++;
+				Entry entry = entries[parentNumber].mChildren.computeIfAbsent(name, e -> new Entry());
+				entry.add(node, number);
+				entries[number] = entry;
+				ends[number] = number;
+				numbers.put(node, number);
+
+				Node child = node.getFirstChild();
+				if (child != null)
+				{
+					if (depth == parents.length)
+					{
+						parents = Arrays.copyOf(parents, 2 * depth);
+					}
+					parents[depth++] = parentNumber;
+					parent = node;
+					parentNumber = number;
+					node = child;
+					continue;
+				}
+			}
+
+			node = node.getNextSibling();
+		}
+
+		return new Tables(numbers, entries, ends);
+	}
+
+
+	private static class Tables
+	{
+		final IdentityHashMap<Node,Integer> mNumbers;
+		final Entry[] mEntries;
+		final int[] mEnds;
+
+
+		Tables(IdentityHashMap<Node,Integer> aNumbers, Entry[] aEntries, int[] aEnds)
+		{
+			mNumbers = aNumbers;
+			mEntries = aEntries;
+			mEnds = aEnds;
+		}
+	}
+
+
+	private static class Entry
+	{
+		final HashMap<String,Entry> mChildren = new HashMap<>();
+		Node[] mNodes = new Node[1];
+		int[] mNumbers = new int[1];
+		int mSize;
+
+
+		void add(Node aNode, int aNumber)
+		{
+			if (mSize == mNodes.length)
+			{
+				mNodes = Arrays.copyOf(mNodes, 2 * mSize);
+				mNumbers = Arrays.copyOf(mNumbers, 2 * mSize);
+			}
+			mNodes[mSize] = aNode;
+			mNumbers[mSize++] = aNumber;
+		}
+
+
+		/**
+		 * Return the position of the first entry with a number greater or equal to the number provided.
+		 */
+		int indexOf(int aNumber)
+		{
+			int i = Arrays.binarySearch(mNumbers, 0, mSize, aNumber);
+			return i < 0 ? -i - 1 : i;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package org.terifan.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import org.w3c.dom.Document;
+
+
+/**
+ * A non-blocking parser building a document from bytes pushed in chunks as they arrive, e.g. from a NIO channel. No
+ * thread is blocked waiting for input, every call to feed parses as much of the document as the bytes provided so far
+ * allow and returns.
+ *
+ * The document is built progressively, bytes are discarded once parsed and only the incomplete token at the end of a
+ * chunk is retained. Documents the built in parser doesn't support, e.g. documents with a document type declaration
+ * or in an encoding other than UTF-8 and ISO-8859-1, and pools configured with options requiring a JAXP parser, are
+ * buffered and parsed by a pooled DocumentBuilder when finished.
+ *
+ * e.g.
+ * <pre>
+ * XmlPushParser parser = new XmlPushParser();
+ * while (channel.read(buffer) != -1)
+ * {
+ *     buffer.flip();
+ *     parser.feed(buffer);
+ *     buffer.clear();
+ * }
+ * XmlDocument document = parser.finish();
+ * </pre>
+ *
+ * Instances are not thread safe but may be fed by different threads as long as the calls don't overlap.
+ */
+public class XmlPushParser
+{
+	private final static int DEFAULT_BUFFER_SIZE = 8192;
+
+	private final XmlParserPool mPool;
+	private final XmlByteParser.FeedInput mInput;
+	private XmlByteParser mParser;
+	private XmlDomBuilder mDomBuilder;
+	private XmlCompactBuilder mCompactBuilder;
+	private ByteArrayOutputStream mBuffered;
+	private boolean mComplete;
+	private boolean mFinished;
+	private XmlException mFailure;
+	private long mSize;
+	private long mNanos;
+
+
+	/**
+	 * Create a parser using the default namespace aware pool configuration.
+	 */
+	public XmlPushParser()
+	{
+		this(XmlParserPool.getDefault(true));
+	}
+
+
+	/**
+	 * Create a parser producing the same kind of document as XmlDocument.parse with the pool.
+	 */
+	public XmlPushParser(XmlParserPool aPool)
+	{
+		if (aPool == null)
+		{
+			throw new IllegalArgumentException("Provided pool is null.");
+		}
+
+		mPool = aPool;
+		mInput = new XmlByteParser.FeedInput(DEFAULT_BUFFER_SIZE);
+
+		XmlParserConfig config = aPool.config();
+
+		if (!config.isNativeParserSupported())
+		{
+			mBuffered = new ByteArrayOutputStream();
+		}
+		else if (config.isCompact())
+		{
+			mCompactBuilder = new XmlCompactBuilder(config);
+			mParser = new XmlByteParser(mInput, mCompactBuilder);
+		}
+		else
+		{
+			mDomBuilder = new XmlDomBuilder(aPool.newDocument(), config);
+			mParser = new XmlByteParser(mInput, mDomBuilder);
+		}
+	}
+
+
+	/**
+	 * Parse the remaining bytes of the buffer. The position of the buffer is moved to its limit, the bytes are copied and
+	 * the buffer can be reused when this method returns.
+	 *
+	 * @return
+	 *   true if more input is needed, false once the root element has been closed
+	 * @throws XmlException
+	 *   if the bytes provided so far aren't the start of a well-formed document
+	 */
+	public boolean feed(ByteBuffer aBuffer)
+	{
+		assertFeedable();
+
+		XmlMetrics metrics = XmlMetrics.getDefault();
+		long time = metrics == XmlMetrics.NONE ? 0 : System.nanoTime();
+
+		mSize += aBuffer.remaining();
+
+		if (mBuffered != null)
+		{
+			byte[] tmp = new byte[aBuffer.remaining()];
+			aBuffer.get(tmp);
+			mBuffered.write(tmp, 0, tmp.length);
+		}
+		else
+		{
+			mInput.feed(aBuffer);
+			parse();
+		}
+
+		if (metrics != XmlMetrics.NONE)
+		{
+			mNanos += System.nanoTime() - time;
+		}
+
+		return !mComplete;
+	}
+
+
+	/**
+	 * Parse the bytes of the array, see feed(ByteBuffer).
+	 *
+	 * @return
+	 *   true if more input is needed, false once the root element has been closed
+	 */
+	public boolean feed(byte[] aBuffer, int aOffset, int aLength)
+	{
+		return feed(ByteBuffer.wrap(aBuffer, aOffset, aLength));
+	}
+
+
+	/**
+	 * Return true once the root element has been closed. Comments and processing instructions may still follow. Always
+	 * false for buffered documents which are only parsed when finished.
+	 */
+	public boolean isComplete()
+	{
+		return mComplete;
+	}
+
+
+	/**
+	 * Return the number of bytes fed.
+	 */
+	public long getSize()
+	{
+		return mSize;
+	}
+
+
+	/**
+	 * Signal the end of the input and return the document. Buffered documents are parsed by XmlDocument.parse and reported
+	 * to XmlMetrics by it.
+	 *
+	 * @throws XmlException
+	 *   if the input isn't a complete well-formed document
+	 */
+	public XmlDocument finish()
+	{
+		assertFeedable();
+
+		XmlMetrics metrics = XmlMetrics.getDefault();
+		long time = metrics == XmlMetrics.NONE ? 0 : System.nanoTime();
+
+		mFinished = true;
+
+		if (mBuffered == null)
+		{
+			mInput.end();
+			parse();
+		}
+
+		if (mBuffered != null)
+		{
+			Document doc = XmlDocument.parse(mBuffered.toByteArray(), mPool);
+			mBuffered = null;
+			return new XmlDocument(doc);
+		}
+
+		Document doc = mCompactBuilder != null ? mCompactBuilder.getDocument() : mDomBuilder.getDocument();
+		int nodeCount = mCompactBuilder != null ? ((XmlCompactDocument)doc).getNodeCount() : mDomBuilder.getNodeCount();
+		mParser = null;
+		mDomBuilder = null;
+		mCompactBuilder = null;
+
+		if (metrics != XmlMetrics.NONE)
+		{
+			metrics.record(XmlMetrics.Operation.PARSE, null, mNanos + System.nanoTime() - time, mSize, nodeCount);
+		}
+
+		return new XmlDocument(doc);
+	}
+
+
+	private void parse()
+	{
+		try
+		{
+			for (;;)
+			{
+				int token = mParser.next();
+
+				if (token == XmlByteParser.NEED_INPUT || token == XmlByteParser.END)
+				{
+					break;
+				}
+
+				if (!mComplete && mParser.getDepth() == 0 && !mParser.isInProlog())
+				{
+					mComplete = true;
+				}
+			}
+		}
+		catch (XmlByteParser.UnsupportedInputException e)
+		{
+			replay();
+		}
+		catch (XmlException e)
+		{
+			mFailure = e;
+			throw e;
+		}
+		catch (IOException e)
+		{
+			mFailure = new XmlException(e);
+			throw mFailure;
+		}
+	}
+
+
+	/**
+	 * Switch to buffering the input after the built in parser rejected the document in the prolog.
+	 */
+	private void replay()
+	{
+		mBuffered = new ByteArrayOutputStream();
+
+		try (InputStream in = mInput.replay())
+		{
+			byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+			for (int len; (len = in.read(buffer)) > 0;)
+			{
+				mBuffered.write(buffer, 0, len);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		mParser = null;
+		mDomBuilder = null;
+		mCompactBuilder = null;
+	}
+
+
+	private void assertFeedable()
+	{
+		if (mFailure != null)
+		{
+			throw new IllegalStateException("The parser has failed: " + mFailure.getMessage(), mFailure);
+		}
+		if (mFinished)
+		{
+			throw new IllegalStateException("The parser has been finished.");
+		}
+	}
+}
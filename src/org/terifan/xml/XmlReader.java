@@ -1,58 +1,135 @@
 package org.terifan.xml;
 
-import java.io.CharArrayWriter;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.PushbackReader;
 import java.io.Reader;
-import java.io.StringReader;
 import java.nio.CharBuffer;
 import java.util.Arrays;
 
 
-@Deprecated
-public class XmlReader
+/**
+ * A forward only pull parser scanning a reusable character buffer.
+ *
+ * Names and values are available as CharSequence views into the buffer which are valid until the reader is moved. The
+ * String accessors allocate on demand and decode character and predefined entity references.
+ *
+ * e.g.
+ * <pre>
+ * try (XmlReader reader = new XmlReader(new FileReader(file)))
+ * {
+ *     while (reader.moveToNextElement())
+ *     {
+ *         if (reader.getNameSequence().toString().equals("item"))
+ *         {
+ *             String id = reader.readAttributeValue("id");
+ *         }
+ *     }
+ * }
+ * </pre>
+ */
+public class XmlReader implements Closeable
 {
-	private String mName;
-	private String mValue;
-	private Readable mReadable;
-	private PushbackReader mReader;
+	public final static int START_ELEMENT = 1;
+	public final static int END_ELEMENT = 2;
+	public final static int TEXT = 3;
+	public final static int CDATA = 4;
+	public final static int END_DOCUMENT = 5;
+
+	private final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final Readable mReadable;
+	private char[] mBuffer;
+	private int mPosition;
+	private int mLimit;
+	private int mMark;
 	private boolean mEOF;
+
+	private int mEventType;
 	private boolean mInsideElement;
+	private boolean mPendingEndElement;
+	private char[] mElementName;
+	private int mElementNameLength;
+	private final View mName;
+	private final View mValue;
+	private String mNameString;
+	private String mValueString;
 
 
 	public XmlReader(Readable aReadable) throws IOException
 	{
-		mReadable = aReadable;
-		mReader = new PushbackReader(new Reader()
+		this(aReadable, DEFAULT_BUFFER_SIZE);
+	}
+
+
+	public XmlReader(Readable aReadable, int aBufferSize) throws IOException
+	{
+		if (aReadable == null)
 		{
-			public void close() throws IOException
-			{
-			}
-			public int read(char [] cbuf, int off, int len) throws IOException
-			{
-				CharBuffer buffer = CharBuffer.wrap(cbuf, off, len);
-				return mReadable.read(buffer);
-			}
-		});
+			throw new IllegalArgumentException("Provided readable is null.");
+		}
+
+		mReadable = aReadable;
+		mBuffer = new char[Math.max(aBufferSize, 16)];
+		mElementName = new char[64];
+		mName = new View();
+		mValue = new View();
+		mMark = -1;
 	}
 
 
-//	public boolean hasAttributes()
-//	public boolean hasValue()
-//	public boolean isEmptyElement() // (for example, <MyElement/>).
-//	public String getNodeType()
+	/**
+	 * Return the type of the current event, one of START_ELEMENT, END_ELEMENT, TEXT, CDATA or END_DOCUMENT. Zero is returned
+	 * before the first event.
+	 */
+	public int getEventType()
+	{
+		return mEventType;
+	}
 
 
+	/**
+	 * Return the decoded value of the current attribute, text or CDATA event.
+	 */
 	public String getValue()
 	{
-		return mValue;
+		if (mValueString == null && mValue.mArray != null)
+		{
+			mValueString = mEventType == CDATA ? mValue.toString() : decode(mValue.mArray, mValue.mOffset, mValue.mLength);
+		}
+		return mValueString;
 	}
 
 
+	/**
+	 * Return the name of the current element or attribute.
+	 */
 	public String getName()
 	{
-		return mName;
+		if (mNameString == null && mName.mArray != null)
+		{
+			mNameString = mName.toString();
+		}
+		return mNameString;
+	}
+
+
+	/**
+	 * Return the name of the current element or attribute as a view into the reader buffer. The view is only valid until
+	 * the reader is moved.
+	 */
+	public CharSequence getNameSequence()
+	{
+		return mName.mArray == null ? null : mName;
+	}
+
+
+	/**
+	 * Return the undecoded value of the current attribute, text or CDATA event as a view into the reader buffer. The view is
+	 * only valid until the reader is moved.
+	 */
+	public CharSequence getValueSequence()
+	{
+		return mValue.mArray == null ? null : mValue;
 	}
 
 
@@ -60,7 +137,7 @@ public class XmlReader
 	{
 		do
 		{
-			if (getName().equals(aName))
+			if (mEventType == START_ELEMENT && contentEquals(mElementName, 0, mElementNameLength, aName))
 			{
 				return;
 			}
@@ -70,41 +147,130 @@ public class XmlReader
 	}
 
 
+	/**
+	 * Move to the next start element skipping all other events.
+	 */
 	public boolean moveToNextElement() throws IOException
 	{
 		for (;;)
 		{
-			findChar('<');
-			read();
+			int type = next();
+
+			if (type == START_ELEMENT)
+			{
+				return true;
+			}
+			if (type == END_DOCUMENT)
+			{
+				return false;
+			}
+		}
+	}
+
+
+	/**
+	 * Move to the next event.
+	 *
+	 * @return
+	 *   the type of the event, one of START_ELEMENT, END_ELEMENT, TEXT, CDATA or END_DOCUMENT
+	 */
+	public int next() throws IOException
+	{
+		if (mInsideElement)
+		{
+			finishStartElement();
+		}
+
+		mNameString = null;
+		mValueString = null;
+		mValue.set(null, 0, 0);
+
+		if (mPendingEndElement)
+		{
+			mPendingEndElement = false;
+			return mEventType = END_ELEMENT;
+		}
+
+		for (;;)
+		{
+			mMark = mPosition;
 
 			int c = peek();
 
-			if (mEOF) return false;
+			if (c == -1)
+			{
+				mMark = -1;
+				mName.set(null, 0, 0);
+				return mEventType = END_DOCUMENT;
+			}
 
-			if (c == '!') // comment
+			if (c != '<')
 			{
-				findPattern("--".toCharArray());
+				mValue.set(mBuffer, mPosition, 0);
+				mValue.mLength = scanTo('<') - mValue.mOffset;
+				mName.set(null, 0, 0);
+				mMark = -1;
+				return mEventType = TEXT;
 			}
-			else if (c == '[') // cdata
+
+			mPosition++;
+			c = peek();
+
+			if (c == '!')
 			{
-				findPattern("]]>".toCharArray());
+				mPosition++;
+				if (startsWith("--"))
+				{
+					mPosition += 2;
+					mMark = -1;
+					skipPattern("-->");
+				}
+				else if (startsWith("[CDATA["))
+				{
+					mPosition += 7;
+					mValue.set(mBuffer, mPosition, 0);
+					mValue.mLength = skipPattern("]]>") - mValue.mOffset;
+					mName.set(null, 0, 0);
+					mMark = -1;
+					return mEventType = CDATA;
+				}
+				else
+				{
+					mMark = -1;
+					skipDeclaration();
+				}
 			}
-			else if (c == '?') // processing instruction
+			else if (c == '?')
 			{
-				findPattern("?>".toCharArray());
+				mMark = -1;
+				skipPattern("?>");
 			}
-			else if (c == '/') // end of element
+			else if (c == '/')
 			{
-				findChar('>');
+				mPosition++;
+				scanName();
+				if (scanTo('>') < mLimit)
+				{
+					mPosition++;
+				}
+				mMark = -1;
+				return mEventType = END_ELEMENT;
 			}
 			else
 			{
-				mName = new String(readName());
-				mValue = null;
+				scanName();
 
-				mInsideElement = Character.isWhitespace(peek());
+				mElementNameLength = mName.mLength;
+				if (mElementName.length < mElementNameLength)
+				{
+					mElementName = new char[Math.max(2 * mElementName.length, mElementNameLength)];
+				}
+				System.arraycopy(mName.mArray, mName.mOffset, mElementName, 0, mElementNameLength);
+				mName.set(mElementName, 0, mElementNameLength);
 
-				return true;
+				mInsideElement = true;
+				mMark = -1;
+				return mEventType = START_ELEMENT;
 			}
 		}
 	}
@@ -114,7 +280,7 @@ public class XmlReader
 	{
 		while (moveToNextAttribute())
 		{
-			if (getName().equals(aName))
+			if (contentEquals(mName.mArray, mName.mOffset, mName.mLength, aName))
 			{
 				return getValue();
 			}
@@ -123,228 +289,547 @@ public class XmlReader
 	}
 
 
+	/**
+	 * Move to the next attribute of the current start element.
+	 *
+	 * @return
+	 *   false if there are no more attributes
+	 */
 	public boolean moveToNextAttribute() throws IOException
 	{
-		trim();
+		if (!mInsideElement)
+		{
+			return false;
+		}
+
+		skipWhitespace();
 
 		int c = peek();
-		if (mEOF || c == '/' || c == '>')
+		if (c == -1 || c == '/' || c == '>')
 		{
 			return false;
 		}
 
-		mName = new String(readName());
+		mMark = mPosition;
+		mNameString = null;
+		mValueString = null;
 
-		findChar('\"', '\'');
-		c = read();
+		scanName();
 
-		mValue = readValue((char)c);
+		skipWhitespace();
+		if (peek() != '=')
+		{
+			throw new IOException("Expected '=' after attribute name: " + mName);
+		}
+		mPosition++;
+		skipWhitespace();
+
+		int quote = peek();
+		if (quote != '"' && quote != '\'')
+		{
+			throw new IOException("Expected quoted value for attribute: " + mName);
+		}
+		mPosition++;
+
+		mValue.set(mBuffer, mPosition, 0);
+		mValue.mLength = scanTo((char)quote) - mValue.mOffset;
+		if (mPosition < mLimit)
+		{
+			mPosition++;
+		}
+		mMark = -1;
 
 		return true;
 	}
 
 
+	/**
+	 * Read the text content of the current element up to the next start or end element. The reader is left at the event
+	 * following the text.
+	 */
 	public String readElementString() throws IOException
 	{
 		if (mInsideElement)
 		{
-			while (moveToNextAttribute()) {}
-			read();
-			mInsideElement = false;
+			finishStartElement();
+		}
+		if (mPendingEndElement)
+		{
+			next();
+			return "";
 		}
 
-		if (peek() == '/')
+		StringBuilder text = null;
+		String first = null;
+
+		for (;;)
 		{
-			read();
+			int type = next();
+
+			if (type != TEXT && type != CDATA)
+			{
+				break;
+			}
+
+			String value = getValue();
+
+			if (first == null)
+			{
+				first = value;
+			}
+			else
+			{
+				if (text == null)
+				{
+					text = new StringBuilder(first);
+				}
+				text.append(value);
+			}
 		}
-		if (peek() == '>')
+
+		if (text != null)
 		{
-			read();
+			return text.toString();
 		}
 
-		return readValue('<');
+		return first == null ? "" : first;
+	}
+
+
+	@Override
+	public void close() throws IOException
+	{
+		if (mReadable instanceof Closeable)
+		{
+			((Closeable)mReadable).close();
+		}
 	}
 
 
-	public char [] readName() throws IOException
+	private void finishStartElement() throws IOException
 	{
-		CharArrayWriter buffer = new CharArrayWriter();
+		while (moveToNextAttribute())
+		{
+		}
 
-		int b = read();
+		mInsideElement = false;
 
-		if (b != '_' && b != ':' && !Character.isLetterOrDigit(b))
+		if (peek() == '/')
 		{
-			throw new IllegalArgumentException("Invalid element or attribute name: " + (char)b);
+			mPosition++;
+			mPendingEndElement = true;
+			mName.set(mElementName, 0, mElementNameLength);
 		}
+		if (peek() == '>')
+		{
+			mPosition++;
+		}
+	}
 
-		buffer.write(b);
 
-		for (;;)
+	/**
+	 * Read a name at the current position and return it. The name becomes the name of the current element or attribute.
+	 */
+	public char[] readName() throws IOException
+	{
+		mMark = mPosition;
+		mNameString = null;
+
+		scanName();
+
+		char[] name = Arrays.copyOfRange(mName.mArray, mName.mOffset, mName.mOffset + mName.mLength);
+		mMark = -1;
+
+		return name;
+	}
+
+
+	private void scanName() throws IOException
+	{
+		int c = peek();
+		if (c == -1)
+		{
+			throw new IOException("Unexpected end of stream.");
+		}
+		if (c != '_' && c != ':' && !Character.isLetterOrDigit(c))
 		{
-			b = peek();
+			throw new IllegalArgumentException("Invalid element or attribute name: " + (char)c);
+		}
 
-			if (b == -1)
+		mName.set(mBuffer, mPosition, 0);
+		mPosition++;
+
+		while ((c = peek()) != -1)
+		{
+			if (c <= ' ' || c == '>' || c == '/' || c == '=')
 			{
-				mEOF = true;
 				break;
 			}
-			if (Character.isWhitespace(b) || b == '>' || b == '/' || b == '=')
+			if (c != '-' && c != '_' && c != '.' && c != ':' && !Character.isLetterOrDigit(c))
 			{
-				break;
+				throw new IllegalArgumentException("Invalid element or attribute name: " + (char)c);
 			}
-			if (b != '-' && b != '_' && b != '.' && b != ':' && !Character.isLetterOrDigit(b))
+			mPosition++;
+		}
+
+		mName.mLength = mPosition - mName.mOffset;
+	}
+
+
+	/**
+	 * Advance until the character is found, the position is left at the character.
+	 *
+	 * @return
+	 *   the position of the character
+	 */
+	private int scanTo(char aCharacter) throws IOException
+	{
+		for (;;)
+		{
+			char[] buffer = mBuffer;
+			int limit = mLimit;
+			int i = mPosition;
+
+			while (i < limit && buffer[i] != aCharacter)
 			{
-				throw new IllegalArgumentException("Invalid element or attribute name: " + (char)b);
+				i++;
 			}
 
-			buffer.write(read());
-		}
+			mPosition = i;
 
-		return buffer.toCharArray();
+			if (i < limit || !fill())
+			{
+				return mPosition;
+			}
+		}
 	}
 
 
-	private String readValue(char aBreakChar) throws IOException
+	/**
+	 * Advance past the pattern.
+	 *
+	 * @return
+	 *   the position where the pattern started
+	 */
+	private int skipPattern(String aPattern) throws IOException
 	{
-		CharArrayWriter buffer = new CharArrayWriter();
+		char first = aPattern.charAt(0);
 
 		for (;;)
 		{
-			int b = read();
+			scanTo(first);
 
-			if (b == -1)
+			if (mEOF && mPosition == mLimit)
 			{
-				mEOF = true;
-				break;
+				return mPosition;
 			}
-			if (b == aBreakChar)
+
+			if (startsWith(aPattern))
 			{
-				break;
+				int start = mPosition;
+				mPosition += aPattern.length();
+				return start;
 			}
 
-			buffer.write(b);
+			mPosition++;
 		}
-
-		return new String(buffer.toCharArray());
 	}
 
 
-	public void close() throws IOException
+	private void skipDeclaration() throws IOException
 	{
-		mReader.close();
+		int depth = 0;
 
-		if (mReadable instanceof Closeable)
+		for (int c; (c = peek()) != -1; )
 		{
-			((Closeable)mReadable).close();
+			mPosition++;
+
+			if (c == '[')
+			{
+				depth++;
+			}
+			else if (c == ']')
+			{
+				depth--;
+			}
+			else if (c == '>' && depth <= 0)
+			{
+				return;
+			}
 		}
 	}
 
 
-	private void trim() throws IOException
+	private void skipWhitespace() throws IOException
 	{
-		for (;;)
+		for (int c; (c = peek()) != -1 && c <= ' '; )
+		{
+			mPosition++;
+		}
+	}
+
+
+	private boolean startsWith(String aPattern) throws IOException
+	{
+		while (mLimit - mPosition < aPattern.length())
 		{
-			int b = peek();
-			if (b == -1)
+			if (!fill())
 			{
-				mEOF = true;
-				return;
+				return false;
 			}
-			if (b != ' ')
+		}
+
+		for (int i = 0; i < aPattern.length(); i++)
+		{
+			if (mBuffer[mPosition + i] != aPattern.charAt(i))
 			{
-				return;
+				return false;
 			}
-			read();
 		}
+
+		return true;
 	}
 
 
-/*	private void findNextName() throws IOException
+	private int peek() throws IOException
 	{
+		if (mPosition == mLimit && !fill())
+		{
+			return -1;
+		}
+		return mBuffer[mPosition];
+	}
+
+
+	/**
+	 * Read more characters into the buffer. Characters before the mark (or the position when there is no mark) are
+	 * discarded and positions adjusted.
+	 */
+	private boolean fill() throws IOException
+	{
+		if (mEOF)
+		{
+			return false;
+		}
+
+		int keep = mMark >= 0 ? mMark : mPosition;
+
+		if (keep > 0)
+		{
+			System.arraycopy(mBuffer, keep, mBuffer, 0, mLimit - keep);
+			mLimit -= keep;
+			mPosition -= keep;
+			if (mMark >= 0)
+			{
+				mMark -= keep;
+			}
+			mName.shift(mBuffer, mBuffer, keep);
+			mValue.shift(mBuffer, mBuffer, keep);
+		}
+
+		if (mLimit == mBuffer.length)
+		{
+			char[] buffer = new char[2 * mBuffer.length];
+			System.arraycopy(mBuffer, 0, buffer, 0, mLimit);
+			mName.shift(mBuffer, buffer, 0);
+			mValue.shift(mBuffer, buffer, 0);
+			mBuffer = buffer;
+		}
+
 		for (;;)
 		{
-			int b = peek();
+			int n;
+			if (mReadable instanceof Reader)
+			{
+				n = ((Reader)mReadable).read(mBuffer, mLimit, mBuffer.length - mLimit);
+			}
+			else
+			{
+				n = mReadable.read(CharBuffer.wrap(mBuffer, mLimit, mBuffer.length - mLimit));
+			}
 
-			if (b == -1)
+			if (n < 0)
 			{
 				mEOF = true;
-				return;
+				return false;
 			}
-			if (b != '_' && b != ':' && !Character.isLetterOrDigit(b))
+			if (n > 0)
 			{
-				return;
+				mLimit += n;
+				return true;
 			}
+		}
+	}
+
 
-			read();
+	private static boolean contentEquals(char[] aArray, int aOffset, int aLength, String aText)
+	{
+		if (aArray == null || aLength != aText.length())
+		{
+			return false;
 		}
-	}*/
+		for (int i = 0; i < aLength; i++)
+		{
+			if (aArray[aOffset + i] != aText.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
 
 
-	private char [] findChar(char ... aCharacters) throws IOException
+	static String decode(char[] aBuffer, int aOffset, int aLength)
 	{
-		CharArrayWriter buffer = new CharArrayWriter();
+		int end = aOffset + aLength;
+		int amp = aOffset;
 
-		outer: for (;;)
+		while (amp < end && aBuffer[amp] != '&')
 		{
-			int b = peek();
+			amp++;
+		}
 
-			if (b == -1)
+		if (amp == end)
+		{
+			return new String(aBuffer, aOffset, aLength);
+		}
+
+		StringBuilder sb = new StringBuilder(aLength);
+		sb.append(aBuffer, aOffset, amp - aOffset);
+
+		for (int i = amp; i < end; )
+		{
+			char c = aBuffer[i];
+
+			if (c == '&')
 			{
-				mEOF = true;
-				break;
+				int semi = i + 1;
+				while (semi < end && semi - i < 12 && aBuffer[semi] != ';')
+				{
+					semi++;
+				}
+
+				if (semi < end && aBuffer[semi] == ';')
+				{
+					int ref = decodeReference(aBuffer, i + 1, semi);
+
+					if (ref >= 0)
+					{
+						sb.appendCodePoint(ref);
+						i = semi + 1;
+						continue;
+					}
+				}
 			}
 
-			for (int i = 0; i < aCharacters.length; i++)
+			sb.append(c);
+			i++;
+		}
+
+		return sb.toString();
+	}
+
+
+	private static int decodeReference(char[] aBuffer, int aStart, int aEnd)
+	{
+		int length = aEnd - aStart;
+
+		if (length >= 2 && aBuffer[aStart] == '#')
+		{
+			int ref;
+			try
 			{
-				if (b == aCharacters[i])
+				if (aBuffer[aStart + 1] == 'x')
+				{
+					ref = Integer.parseInt(new String(aBuffer, aStart + 2, length - 2), 16);
+				}
+				else
 				{
-					break outer;
+					ref = Integer.parseInt(new String(aBuffer, aStart + 1, length - 1));
 				}
 			}
+			catch (IllegalArgumentException e)
+			{
+				return -1;
+			}
 
-			buffer.write(read());
+			// references outside the Unicode range are kept literally like other undecodable references
+			return Character.isValidCodePoint(ref) ? ref : -1;
 		}
 
-		return buffer.toCharArray();
+		String name = new String(aBuffer, aStart, length);
+		switch (name)
+		{
+			case "lt":
+				return '<';
+			case "gt":
+				return '>';
+			case "amp":
+				return '&';
+			case "quot":
+				return '"';
+			case "apos":
+				return '\'';
+			default:
+				return -1;
+		}
 	}
 
 
-	private void findPattern(char [] aPattern) throws IOException
+	private static class View implements CharSequence
 	{
-		char [] match = new char[aPattern.length];
+		char[] mArray;
+		int mOffset;
+		int mLength;
 
-		for (;;)
+
+		void set(char[] aArray, int aOffset, int aLength)
 		{
-			int b = read();
+			mArray = aArray;
+			mOffset = aOffset;
+			mLength = aLength;
+		}
+
 
-			if (b == -1)
+		void shift(char[] aOldArray, char[] aNewArray, int aShift)
+		{
+			if (mArray == aOldArray)
 			{
-				mEOF = true;
-				return;
+				mArray = aNewArray;
+				mOffset -= aShift;
 			}
+		}
 
-			match[match.length-1] = (char)b;
 
-			if (Arrays.equals(match, aPattern))
+		@Override
+		public int length()
+		{
+			return mLength;
+		}
+
+
+		@Override
+		public char charAt(int aIndex)
+		{
+			if (aIndex < 0 || aIndex >= mLength)
 			{
-				return;
+				throw new IndexOutOfBoundsException("Index: " + aIndex + ", length: " + mLength);
 			}
-
-			System.arraycopy(match, 1, match, 0, match.length-1);
+			return mArray[mOffset + aIndex];
 		}
-	}
 
 
-	private int read() throws IOException
-	{
-		return mReader.read();
-	}
+		@Override
+		public CharSequence subSequence(int aStart, int aEnd)
+		{
+			return new String(mArray, mOffset + aStart, aEnd - aStart);
+		}
 
 
-	private int peek() throws IOException
-	{
-		int c = mReader.read();
-		mReader.unread(c);
-		return c;
+		@Override
+		public String toString()
+		{
+			return new String(mArray, mOffset, mLength);
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,1637 @@
+package org.terifan.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import javax.xml.XMLConstants;
+import javax.xml.transform.Result;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+
+/**
+ * Writes a DOM tree as XML without going through a Transformer. The output is identical to the output of the identity
+ * Transformer configured by XmlNode.newTransformer, including its indentation rules, namespace declaration fix ups and
+ * character escaping. Use isSupported to check if a node can be written by this class, the few cases where the
+ * Transformer changes its behaviour (HTML output, other XML versions and encodings) are left to the Transformer.
+ *
+ * Instances are not thread safe and are used for a single node.
+ */
+final class XmlSerializer
+{
+	private final static int INDENT_AMOUNT = 5;
+	private final static String LINE_SEPARATOR = System.lineSeparator();
+
+	private final Writer mWriter;
+	private final OutputStream mOutput;
+	private final byte[] mBytes;
+	private final boolean mIndent;
+	private final boolean mOmitDeclaration;
+	private boolean mReplaceUnpairedSurrogates;
+	private final char[] mBuffer;
+	private int mBufferOffset;
+	private long mWrittenCount;
+
+	private String mEncoding;
+	private boolean mStandaloneSpecified;
+	private boolean mNeedStartDocument;
+	private boolean mStartNewLine;
+	private boolean mPrevText;
+	private boolean mPreserveSpace;
+	private boolean mCDATAStarted;
+	private boolean mCDATAOpen;
+	private int mNonEscaping;
+
+	private int mDepth;
+	private boolean mStartTagOpen;
+	private int mChildNodeNum;
+	private int[] mChildNodeNums;
+	private boolean[] mPreserveSpaces;
+
+	private String[] mAttributeNames;
+	private String[] mAttributeValues;
+	private int mAttributeCount;
+
+	private String[] mPrefixes;
+	private String[] mURIs;
+	private int[] mDeclarationDepths;
+	private int mNamespaceCount;
+
+	private String[] mPendingText;
+	private boolean[] mPendingRaw;
+	private int mPendingCount;
+
+	private boolean mFirstTagNotEmitted;
+	private boolean mNeedStartDocumentFirst;
+	private String mFirstElementName;
+	private String mFirstElementPrefix;
+	private String mFirstElementURI;
+	private String[] mFirstPrefixes;
+	private String[] mFirstURIs;
+	private int mFirstCount;
+
+
+	/**
+	 * Create a serializer writing characters to a Writer.
+	 */
+	XmlSerializer(Writer aWriter, boolean aIndent, boolean aOmitDeclaration)
+	{
+		this(aWriter, null, aIndent, aOmitDeclaration);
+	}
+
+
+	/**
+	 * Create a serializer writing UTF-8 encoded bytes to an OutputStream.
+	 */
+	XmlSerializer(OutputStream aOutput, boolean aIndent, boolean aOmitDeclaration)
+	{
+		this(null, aOutput, aIndent, aOmitDeclaration);
+	}
+
+
+	private XmlSerializer(Writer aWriter, OutputStream aOutput, boolean aIndent, boolean aOmitDeclaration)
+	{
+		mWriter = aWriter;
+		mOutput = aOutput;
+		mBytes = aOutput == null ? null : new byte[3 * 8192 + 1];
+		mIndent = aIndent;
+		mOmitDeclaration = aOmitDeclaration;
+		mBuffer = new char[8192];
+
+		mChildNodeNums = new int[16];
+		mPreserveSpaces = new boolean[16];
+		mAttributeNames = new String[8];
+		mAttributeValues = new String[8];
+		mPrefixes = new String[8];
+		mURIs = new String[8];
+		mDeclarationDepths = new int[8];
+		mPendingText = new String[4];
+		mPendingRaw = new boolean[4];
+		mFirstPrefixes = new String[4];
+		mFirstURIs = new String[4];
+
+		mEncoding = "utf-8";
+		mNeedStartDocument = true;
+		mFirstTagNotEmitted = true;
+
+		mPrefixes[0] = "";
+		mURIs[0] = "";
+		mPrefixes[1] = XMLConstants.XML_NS_PREFIX;
+		mURIs[1] = XMLConstants.XML_NS_URI;
+		mNamespaceCount = 2;
+	}
+
+
+	/**
+	 * Encode unpaired surrogates found in comments and processing instructions as a question mark, the same way as
+	 * String.getBytes does. By default they are encoded as three byte sequences like the Transformer does.
+	 */
+	XmlSerializer setReplaceUnpairedSurrogates(boolean aReplace)
+	{
+		mReplaceUnpairedSurrogates = aReplace;
+		return this;
+	}
+
+
+	/**
+	 * Return true if the node can be written by this class. Only documents and elements are supported and documents
+	 * must be XML 1.0 documents declared as UTF-8 or without an encoding declaration. Trees with an "html" root element
+	 * are written with the HTML output method by the Transformer and are not supported.
+	 */
+	static boolean isSupported(Node aNode)
+	{
+		Node root;
+
+		if (aNode instanceof Document)
+		{
+			Document doc = (Document)aNode;
+			String version = doc.getXmlVersion();
+			String encoding = doc.getXmlEncoding();
+
+			if (version != null && !"1.0".equals(version) || encoding != null && !"UTF-8".equalsIgnoreCase(encoding))
+			{
+				return false;
+			}
+
+			root = doc.getDocumentElement();
+		}
+		else if (aNode.getNodeType() == Node.ELEMENT_NODE)
+		{
+			root = aNode;
+		}
+		else
+		{
+			return false;
+		}
+
+		if (root != null)
+		{
+			String name = root.getNodeName();
+			if (name.substring(name.indexOf(':') + 1).equalsIgnoreCase("html"))
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Return the number of bytes, or characters when writing to a Writer, passed to the output so far.
+	 */
+	long getWrittenCount()
+	{
+		return mWrittenCount;
+	}
+
+
+	/**
+	 * Write a document or element and flush the writer or stream.
+	 */
+	void serialize(Node aNode) throws IOException
+	{
+		if (aNode instanceof Document)
+		{
+			Document doc = (Document)aNode;
+			mStandaloneSpecified = !doc.getXmlStandalone();
+			if (doc.getXmlEncoding() != null)
+			{
+				mEncoding = doc.getXmlEncoding();
+			}
+		}
+
+		mNeedStartDocumentFirst = true;
+
+		if (aNode instanceof Document)
+		{
+			for (Node child = aNode.getFirstChild(); child != null; child = child.getNextSibling())
+			{
+				walk(child);
+			}
+		}
+		else
+		{
+			walk(aNode);
+		}
+
+		if (mFirstTagNotEmitted)
+		{
+			flushFirst();
+		}
+		endDocument();
+
+		flushBuffer(true);
+
+		if (mWriter != null)
+		{
+			mWriter.flush();
+		}
+		else
+		{
+			mOutput.flush();
+		}
+	}
+
+
+	/**
+	 * Prepare for writing a document as a sequence of events by XmlWriter. The output is the same as serializing a new
+	 * document built with the same calls to XmlNode.
+	 */
+	void startStream()
+	{
+		mStandaloneSpecified = true;
+		mFirstTagNotEmitted = false;
+		mNeedStartDocumentFirst = false;
+	}
+
+
+	void streamStartElement(String aName) throws IOException
+	{
+		handlerStartElement(null, aName);
+	}
+
+
+	/**
+	 * Add an attribute to the element just started, namespace declarations are added to the scope of the element.
+	 */
+	void streamAttribute(String aName, String aValue) throws IOException
+	{
+		if (aName.startsWith("xmlns"))
+		{
+			int colon = aName.lastIndexOf(':');
+			startPrefixMapping(colon > 0 ? aName.substring(colon + 1) : "", aValue, false);
+		}
+		else
+		{
+			addAttribute(aName, aValue);
+		}
+	}
+
+
+	void streamEndElement(String aName) throws IOException
+	{
+		endElement(aName);
+	}
+
+
+	void streamCharacters(String aText) throws IOException
+	{
+		characters(aText);
+	}
+
+
+	void streamCDATA(String aText) throws IOException
+	{
+		startCDATA();
+		characters(aText);
+		endCDATA();
+	}
+
+
+	void streamComment(String aText) throws IOException
+	{
+		comment(aText);
+	}
+
+
+	void streamProcessingInstruction(String aTarget, String aData) throws IOException
+	{
+		processingInstruction(aTarget, aData);
+	}
+
+
+	/**
+	 * Write a node and its subtree at the current position, the children of a document are written.
+	 */
+	void streamNode(Node aNode) throws IOException
+	{
+		if (aNode instanceof Document)
+		{
+			for (Node child = aNode.getFirstChild(); child != null; child = child.getNextSibling())
+			{
+				walk(child);
+			}
+		}
+		else
+		{
+			walk(aNode);
+		}
+	}
+
+
+	/**
+	 * Pass the characters written so far to the writer or stream and flush it.
+	 */
+	void streamFlush() throws IOException
+	{
+		flushBuffer(false);
+
+		if (mWriter != null)
+		{
+			mWriter.flush();
+		}
+		else
+		{
+			mOutput.flush();
+		}
+	}
+
+
+	void endStream() throws IOException
+	{
+		endDocument();
+
+		flushBuffer(true);
+
+		if (mWriter != null)
+		{
+			mWriter.flush();
+		}
+		else
+		{
+			mOutput.flush();
+		}
+	}
+
+
+	/**
+	 * Iterate the subtree in document order generating the same sequence of events as the DOM2TO class of the JDK.
+	 */
+	private void walk(Node aRoot) throws IOException
+	{
+		Node node = aRoot;
+
+		for (;;)
+		{
+			boolean descend = false;
+
+			switch (node.getNodeType())
+			{
+				case Node.ELEMENT_NODE:
+					startElement(node);
+					descend = node.getFirstChild() != null;
+					if (!descend)
+					{
+						endElement(node.getNodeName());
+					}
+					break;
+				case Node.TEXT_NODE:
+					characters(node.getNodeValue());
+					break;
+				case Node.CDATA_SECTION_NODE:
+					startCDATA();
+					characters(node.getNodeValue());
+					endCDATA();
+					break;
+				case Node.COMMENT_NODE:
+					comment(node.getNodeValue());
+					break;
+				case Node.PROCESSING_INSTRUCTION_NODE:
+					processingInstruction(node.getNodeName(), node.getNodeValue());
+					break;
+				default:
+					// document types and entity references are ignored by the Transformer
+					break;
+			}
+
+			if (descend)
+			{
+				node = node.getFirstChild();
+				continue;
+			}
+
+			for (;;)
+			{
+				if (node == aRoot)
+				{
+					return;
+				}
+
+				Node next = node.getNextSibling();
+				if (next != null)
+				{
+					node = next;
+					break;
+				}
+
+				node = node.getParentNode();
+				endElement(node.getNodeName());
+			}
+		}
+	}
+
+
+	private void startElement(Node aNode) throws IOException
+	{
+		String name = aNode.getNodeName();
+
+		if (mFirstTagNotEmitted)
+		{
+			if (mFirstElementName != null)
+			{
+				flushFirst();
+				handlerStartElement(null, name);
+			}
+			else
+			{
+				int colon = name.indexOf(':');
+				mFirstElementName = name;
+				mFirstElementPrefix = colon > 0 ? name.substring(0, colon) : "";
+				mFirstElementURI = null;
+			}
+		}
+		else
+		{
+			handlerStartElement(null, name);
+		}
+
+		NamedNodeMap map = aNode.getAttributes();
+		int length = map.getLength();
+
+		for (int i = 0; i < length; i++)
+		{
+			Node attr = map.item(i);
+			String qname = attr.getNodeName();
+
+			if (qname.startsWith("xmlns"))
+			{
+				int colon = qname.lastIndexOf(':');
+				namespaceAfterStartElement(colon > 0 ? qname.substring(colon + 1) : "", attr.getNodeValue());
+			}
+		}
+
+		int generated = 0;
+
+		for (int i = 0; i < length; i++)
+		{
+			Node attr = map.item(i);
+			String qname = attr.getNodeName();
+
+			if (!qname.startsWith("xmlns"))
+			{
+				String uri = attr.getNamespaceURI();
+
+				if (uri != null && !uri.isEmpty())
+				{
+					int colon = qname.lastIndexOf(':');
+					String prefix = colon > 0 ? qname.substring(0, colon) : XMLConstants.XML_NS_URI.equals(uri) ? XMLConstants.XML_NS_PREFIX : "ns" + generated++;
+					namespaceAfterStartElement(prefix, uri);
+					addAttribute(prefix + ":" + qname, attr.getNodeValue());
+				}
+				else
+				{
+					addAttribute(qname, attr.getNodeValue());
+				}
+			}
+		}
+
+		String uri = aNode.getNamespaceURI();
+
+		if (uri != null)
+		{
+			int colon = name.lastIndexOf(':');
+			namespaceAfterStartElement(colon > 0 ? name.substring(0, colon) : "", uri);
+		}
+		else if (aNode.getLocalName() != null)
+		{
+			namespaceAfterStartElement("", "");
+		}
+	}
+
+
+	private void namespaceAfterStartElement(String aPrefix, String aURI) throws IOException
+	{
+		if (mFirstTagNotEmitted)
+		{
+			if (mFirstElementURI == null && mFirstElementName.indexOf(':') == -1 && aPrefix.isEmpty())
+			{
+				mFirstElementURI = aURI;
+			}
+
+			if (mFirstCount == mFirstPrefixes.length)
+			{
+				mFirstPrefixes = grow(mFirstPrefixes);
+				mFirstURIs = grow(mFirstURIs);
+			}
+			mFirstPrefixes[mFirstCount] = aPrefix;
+			mFirstURIs[mFirstCount] = aURI;
+			mFirstCount++;
+
+			if (mFirstElementURI == null && aPrefix.equals(mFirstElementPrefix))
+			{
+				mFirstElementURI = aURI;
+			}
+		}
+		else
+		{
+			startPrefixMapping(aPrefix, aURI, false);
+		}
+	}
+
+
+	private void addAttribute(String aName, String aValue) throws IOException
+	{
+		if (mFirstTagNotEmitted)
+		{
+			flushFirst();
+		}
+
+		if (mStartTagOpen)
+		{
+			addAttributeAlways(patchName(aName), aValue);
+		}
+	}
+
+
+	/**
+	 * Emit the first element, deferred until its namespace is known, and the XML declaration.
+	 */
+	private void flushFirst() throws IOException
+	{
+		if (mFirstElementName != null)
+		{
+			if (mNeedStartDocumentFirst)
+			{
+				startDocument();
+				mNeedStartDocumentFirst = false;
+			}
+
+			handlerStartElement(mFirstElementURI, mFirstElementName);
+
+			for (int i = 0; i < mFirstCount; i++)
+			{
+				startPrefixMapping(mFirstPrefixes[i], mFirstURIs[i], false);
+			}
+
+			mFirstPrefixes = null;
+			mFirstURIs = null;
+			mFirstTagNotEmitted = false;
+		}
+
+		if (mNeedStartDocumentFirst)
+		{
+			startDocument();
+			mNeedStartDocumentFirst = false;
+		}
+	}
+
+
+	private void startDocument() throws IOException
+	{
+		if (!mNeedStartDocument)
+		{
+			return;
+		}
+
+		mNeedStartDocument = false;
+		mStartNewLine = false;
+
+		if (!mOmitDeclaration)
+		{
+			write("<?xml version=\"1.0\" encoding=\"");
+			write(mEncoding);
+			write("\"");
+			if (mStandaloneSpecified)
+			{
+				write(" standalone=\"no\"");
+			}
+			write("?>");
+
+			if (mIndent && mStandaloneSpecified)
+			{
+				write(LINE_SEPARATOR);
+			}
+		}
+	}
+
+
+	private void handlerStartElement(String aURI, String aName) throws IOException
+	{
+		if (mIndent)
+		{
+			mChildNodeNum++;
+			flushCharactersBuffer(false);
+		}
+
+		if (mNeedStartDocument)
+		{
+			startDocument();
+		}
+
+		closeStartTag();
+
+		if (aURI != null && !aURI.isEmpty())
+		{
+			int index = aName.indexOf(':');
+			String prefix = index < 0 ? "" : aName.substring(0, index);
+			String found = lookupNamespace(prefix);
+
+			if (found == null || !found.equals(aURI))
+			{
+				startPrefixMapping(prefix, aURI, true);
+				addAttributeAlways(index < 0 ? "xmlns" : "xmlns:" + prefix, aURI);
+			}
+		}
+
+		if (shouldIndent() && mStartNewLine)
+		{
+			indent(mDepth);
+		}
+
+		mStartNewLine = true;
+
+		write('<');
+		write(aName);
+
+		if (mDepth + 1 == mChildNodeNums.length)
+		{
+			mChildNodeNums = grow(mChildNodeNums);
+			mPreserveSpaces = grow(mPreserveSpaces);
+		}
+
+		if (mIndent)
+		{
+			mPreserveSpace = mDepth > 0 && mPreserveSpaces[mDepth];
+			mPreserveSpaces[mDepth + 1] = mPreserveSpace;
+			mChildNodeNums[mDepth + 1] = mChildNodeNum;
+			mChildNodeNum = 0;
+		}
+
+		mDepth++;
+		mStartTagOpen = true;
+		mPrevText = false;
+	}
+
+
+	private void endElement(String aName) throws IOException
+	{
+		if (mFirstTagNotEmitted)
+		{
+			flushFirst();
+		}
+
+		if (mIndent)
+		{
+			flushCharactersBuffer(false);
+		}
+
+		while (mNamespaceCount > 2 && mDeclarationDepths[mNamespaceCount - 1] >= mDepth)
+		{
+			mNamespaceCount--;
+		}
+
+		if (mStartTagOpen)
+		{
+			writeAttributes();
+			write("/>");
+			mStartTagOpen = false;
+		}
+		else
+		{
+			if (mCDATAOpen)
+			{
+				closeCDATA();
+			}
+
+			if (shouldIndent() && (mChildNodeNum > 1 || !mPrevText))
+			{
+				indent(mDepth - 1);
+			}
+			write("</");
+			write(aName);
+			write('>');
+		}
+
+		if (mIndent)
+		{
+			mPreserveSpace = mDepth > 1 && mPreserveSpaces[mDepth - 1];
+			mChildNodeNum = mChildNodeNums[mDepth];
+			mPrevText = false;
+		}
+
+		mDepth--;
+	}
+
+
+	private void characters(String aText) throws IOException
+	{
+		if (mFirstTagNotEmitted)
+		{
+			flushFirst();
+		}
+
+		if (aText.isEmpty())
+		{
+			return;
+		}
+
+		if (mStartTagOpen)
+		{
+			closeStartTag();
+		}
+		else if (mNeedStartDocument)
+		{
+			startDocument();
+		}
+
+		if (mCDATAStarted)
+		{
+			cdata(aText);
+			return;
+		}
+
+		if (mCDATAOpen)
+		{
+			closeCDATA();
+		}
+
+		if (!shouldFormatOutput())
+		{
+			if (mNonEscaping > 0)
+			{
+				write(aText);
+			}
+			else
+			{
+				writeText(aText, 0);
+			}
+			mPrevText = true;
+		}
+		else
+		{
+			if (mPendingCount == mPendingText.length)
+			{
+				mPendingText = grow(mPendingText);
+				mPendingRaw = grow(mPendingRaw);
+			}
+			mPendingText[mPendingCount] = aText;
+			mPendingRaw[mPendingCount] = mNonEscaping > 0;
+			mPendingCount++;
+		}
+	}
+
+
+	private void startCDATA() throws IOException
+	{
+		if (mIndent)
+		{
+			flushCharactersBuffer(true);
+		}
+
+		mCDATAStarted = true;
+	}
+
+
+	private void endCDATA() throws IOException
+	{
+		if (mCDATAOpen)
+		{
+			closeCDATA();
+		}
+
+		mCDATAStarted = false;
+	}
+
+
+	private void cdata(String aText) throws IOException
+	{
+		closeStartTag();
+
+		if (!mCDATAOpen && shouldIndentForText())
+		{
+			indent(mDepth);
+		}
+
+		int length = aText.length();
+		boolean brackets = escapingNotNeeded(aText.charAt(0));
+
+		if (brackets && !mCDATAOpen)
+		{
+			write("<![CDATA[");
+			mCDATAOpen = true;
+		}
+
+		if (mNonEscaping > 0)
+		{
+			write(aText);
+		}
+		else
+		{
+			for (int i = 0; i < length; i++)
+			{
+				char c = aText.charAt(i);
+
+				if (c == '\n')
+				{
+					write(LINE_SEPARATOR);
+				}
+				else if (!escapingNotNeeded(c))
+				{
+					if (Character.isSurrogate(c))
+					{
+						if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(aText.charAt(i + 1)))
+						{
+							write(c);
+							write(aText.charAt(++i));
+						}
+						else
+						{
+							throw invalidSurrogate(aText, i);
+						}
+					}
+					else
+					{
+						writeCharRef(c);
+					}
+				}
+				else if (c == ']' && i < length - 2 && aText.charAt(i + 1) == ']' && aText.charAt(i + 2) == '>')
+				{
+					write("]]]]><![CDATA[>");
+					i += 2;
+				}
+				else
+				{
+					if (!mCDATAOpen)
+					{
+						write("<![CDATA[");
+						mCDATAOpen = true;
+					}
+					write(c);
+				}
+			}
+		}
+
+		if (brackets && aText.charAt(length - 1) == ']')
+		{
+			closeCDATA();
+		}
+
+		mPrevText = true;
+	}
+
+
+	private void comment(String aText) throws IOException
+	{
+		if (mFirstTagNotEmitted)
+		{
+			if (mFirstElementName != null)
+			{
+				flushFirst();
+			}
+			else if (mNeedStartDocumentFirst)
+			{
+				startDocument();
+				mNeedStartDocumentFirst = false;
+			}
+		}
+
+		if (mIndent)
+		{
+			mChildNodeNum++;
+			flushCharactersBuffer(false);
+		}
+
+		if (mStartTagOpen)
+		{
+			closeStartTag();
+		}
+		else if (mNeedStartDocument)
+		{
+			startDocument();
+		}
+
+		if (mCDATAOpen)
+		{
+			closeCDATA();
+		}
+
+		if (shouldIndent())
+		{
+			indent(mDepth);
+		}
+
+		write("<!--");
+
+		int length = aText.length();
+		int start = 0;
+		boolean dash = false;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = aText.charAt(i);
+			if (dash && c == '-')
+			{
+				write(aText, start, i);
+				write(" -");
+				start = i + 1;
+			}
+			dash = c == '-';
+		}
+
+		if (length > 0)
+		{
+			write(aText, start, length);
+			if (aText.charAt(length - 1) == '-')
+			{
+				write(' ');
+			}
+		}
+
+		write("-->");
+
+		mStartNewLine = true;
+	}
+
+
+	private void processingInstruction(String aTarget, String aData) throws IOException
+	{
+		if (mFirstTagNotEmitted)
+		{
+			flushFirst();
+		}
+
+		if (mIndent)
+		{
+			mChildNodeNum++;
+			flushCharactersBuffer(false);
+		}
+
+		if (mNeedStartDocument)
+		{
+			startDocument();
+		}
+		closeStartTag();
+		if (mCDATAOpen)
+		{
+			closeCDATA();
+		}
+
+		if (aTarget.equals(Result.PI_DISABLE_OUTPUT_ESCAPING))
+		{
+			mNonEscaping++;
+			return;
+		}
+		if (aTarget.equals(Result.PI_ENABLE_OUTPUT_ESCAPING))
+		{
+			mNonEscaping--;
+			return;
+		}
+
+		if (shouldIndent())
+		{
+			indent(mDepth);
+		}
+
+		write("<?");
+		write(aTarget);
+
+		if (aData.length() > 0 && !Character.isSpaceChar(aData.charAt(0)))
+		{
+			write(' ');
+		}
+
+		int index = aData.indexOf("?>");
+
+		if (index >= 0)
+		{
+			write(aData, 0, index);
+			write("? >");
+			write(aData, index + 2, aData.length());
+		}
+		else
+		{
+			write(aData);
+		}
+
+		write("?>");
+
+		mStartNewLine = true;
+	}
+
+
+	private void endDocument() throws IOException
+	{
+		if (mIndent)
+		{
+			flushCharactersBuffer(false);
+		}
+
+		if (mNeedStartDocument)
+		{
+			startDocument();
+		}
+		closeStartTag();
+		if (mCDATAOpen)
+		{
+			closeCDATA();
+		}
+
+		if (mIndent && !mPrevText)
+		{
+			write(LINE_SEPARATOR);
+		}
+	}
+
+
+	/**
+	 * Write the text collected while indenting. Text is delayed until the next node is known since the indentation
+	 * depends on the number of siblings preceding it.
+	 */
+	private void flushCharactersBuffer(boolean aIsText) throws IOException
+	{
+		if (shouldFormatOutput() && mPendingCount > 0)
+		{
+			if (!aIsText)
+			{
+				mChildNodeNum++;
+			}
+
+			boolean skipNewlines = false;
+			if (shouldIndentForText())
+			{
+				indent(mDepth);
+				mStartNewLine = true;
+				skipNewlines = true;
+			}
+
+			for (int i = 0; i < mPendingCount; i++)
+			{
+				String text = mPendingText[i];
+				int start = 0;
+
+				if (skipNewlines)
+				{
+					while (start < text.length() && text.charAt(start) == '\n')
+					{
+						start++;
+					}
+					if (start == text.length())
+					{
+						continue;
+					}
+					skipNewlines = false;
+				}
+
+				if (mPendingRaw[i])
+				{
+					closeStartTag();
+					if (mCDATAOpen)
+					{
+						closeCDATA();
+					}
+					write(text, start, text.length());
+				}
+				else
+				{
+					writeText(text, start);
+				}
+				mPrevText = true;
+			}
+		}
+
+		for (int i = 0; i < mPendingCount; i++)
+		{
+			mPendingText[i] = null;
+		}
+		mPendingCount = 0;
+	}
+
+
+	private void startPrefixMapping(String aPrefix, String aURI, boolean aShouldFlush) throws IOException
+	{
+		int depth;
+
+		if (aShouldFlush)
+		{
+			if (mNeedStartDocument)
+			{
+				startDocument();
+			}
+			closeStartTag();
+			if (mCDATAOpen)
+			{
+				closeCDATA();
+			}
+			depth = mDepth + 1;
+		}
+		else
+		{
+			depth = mDepth;
+		}
+
+		if (pushNamespace(aPrefix, aURI, depth))
+		{
+			if (aPrefix.isEmpty())
+			{
+				addAttributeAlways("xmlns", aURI);
+			}
+			else if (!aURI.isEmpty())
+			{
+				addAttributeAlways("xmlns:" + aPrefix, aURI);
+			}
+		}
+	}
+
+
+	private boolean pushNamespace(String aPrefix, String aURI, int aDepth)
+	{
+		if (aPrefix.startsWith(XMLConstants.XML_NS_PREFIX))
+		{
+			return false;
+		}
+
+		String current = lookupNamespace(aPrefix);
+		if (current != null && aURI.equals(current))
+		{
+			return false;
+		}
+
+		if (mNamespaceCount == mPrefixes.length)
+		{
+			mPrefixes = grow(mPrefixes);
+			mURIs = grow(mURIs);
+			mDeclarationDepths = grow(mDeclarationDepths);
+		}
+
+		mPrefixes[mNamespaceCount] = aPrefix;
+		mURIs[mNamespaceCount] = aURI;
+		mDeclarationDepths[mNamespaceCount] = aDepth;
+		mNamespaceCount++;
+
+		return true;
+	}
+
+
+	private String lookupNamespace(String aPrefix)
+	{
+		for (int i = mNamespaceCount; --i >= 0;)
+		{
+			if (mPrefixes[i].equals(aPrefix))
+			{
+				return mURIs[i];
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Remove a duplicated prefix or a prefix bound to the empty namespace from an attribute name.
+	 */
+	private String patchName(String aName)
+	{
+		int lastColon = aName.lastIndexOf(':');
+
+		if (lastColon > 0)
+		{
+			int firstColon = aName.indexOf(':');
+			String prefix = aName.substring(0, firstColon);
+			String localName = aName.substring(lastColon + 1);
+			String uri = lookupNamespace(prefix);
+
+			if (uri != null && uri.isEmpty())
+			{
+				return localName;
+			}
+			if (firstColon != lastColon)
+			{
+				return prefix + ':' + localName;
+			}
+		}
+
+		return aName;
+	}
+
+
+	private void addAttributeAlways(String aName, String aValue)
+	{
+		if (mPendingCount > 0)
+		{
+			return;
+		}
+
+		int index = -1;
+		for (int i = 0; i < mAttributeCount; i++)
+		{
+			if (mAttributeNames[i].equals(aName))
+			{
+				index = i;
+				break;
+			}
+		}
+
+		if (index >= 0)
+		{
+			mAttributeValues[index] = aValue;
+		}
+		else
+		{
+			if (mAttributeCount == mAttributeNames.length)
+			{
+				mAttributeNames = grow(mAttributeNames);
+				mAttributeValues = grow(mAttributeValues);
+			}
+			mAttributeNames[mAttributeCount] = aName;
+			mAttributeValues[mAttributeCount] = aValue;
+			mAttributeCount++;
+		}
+
+		if (mIndent && aName.equals("xml:space"))
+		{
+			if (aValue.equals("preserve"))
+			{
+				mPreserveSpace = true;
+				if (mDepth > 0)
+				{
+					mPreserveSpaces[mDepth] = true;
+				}
+			}
+			else if (aValue.equals("default"))
+			{
+				mPreserveSpace = false;
+				if (mDepth > 0)
+				{
+					mPreserveSpaces[mDepth] = false;
+				}
+			}
+		}
+	}
+
+
+	private void closeStartTag() throws IOException
+	{
+		if (mStartTagOpen)
+		{
+			writeAttributes();
+			write('>');
+			mStartTagOpen = false;
+		}
+	}
+
+
+	private void writeAttributes() throws IOException
+	{
+		for (int i = 0; i < mAttributeCount; i++)
+		{
+			write(' ');
+			write(mAttributeNames[i]);
+			write("=\"");
+			writeAttributeValue(mAttributeValues[i]);
+			write('\"');
+
+			mAttributeNames[i] = null;
+			mAttributeValues[i] = null;
+		}
+
+		mAttributeCount = 0;
+	}
+
+
+	private void closeCDATA() throws IOException
+	{
+		write("]]>");
+		mCDATAOpen = false;
+	}
+
+
+	private boolean shouldFormatOutput()
+	{
+		return mIndent && !mPreserveSpace;
+	}
+
+
+	private boolean shouldIndent()
+	{
+		return shouldFormatOutput() && mDepth > 0;
+	}
+
+
+	private boolean shouldIndentForText()
+	{
+		return shouldIndent() && mChildNodeNum > 1;
+	}
+
+
+	private void indent(int aDepth) throws IOException
+	{
+		if (mStartNewLine)
+		{
+			write(LINE_SEPARATOR);
+		}
+
+		for (int i = aDepth * INDENT_AMOUNT; --i >= 0;)
+		{
+			write(' ');
+		}
+	}
+
+
+	private void writeText(String aText, int aOffset) throws IOException
+	{
+		int length = aText.length();
+		int start = aOffset;
+
+		for (int i = aOffset; i < length; i++)
+		{
+			char c = aText.charAt(i);
+			String replacement;
+
+			if (c >= 0x20 && c < 0x7F)
+			{
+				if (c == '&')
+				{
+					replacement = "&amp;";
+				}
+				else if (c == '<')
+				{
+					replacement = "&lt;";
+				}
+				else if (c == '>')
+				{
+					replacement = "&gt;";
+				}
+				else
+				{
+					continue;
+				}
+			}
+			else if (c == '\n')
+			{
+				replacement = LINE_SEPARATOR;
+			}
+			else if (c == '\t')
+			{
+				continue;
+			}
+			else if (c < 0x20 || c <= 0x9F)
+			{
+				replacement = null;
+			}
+			else if (Character.isHighSurrogate(c))
+			{
+				if (i + 1 == length || !Character.isLowSurrogate(aText.charAt(i + 1)))
+				{
+					throw invalidSurrogate(aText, i);
+				}
+				write(aText, start, i);
+				writeCharRef(aText.codePointAt(i));
+				start = ++i + 1;
+				continue;
+			}
+			else if (Character.isLowSurrogate(c))
+			{
+				replacement = null;
+			}
+			else
+			{
+				continue;
+			}
+
+			write(aText, start, i);
+			if (replacement != null)
+			{
+				write(replacement);
+			}
+			else
+			{
+				writeCharRef(c);
+			}
+			start = i + 1;
+		}
+
+		write(aText, start, length);
+	}
+
+
+	private void writeAttributeValue(String aValue) throws IOException
+	{
+		int length = aValue.length();
+		int start = 0;
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = aValue.charAt(i);
+			String replacement;
+
+			if (c >= 0x20 && c < 0xD800)
+			{
+				if (c == '&')
+				{
+					replacement = "&amp;";
+				}
+				else if (c == '<')
+				{
+					replacement = "&lt;";
+				}
+				else if (c == '>')
+				{
+					replacement = "&gt;";
+				}
+				else if (c == '\"')
+				{
+					replacement = "&quot;";
+				}
+				else
+				{
+					continue;
+				}
+			}
+			else if (c < 0x20)
+			{
+				replacement = null;
+			}
+			else if (Character.isHighSurrogate(c))
+			{
+				if (i + 1 == length || !Character.isLowSurrogate(aValue.charAt(i + 1)))
+				{
+					throw invalidSurrogate(aValue, i);
+				}
+				write(aValue, start, i);
+				writeCharRef(aValue.codePointAt(i));
+				start = ++i + 1;
+				continue;
+			}
+			else if (Character.isLowSurrogate(c))
+			{
+				replacement = null;
+			}
+			else
+			{
+				continue;
+			}
+
+			write(aValue, start, i);
+			if (replacement != null)
+			{
+				write(replacement);
+			}
+			else
+			{
+				writeCharRef(c);
+			}
+			start = i + 1;
+		}
+
+		write(aValue, start, length);
+	}
+
+
+	private void writeCharRef(int aCodePoint) throws IOException
+	{
+		if (mCDATAOpen)
+		{
+			closeCDATA();
+		}
+
+		write("&#");
+		write(Integer.toString(aCodePoint));
+		write(';');
+	}
+
+
+	/**
+	 * Return true if the character can be written as is to an UTF-8 stream, i.e. it's not a control character or a
+	 * surrogate.
+	 */
+	private static boolean escapingNotNeeded(char aChar)
+	{
+		if (aChar < 127)
+		{
+			return aChar >= 0x20 || aChar == '\n' || aChar == '\r' || aChar == '\t';
+		}
+
+		return !Character.isSurrogate(aChar);
+	}
+
+
+	private static IllegalStateException invalidSurrogate(String aText, int aIndex)
+	{
+		return new IllegalStateException("Invalid UTF-16 surrogate detected: " + Integer.toHexString(aText.charAt(aIndex)));
+	}
+
+
+	private void write(char aChar) throws IOException
+	{
+		if (mBufferOffset == mBuffer.length)
+		{
+			flushBuffer(false);
+		}
+		mBuffer[mBufferOffset++] = aChar;
+	}
+
+
+	private void write(String aText) throws IOException
+	{
+		write(aText, 0, aText.length());
+	}
+
+
+	private void write(String aText, int aStart, int aEnd) throws IOException
+	{
+		while (aStart < aEnd)
+		{
+			if (mBufferOffset == mBuffer.length)
+			{
+				flushBuffer(false);
+			}
+
+			int len = Math.min(aEnd - aStart, mBuffer.length - mBufferOffset);
+			aText.getChars(aStart, aStart + len, mBuffer, mBufferOffset);
+			mBufferOffset += len;
+			aStart += len;
+		}
+	}
+
+
+	/**
+	 * Pass the buffered characters to the writer or encode them to the stream. A trailing high surrogate is kept in the
+	 * buffer until its low surrogate is written unless this is the final flush.
+	 */
+	private void flushBuffer(boolean aFinal) throws IOException
+	{
+		if (mWriter != null)
+		{
+			mWriter.write(mBuffer, 0, mBufferOffset);
+			mWrittenCount += mBufferOffset;
+			mBufferOffset = 0;
+			return;
+		}
+
+		int end = mBufferOffset;
+		if (!aFinal && end > 0 && Character.isHighSurrogate(mBuffer[end - 1]))
+		{
+			end--;
+		}
+
+		byte[] bytes = mBytes;
+		int n = 0;
+
+		for (int i = 0; i < end; i++)
+		{
+			char c = mBuffer[i];
+
+			if (c < 0x80)
+			{
+				bytes[n++] = (byte)c;
+			}
+			else if (c < 0x800)
+			{
+				bytes[n++] = (byte)(0xC0 | (c >> 6));
+				bytes[n++] = (byte)(0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(mBuffer[i + 1]))
+			{
+				int cp = Character.toCodePoint(c, mBuffer[++i]);
+				bytes[n++] = (byte)(0xF0 | (cp >> 18));
+				bytes[n++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+				bytes[n++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+				bytes[n++] = (byte)(0x80 | (cp & 0x3F));
+			}
+			else if (mReplaceUnpairedSurrogates && Character.isSurrogate(c))
+			{
+				bytes[n++] = '?';
+			}
+			else
+			{
+				bytes[n++] = (byte)(0xE0 | (c >> 12));
+				bytes[n++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				bytes[n++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+
+		mOutput.write(bytes, 0, n);
+		mWrittenCount += n;
+
+		mBufferOffset -= end;
+		if (mBufferOffset > 0)
+		{
+			mBuffer[0] = mBuffer[end];
+		}
+	}
+
+
+	private static String[] grow(String[] aArray)
+	{
+		String[] tmp = new String[2 * aArray.length];
+		System.arraycopy(aArray, 0, tmp, 0, aArray.length);
+		return tmp;
+	}
+
+
+	private static int[] grow(int[] aArray)
+	{
+		int[] tmp = new int[2 * aArray.length];
+		System.arraycopy(aArray, 0, tmp, 0, aArray.length);
+		return tmp;
+	}
+
+
+	private static boolean[] grow(boolean[] aArray)
+	{
+		boolean[] tmp = new boolean[2 * aArray.length];
+		System.arraycopy(aArray, 0, tmp, 0, aArray.length);
+		return tmp;
+	}
+}
@@ -0,0 +1,230 @@
+package org.terifan.xml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import org.w3c.dom.Node;
+
+
+/**
+ * A thread safe LRU cache of compiled XSLT stylesheets.
+ *
+ * Stylesheets are cached by the identity of their document node. A stylesheet document modified after it has been used
+ * must be removed from the cache using the invalidate method.
+ */
+public class XmlTemplatesCache
+{
+	private final static XmlTemplatesCache DEFAULT = new XmlTemplatesCache(64);
+
+	private final LinkedHashMap<Node,CacheEntry> mEntries;
+	private final TransformerFactory mFactory;
+	private final int mMaximumSize;
+	private final AtomicLong mHits;
+	private final AtomicLong mMisses;
+	private final AtomicLong mCompiled;
+	private final AtomicLong mEvicted;
+
+
+	public XmlTemplatesCache(int aMaximumSize)
+	{
+		if (aMaximumSize < 1)
+		{
+			throw new IllegalArgumentException("Maximum size must be positive: " + aMaximumSize);
+		}
+
+		mMaximumSize = aMaximumSize;
+		mFactory = TransformerFactory.newInstance();
+		mHits = new AtomicLong();
+		mMisses = new AtomicLong();
+		mCompiled = new AtomicLong();
+		mEvicted = new AtomicLong();
+		mEntries = new LinkedHashMap<Node,CacheEntry>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Node,CacheEntry> aEldest)
+			{
+				if (size() > mMaximumSize)
+				{
+					mEvicted.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+
+	/**
+	 * Return the cache used by XmlDocument.transform.
+	 */
+	public static XmlTemplatesCache getDefault()
+	{
+		return DEFAULT;
+	}
+
+
+	/**
+	 * Return the compiled stylesheet, compiling it if not already cached. Concurrent requests for the same stylesheet share
+	 * a single compilation.
+	 */
+	public Templates getTemplates(XmlDocument aTemplate) throws TransformerConfigurationException
+	{
+		Node node = aTemplate.getInternalNode();
+		CacheEntry entry;
+
+		synchronized (mEntries)
+		{
+			entry = mEntries.get(node);
+
+			if (entry == null)
+			{
+				entry = new CacheEntry(node);
+				mEntries.put(node, entry);
+			}
+		}
+
+		return entry.get();
+	}
+
+
+	/**
+	 * Remove a stylesheet from the cache.
+	 */
+	public void invalidate(XmlDocument aTemplate)
+	{
+		synchronized (mEntries)
+		{
+			mEntries.remove(aTemplate.getInternalNode());
+		}
+	}
+
+
+	public void clear()
+	{
+		synchronized (mEntries)
+		{
+			mEntries.clear();
+		}
+	}
+
+
+	public int size()
+	{
+		synchronized (mEntries)
+		{
+			return mEntries.size();
+		}
+	}
+
+
+	public int getMaximumSize()
+	{
+		return mMaximumSize;
+	}
+
+
+	/**
+	 * Return number of requests served by an already compiled stylesheet.
+	 */
+	public long getHitCount()
+	{
+		return mHits.get();
+	}
+
+
+	/**
+	 * Return number of requests that required a stylesheet to be compiled.
+	 */
+	public long getMissCount()
+	{
+		return mMisses.get();
+	}
+
+
+	/**
+	 * Return number of stylesheets compiled by this cache.
+	 */
+	public long getCompileCount()
+	{
+		return mCompiled.get();
+	}
+
+
+	/**
+	 * Return number of stylesheets removed from the cache because the maximum size was exceeded.
+	 */
+	public long getEvictionCount()
+	{
+		return mEvicted.get();
+	}
+
+
+	/**
+	 * Return the ratio of requests served by an already compiled stylesheet.
+	 */
+	public double getHitRate()
+	{
+		long hits = mHits.get();
+		long total = hits + mMisses.get();
+		return total == 0 ? 0 : hits / (double)total;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "XmlTemplatesCache{size=" + size() + ", maximumSize=" + mMaximumSize + ", hits=" + mHits + ", misses=" + mMisses + ", compiled=" + mCompiled + ", evicted=" + mEvicted + "}";
+	}
+
+
+	private class CacheEntry
+	{
+		private final Node mNode;
+		private volatile Templates mTemplates;
+
+
+		CacheEntry(Node aNode)
+		{
+			mNode = aNode;
+		}
+
+
+		Templates get() throws TransformerConfigurationException
+		{
+			Templates templates = mTemplates;
+
+			if (templates != null)
+			{
+				mHits.incrementAndGet();
+				return templates;
+			}
+
+			synchronized (this)
+			{
+				if (mTemplates != null)
+				{
+					mHits.incrementAndGet();
+					return mTemplates;
+				}
+
+				mMisses.incrementAndGet();
+
+				synchronized (mFactory)
+				{
+					templates = mFactory.newTemplates(new DOMSource(mNode));
+				}
+
+				mCompiled.incrementAndGet();
+				mTemplates = templates;
+
+				return templates;
+			}
+		}
+	}
+}
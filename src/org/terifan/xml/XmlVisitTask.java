@@ -0,0 +1,333 @@
+package org.terifan.xml;
+
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BinaryOperator;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+
+/**
+ * Walks the descendants of a node calling an XmlNodeVisitor, used by XmlNode.visit and XmlNode.visitParallel. Parallel
+ * walks are made in compact documents only, their subtree sizes are known without walking them.
+ *
+ * The walk follows the first child, next sibling and parent pointers of the nodes and needs no stack. A sequential walk
+ * ends at the first value returned by a callback. A parallel walk combines the values with a reducer and splits the tree
+ * into tasks: the children of a node are divided into ranges of siblings with about the split size number of nodes
+ * each, and children at most the split depth below the root having at least the split size number of nodes are entered
+ * by a task of their own which in turn divides its children. Each task walks its range sequentially, results are
+ * combined in document order and leaving is called for a split node when all tasks of its children have completed.
+ */
+final class XmlVisitTask extends RecursiveTask<Object>
+{
+	private static final long serialVersionUID = 1L;
+
+	private final XmlNodeVisitor mVisitor;
+	private final BinaryOperator<Object> mReducer;
+	private final AtomicBoolean mStopped;
+	private final int mSplitDepth;
+	private final int mSplitSize;
+	private final Node mNode;
+	private final Node mFirst;
+	private final Node mEnd;
+	private final int mDepth;
+	private final boolean mEnter;
+	private final boolean mReusingNodes;
+	private XmlNode mHandle;
+	private Object mResult;
+
+
+	/**
+	 * Create a sequential walk of the descendants of the node.
+	 */
+	XmlVisitTask(XmlNodeVisitor aVisitor, Node aRoot)
+	{
+		this(aVisitor, null, null, 0, 0, aRoot, aRoot.getFirstChild(), null, 0, false);
+	}
+
+
+	/**
+	 * Create a parallel walk of the descendants of the node.
+	 */
+	XmlVisitTask(XmlNodeVisitor aVisitor, BinaryOperator<Object> aReducer, int aSplitDepth, int aSplitSize, Node aRoot)
+	{
+		this(aVisitor, aReducer, new AtomicBoolean(), aSplitDepth, aSplitSize, aRoot, null, null, 0, false);
+	}
+
+
+	private XmlVisitTask(XmlNodeVisitor aVisitor, BinaryOperator<Object> aReducer, AtomicBoolean aStopped, int aSplitDepth, int aSplitSize, Node aNode, Node aFirst, Node aEnd, int aDepth, boolean aEnter)
+	{
+		mVisitor = aVisitor;
+		mReducer = aReducer;
+		mStopped = aStopped;
+		mSplitDepth = aSplitDepth;
+		mSplitSize = aSplitSize;
+		mNode = aNode;
+		mFirst = aFirst;
+		mEnd = aEnd;
+		mDepth = aDepth;
+		mEnter = aEnter;
+		mReusingNodes = aVisitor.isReusingNodes();
+	}
+
+
+	/**
+	 * Run a sequential walk.
+	 *
+	 * @return
+	 *   the value ending the walk or null
+	 */
+	Object walk()
+	{
+		walk(mFirst, mEnd);
+		return mResult;
+	}
+
+
+	@Override
+	protected Object compute()
+	{
+		try
+		{
+			if (mFirst != null)
+			{
+				walk(mFirst, mEnd);
+			}
+			else
+			{
+				split();
+			}
+			return mResult;
+		}
+		catch (RuntimeException | Error e)
+		{
+			mStopped.set(true);
+			throw e;
+		}
+	}
+
+
+	/**
+	 * Enter the node, divide its children into tasks and leave the node when they have completed.
+	 */
+	private void split()
+	{
+		if (mEnter)
+		{
+			XmlNode current = handle(mNode);
+
+			if (!mVisitor.match(current) || enter(current, mNode) != null)
+			{
+				return;
+			}
+		}
+
+		ArrayList<XmlVisitTask> tasks = new ArrayList<>();
+		Node first = null;
+		int size = 0;
+
+		for (Node child = mNode.getFirstChild(); child != null && !mStopped.get(); child = child.getNextSibling())
+		{
+			int count = Math.min(((XmlCompactNode)child).subtreeSize(), mSplitSize);
+
+			if (count == mSplitSize && mDepth < mSplitDepth)
+			{
+				if (first != null)
+				{
+					tasks.add(fork(first, child, false));
+					first = null;
+					size = 0;
+				}
+				tasks.add(fork(child, null, true));
+			}
+			else
+			{
+				if (first == null)
+				{
+					first = child;
+				}
+				size += count;
+				if (size >= mSplitSize)
+				{
+					tasks.add(fork(first, child.getNextSibling(), false));
+					first = null;
+					size = 0;
+				}
+			}
+		}
+
+		if (first != null)
+		{
+			tasks.add(fork(first, null, false));
+		}
+
+		for (XmlVisitTask task : tasks)
+		{
+			reduce(task.join());
+		}
+
+		if (mEnter && !mStopped.get())
+		{
+			control(mVisitor.leaving(handle(mNode)));
+		}
+	}
+
+
+	private XmlVisitTask fork(Node aNode, Node aEnd, boolean aEnter)
+	{
+		XmlVisitTask task = aEnter
+			? new XmlVisitTask(mVisitor, mReducer, mStopped, mSplitDepth, mSplitSize, aNode, null, null, mDepth + 1, true)
+			: new XmlVisitTask(mVisitor, mReducer, mStopped, mSplitDepth, mSplitSize, mNode, aNode, aEnd, mDepth + 1, false);
+		task.fork();
+		return task;
+	}
+
+
+	/**
+	 * Walk the siblings from the first node up to but excluding the end node, and their descendants.
+	 */
+	private void walk(Node aFirst, Node aEnd)
+	{
+		Node node = aFirst;
+
+		while (node != null && node != aEnd)
+		{
+			if (mStopped != null && mStopped.get())
+			{
+				return;
+			}
+
+			XmlNode current = handle(node);
+			boolean entered = false;
+
+			if (mVisitor.match(current))
+			{
+				Object o = enter(current, node);
+
+				if (o == null)
+				{
+					entered = true;
+
+					Node child = node.getFirstChild();
+					if (child != null)
+					{
+						node = child;
+						continue;
+					}
+				}
+				else if (o == XmlNodeVisitor.Signal.STOP)
+				{
+					return;
+				}
+			}
+
+			for (;;)
+			{
+				Node sibling = node.getNextSibling();
+				Node parent = node.getParentNode();
+
+				if (entered && control(mVisitor.leaving(handle(node))) == XmlNodeVisitor.Signal.STOP)
+				{
+					return;
+				}
+
+				if (sibling != null || parent == mNode || parent == null)
+				{
+					node = sibling;
+					break;
+				}
+
+				node = parent;
+				entered = true;
+			}
+		}
+	}
+
+
+	/**
+	 * Call entering and attribute for the node.
+	 *
+	 * @return
+	 *   null to continue with the children of the node, SKIP_SUBTREE to skip them or STOP to end the walk
+	 */
+	private Object enter(XmlNode aCurrent, Node aNode)
+	{
+		Object o = control(mVisitor.entering(aCurrent));
+		if (o != null)
+		{
+			return o;
+		}
+
+		NamedNodeMap attributes = aNode.getAttributes();
+		if (attributes != null)
+		{
+			for (int i = 0, sz = attributes.getLength(); i < sz; i++)
+			{
+				Node attr = attributes.item(i);
+				o = control(mVisitor.attribute(aCurrent, attr.getNodeName(), attr.getNodeValue()));
+				if (o != null)
+				{
+					return o;
+				}
+			}
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Handle a value returned by a callback. Values end a sequential walk and are combined by a parallel walk.
+	 *
+	 * @return
+	 *   null to continue, SKIP_SUBTREE to skip the subtree or STOP to end the walk
+	 */
+	private Object control(Object aValue)
+	{
+		if (aValue == null || aValue == XmlNodeVisitor.Signal.SKIP_SUBTREE)
+		{
+			return aValue;
+		}
+
+		if (aValue != XmlNodeVisitor.Signal.STOP)
+		{
+			reduce(aValue);
+
+			if (mReducer != null)
+			{
+				return null;
+			}
+		}
+		else if (mStopped != null)
+		{
+			mStopped.set(true);
+		}
+
+		return XmlNodeVisitor.Signal.STOP;
+	}
+
+
+	private void reduce(Object aValue)
+	{
+		if (aValue != null)
+		{
+			mResult = mResult == null ? aValue : mReducer.apply(mResult, aValue);
+		}
+	}
+
+
+	private XmlNode handle(Node aNode)
+	{
+		if (!mReusingNodes)
+		{
+			return new XmlNode(aNode);
+		}
+		if (mHandle == null)
+		{
+			mHandle = new XmlNode(aNode);
+		}
+		mHandle.mNode = aNode;
+		return mHandle;
+	}
+}
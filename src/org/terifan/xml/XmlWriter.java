@@ -0,0 +1,495 @@
+package org.terifan.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.function.Consumer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+
+/**
+ * Forward-only writer producing a document directly to an OutputStream or Writer without building a DOM. Memory use is
+ * independent of the document size.
+ *
+ * The methods mirror the fluent style of XmlNode, nested elements are written by lambdas. The output is the same as
+ * writing a document built with the corresponding XmlNode methods using writeTo or toXmlString, except that attributes
+ * are written in the order they are set. Byte streams are encoded as UTF-8.
+ *
+ * e.g.
+ * <pre>
+ * try (XmlWriter writer = new XmlWriter(new FileOutputStream("export.xml")))
+ * {
+ *     writer.appendElement("customers", customers -&gt;
+ *     {
+ *         for (Customer c : list)
+ *         {
+ *             customers.appendElement("customer", customer -&gt; customer
+ *                 .setAttribute("id", c.getId())
+ *                 .appendTextNode("name", c.getName()));
+ *         }
+ *     });
+ * }
+ * </pre>
+ *
+ * Attributes must be set before any content of the element is written. Failures writing to the output are thrown as
+ * XmlExceptions.
+ */
+public class XmlWriter implements Closeable
+{
+	private final XmlSerializer mSerializer;
+	private final Closeable mOutput;
+	private String[] mNames;
+	private int mDepth;
+	private boolean mStartTagOpen;
+	private boolean mRootWritten;
+	private boolean mClosed;
+
+
+	/**
+	 * Create a writer without indentation including the XML declaration.
+	 */
+	public XmlWriter(OutputStream aOutput)
+	{
+		this(aOutput, false, false);
+	}
+
+
+	public XmlWriter(OutputStream aOutput, boolean aIndent, boolean aOmitDeclaration)
+	{
+		this(new XmlSerializer(aOutput, aIndent, aOmitDeclaration), aOutput);
+	}
+
+
+	/**
+	 * Create a writer without indentation including the XML declaration.
+	 */
+	public XmlWriter(Writer aWriter)
+	{
+		this(aWriter, false, false);
+	}
+
+
+	public XmlWriter(Writer aWriter, boolean aIndent, boolean aOmitDeclaration)
+	{
+		this(new XmlSerializer(aWriter, aIndent, aOmitDeclaration), aWriter);
+	}
+
+
+	private XmlWriter(XmlSerializer aSerializer, Closeable aOutput)
+	{
+		mSerializer = aSerializer;
+		mOutput = aOutput;
+		mNames = new String[16];
+
+		mSerializer.startStream();
+	}
+
+
+	/**
+	 * Write an element with the content written by the consumer.
+	 *
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendElement(String aName, Consumer<XmlWriter> aContent)
+	{
+		startElement(aName);
+		aContent.accept(this);
+		return endElement();
+	}
+
+
+	/**
+	 * Write an empty element.
+	 *
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendElement(String aName)
+	{
+		startElement(aName);
+		return endElement();
+	}
+
+
+	/**
+	 * Start an element, content written until the matching endElement call is added to the element.
+	 *
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter startElement(String aName)
+	{
+		assertName(aName);
+		assertOpen();
+
+		if (mDepth == 0)
+		{
+			if (mRootWritten)
+			{
+				throw new IllegalStateException("A document can only have one root element: " + aName);
+			}
+			mRootWritten = true;
+		}
+
+		if (mDepth == mNames.length)
+		{
+			String[] tmp = new String[2 * mDepth];
+			System.arraycopy(mNames, 0, tmp, 0, mDepth);
+			mNames = tmp;
+		}
+
+		try
+		{
+			mSerializer.streamStartElement(aName);
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+
+		mNames[mDepth++] = aName;
+		mStartTagOpen = true;
+
+		return this;
+	}
+
+
+	/**
+	 * End the element most recently started.
+	 *
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter endElement()
+	{
+		assertOpen();
+
+		if (mDepth == 0)
+		{
+			throw new IllegalStateException("No element has been started.");
+		}
+
+		String name = mNames[--mDepth];
+		mNames[mDepth] = null;
+		mStartTagOpen = false;
+
+		try
+		{
+			mSerializer.streamEndElement(name);
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * Set an attribute of the element most recently started.
+	 *
+	 * @param aValue
+	 *   the value, converted using toString, if null then nothing happens
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter setAttribute(String aName, Object aValue)
+	{
+		assertName(aName);
+		assertOpen();
+
+		if (!mStartTagOpen)
+		{
+			throw new IllegalStateException("Attributes must be set before the content of an element: " + aName);
+		}
+
+		if (aValue != null)
+		{
+			try
+			{
+				mSerializer.streamAttribute(aName, aValue.toString());
+			}
+			catch (IOException e)
+			{
+				throw new XmlException(e);
+			}
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * Write text to the current element.
+	 *
+	 * @param aText
+	 *   the text, converted using toString, if null then nothing happens
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendText(Object aText)
+	{
+		if (aText != null)
+		{
+			assertContent();
+
+			try
+			{
+				mSerializer.streamCharacters(aText.toString());
+			}
+			catch (IOException e)
+			{
+				throw new XmlException(e);
+			}
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * Write an element containing text, the same as XmlNode.appendTextNode.
+	 *
+	 * @param aText
+	 *   the text, converted using toString, if null then nothing happens
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendTextNode(String aName, Object aText)
+	{
+		if (aText != null)
+		{
+			startElement(aName);
+			appendText(aText);
+			endElement();
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * Write a CDATA section to the current element.
+	 *
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendCDATA(String aText)
+	{
+		assertContent();
+
+		try
+		{
+			mSerializer.streamCDATA(aText);
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendComment(String aText)
+	{
+		assertOpen();
+		mStartTagOpen = false;
+
+		try
+		{
+			mSerializer.streamComment(aText);
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendProcessingInstruction(String aTarget, String aData)
+	{
+		assertName(aTarget);
+		assertOpen();
+		mStartTagOpen = false;
+
+		try
+		{
+			mSerializer.streamProcessingInstruction(aTarget, aData);
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * Write a copy of an existing node and its subtree at the current position. The children of a document are written
+	 * when a document is provided.
+	 *
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendChild(XmlNode aNode)
+	{
+		assertOpen();
+
+		Node node = aNode.getInternalNode();
+
+		if (mDepth == 0 && (node.getNodeType() == Node.ELEMENT_NODE || node.getNodeType() == Node.DOCUMENT_NODE && ((Document)node).getDocumentElement() != null))
+		{
+			if (mRootWritten)
+			{
+				throw new IllegalStateException("A document can only have one root element.");
+			}
+			mRootWritten = true;
+		}
+
+		mStartTagOpen = false;
+
+		try
+		{
+			mSerializer.streamNode(node);
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+
+		return this;
+	}
+
+
+	/**
+	 * Write the XmlProperty annotated properties of the object to the current element, see XmlBinder. A temporary
+	 * element is built for each object.
+	 *
+	 * @return
+	 *   this XmlWriter
+	 */
+	public XmlWriter appendProperties(String aName, Object aEntity)
+	{
+		XmlElement element = new XmlDocument().appendElement(aName);
+		XmlBinder.write(aEntity, element);
+		return appendChild(element);
+	}
+
+
+	/**
+	 * Return the number of elements started but not ended.
+	 */
+	public int getDepth()
+	{
+		return mDepth;
+	}
+
+
+	/**
+	 * Pass the output written so far to the underlying stream or writer and flush it.
+	 */
+	public void flush()
+	{
+		assertOpen();
+
+		try
+		{
+			mSerializer.streamFlush();
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+	}
+
+
+	/**
+	 * End all elements still open, flush and close the underlying stream or writer.
+	 */
+	@Override
+	public void close()
+	{
+		if (mClosed)
+		{
+			return;
+		}
+
+		try
+		{
+			try
+			{
+				while (mDepth > 0)
+				{
+					endElement();
+				}
+
+				mSerializer.endStream();
+			}
+			finally
+			{
+				mClosed = true;
+				mOutput.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new XmlException(e);
+		}
+	}
+
+
+	private void assertOpen()
+	{
+		if (mClosed)
+		{
+			throw new IllegalStateException("The writer is closed.");
+		}
+	}
+
+
+	private void assertContent()
+	{
+		assertOpen();
+
+		if (mDepth == 0)
+		{
+			throw new IllegalStateException("Text must be written inside an element.");
+		}
+
+		mStartTagOpen = false;
+	}
+
+
+	private static void assertName(String aName)
+	{
+		if (aName == null || aName.isEmpty())
+		{
+			throw new IllegalArgumentException("Name is null or empty.");
+		}
+
+		for (int i = 0, sz = aName.length(); i < sz; i++)
+		{
+			char c = aName.charAt(i);
+			if (c <= ' ' || c == '<' || c == '>' || c == '&' || c == '"' || c == '\'' || c == '/' || c == '=' || c == '?' || c == '!')
+			{
+				throw new IllegalArgumentException("Illegal name: " + aName);
+			}
+		}
+	}
+}
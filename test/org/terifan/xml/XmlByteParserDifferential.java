@@ -0,0 +1,338 @@
+package org.terifan.xml;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+
+/**
+ * Differential test of the native parser against the JAXP parser.
+ *
+ * Every input is parsed by both parsers, namespace aware and not and into a compact document, and both must either
+ * reject it or produce the same tree. Inputs are a list of well-formed and malformed documents and random mutations of
+ * seed documents. Exits with a non-zero status when a difference is found.
+ *
+ * Usage: XmlByteParserDifferential [iterations] [seed]
+ */
+public class XmlByteParserDifferential
+{
+	private final static String[] CASES =
+	{
+		// well-formed
+		"<a/>",
+		"<?xml version='1.0'?><a/>",
+		"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n<a b='1' c=\"2\">x<!--c--><?p d?><![CDATA[<&]]></a>\n<!--e-->",
+		"<a>&lt;&gt;&amp;&quot;&apos;&#65;&#x42;&#x10FFFF;&#9;&#xD;&#xa;</a>",
+		"<a b='&#9;&#10;&#13; x\ty\r\nz'/>",
+		"<a>]]</a>",
+		"<a>] ]> ]]</a>",
+		"<a b=']]>'/>",
+		"<a>\r\n\r\r</a>",
+		"<p:a xmlns:p='urn:p' xmlns='urn:d'><b p:c='1' xml:lang='en'/></p:a>",
+		"<a xmlns:p='urn:p'><b xmlns:p='urn:q'/><p:c/></a>",
+		"<a xmlns='urn:a'><b xmlns=''/></a>",
+		"<a xmlns:xml='http://www.w3.org/XML/1998/namespace'/>",
+		"<åäö é='ü'>€😀</åäö>",
+		"<a>\u0085 �</a>",
+		"<?xml version='1.0' encoding='latin1'?><a/>",
+
+		// malformed
+		"",
+		"<a>",
+		"<a></b>",
+		"<a/><b/>",
+		"x<a/>",
+		"<a/>x",
+		"<a>]]></a>",
+		"<a>x]]>y</a>",
+		"<a>\u0001</a>",
+		"<a b='\u0001'/>",
+		"<a><!--\u0008--></a>",
+		"<a><![CDATA[\u001f]]></a>",
+		"<a><?p \u0000?></a>",
+		"<a>￾</a>",
+		"<a>￿</a>",
+		"<a>&#0;</a>",
+		"<a>&#x0;</a>",
+		"<a>&#1;</a>",
+		"<a>&#x1F;</a>",
+		"<a>&#xD800;</a>",
+		"<a>&#xDFFF;</a>",
+		"<a>&#xFFFE;</a>",
+		"<a>&#x110000;</a>",
+		"<a>&#99999999999;</a>",
+		"<a>&#xFFFFFFFFF;</a>",
+		"<a>&#;</a>",
+		"<a>&#x;</a>",
+		"<a>&#X41;</a>",
+		"<a>&#-1;</a>",
+		"<a b='&#0;'/>",
+		"<a>&foo;</a>",
+		"<a>&amp</a>",
+		"<a xmlns:p=''/>",
+		"<a xmlns:p=\"\"><p:b/></a>",
+		"<a xmlns:xml='urn:x'/>",
+		"<a xmlns:p='http://www.w3.org/XML/1998/namespace'/>",
+		"<a xmlns:xmlns='urn:x'/>",
+		"<a xmlns:p='http://www.w3.org/2000/xmlns/'/>",
+		"<a xmlns='http://www.w3.org/XML/1998/namespace'/>",
+		"<a xmlns='http://www.w3.org/2000/xmlns/'/>",
+		"<p:a/>",
+		"<a p:b='1'/>",
+		"<a b='1' b='2'/>",
+		"<a b=1/>",
+		"<a b/>",
+		"<a b='1'c='2'/>",
+		"<a b='<'/>",
+		"<1a/>",
+		"<a><!-- -- --></a>",
+		"<a><!-- ---></a>",
+		"<a><?xml x?></a>",
+		"<?xml version='1.0'?><?xml version='1.0'?><a/>",
+		" <?xml version='1.0'?><a/>",
+		"<?xml encoding='UTF-8'?><a/>",
+		"<?xml version='1.0' standalone='yes' encoding='UTF-8'?><a/>",
+		"<?xml version='1.0' standalone='maybe'?><a/>",
+		"<a><![CDATA[x</a>",
+		"<?xml version='1.1'?><a/>",
+		"<?xml version='2.0'?><a/>",
+		"<?xml version='1.x'?><a/>",
+		"<?xml version='1.0' encoding='UTF-8' encoding='UTF-8'?><a/>",
+		"<?xml version='1.0'standalone='no'?><a/>",
+		"<a>&#x41</a>",
+		"<:a xmlns='urn:d' :b='1'/>",
+		"<p:a xmlns:p='u' p:-b='1'/>",
+		"<p:a: xmlns:p='u'/>",
+		"<p:a:b xmlns:p='u'/>",
+		"<p:\u00b7a xmlns:p='u'/>",
+		"<a xmlns:='u'/>",
+		"<a xmlns:1='u'/>",
+		"<a\u00d7/>",
+		"<\u00b7a/>",
+		"<a\u00b7\u0300/>",
+		"<a xmlns:p='u' xmlns:q='u' p:b='1' q:b='2'/>",
+	};
+
+	private final static String[] SEEDS =
+	{
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<p:r xmlns:p=\"urn:p\" xmlns=\"urn:d\" a=\"1\">\n\t<e b='x&amp;y'>t&#65;x]t</e>\n\t<!-- c -->\n\t<![CDATA[d]]>\n\t<?pi data?>\n\t<p:f p:g=\"2\"/>\n</p:r>\n",
+		"<a><b c='d'>e&lt;f</b><g/>h\r\ni</a>",
+	};
+
+	private final static byte[] MUTATIONS = "<>/=&;#x'\"![]-?: \t\r\nabpx0123456789\u0000\u0001\u001f".getBytes(StandardCharsets.ISO_8859_1);
+
+
+	public static void main(String... aArgs) throws Exception
+	{
+		int iterations = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 20000;
+		long seed = aArgs.length > 1 ? Long.parseLong(aArgs[1]) : 1;
+
+		XmlParserPool[] nativePools = {pool(true, true, false), pool(true, false, false), pool(true, true, true)};
+		XmlParserPool[] jaxpPools = {pool(false, true, false), pool(false, false, false), pool(false, true, false)};
+
+		ArrayList<byte[]> inputs = new ArrayList<>();
+
+		for (String s : CASES)
+		{
+			inputs.add(s.getBytes(StandardCharsets.UTF_8));
+		}
+
+		inputs.add("<?xml version='1.0' encoding='US-ASCII'?><a>å</a>".getBytes(StandardCharsets.ISO_8859_1));
+		inputs.add("<?xml version='1.0' encoding='US-ASCII'?><a b='å'/>".getBytes(StandardCharsets.ISO_8859_1));
+		inputs.add("<?xml version='1.0' encoding='US-ASCII'?><a>å</a>".getBytes(StandardCharsets.UTF_8));
+		inputs.add("<?xml version='1.0' encoding='ISO-8859-1'?><a>å\u0085</a>".getBytes(StandardCharsets.ISO_8859_1));
+		inputs.add("<?xml version='1.0' encoding='iso-8859-1'?><a b='é'>åäö</a>".getBytes(StandardCharsets.ISO_8859_1));
+		inputs.add("<?xml version='1.0' encoding='US-ASCII' standalone='no'?><a>x</a>".getBytes(StandardCharsets.ISO_8859_1));
+		inputs.add(new byte[]{'<', 'a', '>', (byte)0xC3, '<', '/', 'a', '>'});
+		inputs.add(new byte[]{'<', 'a', '>', (byte)0xC0, (byte)0x80, '<', '/', 'a', '>'});
+		inputs.add(new byte[]{'<', 'a', '>', (byte)0xED, (byte)0xA0, (byte)0x80, '<', '/', 'a', '>'});
+		inputs.add(new byte[]{'<', 'a', '>', (byte)0xF4, (byte)0x90, (byte)0x80, (byte)0x80, '<', '/', 'a', '>'});
+		inputs.add(new byte[]{'<', 'a', '>', (byte)0xFF, '<', '/', 'a', '>'});
+
+		Random rnd = new Random(seed);
+
+		for (int i = 0; i < iterations; i++)
+		{
+			inputs.add(mutate(SEEDS[rnd.nextInt(SEEDS.length)].getBytes(StandardCharsets.UTF_8), rnd));
+		}
+
+		int failures = 0;
+
+		// JAXP reports fatal errors on System.err before throwing
+		PrintStream err = System.err;
+		System.setErr(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int aByte)
+			{
+			}
+		}));
+
+		try
+		{
+			for (byte[] input : inputs)
+			{
+				for (int j = 0; j < nativePools.length; j++)
+				{
+					String expected = parse(input, jaxpPools[j]);
+					String actual = parse(input, nativePools[j]);
+
+					if (!expected.equals(actual) && ++failures <= 50)
+					{
+						System.out.println("Difference, " + nativePools[j].config() + ": " + escape(new String(input, StandardCharsets.ISO_8859_1)));
+						System.out.println("  jaxp:   " + escape(expected));
+						System.out.println("  native: " + escape(actual));
+					}
+				}
+			}
+		}
+		finally
+		{
+			System.setErr(err);
+		}
+
+		System.out.println(inputs.size() + " inputs, " + failures + " differences");
+
+		if (failures > 0)
+		{
+			System.exit(1);
+		}
+	}
+
+
+	private static XmlParserPool pool(boolean aNative, boolean aNamespaceAware, boolean aCompact)
+	{
+		return new XmlParserPool(new XmlParserConfig().setNativeParser(aNative).setNamespaceAware(aNamespaceAware).setCompact(aCompact).setPoolSize(1));
+	}
+
+
+	/**
+	 * Return a canonical dump of the document or "error" if it was rejected. The dump includes the declared encoding
+	 * unless it is UTF-8, which DOM documents built by the native parser don't keep.
+	 */
+	private static String parse(byte[] aInput, XmlParserPool aPool)
+	{
+		try
+		{
+			StringBuilder sb = new StringBuilder();
+			Document doc = XmlDocument.parse(aInput, aPool);
+			String encoding = doc.getXmlEncoding();
+			if (encoding != null && !"UTF-8".equalsIgnoreCase(encoding))
+			{
+				sb.append("encoding=").append(encoding).append(' ');
+			}
+			dump(doc, sb);
+			return sb.toString();
+		}
+		catch (XmlException e)
+		{
+			return "error";
+		}
+	}
+
+
+	private static void dump(Node aNode, StringBuilder aOutput)
+	{
+		for (Node node = aNode.getFirstChild(); node != null; node = node.getNextSibling())
+		{
+			switch (node.getNodeType())
+			{
+				case Node.ELEMENT_NODE:
+					aOutput.append('<').append(node.getNodeName()).append('{').append(node.getNamespaceURI()).append('}');
+					TreeMap<String,String> attributes = new TreeMap<>();
+					NamedNodeMap map = node.getAttributes();
+					for (int i = 0; i < map.getLength(); i++)
+					{
+						Node attr = map.item(i);
+						attributes.put(attr.getNodeName(), "{" + attr.getNamespaceURI() + "}" + attr.getNodeValue());
+					}
+					aOutput.append(attributes).append('>');
+					dump(node, aOutput);
+					aOutput.append("</>");
+					break;
+				case Node.TEXT_NODE:
+					aOutput.append("T[").append(node.getNodeValue()).append(']');
+					break;
+				case Node.CDATA_SECTION_NODE:
+					aOutput.append("C[").append(node.getNodeValue()).append(']');
+					break;
+				case Node.COMMENT_NODE:
+					aOutput.append("!-[").append(node.getNodeValue()).append(']');
+					break;
+				case Node.PROCESSING_INSTRUCTION_NODE:
+					aOutput.append("?[").append(node.getNodeName()).append(' ').append(node.getNodeValue()).append(']');
+					break;
+				default:
+					aOutput.append("#").append(node.getNodeType());
+					break;
+			}
+		}
+	}
+
+
+	private static byte[] mutate(byte[] aInput, Random aRandom)
+	{
+		byte[] buf = aInput;
+
+		for (int n = 1 + aRandom.nextInt(3); --n >= 0;)
+		{
+			int pos = aRandom.nextInt(buf.length);
+
+			switch (aRandom.nextInt(4))
+			{
+				case 0:
+					buf[pos] = MUTATIONS[aRandom.nextInt(MUTATIONS.length)];
+					break;
+				case 1:
+					byte[] tmp = new byte[buf.length + 1];
+					System.arraycopy(buf, 0, tmp, 0, pos);
+					tmp[pos] = MUTATIONS[aRandom.nextInt(MUTATIONS.length)];
+					System.arraycopy(buf, pos, tmp, pos + 1, buf.length - pos);
+					buf = tmp;
+					break;
+				case 2:
+					if (buf.length > 1)
+					{
+						byte[] tmp2 = new byte[buf.length - 1];
+						System.arraycopy(buf, 0, tmp2, 0, pos);
+						System.arraycopy(buf, pos + 1, tmp2, pos, buf.length - pos - 1);
+						buf = tmp2;
+					}
+					break;
+				default:
+					int len = Math.min(1 + aRandom.nextInt(8), buf.length - pos);
+					byte[] tmp3 = Arrays.copyOf(buf, buf.length + len);
+					System.arraycopy(buf, pos, tmp3, pos + len, buf.length - pos);
+					buf = tmp3;
+					break;
+			}
+		}
+
+		return buf;
+	}
+
+
+	private static String escape(String aText)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (char c : aText.toCharArray())
+		{
+			if (c < 0x20 || c > 0x7e)
+			{
+				sb.append(String.format("\\u%04x", (int)c));
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,412 @@
+package org.terifan.xml;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+
+/**
+ * Differential test of the literal path lookups of XmlNode against a reference implementation.
+ *
+ * The reference is the plain DOM walk XmlNode used before paths were compiled into XmlPath instances. Random documents,
+ * namespace aware and not, are searched from random nodes with random paths using the String and XmlPath overloads of
+ * getNode, getList, getText and getTextArray, with and without the path index, and every result must be the same nodes
+ * or the same exception as the reference. Exits with a non-zero status when a difference is found.
+ *
+ * Usage: XmlPathDifferential [documents] [seed]
+ */
+public class XmlPathDifferential
+{
+	private final static String[] NAMES = {"a", "b", "c", "p:a", "q:b"};
+	private final static String[] STEPS = {"a", "b", "c", "d", "p:a", "q:b", "#text", "#comment"};
+	private final static int PATHS = 10;
+
+
+	public static void main(String... aArgs) throws Exception
+	{
+		int documents = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 20000;
+		long seed = aArgs.length > 1 ? Long.parseLong(aArgs[1]) : 1;
+
+		Random rnd = new Random(seed);
+		int lookups = 0;
+		int failures = 0;
+
+		for (int i = 0; i < documents; i++)
+		{
+			String xml = document(rnd);
+			XmlDocument doc = new XmlDocument(xml, rnd.nextBoolean());
+
+			ArrayList<Node> contexts = new ArrayList<>();
+			IdentityHashMap<Node,Integer> numbers = new IdentityHashMap<>();
+			number(doc.getInternalNode(), contexts, numbers);
+
+			for (boolean indexed : new boolean[]{false, true})
+			{
+				doc.setPathIndexEnabled(indexed);
+
+				for (int j = 0; j < PATHS; j++)
+				{
+					String path = path(rnd);
+					Node context = contexts.get(rnd.nextInt(contexts.size()));
+					XmlNode node = new XmlNode(context);
+					XmlPath compiled = new XmlPath(path);
+
+					String[][] results =
+					{
+						{"getNode", describe(() -> referenceNode(context, path), numbers), describe(() -> unwrap(node.getNode(path)), numbers), describe(() -> unwrap(node.getNode(compiled)), numbers)},
+						{"getList", describe(() -> referenceList(context, path), numbers), describe(() -> unwrap(node.getList(path)), numbers), describe(() -> unwrap(node.getList(compiled)), numbers)},
+						{"getText", describe(() -> referenceText(context, path), numbers), describe(() -> node.getText(path), numbers), describe(() -> node.getText(compiled), numbers)},
+						{"getTextArray", describe(() -> referenceTextArray(context, path), numbers), describe(() -> node.getTextArray(path), numbers), describe(() -> node.getTextArray(compiled), numbers)}
+					};
+
+					for (String[] result : results)
+					{
+						lookups += 2;
+
+						if ((!result[1].equals(result[2]) || !result[1].equals(result[3])) && ++failures <= 50)
+						{
+							System.out.println("Difference, " + result[0] + "(\"" + path + "\") from node " + numbers.get(context) + (indexed ? " with" : " without") + " index: " + xml);
+							System.out.println("  reference: " + result[1]);
+							System.out.println("  String:    " + result[2]);
+							System.out.println("  XmlPath:   " + result[3]);
+						}
+					}
+				}
+			}
+		}
+
+		System.out.println(lookups + " lookups, " + failures + " differences");
+
+		if (failures > 0)
+		{
+			System.exit(1);
+		}
+	}
+
+
+	private static String document(Random aRandom)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("<root xmlns:p='urn:p' xmlns:q='urn:q'>");
+		content(sb, aRandom, 0);
+		sb.append("</root>");
+		return sb.toString();
+	}
+
+
+	private static void content(StringBuilder aOutput, Random aRandom, int aDepth)
+	{
+		for (int i = aRandom.nextInt(aDepth < 3 ? 5 : 2); --i >= 0;)
+		{
+			switch (aRandom.nextInt(aDepth < 3 ? 6 : 3))
+			{
+				case 0:
+					aOutput.append("t").append(aRandom.nextInt(100));
+					break;
+				case 1:
+					aOutput.append(aRandom.nextBoolean() ? "<!--c-->" : "<![CDATA[d]]>");
+					break;
+				default:
+					String name = NAMES[aRandom.nextInt(NAMES.length)];
+					aOutput.append('<').append(name);
+					if (aRandom.nextInt(3) == 0)
+					{
+						aOutput.append(" x='").append(aRandom.nextInt(100)).append('\'');
+					}
+					if (aRandom.nextInt(4) == 0)
+					{
+						aOutput.append(" y='").append(aRandom.nextInt(100)).append('\'');
+					}
+					aOutput.append('>');
+					content(aOutput, aRandom, aDepth + 1);
+					aOutput.append("</").append(name).append('>');
+					break;
+			}
+		}
+	}
+
+
+	private static String path(Random aRandom)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		if (aRandom.nextInt(4) == 0)
+		{
+			sb.append(aRandom.nextBoolean() ? "/" : "/root/");
+		}
+
+		for (int i = 1 + aRandom.nextInt(3); --i >= 0;)
+		{
+			sb.append(STEPS[aRandom.nextInt(STEPS.length)]);
+			if (i > 0)
+			{
+				sb.append('/');
+			}
+		}
+
+		switch (aRandom.nextInt(8))
+		{
+			case 0:
+				sb.append("/@x");
+				break;
+			case 1:
+				sb.append("/@y");
+				break;
+			case 2:
+				sb.append('/');
+				break;
+			default:
+				break;
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Number all nodes of the tree in document order and collect the document and element nodes.
+	 */
+	private static void number(Node aNode, ArrayList<Node> aContexts, IdentityHashMap<Node,Integer> aNumbers)
+	{
+		aNumbers.put(aNode, aNumbers.size());
+
+		if (aNode.getNodeType() == Node.DOCUMENT_NODE || aNode.getNodeType() == Node.ELEMENT_NODE)
+		{
+			aContexts.add(aNode);
+		}
+
+		for (Node child = aNode.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			number(child, aContexts, aNumbers);
+		}
+	}
+
+
+	private static Node unwrap(XmlNode aNode)
+	{
+		return aNode == null ? null : aNode.getInternalNode();
+	}
+
+
+	private static ArrayList<Node> unwrap(XmlNodeList aList)
+	{
+		ArrayList<Node> nodes = new ArrayList<>();
+		for (XmlNode node : aList)
+		{
+			nodes.add(unwrap(node));
+		}
+		return nodes;
+	}
+
+
+	private static String describe(Lookup aLookup, IdentityHashMap<Node,Integer> aNumbers)
+	{
+		Object result;
+		try
+		{
+			result = aLookup.get();
+		}
+		catch (Exception e)
+		{
+			return "exception " + e.getClass().getSimpleName();
+		}
+
+		if (result instanceof ArrayList)
+		{
+			StringBuilder sb = new StringBuilder("[");
+			for (Object node : (ArrayList<?>)result)
+			{
+				sb.append(sb.length() > 1 ? ", " : "").append(describe((Node)node, aNumbers));
+			}
+			return sb.append(']').toString();
+		}
+		if (result instanceof String[])
+		{
+			return ((String[])result).length + " \"" + String.join("\", \"", (String[])result) + "\"";
+		}
+		if (result instanceof Node || result == null)
+		{
+			return describe((Node)result, aNumbers);
+		}
+		return "\"" + result + "\"";
+	}
+
+
+	private static String describe(Node aNode, IdentityHashMap<Node,Integer> aNumbers)
+	{
+		if (aNode == null)
+		{
+			return "null";
+		}
+		if (aNode instanceof Attr)
+		{
+			return aNumbers.get(((Attr)aNode).getOwnerElement()) + "/@" + aNode.getNodeName();
+		}
+		return String.valueOf(aNumbers.get(aNode));
+	}
+
+
+	private static Node referenceNode(Node aContext, String aPath)
+	{
+		if (aPath.startsWith("/"))
+		{
+			return referenceNode(owner(aContext), aPath.substring(1));
+		}
+
+		Node node = aContext;
+		String[] paths = aPath.split("/");
+		for (int j = 0; j < paths.length; j++)
+		{
+			String path = paths[j];
+			boolean last = paths.length - 1 == j;
+			boolean found = false;
+			NodeList list = node.getChildNodes();
+			for (int i = 0, sz = list.getLength(); i < sz; i++)
+			{
+				if (path.startsWith("@"))
+				{
+					if (!last)
+					{
+						throw new XmlException("Attributes must be the last path element: path: " + aPath + ", element: " + path);
+					}
+					return wrap(((Element)node).getAttributeNode(path.substring(1)));
+				}
+				Node child = list.item(i);
+				if (child.getNodeType() == Node.ELEMENT_NODE && name(child).equals(path))
+				{
+					if (last)
+					{
+						return child;
+					}
+					node = child;
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+			{
+				return null;
+			}
+		}
+		return null;
+	}
+
+
+	private static ArrayList<Node> referenceList(Node aContext, String aPath)
+	{
+		if (aPath.startsWith("/"))
+		{
+			return referenceList(owner(aContext), aPath.substring(1));
+		}
+
+		ArrayList<Node> list = new ArrayList<>();
+		referenceList(aContext, aPath, list);
+		return list;
+	}
+
+
+	private static void referenceList(Node aNode, String aPath, ArrayList<Node> aList)
+	{
+		int index = aPath.indexOf('/');
+		boolean last = index == -1;
+		String path = last ? aPath : aPath.substring(0, index);
+		String remaining = aPath.substring(index + 1);
+
+		if (path.startsWith("@"))
+		{
+			if (!last)
+			{
+				throw new XmlException("Attributes must be the last path element: path: " + aPath + ", element: " + path);
+			}
+			aList.add(wrap(((Element)aNode).getAttributeNode(path.substring(1))));
+			return;
+		}
+
+		NodeList list = aNode.getChildNodes();
+		for (int i = 0, sz = list.getLength(); i < sz; i++)
+		{
+			Node child = list.item(i);
+			if (name(child).equals(path))
+			{
+				if (last)
+				{
+					aList.add(child);
+				}
+				else
+				{
+					referenceList(child, remaining, aList);
+				}
+			}
+		}
+	}
+
+
+	private static String referenceText(Node aContext, String aPath)
+	{
+		Node node = referenceNode(aContext, aPath);
+		return node == null ? null : value(node);
+	}
+
+
+	private static String[] referenceTextArray(Node aContext, String aPath)
+	{
+		ArrayList<Node> list = referenceList(aContext, aPath);
+		String[] text = new String[list.size()];
+		for (int i = 0; i < text.length; i++)
+		{
+			text[i] = value(list.get(i));
+		}
+		return text;
+	}
+
+
+	/**
+	 * The reference wrapped every result in a XmlNode, which rejects missing attributes.
+	 */
+	private static Node wrap(Node aNode)
+	{
+		if (aNode == null)
+		{
+			throw new IllegalArgumentException("Provided node is null.");
+		}
+		return aNode;
+	}
+
+
+	private static Node owner(Node aNode)
+	{
+		return aNode.getNodeType() == Node.DOCUMENT_NODE ? aNode : aNode.getOwnerDocument();
+	}
+
+
+	private static String name(Node aNode)
+	{
+		String s = aNode.getLocalName();
+		if (s == null)
+		{
+			s = aNode.getNodeName();
+		}
+		return s;
+	}
+
+
+	private static String value(Node aNode)
+	{
+		Node c = aNode.getFirstChild();
+		if (c != null)
+		{
+			return c.getNodeValue();
+		}
+		return aNode.getTextContent();
+	}
+
+
+	private interface Lookup
+	{
+		Object get() throws Exception;
+	}
+}